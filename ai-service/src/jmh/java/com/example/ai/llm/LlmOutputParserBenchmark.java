@@ -0,0 +1,84 @@
+package com.example.ai.llm;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing cost of a typical quick-analyze reply (three suggested meals).
+ *
+ * clean: strict JSON, also read with Jackson as a baseline; fenced: the same reply in a markdown fence with prose,
+ * smart quotes, a comment and trailing commas; truncated: the reply cut off in the middle of the last meal.
+ *
+ * mvn -Pjmh -Dknowledge.index.skip=true compile exec:exec
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LlmOutputParserBenchmark {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private String clean;
+    private String fenced;
+    private String truncated;
+
+    @Setup
+    public void setUp() {
+        StringBuilder json = new StringBuilder("{\"healthScore\": 78, \"quickTip\": \"Buvez un verre d'eau\", \"suggestedMeals\": [");
+        for (int i = 0; i < 3; i++) {
+            if (i > 0) {
+                json.append(", ");
+            }
+            json.append("{\"name\": \"Repas ").append(i).append("\", \"calories\": 450, \"protein\": 30, \"carbs\": 40, ")
+                .append("\"fats\": 12, \"fiber\": 6, \"prepTime\": \"15 min\", \"diabeticFriendly\": true, ")
+                .append("\"reason\": \"Riche en fibres et en protéines\"}");
+        }
+        json.append("], \"recommendations\": [\"Marcher 20 minutes\", \"Limiter les sucres rapides\"]}");
+        clean = json.toString();
+
+        fenced = "Voici l'analyse demandée :\n```json\n"
+                + clean.replace("\"quickTip\": \"Buvez un verre d'eau\"", "“quickTip”: “Buvez un verre d'eau”")
+                       .replace("\"healthScore\": 78,", "\"healthScore\": 78, // score global\n")
+                       .replace("}]", "},]")
+                       .replace("]}", "],}")
+                + "\n```\nN'hésitez pas si vous avez des questions.";
+
+        truncated = clean.substring(0, clean.lastIndexOf("\"prepTime\""));
+    }
+
+    @Benchmark
+    public Map<String, Object> parseClean() {
+        return LlmOutputParser.parseObject(clean);
+    }
+
+    @Benchmark
+    public Map<String, Object> parseFenced() {
+        return LlmOutputParser.parseObject(fenced);
+    }
+
+    @Benchmark
+    public Map<String, Object> parseTruncated() {
+        return LlmOutputParser.parseObject(truncated);
+    }
+
+    @Benchmark
+    public Map<String, Object> jacksonClean() throws Exception {
+        return objectMapper.readValue(clean, new TypeReference<Map<String, Object>>() {});
+    }
+}
@@ -1,61 +1,403 @@
 package com.example.ai.config;
 
-import dev.langchain4j.data.message.AiMessage;
-import dev.langchain4j.data.message.ChatMessage;
+import com.example.ai.llm.CachingChatLanguageModel;
+import com.example.ai.llm.CircuitBreakerChatLanguageModel;
+import com.example.ai.llm.FallbackChatModel;
+import com.example.ai.llm.JsonModeChatLanguageModel;
+import com.example.ai.llm.LlmCircuitBreaker;
+import com.example.ai.llm.LlmPriority;
+import com.example.ai.llm.LlmProfile;
+import com.example.ai.llm.LlmScheduler;
+import com.example.ai.llm.LlmTask;
+import com.example.ai.llm.OllamaEndpointPool;
+import com.example.ai.llm.OllamaWarmup;
+import com.example.ai.llm.PooledChatLanguageModel;
+import com.example.ai.llm.PooledStreamingChatLanguageModel;
+import com.example.ai.llm.RoutingChatLanguageModel;
+import com.example.ai.llm.RoutingStreamingChatLanguageModel;
+import com.example.ai.llm.SchedulingChatLanguageModel;
+import com.example.ai.llm.SingleFlightChatLanguageModel;
 import dev.langchain4j.model.chat.ChatLanguageModel;
+import dev.langchain4j.model.chat.StreamingChatLanguageModel;
 import dev.langchain4j.model.ollama.OllamaChatModel;
-import dev.langchain4j.model.output.Response;
+import dev.langchain4j.model.ollama.OllamaStreamingChatModel;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
+import org.springframework.util.unit.DataSize;
 
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
 import java.time.Duration;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
 
 @Configuration
 public class AiConfig {
 
+    private static final Logger log = LoggerFactory.getLogger(AiConfig.class);
+
+    private final Environment environment;
+
+    // Built once for the blocking, streaming and warm-up beans
+    private Map<LlmTask, LlmProfile> llmProfiles;
+
     @Value("${langchain4j.ollama.chat-model.base-url:http://localhost:11434}")
     private String ollamaBaseUrl;
 
+    @Value("${ai.llm.endpoints.urls:}")
+    private String endpointUrls;
+
+    @Value("${ai.llm.endpoints.acquire-timeout:PT15S}")
+    private Duration endpointAcquireTimeout;
+
+    @Value("${ai.llm.endpoints.max-failures:3}")
+    private int endpointMaxFailures;
+
+    @Value("${ai.llm.endpoints.ejection-duration:PT30S}")
+    private Duration endpointEjectionDuration;
+
+    @Value("${ai.llm.endpoints.health-interval:PT5S}")
+    private Duration endpointHealthInterval;
+
     @Value("${langchain4j.ollama.chat-model.model-name:phi3}")
     private String modelName;
 
     @Value("${langchain4j.ollama.chat-model.temperature:0.7}")
     private Double temperature;
 
+    @Value("${langchain4j.ollama.chat-model.timeout:PT60S}")
+    private Duration timeout;
+
+    @Value("${ai.llm.scheduler.max-concurrent:2}")
+    private int schedulerMaxConcurrent;
+
+    @Value("${ai.llm.scheduler.queue-capacity:32}")
+    private int schedulerQueueCapacity;
+
+    @Value("${ai.llm.scheduler.interactive-max-wait:PT15S}")
+    private Duration interactiveMaxWait;
+
+    @Value("${ai.llm.scheduler.background-max-wait:PT45S}")
+    private Duration backgroundMaxWait;
+
+    @Value("${ai.llm.circuit-breaker.window-size:20}")
+    private int circuitWindowSize;
+
+    @Value("${ai.llm.circuit-breaker.minimum-calls:5}")
+    private int circuitMinimumCalls;
+
+    @Value("${ai.llm.circuit-breaker.failure-rate-threshold:0.5}")
+    private double circuitFailureRateThreshold;
+
+    @Value("${ai.llm.circuit-breaker.slow-call-threshold:PT30S}")
+    private Duration circuitSlowCallThreshold;
+
+    @Value("${ai.llm.circuit-breaker.open-duration:PT30S}")
+    private Duration circuitOpenDuration;
+
+    @Value("${ai.llm.circuit-breaker.half-open-calls:2}")
+    private int circuitHalfOpenCalls;
+
+    @Value("${ai.llm.circuit-breaker.probe-interval:PT5S}")
+    private Duration circuitProbeInterval;
+
+    @Value("${ai.llm.keep-alive:PT30M}")
+    private Duration keepAlive;
+
+    @Value("${ai.llm.warmup.interval:PT4M}")
+    private Duration warmupInterval;
+
+    @Value("${ai.llm.json-mode.enabled:true}")
+    private boolean jsonModeEnabled;
+
+    @Value("${ai.llm.single-flight.enabled:true}")
+    private boolean singleFlightEnabled;
+
+    @Value("${ai.llm.cache.enabled:true}")
+    private boolean responseCacheEnabled;
+
+    @Value("${ai.llm.cache.ttl:PT1H}")
+    private Duration responseCacheTtl;
+
+    @Value("${ai.llm.cache.max-size:16MB}")
+    private DataSize responseCacheMaxSize;
+
+    public AiConfig(Environment environment) {
+        this.environment = environment;
+    }
+
+    /**
+     * Ollama endpoints shared by the blocking and streaming models, least outstanding requests first,
+     * each limited to the scheduler's per-endpoint max-concurrent
+     */
     @Bean
-    public ChatLanguageModel chatLanguageModel() {
+    public OllamaEndpointPool ollamaEndpointPool(MeterRegistry meterRegistry) {
+        return new OllamaEndpointPool(endpointUrls(), schedulerMaxConcurrent, endpointAcquireTimeout,
+                endpointMaxFailures, endpointEjectionDuration, endpointHealthInterval, meterRegistry);
+    }
+
+    /**
+     * Admission control shared by the blocking and streaming models; max-concurrent is per Ollama endpoint
+     */
+    @Bean
+    public LlmScheduler llmScheduler(MeterRegistry meterRegistry) {
+        int maxConcurrent = schedulerMaxConcurrent * endpointUrls().size();
+        LlmScheduler scheduler = new LlmScheduler(maxConcurrent, schedulerQueueCapacity, Map.of(
+                LlmPriority.INTERACTIVE, interactiveMaxWait,
+                LlmPriority.BACKGROUND, backgroundMaxWait));
+        Gauge.builder("llm.scheduler.running", scheduler, LlmScheduler::getRunningCount)
+                .description("LLM calls currently sent to the model")
+                .register(meterRegistry);
+        Gauge.builder("llm.scheduler.queued", scheduler, LlmScheduler::getQueuedCount)
+                .description("LLM calls waiting for a slot")
+                .register(meterRegistry);
+        FunctionCounter.builder("llm.scheduler.admitted", scheduler, LlmScheduler::getAdmittedCount)
+                .description("LLM calls admitted to the model")
+                .register(meterRegistry);
+        for (LlmScheduler.ShedReason reason : LlmScheduler.ShedReason.values()) {
+            FunctionCounter.builder("llm.scheduler.shed", scheduler, s -> s.getShedCount(reason))
+                    .tag("reason", reason.name().toLowerCase(Locale.ROOT))
+                    .description("LLM calls shed to the local fallback")
+                    .register(meterRegistry);
+        }
+        log.info("LLM scheduler: {} concurrent calls, {} queued, max wait {} interactive / {} background",
+                maxConcurrent, schedulerQueueCapacity, interactiveMaxWait, backgroundMaxWait);
+        return scheduler;
+    }
+
+    /**
+     * Error rate / latency breaker of the Ollama endpoints, shared by the blocking and streaming models.
+     * While open, the pool's health checks tell when some endpoint answers again.
+     */
+    @Bean
+    public LlmCircuitBreaker llmCircuitBreaker(MeterRegistry meterRegistry, OllamaEndpointPool ollamaEndpointPool) {
+        // The threshold is set for chat answers; other tasks get it scaled by their profile timeout,
+        // so a 1536-token report is not counted as a slow call of a healthy endpoint
+        Map<LlmTask, LlmProfile> profiles = llmProfiles();
+        double chatTimeoutMillis = profiles.get(LlmTask.CHAT).timeout().toMillis();
+        Map<LlmTask, Duration> slowCallThresholds = new EnumMap<>(LlmTask.class);
+        profiles.forEach((task, profile) -> slowCallThresholds.put(task, Duration.ofMillis(Math.round(
+                circuitSlowCallThreshold.toMillis() * (profile.timeout().toMillis() / chatTimeoutMillis)))));
+        LlmCircuitBreaker circuitBreaker = new LlmCircuitBreaker(circuitWindowSize, circuitMinimumCalls,
+                circuitFailureRateThreshold, slowCallThresholds, circuitOpenDuration, circuitHalfOpenCalls,
+                ollamaEndpointPool::hasHealthyEndpoint, circuitProbeInterval);
+        Gauge.builder("llm.circuit.state", circuitBreaker, LlmCircuitBreaker::getStateLevel)
+                .description("LLM circuit state: 0 closed, 1 half-open, 2 open")
+                .register(meterRegistry);
+        FunctionCounter.builder("llm.circuit.fallback", circuitBreaker, LlmCircuitBreaker::getRejectedCount)
+                .description("LLM calls answered locally while the circuit was not closed")
+                .register(meterRegistry);
+        return circuitBreaker;
+    }
+
+    /**
+     * Model kept loaded and shared system prompt kept evaluated between bursts of traffic
+     */
+    @Bean
+    @ConditionalOnProperty(name = "ai.llm.warmup.enabled", havingValue = "true", matchIfMissing = true)
+    public OllamaWarmup ollamaWarmup(LlmScheduler llmScheduler, LlmCircuitBreaker llmCircuitBreaker,
+                                     MeterRegistry meterRegistry) {
+        Set<String> modelNames = llmProfiles().values().stream()
+                .map(LlmProfile::modelName)
+                .collect(Collectors.toCollection(LinkedHashSet::new));
+        return new OllamaWarmup(endpointUrls(), modelNames, keepAlive, warmupInterval,
+                llmScheduler, llmCircuitBreaker, meterRegistry);
+    }
+
+    @Bean
+    public ChatLanguageModel chatLanguageModel(MeterRegistry meterRegistry, LlmScheduler llmScheduler,
+                                               LlmCircuitBreaker llmCircuitBreaker, OllamaEndpointPool ollamaEndpointPool) {
+        ChatLanguageModel model;
+        Map<LlmTask, LlmProfile> profiles = llmProfiles();
         try {
-            return OllamaChatModel.builder()
-                    .baseUrl(ollamaBaseUrl)
-                    .modelName(modelName)
-                    .temperature(temperature)
-                    .timeout(Duration.ofSeconds(60))
-                    .build();
+            // Each call goes to an endpoint of the pool, then to the model of its task's profile (LlmCallContext.task)
+            Map<OllamaEndpointPool.Endpoint, ChatLanguageModel> endpointModels = new HashMap<>();
+            for (OllamaEndpointPool.Endpoint endpoint : ollamaEndpointPool.getEndpoints()) {
+                Map<LlmTask, ChatLanguageModel> models = new EnumMap<>(LlmTask.class);
+                for (Map.Entry<LlmTask, LlmProfile> profile : profiles.entrySet()) {
+                    ChatLanguageModel profileModel = ollamaChatModel(endpoint.getBaseUrl(), profile.getValue(), null);
+                    if (jsonModeEnabled) {
+                        // Calls made under LlmCallContext.jsonOutput get Ollama's constrained JSON output
+                        profileModel = new JsonModeChatLanguageModel(profileModel,
+                                ollamaChatModel(endpoint.getBaseUrl(), profile.getValue(), "json"));
+                    }
+                    models.put(profile.getKey(), profileModel);
+                }
+                endpointModels.put(endpoint, new RoutingChatLanguageModel(models));
+            }
+            model = new PooledChatLanguageModel(ollamaEndpointPool, endpointModels);
         } catch (Exception e) {
             // Return a fallback implementation if Ollama is not available
             return new FallbackChatModel();
         }
+
+        String modelParameters = profiles.values().stream()
+                .map(LlmProfile::describe)
+                .collect(Collectors.joining(";"));
+
+        // Fail fast to the call sites' local answers while Ollama is failing or too slow, instead of waiting out
+        // the timeout. Inside the scheduler, so the latency it judges the endpoint on excludes the wait for a slot
+        model = new CircuitBreakerChatLanguageModel(model, llmCircuitBreaker);
+
+        // Bounded concurrency towards Ollama, fair queuing per user, fast shedding when overloaded
+        model = new SchedulingChatLanguageModel(model, llmScheduler);
+
+        if (singleFlightEnabled) {
+            // Concurrent identical prompts (parallel dashboard calls, retries, double clicks) share one call
+            SingleFlightChatLanguageModel singleFlightModel = new SingleFlightChatLanguageModel(model, modelParameters);
+            FunctionCounter.builder("llm.singleflight.calls", singleFlightModel, SingleFlightChatLanguageModel::getLeaderCount)
+                    .tag("role", "leader")
+                    .description("LLM calls sent to the model")
+                    .register(meterRegistry);
+            FunctionCounter.builder("llm.singleflight.calls", singleFlightModel, SingleFlightChatLanguageModel::getCoalescedCount)
+                    .tag("role", "coalesced")
+                    .description("LLM calls that joined an identical in-flight call")
+                    .register(meterRegistry);
+            Gauge.builder("llm.singleflight.in.flight", singleFlightModel, SingleFlightChatLanguageModel::getInFlightCount)
+                    .description("Distinct LLM calls currently in flight")
+                    .register(meterRegistry);
+            model = singleFlightModel;
+        }
+
+        if (!responseCacheEnabled) {
+            return model;
+        }
+        // Identical prompts with identical model settings are answered from memory
+        CachingChatLanguageModel cachingModel = new CachingChatLanguageModel(model,
+                modelParameters, responseCacheTtl, responseCacheMaxSize.toBytes());
+        CaffeineCacheMetrics.monitor(meterRegistry, cachingModel.getCache(), "llm.responses");
+        log.info("LLM response cache enabled (ttl {}, max {})", responseCacheTtl, responseCacheMaxSize);
+        return cachingModel;
+    }
+
+    /**
+     * Token-by-token generation for the SSE chat endpoints, pooled and routed by task like the blocking model
+     */
+    @Bean
+    public StreamingChatLanguageModel streamingChatLanguageModel(OllamaEndpointPool ollamaEndpointPool) {
+        Map<OllamaEndpointPool.Endpoint, StreamingChatLanguageModel> endpointModels = new HashMap<>();
+        for (OllamaEndpointPool.Endpoint endpoint : ollamaEndpointPool.getEndpoints()) {
+            Map<LlmTask, StreamingChatLanguageModel> models = new EnumMap<>(LlmTask.class);
+            llmProfiles().forEach((task, profile) -> models.put(task, OllamaStreamingChatModel.builder()
+                    .baseUrl(endpoint.getBaseUrl())
+                    .modelName(profile.modelName())
+                    .temperature(profile.temperature())
+                    .numPredict(profile.numPredict())
+                    .timeout(profile.timeout())
+                    .build()));
+            endpointModels.put(endpoint, new RoutingStreamingChatLanguageModel(models));
+        }
+        return new PooledStreamingChatLanguageModel(ollamaEndpointPool, endpointModels);
     }
 
-    // Fallback implementation when Ollama/Phi3 is not available
-    private static class FallbackChatModel implements ChatLanguageModel {
+    /**
+     * ai.llm.endpoints.urls (comma-separated), or the single langchain4j base URL when it is not set
+     */
+    private List<String> endpointUrls() {
+        List<String> urls = Arrays.stream(endpointUrls.split(","))
+                .map(String::trim)
+                .filter(url -> !url.isEmpty())
+                .distinct()
+                .toList();
+        return urls.isEmpty() ? List.of(ollamaBaseUrl) : urls;
+    }
 
-        private final String fallbackMessage = "Hello! I'm Phi3, your nutrition assistant. I'm currently running in fallback mode. " +
-                "Please ensure Ollama is installed and running with the phi3 model. " +
-                "You can install it by running: 'ollama pull phi3' and 'ollama serve'. " +
-                "In the meantime, I can still provide basic nutrition guidance!";
+    private ChatLanguageModel ollamaChatModel(String baseUrl, LlmProfile profile, String format) {
+        return OllamaChatModel.builder()
+                .baseUrl(baseUrl)
+                .modelName(profile.modelName())
+                .temperature(profile.temperature())
+                .numPredict(profile.numPredict())
+                .timeout(profile.timeout())
+                .format(format)
+                .build();
+    }
 
-        @Override
-        public String generate(String userMessage) {
-            return fallbackMessage;
+    /**
+     * Model profile of each task from ai.llm.profiles.<task>.model-name / temperature / num-predict / timeout,
+     * each setting defaulting to the main chat model's. A profile whose model is not pulled in Ollama uses the
+     * main model instead, so that a missing small model does not fail every extraction. With several endpoints,
+     * the model must be pulled on each endpoint that answers.
+     */
+    private synchronized Map<LlmTask, LlmProfile> llmProfiles() {
+        if (llmProfiles != null) {
+            return llmProfiles;
+        }
+        Set<String> pulledModels = pulledModels();
+        Map<LlmTask, LlmProfile> profiles = new EnumMap<>(LlmTask.class);
+        for (LlmTask task : LlmTask.values()) {
+            String prefix = "ai.llm.profiles." + task.profileName() + ".";
+            String profileModel = environment.getProperty(prefix + "model-name", modelName);
+            if (!pulledModels.isEmpty() && !pulledModels.contains(withTag(profileModel))) {
+                log.warn("Model {} of the {} profile is not pulled in Ollama (ollama pull {}), using {}",
+                        profileModel, task.profileName(), profileModel, modelName);
+                profileModel = modelName;
+            }
+            LlmProfile profile = new LlmProfile(task.profileName(), profileModel,
+                    environment.getProperty(prefix + "temperature", Double.class, temperature),
+                    environment.getProperty(prefix + "num-predict", Integer.class),
+                    environment.getProperty(prefix + "timeout", Duration.class, timeout));
+            profiles.put(task, profile);
+            log.info("LLM profile {}: {}, timeout {}", task.profileName(), profile.describe(), profile.timeout());
         }
+        llmProfiles = profiles;
+        return profiles;
+    }
 
-        @Override
-        public Response<AiMessage> generate(List<ChatMessage> messages) {
-            AiMessage aiMessage = AiMessage.from(fallbackMessage);
-            return Response.from(aiMessage);
+    /**
+     * Models available on every Ollama endpoint that answers GET /api/tags, empty if none answers
+     */
+    private Set<String> pulledModels() {
+        Set<String> common = null;
+        HttpClient httpClient = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(2)).build();
+        for (String url : endpointUrls()) {
+            try {
+                HttpRequest request = HttpRequest.newBuilder(URI.create(url.replaceAll("/+$", "") + "/api/tags"))
+                        .timeout(Duration.ofSeconds(2))
+                        .GET()
+                        .build();
+                HttpResponse<String> response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
+                if (response.statusCode() != 200) {
+                    continue;
+                }
+                Set<String> models = new HashSet<>();
+                for (JsonNode model : new ObjectMapper().readTree(response.body()).path("models")) {
+                    models.add(withTag(model.path("name").asText()));
+                }
+                if (common == null) {
+                    common = models;
+                } else {
+                    common.retainAll(models);
+                }
+            } catch (Exception e) {
+                log.debug("Could not list the models of {}: {}", url, e.getMessage());
+            }
         }
+        return common != null ? common : new HashSet<>();
+    }
+
+    private static String withTag(String model) {
+        return model.contains(":") ? model : model + ":latest";
     }
 }
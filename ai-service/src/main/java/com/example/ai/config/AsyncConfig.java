@@ -0,0 +1,72 @@
+package com.example.ai.config;
+
+import com.example.ai.llm.LlmCallContext;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Executor for agent work, injected with {@code @Qualifier(AsyncConfig.AGENT_EXECUTOR)}, so blocking model and
+ * embedding calls never run on the common ForkJoinPool.
+ *
+ * Bounded platform pool: model concurrency is already limited by the LLM scheduler, the pool only has to cover the
+ * calls waiting for it. When the queue is full the task is rejected ({@code TaskRejectedException}) rather than run
+ * on the caller's thread, which would hold a request thread for a whole model call; callers report it as failed.
+ * Pool and queue gauges are published by Spring Boot as executor.*{name=agentExecutor}; the task decorator adds
+ * wait and run timers and carries the caller's {@link LlmCallContext} over to the worker thread.
+ */
+@Configuration
+public class AsyncConfig {
+
+    public static final String AGENT_EXECUTOR = "agentExecutor";
+
+    @Value("${ai.agent.executor.core-size:4}")
+    private int coreSize;
+
+    @Value("${ai.agent.executor.max-size:16}")
+    private int maxSize;
+
+    @Value("${ai.agent.executor.queue-capacity:100}")
+    private int queueCapacity;
+
+    @Bean(name = AGENT_EXECUTOR)
+    public ThreadPoolTaskExecutor agentExecutor(MeterRegistry meterRegistry) {
+        Timer waitTimer = Timer.builder("agent.task.wait")
+                .description("Time agent tasks spend queued before running")
+                .register(meterRegistry);
+        Timer runTimer = Timer.builder("agent.task.duration")
+                .description("Agent task execution time")
+                .register(meterRegistry);
+
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setThreadNamePrefix("agent-");
+        executor.setCorePoolSize(coreSize);
+        executor.setMaxPoolSize(maxSize);
+        executor.setQueueCapacity(queueCapacity);
+        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.AbortPolicy());
+        executor.setTaskDecorator(task -> {
+            LlmCallContext context = LlmCallContext.current();
+            long submitted = System.nanoTime();
+            return () -> {
+                long started = System.nanoTime();
+                waitTimer.record(started - submitted, TimeUnit.NANOSECONDS);
+                LlmCallContext.Scope scope = context.activate();
+                try {
+                    task.run();
+                } finally {
+                    scope.close();
+                    runTimer.record(System.nanoTime() - started, TimeUnit.NANOSECONDS);
+                }
+            };
+        });
+        executor.setWaitForTasksToCompleteOnShutdown(true);
+        executor.setAwaitTerminationSeconds(30);
+        return executor;
+    }
+}
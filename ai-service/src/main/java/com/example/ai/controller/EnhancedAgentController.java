@@ -1,15 +1,21 @@
 package com.example.ai.controller;
 
+import com.example.ai.service.AnalysisEnrichmentService;
 import com.example.ai.service.EnhancedNutritionAgentService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.core.type.TypeReference;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.CompletableFuture;
 
@@ -21,11 +27,17 @@ public class EnhancedAgentController {
     private static final Logger log = LoggerFactory.getLogger(EnhancedAgentController.class);
 
     private final EnhancedNutritionAgentService agentService;
+    private final AnalysisEnrichmentService enrichmentService;
+    private final int maxBatchMeals;
 
     public EnhancedAgentController(
-            EnhancedNutritionAgentService agentService
+            EnhancedNutritionAgentService agentService,
+            AnalysisEnrichmentService enrichmentService,
+            @Value("${ai.meal.batch.max-descriptions:32}") int maxBatchMeals
     ) {
         this.agentService = agentService;
+        this.enrichmentService = enrichmentService;
+        this.maxBatchMeals = maxBatchMeals;
     }
 
     /**
@@ -75,6 +87,31 @@ public class EnhancedAgentController {
                 .thenApply(ResponseEntity::ok);
     }
 
+    /**
+     * AI enrichment of a quick analysis (poll until status is COMPLETED or FAILED, then merge "fields")
+     */
+    @GetMapping("/quick-analyze/enrichment/{jobId}")
+    public ResponseEntity<Map<String, Object>> getQuickAnalyzeEnrichment(@PathVariable String jobId) {
+        AnalysisEnrichmentService.EnrichmentJob job = enrichmentService.getJob(jobId);
+        if (job == null) {
+            return ResponseEntity.ok(Map.of(
+                "success", false,
+                "error", "Unknown or expired enrichment job: " + jobId
+            ));
+        }
+        Map<String, Object> response = new HashMap<>(job.toMap());
+        response.put("success", true);
+        return ResponseEntity.ok(response);
+    }
+
+    /**
+     * Same as above pushed as Server-Sent Events: a single "done" event once the enrichment is finished
+     */
+    @GetMapping(value = "/quick-analyze/enrichment/{jobId}/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter streamQuickAnalyzeEnrichment(@PathVariable String jobId) {
+        return enrichmentService.stream(jobId);
+    }
+
     /**
      * Intelligent meal logging with automatic nutrition estimation
      */
@@ -94,6 +131,47 @@ public class EnhancedAgentController {
         return ResponseEntity.ok(result);
     }
 
+    /**
+     * Batch meal logging: several descriptions analysed with at most one model call
+     */
+    @PostMapping("/smart-meal-log/batch")
+    public ResponseEntity<Map<String, Object>> smartMealLogBatch(
+            @RequestBody Map<String, Object> request) {
+
+        Object descriptionsObj = request.get("descriptions");
+        if (!(descriptionsObj instanceof List) || ((List<?>) descriptionsObj).isEmpty()) {
+            return ResponseEntity.badRequest().body(Map.of(
+                    "success", false,
+                    "error", "descriptions must be a non-empty list"));
+        }
+        if (((List<?>) descriptionsObj).size() > maxBatchMeals) {
+            // Chunks are refined one after another on the request thread
+            return ResponseEntity.badRequest().body(Map.of(
+                    "success", false,
+                    "error", "descriptions must hold at most " + maxBatchMeals + " meals"));
+        }
+        List<String> descriptions = new ArrayList<>();
+        for (Object description : (List<?>) descriptionsObj) {
+            descriptions.add(description == null ? "" : description.toString());
+        }
+        boolean isDiabetic = (boolean) request.getOrDefault("isDiabetic", false);
+        Object userProfileObj = request.get("userProfile");
+        Map<String, Object> userProfile = null;
+        if (userProfileObj instanceof Map<?, ?> profile) {
+            userProfile = new HashMap<>();
+            for (Map.Entry<?, ?> entry : profile.entrySet()) {
+                userProfile.put(String.valueOf(entry.getKey()), entry.getValue());
+            }
+        } else if (userProfileObj != null) {
+            return ResponseEntity.badRequest().body(Map.of(
+                    "success", false,
+                    "error", "userProfile must be an object"));
+        }
+
+        Map<String, Object> result = agentService.intelligentMealLogBatch(descriptions, isDiabetic, userProfile);
+        return ResponseEntity.ok(result);
+    }
+
     /**
      * Real-time diabetic monitoring
      */
@@ -147,6 +225,15 @@ public class EnhancedAgentController {
         return ResponseEntity.ok(result);
     }
 
+    /**
+     * Food recognition as Server-Sent Events: "token" events, then "done" with the nutrition data
+     */
+    @PostMapping(value = "/recognize-food/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter recognizeFoodStream(@RequestBody Map<String, Object> request) {
+        String imageDescription = (String) request.getOrDefault("description", "");
+        return agentService.recognizeFoodStream(imageDescription);
+    }
+
     /**
      * Health check endpoint
      */
@@ -1,15 +1,25 @@
 package com.example.ai.controller;
 
+import com.example.ai.service.KnowledgeIngestionJobService;
 import com.example.ai.service.NutritionGoalAgentService;
 import com.example.ai.service.NutritionKnowledgeService;
 import com.example.ai.service.RagChatService;
+import com.example.ai.service.SemanticResponseCache;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
+import java.io.InputStream;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 
 /**
@@ -25,16 +35,22 @@ public class RagChatController {
     private final RagChatService ragChatService;
     private final NutritionGoalAgentService goalAgentService;
     private final NutritionKnowledgeService knowledgeService;
+    private final KnowledgeIngestionJobService ingestionJobService;
+    private final SemanticResponseCache responseCache;
 
 
     public RagChatController(
             RagChatService ragChatService,
             NutritionGoalAgentService goalAgentService,
-            NutritionKnowledgeService knowledgeService
+            NutritionKnowledgeService knowledgeService,
+            KnowledgeIngestionJobService ingestionJobService,
+            SemanticResponseCache responseCache
     ) {
         this.ragChatService = ragChatService;
         this.goalAgentService = goalAgentService;
         this.knowledgeService = knowledgeService;
+        this.ingestionJobService = ingestionJobService;
+        this.responseCache = responseCache;
     }
     /**
      * Chat avec RAG activÃ©
@@ -56,7 +72,9 @@ public class RagChatController {
                 "response", response.get("response"),
                 "intent", response.get("intent"),
                 "requiresUserChoice", response.get("requiresUserChoice"),
-                "suggestedActions", response.get("suggestedActions")
+                "suggestedActions", response.get("suggestedActions"),
+                // FALLBACK tant que la base complète n'est pas encore indexée
+                "knowledgeLevel", knowledgeService.getLoadState().name()
             );
 
         } catch (Exception e) {
@@ -96,6 +114,19 @@ public class RagChatController {
         }
     }
 
+    /**
+     * Chat avec RAG en flux SSE : événements "token" pendant la génération, puis "done" (intention, actions)
+     */
+    @PostMapping(value = "/chat/rag/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter chatWithRagStream(@RequestBody Map<String, Object> request) {
+        String message = (String) request.get("message");
+        String context = request.containsKey("context") ?
+                       request.get("context").toString() : null;
+
+        log.info("Streamed RAG chat request received: {}", message);
+        return ragChatService.chatWithRagStream(message, context);
+    }
+
     /**
      * Met Ã  jour les objectifs avec confirmation utilisateur
      */
@@ -200,30 +231,124 @@ public class RagChatController {
         }
     }
 
+    /**
+     * Ingestion en flux d'un gros corpus (NDJSON ou texte brut) ; renvoie un identifiant de travail
+     */
+    @PostMapping(value = "/knowledge/ingest/stream",
+            consumes = {"application/x-ndjson", MediaType.TEXT_PLAIN_VALUE})
+    public ResponseEntity<Map<String, Object>> ingestKnowledgeStream(
+            InputStream body,
+            @RequestHeader(value = "Content-Type", defaultValue = MediaType.TEXT_PLAIN_VALUE) String contentType,
+            @RequestParam(defaultValue = "general") String category
+    ) {
+        KnowledgeIngestionJobService.Format format = contentType.contains("ndjson")
+                ? KnowledgeIngestionJobService.Format.NDJSON
+                : KnowledgeIngestionJobService.Format.TEXT;
+        return submitIngestion(body, format, category);
+    }
+
+    /**
+     * Ingestion en flux d'un fichier envoyé en multipart (.ndjson/.jsonl ou texte)
+     */
+    @PostMapping(value = "/knowledge/ingest/stream", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
+    public ResponseEntity<Map<String, Object>> ingestKnowledgeFile(
+            @RequestParam("file") MultipartFile file,
+            @RequestParam(defaultValue = "general") String category
+    ) {
+        String filename = file.getOriginalFilename() != null ? file.getOriginalFilename().toLowerCase() : "";
+        KnowledgeIngestionJobService.Format format = filename.endsWith(".ndjson") || filename.endsWith(".jsonl")
+                ? KnowledgeIngestionJobService.Format.NDJSON
+                : KnowledgeIngestionJobService.Format.TEXT;
+        try (InputStream body = file.getInputStream()) {
+            return submitIngestion(body, format, category);
+        } catch (Exception e) {
+            log.error("Error reading uploaded knowledge file", e);
+            return ResponseEntity.ok(Map.of(
+                "success", false,
+                "error", e.getMessage()
+            ));
+        }
+    }
+
+    /**
+     * Avancement d'un travail d'ingestion
+     */
+    @GetMapping("/knowledge/ingest/jobs/{jobId}")
+    public Map<String, Object> getIngestionJob(@PathVariable String jobId) {
+        KnowledgeIngestionJobService.IngestJob job = ingestionJobService.getJob(jobId);
+        if (job == null) {
+            return Map.of(
+                "success", false,
+                "error", "Unknown ingestion job: " + jobId
+            );
+        }
+        Map<String, Object> response = new HashMap<>(job.toMap());
+        response.put("success", true);
+        return response;
+    }
+
+    private ResponseEntity<Map<String, Object>> submitIngestion(InputStream body,
+                                                                KnowledgeIngestionJobService.Format format,
+                                                                String category) {
+        try {
+            KnowledgeIngestionJobService.IngestJob job = ingestionJobService.submit(body, format, category);
+            Map<String, Object> response = new HashMap<>(job.toMap());
+            response.put("success", true);
+            response.put("message", "Ingestion job accepted");
+            return ResponseEntity.ok(response);
+        } catch (KnowledgeIngestionJobService.TooLargeException e) {
+            return ResponseEntity.status(HttpStatus.PAYLOAD_TOO_LARGE).body(Map.of(
+                "success", false,
+                "error", e.getMessage()
+            ));
+        } catch (Exception e) {
+            log.error("Error submitting knowledge ingestion", e);
+            return ResponseEntity.ok(Map.of(
+                "success", false,
+                "error", e.getMessage()
+            ));
+        }
+    }
+
     /**
      * Recherche dans la base de connaissances
      */
     @PostMapping("/knowledge/search")
-    public Map<String, Object> searchKnowledge(@RequestBody Map<String, Object> request) {
+    public ResponseEntity<Map<String, Object>> searchKnowledge(@RequestBody Map<String, Object> request) {
         try {
             String query = (String) request.get("query");
             int maxResults = (int) request.getOrDefault("maxResults", 5);
-
-            List<String> results = knowledgeService.searchKnowledge(query, maxResults);
-
-            return Map.of(
+            String mode = (String) request.get("mode");
+
+            // mode optionnel : "hybrid", "vector" ou "lexical" (par défaut celui de la configuration)
+            NutritionKnowledgeService.SearchMode searchMode = null;
+            if (mode != null) {
+                try {
+                    searchMode = NutritionKnowledgeService.SearchMode.valueOf(mode.trim().toUpperCase(Locale.ROOT));
+                } catch (IllegalArgumentException e) {
+                    return ResponseEntity.badRequest().body(Map.of(
+                        "success", false,
+                        "error", "mode must be one of hybrid, vector, lexical"
+                    ));
+                }
+            }
+            List<String> results = searchMode == null
+                    ? knowledgeService.searchKnowledge(query, maxResults)
+                    : knowledgeService.searchKnowledge(query, maxResults, searchMode);
+
+            return ResponseEntity.ok(Map.of(
                 "success", true,
                 "query", query,
                 "results", results,
                 "count", results.size()
-            );
+            ));
 
         } catch (Exception e) {
             log.error("Error searching knowledge", e);
-            return Map.of(
+            return ResponseEntity.ok(Map.of(
                 "success", false,
                 "error", e.getMessage()
-            );
+            ));
         }
     }
 
@@ -233,7 +358,9 @@ public class RagChatController {
     @GetMapping("/knowledge/stats")
     public Map<String, Object> getKnowledgeStats() {
         try {
-            return knowledgeService.getStatistics();
+            Map<String, Object> stats = new HashMap<>(knowledgeService.getStatistics());
+            stats.put("responseCache", responseCache.getStatistics());
+            return stats;
         } catch (Exception e) {
             log.error("Error retrieving knowledge stats", e);
             return Map.of(
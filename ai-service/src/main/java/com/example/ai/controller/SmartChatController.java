@@ -1,7 +1,9 @@
 package com.example.ai.controller;
 
 import com.example.ai.service.SmartChatService;
+import org.springframework.http.MediaType;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
 import java.util.Map;
@@ -26,17 +28,16 @@ public class SmartChatController {
     @PostMapping("/chat")
     public Map<String, Object> chat(@RequestBody Map<String, Object> request) {
         String message = (String) request.get("message");
-        Object contextObj = request.get("context");
-        String context = null;
-        if (contextObj != null) {
-            try {
-                context = objectMapper.writeValueAsString(contextObj);
-            } catch (Exception e) {
-                context = contextObj.toString();
-            }
-        }
+        return smartChatService.smartChat(message, context(request));
+    }
 
-        return smartChatService.smartChat(message, context);
+    /**
+     * Smart chat as Server-Sent Events: "token" events with the response text, then "done" with intent and actionData
+     */
+    @PostMapping(value = "/chat/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter chatStream(@RequestBody Map<String, Object> request) {
+        String message = (String) request.get("message");
+        return smartChatService.smartChatStream(message, context(request));
     }
 
     /**
@@ -50,4 +51,27 @@ public class SmartChatController {
         String report = smartChatService.generateDiagnostic(userData);
         return Map.of("report", report);
     }
+
+    /**
+     * Diagnostic report as Server-Sent Events, the "done" event carries the full report
+     */
+    @PostMapping(value = "/diagnostic/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter generateDiagnosticStream(@RequestBody Map<String, Object> request) {
+        Object userDataObj = request.get("userData");
+        String userData = userDataObj != null ? userDataObj.toString() : "No data available";
+
+        return smartChatService.generateDiagnosticStream(userData);
+    }
+
+    private String context(Map<String, Object> request) {
+        Object contextObj = request.get("context");
+        if (contextObj == null) {
+            return null;
+        }
+        try {
+            return objectMapper.writeValueAsString(contextObj);
+        } catch (Exception e) {
+            return contextObj.toString();
+        }
+    }
 }
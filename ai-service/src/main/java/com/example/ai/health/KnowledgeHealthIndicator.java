@@ -0,0 +1,49 @@
+package com.example.ai.health;
+
+import com.example.ai.service.NutritionKnowledgeService;
+import com.example.ai.store.IngestionPipeline;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.HealthIndicator;
+import org.springframework.boot.actuate.health.Status;
+import org.springframework.stereotype.Component;
+
+/**
+ * Expose l'état de la base de connaissances sur /actuator/health (composant "knowledge").
+ *
+ * UP une fois la base complète indexée ; LOADING tant que seules les connaissances de base sont
+ * disponibles (le service répond déjà, avec un contexte réduit). LOADING ne fait pas partie de
+ * l'ordre d'agrégation par défaut : le statut global du service n'en est pas dégradé.
+ */
+@Component
+public class KnowledgeHealthIndicator implements HealthIndicator {
+
+    static final Status LOADING = new Status("LOADING", "Full knowledge base is still being indexed");
+
+    private final NutritionKnowledgeService knowledgeService;
+
+    public KnowledgeHealthIndicator(NutritionKnowledgeService knowledgeService) {
+        this.knowledgeService = knowledgeService;
+    }
+
+    @Override
+    public Health health() {
+        NutritionKnowledgeService.LoadState loadState = knowledgeService.getLoadState();
+        IngestionPipeline.Progress progress = knowledgeService.getIngestionProgress();
+
+        Health.Builder builder = loadState == NutritionKnowledgeService.LoadState.FULL
+                ? Health.up()
+                : Health.status(LOADING);
+        builder.withDetail("knowledgeLevel", loadState.name())
+                .withDetail("ready", loadState == NutritionKnowledgeService.LoadState.FULL)
+                .withDetail("ingestion", progress.state().name());
+
+        if (progress.state() != IngestionPipeline.State.IDLE) {
+            builder.withDetail("categories", progress.sourcesCompleted() + "/" + progress.sourcesTotal())
+                    .withDetail("failedCategories", progress.sourcesFailed())
+                    .withDetail("segmentsQueued", progress.segmentsQueued())
+                    .withDetail("segmentsEmbedded", progress.segmentsEmbedded())
+                    .withDetail("segmentsInserted", progress.segmentsInserted());
+        }
+        return builder.build();
+    }
+}
@@ -0,0 +1,40 @@
+package com.example.ai.health;
+
+import com.example.ai.llm.LlmCircuitBreaker;
+import com.example.ai.llm.OllamaEndpointPool;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.HealthIndicator;
+import org.springframework.boot.actuate.health.Status;
+import org.springframework.stereotype.Component;
+
+/**
+ * Expose l'état du disjoncteur du modèle sur /actuator/health (composant "llmCircuit").
+ *
+ * UP quand le circuit est fermé ; DEGRADED quand il est ouvert ou en test (semi-ouvert) : les réponses
+ * viennent alors du modèle de secours local. Comme LOADING, DEGRADED ne fait pas partie de l'ordre
+ * d'agrégation par défaut : le service continue de répondre et son statut global reste UP.
+ * Le détail "endpoints" donne l'état de chaque endpoint Ollama du pool.
+ */
+@Component
+public class LlmCircuitHealthIndicator implements HealthIndicator {
+
+    static final Status DEGRADED = new Status("DEGRADED", "LLM answers are served by the local fallback");
+
+    private final LlmCircuitBreaker circuitBreaker;
+    private final OllamaEndpointPool endpointPool;
+
+    public LlmCircuitHealthIndicator(LlmCircuitBreaker circuitBreaker, OllamaEndpointPool endpointPool) {
+        this.circuitBreaker = circuitBreaker;
+        this.endpointPool = endpointPool;
+    }
+
+    @Override
+    public Health health() {
+        Health.Builder builder = circuitBreaker.getState() == LlmCircuitBreaker.State.CLOSED
+                ? Health.up()
+                : Health.status(DEGRADED);
+        return builder.withDetails(circuitBreaker.getStatistics())
+                .withDetail("endpoints", endpointPool.getStatistics())
+                .build();
+    }
+}
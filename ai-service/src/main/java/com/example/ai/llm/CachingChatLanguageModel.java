@@ -0,0 +1,96 @@
+package com.example.ai.llm;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import dev.langchain4j.agent.tool.ToolSpecification;
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.model.chat.ChatLanguageModel;
+import dev.langchain4j.model.output.Response;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * ChatLanguageModel decorator that serves repeated prompts from memory.
+ *
+ * The key is a SHA-256 of the model parameters and every message of the prompt, so any change to
+ * the prompt or to the model configuration is a different entry. Entries expire after a TTL and
+ * the cache is bounded by the approximate size of the stored responses.
+ * Tool calls are passed through, and calls made inside {@link LlmCallContext#withoutCache} bypass the cache.
+ * Answers of the {@link FallbackChatModel} are never stored.
+ */
+public class CachingChatLanguageModel implements ChatLanguageModel {
+
+    private static final int KEY_BYTES = 64;
+
+    private final ChatLanguageModel delegate;
+    private final String modelParameters;
+    private final Cache<String, Response<AiMessage>> cache;
+
+    /**
+     * @param modelParameters model name and generation settings, part of every key
+     * @param maxWeightBytes  approximate memory budget for cached responses (2 bytes per char)
+     */
+    public CachingChatLanguageModel(ChatLanguageModel delegate, String modelParameters,
+                                    Duration ttl, long maxWeightBytes) {
+        this.delegate = delegate;
+        this.modelParameters = modelParameters;
+        this.cache = Caffeine.newBuilder()
+                .maximumWeight(maxWeightBytes)
+                .weigher((String key, Response<AiMessage> response) ->
+                        KEY_BYTES + 2 * response.content().text().length())
+                .expireAfterWrite(ttl)
+                .recordStats()
+                .build();
+    }
+
+    @Override
+    public Response<AiMessage> generate(List<ChatMessage> messages) {
+        if (!LlmCallContext.current().isCacheable()) {
+            return delegate.generate(messages);
+        }
+        String key = PromptFingerprint.of(modelParameters, messages);
+        Response<AiMessage> cached = cache.getIfPresent(key);
+        if (cached != null) {
+            return cached;
+        }
+        Response<AiMessage> response = delegate.generate(messages);
+        if (response != null && response.content() != null && response.content().text() != null
+                && !response.content().hasToolExecutionRequests() && !FallbackChatModel.isFallback(response)) {
+            cache.put(key, response);
+        }
+        return response;
+    }
+
+    @Override
+    public Response<AiMessage> generate(List<ChatMessage> messages, List<ToolSpecification> toolSpecifications) {
+        return delegate.generate(messages, toolSpecifications);
+    }
+
+    @Override
+    public Response<AiMessage> generate(List<ChatMessage> messages, ToolSpecification toolSpecification) {
+        return delegate.generate(messages, toolSpecification);
+    }
+
+    /**
+     * Underlying cache, exposed for metrics binding
+     */
+    public Cache<String, Response<AiMessage>> getCache() {
+        return cache;
+    }
+
+    public Map<String, Object> getStatistics() {
+        CacheStats stats = cache.stats();
+        Map<String, Object> map = new HashMap<>();
+        map.put("size", cache.estimatedSize());
+        map.put("hits", stats.hitCount());
+        map.put("misses", stats.missCount());
+        map.put("hitRate", stats.hitRate());
+        map.put("evictions", stats.evictionCount());
+        return map;
+    }
+}
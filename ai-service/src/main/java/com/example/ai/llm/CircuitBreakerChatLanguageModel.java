@@ -0,0 +1,63 @@
+package com.example.ai.llm;
+
+import dev.langchain4j.agent.tool.ToolSpecification;
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.model.chat.ChatLanguageModel;
+import dev.langchain4j.model.output.Response;
+
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * ChatLanguageModel decorator that fails fast with {@link LlmUnavailableException} while the
+ * {@link LlmCircuitBreaker} is open, so call sites answer with their local defaults instead of a model reply.
+ *
+ * Errors of calls let through are recorded and rethrown, so call sites keep their own error handling;
+ * calls shed for overload say nothing about the endpoint and are not recorded.
+ * Placed inside {@link SchedulingChatLanguageModel}: the recorded latency starts once the call holds its slot,
+ * so a long queue is not mistaken for a slow endpoint.
+ */
+public class CircuitBreakerChatLanguageModel implements ChatLanguageModel {
+
+    private final ChatLanguageModel delegate;
+    private final LlmCircuitBreaker breaker;
+
+    public CircuitBreakerChatLanguageModel(ChatLanguageModel delegate, LlmCircuitBreaker breaker) {
+        this.delegate = delegate;
+        this.breaker = breaker;
+    }
+
+    @Override
+    public Response<AiMessage> generate(List<ChatMessage> messages) {
+        return call(() -> delegate.generate(messages));
+    }
+
+    @Override
+    public Response<AiMessage> generate(List<ChatMessage> messages, List<ToolSpecification> toolSpecifications) {
+        return call(() -> delegate.generate(messages, toolSpecifications));
+    }
+
+    @Override
+    public Response<AiMessage> generate(List<ChatMessage> messages, ToolSpecification toolSpecification) {
+        return call(() -> delegate.generate(messages, toolSpecification));
+    }
+
+    private Response<AiMessage> call(Supplier<Response<AiMessage>> model) {
+        if (!breaker.tryAcquire()) {
+            throw new LlmUnavailableException("LLM circuit is open");
+        }
+        long start = System.nanoTime();
+        try {
+            Response<AiMessage> response = model.get();
+            breaker.onSuccess(LlmCallContext.current().getTask(), System.nanoTime() - start);
+            return response;
+        } catch (LlmOverloadedException e) {
+            breaker.onIgnored();
+            throw e;
+        } catch (RuntimeException e) {
+            breaker.onFailure();
+            throw e;
+        }
+    }
+}
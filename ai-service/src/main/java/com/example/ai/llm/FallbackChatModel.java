@@ -0,0 +1,44 @@
+package com.example.ai.llm;
+
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.model.chat.ChatLanguageModel;
+import dev.langchain4j.model.output.Response;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Local answer used when Ollama/Phi3 is not available.
+ * Its responses are marked so that they are never stored by the response caches.
+ */
+public class FallbackChatModel implements ChatLanguageModel {
+
+    public static final String MESSAGE = "Hello! I'm Phi3, your nutrition assistant. I'm currently running in fallback mode. " +
+            "Please ensure Ollama is installed and running with the phi3 model. " +
+            "You can install it by running: 'ollama pull phi3' and 'ollama serve'. " +
+            "In the meantime, I can still provide basic nutrition guidance!";
+
+    private static final String FALLBACK_METADATA = "fallback";
+
+    @Override
+    public String generate(String userMessage) {
+        return MESSAGE;
+    }
+
+    @Override
+    public Response<AiMessage> generate(List<ChatMessage> messages) {
+        return Response.from(AiMessage.from(MESSAGE), null, null, Map.of(FALLBACK_METADATA, true));
+    }
+
+    public static boolean isFallback(Response<AiMessage> response) {
+        return response != null && Boolean.TRUE.equals(response.metadata().get(FALLBACK_METADATA));
+    }
+
+    /**
+     * For call sites that only see the text of the answer
+     */
+    public static boolean isFallback(String text) {
+        return text != null && MESSAGE.equals(text.trim());
+    }
+}
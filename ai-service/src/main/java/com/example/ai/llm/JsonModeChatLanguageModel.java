@@ -0,0 +1,44 @@
+package com.example.ai.llm;
+
+import dev.langchain4j.agent.tool.ToolSpecification;
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.model.chat.ChatLanguageModel;
+import dev.langchain4j.model.output.Response;
+
+import java.util.List;
+
+/**
+ * Sends each call to the free-text model or to the same model built with a JSON output format, depending on
+ * {@link LlmCallContext#isJsonOutput()}. With Ollama's {@code format: json} the model can only emit valid JSON,
+ * so replies parsed as a whole no longer need a second, stricter prompt when they come back malformed.
+ */
+public class JsonModeChatLanguageModel implements ChatLanguageModel {
+
+    private final ChatLanguageModel textModel;
+    private final ChatLanguageModel jsonModel;
+
+    public JsonModeChatLanguageModel(ChatLanguageModel textModel, ChatLanguageModel jsonModel) {
+        this.textModel = textModel;
+        this.jsonModel = jsonModel;
+    }
+
+    @Override
+    public Response<AiMessage> generate(List<ChatMessage> messages) {
+        return model().generate(messages);
+    }
+
+    @Override
+    public Response<AiMessage> generate(List<ChatMessage> messages, List<ToolSpecification> toolSpecifications) {
+        return model().generate(messages, toolSpecifications);
+    }
+
+    @Override
+    public Response<AiMessage> generate(List<ChatMessage> messages, ToolSpecification toolSpecification) {
+        return model().generate(messages, toolSpecification);
+    }
+
+    private ChatLanguageModel model() {
+        return LlmCallContext.current().isJsonOutput() ? jsonModel : textModel;
+    }
+}
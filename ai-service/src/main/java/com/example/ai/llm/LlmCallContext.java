@@ -0,0 +1,121 @@
+package com.example.ai.llm;
+
+import java.util.function.Supplier;
+
+/**
+ * Per-call options for the decorated ChatLanguageModel, carried on the calling thread.
+ * Call sites wrap a model call to change how the decorators treat it, e.g.
+ * {@code LlmCallContext.withoutCache(() -> chatLanguageModel.generate(prompt))}, or which model profile serves it
+ * ({@link #task}).
+ *
+ * The user and priority used by {@link LlmScheduler} are set once per HTTP request by {@link LlmCallContextFilter};
+ * work handed to another thread must carry the context over with {@link #activate()}.
+ */
+public final class LlmCallContext {
+
+    public static final String ANONYMOUS = "anonymous";
+
+    private static final LlmCallContext DEFAULT = new LlmCallContext(true, false, LlmTask.CHAT, ANONYMOUS, LlmPriority.INTERACTIVE);
+    private static final ThreadLocal<LlmCallContext> CURRENT = ThreadLocal.withInitial(() -> DEFAULT);
+
+    private final boolean cacheable;
+    private final boolean jsonOutput;
+    private final LlmTask task;
+    private final String user;
+    private final LlmPriority priority;
+
+    private LlmCallContext(boolean cacheable, boolean jsonOutput, LlmTask task, String user, LlmPriority priority) {
+        this.cacheable = cacheable;
+        this.jsonOutput = jsonOutput;
+        this.task = task;
+        this.user = user;
+        this.priority = priority;
+    }
+
+    public static LlmCallContext current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Context for calls made on behalf of a user, with the default options otherwise
+     */
+    public static LlmCallContext of(String user, LlmPriority priority) {
+        return new LlmCallContext(true, false, LlmTask.CHAT, user == null || user.isBlank() ? ANONYMOUS : user, priority);
+    }
+
+    public boolean isCacheable() {
+        return cacheable;
+    }
+
+    /**
+     * The model is asked for a JSON document (Ollama {@code format: json}) instead of free text
+     */
+    public boolean isJsonOutput() {
+        return jsonOutput;
+    }
+
+    /**
+     * Kind of work of the call, selects the model profile
+     */
+    public LlmTask getTask() {
+        return task;
+    }
+
+    /**
+     * Fair-share key of the scheduler
+     */
+    public String getUser() {
+        return user;
+    }
+
+    public LlmPriority getPriority() {
+        return priority;
+    }
+
+    /**
+     * Runs the call without reading or writing the response cache
+     */
+    public static <T> T withoutCache(Supplier<T> call) {
+        LlmCallContext context = current();
+        return with(new LlmCallContext(false, context.jsonOutput, context.task, context.user, context.priority), call);
+    }
+
+    /**
+     * Runs the call with the model constrained to produce valid JSON; for prompts whose whole answer is parsed
+     */
+    public static <T> T jsonOutput(Supplier<T> call) {
+        LlmCallContext context = current();
+        return with(new LlmCallContext(context.cacheable, true, context.task, context.user, context.priority), call);
+    }
+
+    /**
+     * Runs the call on the model profile of the task, e.g. a small fast model for extraction
+     */
+    public static <T> T task(LlmTask task, Supplier<T> call) {
+        LlmCallContext context = current();
+        return with(new LlmCallContext(context.cacheable, context.jsonOutput, task, context.user, context.priority), call);
+    }
+
+    /**
+     * Makes this context current on the calling thread until the scope is closed
+     */
+    public Scope activate() {
+        LlmCallContext previous = CURRENT.get();
+        CURRENT.set(this);
+        return () -> CURRENT.set(previous);
+    }
+
+    public interface Scope extends AutoCloseable {
+        @Override
+        void close();
+    }
+
+    private static <T> T with(LlmCallContext context, Supplier<T> call) {
+        Scope scope = context.activate();
+        try {
+            return call.get();
+        } finally {
+            scope.close();
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package com.example.ai.llm;
+
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.AntPathMatcher;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Sets the {@link LlmCallContext} of each HTTP request: the user (X-User-Id header set by the gateway,
+ * client address otherwise) and the priority class (background for the configured paths, interactive otherwise).
+ */
+@Component
+public class LlmCallContextFilter extends OncePerRequestFilter {
+
+    public static final String USER_HEADER = "X-User-Id";
+
+    private final AntPathMatcher pathMatcher = new AntPathMatcher();
+    private final List<String> backgroundPaths;
+
+    public LlmCallContextFilter(
+            @Value("${ai.llm.scheduler.background-paths:/api/smart/diagnostic/**,/api/agent/statistics,/api/agent/health-check,/api/agent/daily-analysis}")
+            List<String> backgroundPaths
+    ) {
+        this.backgroundPaths = backgroundPaths;
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        String user = request.getHeader(USER_HEADER);
+        if (user == null || user.isBlank()) {
+            user = request.getRemoteAddr();
+        }
+        LlmCallContext.Scope scope = LlmCallContext.of(user, priority(request.getRequestURI())).activate();
+        try {
+            chain.doFilter(request, response);
+        } finally {
+            scope.close();
+        }
+    }
+
+    private LlmPriority priority(String path) {
+        for (String pattern : backgroundPaths) {
+            if (pathMatcher.match(pattern, path)) {
+                return LlmPriority.BACKGROUND;
+            }
+        }
+        return LlmPriority.INTERACTIVE;
+    }
+}
@@ -0,0 +1,246 @@
+package com.example.ai.llm;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Circuit breaker state of the model endpoint.
+ *
+ * CLOSED: calls go to the model; the outcome of the last {@code windowSize} calls is kept, a failure being an error
+ * or a call slower than the slow-call threshold of its {@link LlmTask}. Once {@code minimumCalls} are recorded and the failure rate reaches
+ * {@code failureRateThreshold}, the circuit opens.
+ * OPEN: calls are answered locally. A background probe checks the endpoint; after {@code openDuration}, and once the
+ * probe succeeds, the circuit goes HALF_OPEN.
+ * HALF_OPEN: up to {@code halfOpenCalls} real calls are let through as probes, the others are answered locally.
+ * All probes succeeding closes the circuit, any failure opens it again.
+ */
+public class LlmCircuitBreaker implements AutoCloseable {
+
+    private static final Logger log = LoggerFactory.getLogger(LlmCircuitBreaker.class);
+
+    public enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    private final int windowSize;
+    private final int minimumCalls;
+    private final double failureRateThreshold;
+    private final Map<LlmTask, Long> slowCallThresholdNanos = new EnumMap<>(LlmTask.class);
+    private final Duration openDuration;
+    private final int halfOpenCalls;
+    private final BooleanSupplier healthProbe;
+    private final ScheduledExecutorService prober;
+
+    // Guarded by this
+    private final boolean[] failures;
+    private int recorded;
+    private int next;
+    private int failureCount;
+    private State state = State.CLOSED;
+    private Instant openedAt;
+    private int halfOpenPermits;
+    private int halfOpenSuccesses;
+    private double averageLatencyNanos;
+
+    private volatile boolean probeHealthy;
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong openings = new AtomicLong();
+
+    /**
+     * @param slowCallThresholds longest healthy call per task, a long report being expected to take longer than a chat
+     *                           answer; tasks left out use the {@link LlmTask#CHAT} threshold
+     * @param healthProbe        cheap endpoint check run while the circuit is open, null to rely on the open duration only
+     * @param probeInterval      delay between two health probes
+     */
+    public LlmCircuitBreaker(int windowSize, int minimumCalls, double failureRateThreshold,
+                             Map<LlmTask, Duration> slowCallThresholds, Duration openDuration, int halfOpenCalls,
+                             BooleanSupplier healthProbe, Duration probeInterval) {
+        this.windowSize = Math.max(1, windowSize);
+        this.minimumCalls = Math.max(1, Math.min(minimumCalls, this.windowSize));
+        this.failureRateThreshold = failureRateThreshold;
+        Duration chatThreshold = slowCallThresholds.get(LlmTask.CHAT);
+        for (LlmTask task : LlmTask.values()) {
+            slowCallThresholdNanos.put(task, slowCallThresholds.getOrDefault(task, chatThreshold).toNanos());
+        }
+        this.openDuration = openDuration;
+        this.halfOpenCalls = Math.max(1, halfOpenCalls);
+        this.healthProbe = healthProbe;
+        this.failures = new boolean[this.windowSize];
+        if (healthProbe != null) {
+            prober = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "llm-circuit-probe");
+                thread.setDaemon(true);
+                return thread;
+            });
+            prober.scheduleWithFixedDelay(this::probe, probeInterval.toMillis(), probeInterval.toMillis(), TimeUnit.MILLISECONDS);
+        } else {
+            prober = null;
+            probeHealthy = true;
+        }
+    }
+
+    /**
+     * @return true if the call may go to the model, false if it must be answered locally
+     */
+    public synchronized boolean tryAcquire() {
+        if (state == State.OPEN && probeHealthy && !Instant.now().isBefore(openedAt.plus(openDuration))) {
+            transition(State.HALF_OPEN);
+        }
+        switch (state) {
+            case CLOSED:
+                return true;
+            case HALF_OPEN:
+                if (halfOpenPermits < halfOpenCalls) {
+                    halfOpenPermits++;
+                    return true;
+                }
+                break;
+            default:
+                break;
+        }
+        rejected.incrementAndGet();
+        return false;
+    }
+
+    public synchronized void onSuccess(LlmTask task, long durationNanos) {
+        averageLatencyNanos = averageLatencyNanos == 0 ? durationNanos : 0.2 * durationNanos + 0.8 * averageLatencyNanos;
+        if (durationNanos > slowCallThresholdNanos.get(task)) {
+            onFailure();
+            return;
+        }
+        if (state == State.HALF_OPEN) {
+            if (++halfOpenSuccesses >= halfOpenCalls) {
+                transition(State.CLOSED);
+            }
+            return;
+        }
+        record(false);
+    }
+
+    public synchronized void onFailure() {
+        if (state == State.HALF_OPEN) {
+            transition(State.OPEN);
+            return;
+        }
+        if (state == State.OPEN) {
+            return;
+        }
+        record(true);
+        if (recorded >= minimumCalls && (double) failureCount / recorded >= failureRateThreshold) {
+            transition(State.OPEN);
+        }
+    }
+
+    /**
+     * Releases a half-open permit for a call that ended without a verdict on the endpoint (e.g. shed by the scheduler)
+     */
+    public synchronized void onIgnored() {
+        if (state == State.HALF_OPEN && halfOpenPermits > 0) {
+            halfOpenPermits--;
+        }
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    /**
+     * 0 = closed, 1 = half-open, 2 = open (for the state gauge)
+     */
+    public int getStateLevel() {
+        State current = getState();
+        return current == State.CLOSED ? 0 : current == State.HALF_OPEN ? 1 : 2;
+    }
+
+    public long getRejectedCount() {
+        return rejected.get();
+    }
+
+    public synchronized Map<String, Object> getStatistics() {
+        Map<String, Object> map = new HashMap<>();
+        map.put("state", state.name());
+        map.put("failureRate", recorded == 0 ? 0.0 : (double) failureCount / recorded);
+        map.put("recordedCalls", recorded);
+        map.put("averageLatencyMs", Math.round(averageLatencyNanos / 1_000_000));
+        Map<String, Long> thresholds = new HashMap<>();
+        slowCallThresholdNanos.forEach((task, nanos) -> thresholds.put(task.profileName(), nanos / 1_000_000));
+        map.put("slowCallThresholdMs", thresholds);
+        map.put("answeredLocally", rejected.get());
+        map.put("openings", openings.get());
+        if (openedAt != null) {
+            map.put("lastOpenedAt", openedAt.toString());
+        }
+        if (healthProbe != null) {
+            map.put("probeHealthy", probeHealthy);
+        }
+        return map;
+    }
+
+    @Override
+    public void close() {
+        if (prober != null) {
+            prober.shutdownNow();
+        }
+    }
+
+    private void probe() {
+        if (getState() != State.OPEN) {
+            return;
+        }
+        boolean healthy;
+        try {
+            healthy = healthProbe.getAsBoolean();
+        } catch (RuntimeException e) {
+            healthy = false;
+        }
+        probeHealthy = healthy;
+    }
+
+    private void record(boolean failure) {
+        if (recorded == windowSize && failures[next]) {
+            failureCount--;
+        }
+        failures[next] = failure;
+        if (failure) {
+            failureCount++;
+        }
+        next = (next + 1) % windowSize;
+        recorded = Math.min(recorded + 1, windowSize);
+    }
+
+    private void transition(State target) {
+        log.warn("LLM circuit {} -> {}", state, target);
+        state = target;
+        switch (target) {
+            case OPEN:
+                openedAt = Instant.now();
+                openings.incrementAndGet();
+                probeHealthy = healthProbe == null;
+                break;
+            case HALF_OPEN:
+                halfOpenPermits = 0;
+                halfOpenSuccesses = 0;
+                break;
+            case CLOSED:
+                recorded = 0;
+                next = 0;
+                failureCount = 0;
+                Arrays.fill(failures, false);
+                break;
+        }
+    }
+}
@@ -0,0 +1,371 @@
+package com.example.ai.llm;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Tolerant reader for model output, in a single pass over the reply and without regular expressions.
+ *
+ * Finds the first JSON object or array of the reply and reads it leniently, accepting what small models commonly
+ * get wrong: prose and markdown fences around the JSON, smart or single quotes, unquoted keys, missing or trailing
+ * commas, // and block comments, raw control characters inside strings, and a reply cut off before its closing
+ * brackets (the open containers are closed at the end of the text).
+ * Objects are read as {@link LinkedHashMap}, arrays as {@link ArrayList}, integers as Integer or Long and other
+ * numbers as Double, like Jackson's untyped mapping.
+ */
+public final class LlmOutputParser {
+
+    /**
+     * Candidate starts tried when the JSON found first turns out not to be JSON (e.g. "[1]" in the prose)
+     */
+    private static final int MAX_ATTEMPTS = 8;
+
+    private static final Malformed MALFORMED = new Malformed();
+
+    private LlmOutputParser() {
+    }
+
+    /**
+     * First JSON object or array of the reply, empty if there is none
+     */
+    public static Optional<Object> parse(String text) {
+        return parse(text, false);
+    }
+
+    /**
+     * First JSON object of the reply, an empty map if there is none
+     */
+    @SuppressWarnings("unchecked")
+    public static Map<String, Object> parseObject(String text) {
+        return (Map<String, Object>) parse(text, true).orElse(Collections.emptyMap());
+    }
+
+    /**
+     * JSON array of the reply, also when it is wrapped in an object ({"meals": [...]}); empty if there is none
+     */
+    @SuppressWarnings("unchecked")
+    public static List<Object> parseArray(String text) {
+        Object value = parse(text).orElse(null);
+        if (value instanceof Map<?, ?> map) {
+            value = map.values().stream().filter(List.class::isInstance).findFirst().orElse(null);
+        }
+        return value instanceof List ? (List<Object>) value : Collections.emptyList();
+    }
+
+    /**
+     * Value of a "LABEL: value" line (label matched ignoring case, anywhere in the reply), null if absent
+     */
+    public static String extractLabel(String text, String label) {
+        if (text == null) {
+            return null;
+        }
+        int length = label.length();
+        for (int i = 0; i + length < text.length(); i++) {
+            if (text.charAt(i + length) != ':' || !text.regionMatches(true, i, label, 0, length)) {
+                continue;
+            }
+            int start = i + length + 1;
+            while (start < text.length() && Character.isWhitespace(text.charAt(start))) {
+                start++;
+            }
+            if (start == text.length()) {
+                return null;
+            }
+            int end = text.indexOf('\n', start);
+            return text.substring(start, end < 0 ? text.length() : end).trim();
+        }
+        return null;
+    }
+
+    private static Optional<Object> parse(String text, boolean objectOnly) {
+        if (text == null) {
+            return Optional.empty();
+        }
+        int start = nextStart(text, 0, objectOnly);
+        for (int attempt = 0; start >= 0 && attempt < MAX_ATTEMPTS; attempt++) {
+            try {
+                return Optional.of(new Reader(text, start).readValue());
+            } catch (Malformed e) {
+                start = nextStart(text, start + 1, objectOnly);
+            }
+        }
+        return Optional.empty();
+    }
+
+    private static int nextStart(String text, int from, boolean objectOnly) {
+        for (int i = from; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '{' || (c == '[' && !objectOnly)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static final class Reader {
+        private final String text;
+        private int pos;
+
+        private Reader(String text, int pos) {
+            this.text = text;
+            this.pos = pos;
+        }
+
+        /**
+         * Value at the current position; at the end of the reply (or of its fence) there is no value
+         */
+        private Object readValue() {
+            skipIgnorable();
+            if (atEnd()) {
+                throw MALFORMED;
+            }
+            char c = text.charAt(pos);
+            switch (c) {
+                case '{':
+                    return readObject();
+                case '[':
+                    return readArray();
+                case '"':
+                case '\'':
+                case '\u201C':
+                case '\u201D':
+                    return readString();
+                default:
+                    if (c == '-' || c == '+' || c == '.' || (c >= '0' && c <= '9')) {
+                        return readNumber();
+                    }
+                    return readLiteral();
+            }
+        }
+
+        private Map<String, Object> readObject() {
+            pos++;
+            Map<String, Object> object = new LinkedHashMap<>();
+            while (true) {
+                skipIgnorable();
+                if (atEnd()) {
+                    return object;
+                }
+                char c = text.charAt(pos);
+                if (c == '}') {
+                    pos++;
+                    return object;
+                }
+                if (c == ',') {
+                    pos++;
+                    continue;
+                }
+                String key = isQuote(c) ? readString() : readBareKey();
+                skipIgnorable();
+                if (atEnd()) {
+                    return object;
+                }
+                if (text.charAt(pos) != ':' && text.charAt(pos) != '=') {
+                    throw MALFORMED;
+                }
+                pos++;
+                skipIgnorable();
+                if (atEnd()) {
+                    return object;
+                }
+                object.put(key, readValue());
+            }
+        }
+
+        private List<Object> readArray() {
+            pos++;
+            List<Object> array = new ArrayList<>();
+            while (true) {
+                skipIgnorable();
+                if (atEnd()) {
+                    return array;
+                }
+                char c = text.charAt(pos);
+                if (c == ']') {
+                    pos++;
+                    return array;
+                }
+                if (c == ',') {
+                    pos++;
+                    continue;
+                }
+                array.add(readValue());
+            }
+        }
+
+        private String readString() {
+            char open = text.charAt(pos++);
+            // Common case: nothing to unescape or drop, the string is a substring of the reply
+            int start = pos;
+            while (pos < text.length()) {
+                char c = text.charAt(pos);
+                if (closes(open, c)) {
+                    pos++;
+                    return text.substring(start, pos - 1);
+                }
+                if (c == '\\' || c < ' ' || (c >= '\u007F' && c <= '\u009F') || c == '\uFFFD') {
+                    break;
+                }
+                pos++;
+            }
+            StringBuilder value = new StringBuilder(pos - start + 16).append(text, start, pos);
+            while (pos < text.length()) {
+                char c = text.charAt(pos++);
+                if (c == '\\' && pos < text.length()) {
+                    readEscape(value);
+                } else if (closes(open, c)) {
+                    return value.toString();
+                } else if (c == '\n' || c == '\r' || c == '\t') {
+                    value.append(' ');
+                } else if (c >= ' ' && (c < '\u007F' || c > '\u009F') && c != '\uFFFD') {
+                    value.append(c);
+                }
+            }
+            // Reply cut off inside the string
+            return value.toString();
+        }
+
+        private void readEscape(StringBuilder value) {
+            char c = text.charAt(pos++);
+            switch (c) {
+                case 'n' -> value.append('\n');
+                case 't' -> value.append('\t');
+                case 'r' -> value.append('\r');
+                case 'b' -> value.append('\b');
+                case 'f' -> value.append('\f');
+                case 'u' -> {
+                    if (pos + 4 <= text.length()) {
+                        try {
+                            value.append((char) Integer.parseInt(text, pos, pos + 4, 16));
+                            pos += 4;
+                            return;
+                        } catch (NumberFormatException e) {
+                            // Not a unicode escape: keep the letter
+                        }
+                    }
+                    value.append(c);
+                }
+                default -> value.append(c);
+            }
+        }
+
+        private Object readNumber() {
+            int start = pos;
+            boolean decimal = false;
+            if (text.charAt(pos) == '-' || text.charAt(pos) == '+') {
+                pos++;
+            }
+            while (pos < text.length()) {
+                char c = text.charAt(pos);
+                if (c == '.' || c == 'e' || c == 'E') {
+                    decimal = true;
+                } else if ((c == '-' || c == '+') && (text.charAt(pos - 1) == 'e' || text.charAt(pos - 1) == 'E')) {
+                    // Exponent sign
+                } else if (c < '0' || c > '9') {
+                    break;
+                }
+                pos++;
+            }
+            String number = text.substring(text.charAt(start) == '+' ? start + 1 : start, pos);
+            try {
+                if (!decimal) {
+                    long value = Long.parseLong(number);
+                    if (value == (int) value) {
+                        return (int) value;
+                    }
+                    return value;
+                }
+                return Double.valueOf(number);
+            } catch (NumberFormatException e) {
+                try {
+                    return Double.valueOf(number);
+                } catch (NumberFormatException notANumber) {
+                    throw MALFORMED;
+                }
+            }
+        }
+
+        private Object readLiteral() {
+            String word = readWord();
+            return switch (word) {
+                case "true", "True" -> Boolean.TRUE;
+                case "false", "False" -> Boolean.FALSE;
+                case "null", "None" -> null;
+                default -> throw MALFORMED;
+            };
+        }
+
+        private String readBareKey() {
+            String key = readWord();
+            if (key.isEmpty()) {
+                throw MALFORMED;
+            }
+            return key;
+        }
+
+        private String readWord() {
+            int start = pos;
+            while (pos < text.length()) {
+                char c = text.charAt(pos);
+                if (!Character.isLetterOrDigit(c) && c != '_' && c != '-' && c != '$') {
+                    break;
+                }
+                pos++;
+            }
+            return text.substring(start, pos);
+        }
+
+        /**
+         * Whitespace and comments
+         */
+        private void skipIgnorable() {
+            while (pos < text.length()) {
+                char c = text.charAt(pos);
+                if (Character.isWhitespace(c)) {
+                    pos++;
+                } else if (c == '/' && pos + 1 < text.length() && text.charAt(pos + 1) == '/') {
+                    int end = text.indexOf('\n', pos);
+                    pos = end < 0 ? text.length() : end + 1;
+                } else if (c == '/' && pos + 1 < text.length() && text.charAt(pos + 1) == '*') {
+                    int end = text.indexOf("*/", pos + 2);
+                    pos = end < 0 ? text.length() : end + 2;
+                } else {
+                    return;
+                }
+            }
+        }
+
+        /**
+         * End of the reply, or a closing markdown fence of a truncated JSON block
+         */
+        private boolean atEnd() {
+            return pos >= text.length() || text.charAt(pos) == '`';
+        }
+
+        private static boolean isQuote(char c) {
+            return c == '"' || c == '\'' || c == '\u201C' || c == '\u201D';
+        }
+
+        /**
+         * A smart-quoted string may close with any double quote, others only with their own quote
+         */
+        private static boolean closes(char open, char c) {
+            if (open == '\u201C' || open == '\u201D') {
+                return c == '\u201D' || c == '\u201C' || c == '"';
+            }
+            return c == open;
+        }
+    }
+
+    private static final class Malformed extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        private Malformed() {
+            super(null, null, false, false);
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package com.example.ai.llm;
+
+/**
+ * Thrown instead of calling the model when the call cannot be admitted in time
+ * (wait queue full, or the queue deadline would be missed). Callers answer with their local fallback.
+ */
+public class LlmOverloadedException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    public LlmOverloadedException(String message) {
+        super(message);
+    }
+
+    public LlmOverloadedException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
@@ -0,0 +1,9 @@
+package com.example.ai.llm;
+
+/**
+ * Scheduling class of a model call: waiting interactive calls are always admitted before background ones
+ */
+public enum LlmPriority {
+    INTERACTIVE,
+    BACKGROUND
+}
@@ -0,0 +1,16 @@
+package com.example.ai.llm;
+
+import java.time.Duration;
+
+/**
+ * Model settings of a task: Ollama model, sampling temperature, cap on generated tokens (null for no cap) and timeout
+ */
+public record LlmProfile(String name, String modelName, double temperature, Integer numPredict, Duration timeout) {
+
+    /**
+     * Model name and generation settings, part of the response cache and single-flight keys
+     */
+    public String describe() {
+        return "ollama|" + modelName + "|temperature=" + temperature + "|numPredict=" + numPredict;
+    }
+}
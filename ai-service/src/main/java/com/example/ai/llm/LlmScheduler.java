@@ -0,0 +1,292 @@
+package com.example.ai.llm;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Admission control for model calls: at most {@code maxConcurrent} calls reach Ollama, the others wait in a bounded queue.
+ *
+ * Waiting calls are ordered by {@link LlmPriority} first (interactive before background), then round-robin across users
+ * within a priority class, so one user with many pending calls only ever gets one turn per round.
+ * A call is shed with {@link LlmOverloadedException}, before waiting, when the queue is full or when the estimated wait
+ * (calls ahead of it x average call time / concurrency) exceeds the maximum wait of its priority class;
+ * a call still waiting when that deadline expires is shed as well.
+ */
+public class LlmScheduler {
+
+    public enum ShedReason {
+        QUEUE_FULL,
+        DEADLINE,
+        TIMEOUT
+    }
+
+    /**
+     * Weight of the latest call in the moving average of call durations
+     */
+    private static final double AVERAGE_WEIGHT = 0.2;
+
+    private final int maxConcurrent;
+    private final int queueCapacity;
+    private final Map<LlmPriority, Duration> maxWait;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Map<LlmPriority, LinkedHashMap<String, ArrayDeque<Ticket>>> waiting = new EnumMap<>(LlmPriority.class);
+    private int running;
+    private int queued;
+    private double averageCallNanos;
+
+    private final AtomicLong admitted = new AtomicLong();
+    private final Map<ShedReason, AtomicLong> shed = new EnumMap<>(ShedReason.class);
+
+    /**
+     * @param maxConcurrent calls sent to the model at the same time
+     * @param queueCapacity calls allowed to wait for a slot
+     * @param maxWait       longest acceptable wait for a slot, per priority class
+     */
+    public LlmScheduler(int maxConcurrent, int queueCapacity, Map<LlmPriority, Duration> maxWait) {
+        if (maxConcurrent < 1) {
+            throw new IllegalArgumentException("maxConcurrent must be at least 1");
+        }
+        this.maxConcurrent = maxConcurrent;
+        this.queueCapacity = Math.max(0, queueCapacity);
+        this.maxWait = new EnumMap<>(maxWait);
+        for (LlmPriority priority : LlmPriority.values()) {
+            this.maxWait.putIfAbsent(priority, Duration.ZERO);
+            waiting.put(priority, new LinkedHashMap<>());
+        }
+        for (ShedReason reason : ShedReason.values()) {
+            shed.put(reason, new AtomicLong());
+        }
+    }
+
+    /**
+     * Waits for a slot for the calling thread's {@link LlmCallContext}
+     */
+    public Permit acquire() {
+        LlmCallContext context = LlmCallContext.current();
+        return acquire(context.getUser(), context.getPriority());
+    }
+
+    /**
+     * Waits for a slot; the returned permit must be closed once the model call is over
+     *
+     * @throws LlmOverloadedException if the call is shed
+     */
+    public Permit acquire(String user, LlmPriority priority) {
+        long maxWaitNanos = maxWait.get(priority).toNanos();
+        lock.lock();
+        try {
+            if (running < maxConcurrent && queued == 0) {
+                running++;
+                admitted.incrementAndGet();
+                return new Permit();
+            }
+            if (queued >= queueCapacity) {
+                throw shed(ShedReason.QUEUE_FULL, "LLM wait queue is full (" + queued + " calls waiting)");
+            }
+            long estimatedWait = estimateWaitNanos(user, priority);
+            if (estimatedWait > maxWaitNanos) {
+                throw shed(ShedReason.DEADLINE, "Estimated LLM wait " + TimeUnit.NANOSECONDS.toMillis(estimatedWait)
+                        + " ms exceeds " + maxWait.get(priority).toMillis() + " ms for " + priority + " calls");
+            }
+
+            Ticket ticket = new Ticket(lock.newCondition());
+            waiting.get(priority).computeIfAbsent(user, u -> new ArrayDeque<>()).addLast(ticket);
+            queued++;
+            long remaining = maxWaitNanos;
+            try {
+                while (!ticket.granted) {
+                    if (remaining <= 0) {
+                        remove(ticket, user, priority);
+                        throw shed(ShedReason.TIMEOUT, "No LLM slot within " + maxWait.get(priority).toMillis()
+                                + " ms for " + priority + " call");
+                    }
+                    remaining = ticket.signal.awaitNanos(remaining);
+                }
+            } catch (InterruptedException e) {
+                if (ticket.granted) {
+                    running--;
+                    dispatch();
+                } else {
+                    remove(ticket, user, priority);
+                }
+                Thread.currentThread().interrupt();
+                throw new LlmOverloadedException("Interrupted while waiting for an LLM slot", e);
+            }
+            admitted.incrementAndGet();
+            return new Permit();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getMaxConcurrent() {
+        return maxConcurrent;
+    }
+
+    public int getRunningCount() {
+        lock.lock();
+        try {
+            return running;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getQueuedCount() {
+        lock.lock();
+        try {
+            return queued;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getAdmittedCount() {
+        return admitted.get();
+    }
+
+    public long getShedCount(ShedReason reason) {
+        return shed.get(reason).get();
+    }
+
+    public Map<String, Object> getStatistics() {
+        Map<String, Object> map = new HashMap<>();
+        lock.lock();
+        try {
+            map.put("running", running);
+            map.put("queued", queued);
+            map.put("averageCallMs", Math.round(averageCallNanos / 1_000_000));
+        } finally {
+            lock.unlock();
+        }
+        map.put("maxConcurrent", maxConcurrent);
+        map.put("queueCapacity", queueCapacity);
+        map.put("admitted", admitted.get());
+        Map<String, Long> shedCounts = new HashMap<>();
+        shed.forEach((reason, count) -> shedCounts.put(reason.name(), count.get()));
+        map.put("shed", shedCounts);
+        return map;
+    }
+
+    /**
+     * Calls that would be admitted before a new call of this user: every waiting call of a higher priority, and
+     * with round-robin within the class, up to (own pending calls + 1) calls of each other user
+     */
+    private long estimateWaitNanos(String user, LlmPriority priority) {
+        if (averageCallNanos == 0) {
+            return 0;
+        }
+        int ahead = 0;
+        for (LlmPriority other : LlmPriority.values()) {
+            LinkedHashMap<String, ArrayDeque<Ticket>> users = waiting.get(other);
+            if (other == priority) {
+                ArrayDeque<Ticket> own = users.get(user);
+                int turn = (own == null ? 0 : own.size()) + 1;
+                for (ArrayDeque<Ticket> pending : users.values()) {
+                    ahead += Math.min(pending.size(), turn);
+                }
+                break;
+            }
+            for (ArrayDeque<Ticket> pending : users.values()) {
+                ahead += pending.size();
+            }
+        }
+        return (long) ((ahead + 1) * averageCallNanos / maxConcurrent);
+    }
+
+    private void release(long startNanos) {
+        lock.lock();
+        try {
+            long duration = System.nanoTime() - startNanos;
+            averageCallNanos = averageCallNanos == 0 ? duration
+                    : AVERAGE_WEIGHT * duration + (1 - AVERAGE_WEIGHT) * averageCallNanos;
+            running--;
+            dispatch();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Hands free slots to the next waiting calls: highest priority first, then the user at the head of the round
+     */
+    private void dispatch() {
+        while (running < maxConcurrent) {
+            Ticket next = null;
+            for (LlmPriority priority : LlmPriority.values()) {
+                Iterator<Map.Entry<String, ArrayDeque<Ticket>>> users = waiting.get(priority).entrySet().iterator();
+                if (!users.hasNext()) {
+                    continue;
+                }
+                Map.Entry<String, ArrayDeque<Ticket>> head = users.next();
+                next = head.getValue().pollFirst();
+                users.remove();
+                if (!head.getValue().isEmpty()) {
+                    // Back to the end of the round
+                    waiting.get(priority).put(head.getKey(), head.getValue());
+                }
+                break;
+            }
+            if (next == null) {
+                return;
+            }
+            next.granted = true;
+            running++;
+            queued--;
+            next.signal.signal();
+        }
+    }
+
+    private void remove(Ticket ticket, String user, LlmPriority priority) {
+        ArrayDeque<Ticket> pending = waiting.get(priority).get(user);
+        if (pending != null && pending.remove(ticket)) {
+            queued--;
+            if (pending.isEmpty()) {
+                waiting.get(priority).remove(user);
+            }
+        }
+    }
+
+    private LlmOverloadedException shed(ShedReason reason, String message) {
+        shed.get(reason).incrementAndGet();
+        return new LlmOverloadedException(message);
+    }
+
+    private static final class Ticket {
+        private final Condition signal;
+        private boolean granted;
+
+        private Ticket(Condition signal) {
+            this.signal = signal;
+        }
+    }
+
+    /**
+     * A slot of the scheduler, released on close (once)
+     */
+    public final class Permit implements AutoCloseable {
+        private final long startNanos = System.nanoTime();
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        private Permit() {
+        }
+
+        @Override
+        public void close() {
+            if (released.compareAndSet(false, true)) {
+                release(startNanos);
+            }
+        }
+    }
+}
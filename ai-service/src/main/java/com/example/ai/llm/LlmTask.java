@@ -0,0 +1,25 @@
+package com.example.ai.llm;
+
+import java.util.Locale;
+
+/**
+ * Kind of work a model call does, used to pick its model profile ({@code ai.llm.profiles.<name>.*})
+ */
+public enum LlmTask {
+    /**
+     * Conversational answers shown to the user (default)
+     */
+    CHAT,
+    /**
+     * Short structured output: nutrition extraction, food recognition, command classification
+     */
+    EXTRACTION,
+    /**
+     * Long-form analyses and reports
+     */
+    REPORT;
+
+    public String profileName() {
+        return name().toLowerCase(Locale.ROOT);
+    }
+}
@@ -0,0 +1,14 @@
+package com.example.ai.llm;
+
+/**
+ * Thrown instead of calling the model while the {@link LlmCircuitBreaker} is open. A kind of
+ * {@link LlmOverloadedException}, so call sites answer with the same local fallback as for a shed call.
+ */
+public class LlmUnavailableException extends LlmOverloadedException {
+
+    private static final long serialVersionUID = 1L;
+
+    public LlmUnavailableException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,374 @@
+package com.example.ai.llm;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.ConnectException;
+import java.net.NoRouteToHostException;
+import java.net.URI;
+import java.net.UnknownHostException;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
+
+/**
+ * Ollama endpoints serving the same models, with the load balanced between them.
+ *
+ * Each call goes to the healthy endpoint with the fewest outstanding requests, ties going to the lowest peak-EWMA
+ * latency (an average that jumps to any slower sample and decays towards faster ones, so a stalling endpoint is
+ * avoided at once). The average also halves every {@link #LATENCY_HALF_LIFE_NANOS} without samples, so an endpoint
+ * avoided after one slow call gets traffic again and a fresh measurement.
+ * An endpoint takes at most {@code maxConcurrent} calls; when every candidate is full, the call waits up to
+ * {@code acquireTimeout} for one to free up, then is shed with {@link LlmOverloadedException}.
+ * An endpoint is ejected after {@code maxFailures} consecutive endpoint failures (connection refused or unreachable,
+ * HTTP 5xx) or a failed health check; other errors, such as a bad request, say nothing about the endpoint.
+ * The health check (GET /api/tags every {@code healthInterval}) re-admits it once {@code ejectionDuration}
+ * has passed and it answers again. With every endpoint ejected, calls still go to the least loaded one rather than
+ * failing outright.
+ *
+ * Per endpoint metrics: {@code llm.endpoint.outstanding}, {@code llm.endpoint.latency.ewma},
+ * {@code llm.endpoint.healthy} and {@code llm.endpoint.requests{outcome=success|failure}}, tagged with the endpoint URL.
+ */
+public class OllamaEndpointPool implements AutoCloseable {
+
+    private static final Logger log = LoggerFactory.getLogger(OllamaEndpointPool.class);
+
+    /**
+     * Weight of the previous average when a faster sample comes in
+     */
+    private static final double EWMA_DECAY = 0.8;
+
+    /**
+     * Time for the latency average of an endpoint to halve when no call completes on it
+     */
+    static final long LATENCY_HALF_LIFE_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+    // Error raised by the Ollama client for an HTTP error response
+    private static final Pattern SERVER_ERROR = Pattern.compile("status code: 5\\d\\d");
+
+    private final List<Endpoint> endpoints = new ArrayList<>();
+    private final int maxConcurrent;
+    private final long acquireTimeoutNanos;
+    private final int maxFailures;
+    private final long ejectionNanos;
+    private final HttpClient httpClient = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(2)).build();
+    private final ScheduledExecutorService healthChecker;
+
+    /**
+     * @param maxConcurrent  calls sent to one endpoint at the same time
+     * @param acquireTimeout longest wait for an endpoint below {@code maxConcurrent}
+     */
+    public OllamaEndpointPool(Collection<String> baseUrls, int maxConcurrent, Duration acquireTimeout, int maxFailures,
+                              Duration ejectionDuration, Duration healthInterval, MeterRegistry meterRegistry) {
+        if (baseUrls.isEmpty()) {
+            throw new IllegalArgumentException("At least one Ollama endpoint is required");
+        }
+        this.maxConcurrent = Math.max(1, maxConcurrent);
+        this.acquireTimeoutNanos = acquireTimeout.toNanos();
+        this.maxFailures = Math.max(1, maxFailures);
+        this.ejectionNanos = ejectionDuration.toNanos();
+        for (String baseUrl : baseUrls) {
+            Endpoint endpoint = new Endpoint(baseUrl.replaceAll("/+$", ""), meterRegistry);
+            endpoints.add(endpoint);
+            Gauge.builder("llm.endpoint.outstanding", endpoint, Endpoint::getOutstanding)
+                    .tag("endpoint", endpoint.baseUrl)
+                    .description("Calls in flight on the Ollama endpoint")
+                    .register(meterRegistry);
+            Gauge.builder("llm.endpoint.latency.ewma", endpoint, e -> e.getLatencyEwmaNanos() / 1e9)
+                    .tag("endpoint", endpoint.baseUrl)
+                    .description("Peak-EWMA latency of the Ollama endpoint in seconds")
+                    .register(meterRegistry);
+            Gauge.builder("llm.endpoint.healthy", endpoint, e -> e.isHealthy() ? 1 : 0)
+                    .tag("endpoint", endpoint.baseUrl)
+                    .description("1 while the Ollama endpoint receives calls, 0 while it is ejected")
+                    .register(meterRegistry);
+        }
+        healthChecker = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "llm-endpoint-health");
+            thread.setDaemon(true);
+            return thread;
+        });
+        healthChecker.scheduleWithFixedDelay(this::checkHealth, healthInterval.toMillis(), healthInterval.toMillis(),
+                TimeUnit.MILLISECONDS);
+        log.info("Ollama endpoint pool: {}", baseUrls);
+    }
+
+    public List<Endpoint> getEndpoints() {
+        return endpoints;
+    }
+
+    /**
+     * Endpoint for the next call, outstanding count already increased; to be given back with {@link #release}
+     * (or {@link #abandon}). Waits while every candidate endpoint is at {@code maxConcurrent}.
+     *
+     * @param excluded endpoints already tried by this call
+     * @return null if every endpoint is excluded
+     * @throws LlmOverloadedException if no endpoint frees up within the acquire timeout
+     */
+    public synchronized Endpoint acquire(Collection<Endpoint> excluded) {
+        long deadline = System.nanoTime() + acquireTimeoutNanos;
+        while (true) {
+            boolean candidate = false;
+            boolean healthyCandidate = false;
+            for (Endpoint endpoint : endpoints) {
+                if (!excluded.contains(endpoint)) {
+                    candidate = true;
+                    healthyCandidate |= endpoint.isHealthy();
+                }
+            }
+            if (!candidate) {
+                return null;
+            }
+            // Ejected endpoints are only used when no healthy one is left
+            Endpoint best = pick(excluded, healthyCandidate);
+            if (best != null) {
+                best.outstanding.incrementAndGet();
+                return best;
+            }
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                throw new LlmOverloadedException("Every Ollama endpoint has " + maxConcurrent + " calls in flight");
+            }
+            try {
+                TimeUnit.NANOSECONDS.timedWait(this, remaining);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new LlmOverloadedException("Interrupted while waiting for an Ollama endpoint", e);
+            }
+        }
+    }
+
+    private Endpoint pick(Collection<Endpoint> excluded, boolean healthyOnly) {
+        long now = System.nanoTime();
+        Endpoint best = null;
+        double bestLatency = 0;
+        for (Endpoint endpoint : endpoints) {
+            if (excluded.contains(endpoint) || (healthyOnly && !endpoint.isHealthy())
+                    || endpoint.getOutstanding() >= maxConcurrent) {
+                continue;
+            }
+            double latency = endpoint.latencyEwmaNanos(now);
+            if (best == null || endpoint.getOutstanding() < best.getOutstanding()
+                    || (endpoint.getOutstanding() == best.getOutstanding() && latency < bestLatency)) {
+                best = endpoint;
+                bestLatency = latency;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Ends a call on the endpoint
+     *
+     * @param latencyNanos duration of the call (time to first token for streamed calls)
+     * @param error        failure of the call, null on success; only {@link #isEndpointFailure} errors count
+     *                     towards ejection
+     */
+    public void release(Endpoint endpoint, long latencyNanos, Throwable error) {
+        if (error == null) {
+            endpoint.successTimer.record(latencyNanos, TimeUnit.NANOSECONDS);
+            endpoint.recordSuccess(latencyNanos);
+        } else {
+            endpoint.failureTimer.record(latencyNanos, TimeUnit.NANOSECONDS);
+            if (isEndpointFailure(error) && endpoint.recordFailure() >= maxFailures) {
+                eject(endpoint, "consecutive failures");
+            }
+        }
+        abandon(endpoint);
+    }
+
+    /**
+     * Gives the endpoint back without recording an outcome, e.g. for a stream cancelled by its client
+     */
+    public void abandon(Endpoint endpoint) {
+        endpoint.outstanding.decrementAndGet();
+        synchronized (this) {
+            notifyAll();
+        }
+    }
+
+    /**
+     * True if some endpoint currently receives calls (circuit breaker probe)
+     */
+    public boolean hasHealthyEndpoint() {
+        for (Endpoint endpoint : endpoints) {
+            if (endpoint.isHealthy()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * A call that failed before reaching the endpoint can safely be sent to another one
+     */
+    public static boolean isConnectionFailure(Throwable error) {
+        for (Throwable cause = error; cause != null; cause = cause.getCause()) {
+            if (cause instanceof ConnectException || cause instanceof NoRouteToHostException
+                    || cause instanceof UnknownHostException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * The endpoint itself is at fault: unreachable, or answering with a server error
+     */
+    public static boolean isEndpointFailure(Throwable error) {
+        if (isConnectionFailure(error)) {
+            return true;
+        }
+        for (Throwable cause = error; cause != null; cause = cause.getCause()) {
+            if (cause.getMessage() != null && SERVER_ERROR.matcher(cause.getMessage()).find()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public Map<String, Object> getStatistics() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        for (Endpoint endpoint : endpoints) {
+            Map<String, Object> endpointStats = new HashMap<>();
+            endpointStats.put("healthy", endpoint.isHealthy());
+            endpointStats.put("outstanding", endpoint.getOutstanding());
+            endpointStats.put("maxConcurrent", maxConcurrent);
+            endpointStats.put("latencyEwmaMs", Math.round(endpoint.getLatencyEwmaNanos() / 1e6));
+            endpointStats.put("successes", endpoint.successTimer.count());
+            endpointStats.put("failures", endpoint.failureTimer.count());
+            stats.put(endpoint.baseUrl, endpointStats);
+        }
+        return stats;
+    }
+
+    void checkHealth() {
+        for (Endpoint endpoint : endpoints) {
+            boolean up = probe(endpoint);
+            synchronized (endpoint) {
+                if (!up && endpoint.ejectedAt == 0) {
+                    eject(endpoint, "health check failed");
+                } else if (up && endpoint.ejectedAt != 0 && System.nanoTime() - endpoint.ejectedAt >= ejectionNanos) {
+                    endpoint.ejectedAt = 0;
+                    endpoint.consecutiveFailures = 0;
+                    log.info("Ollama endpoint {} re-admitted", endpoint.baseUrl);
+                }
+            }
+        }
+        synchronized (this) {
+            // Calls waiting for a free endpoint may now use a re-admitted one
+            notifyAll();
+        }
+    }
+
+    private boolean probe(Endpoint endpoint) {
+        try {
+            HttpRequest request = HttpRequest.newBuilder(URI.create(endpoint.baseUrl + "/api/tags"))
+                    .timeout(Duration.ofSeconds(2))
+                    .GET()
+                    .build();
+            return httpClient.send(request, HttpResponse.BodyHandlers.discarding()).statusCode() == 200;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    private void eject(Endpoint endpoint, String reason) {
+        synchronized (endpoint) {
+            if (endpoint.ejectedAt == 0) {
+                endpoint.ejectedAt = System.nanoTime();
+                log.warn("Ollama endpoint {} ejected: {}", endpoint.baseUrl, reason);
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        healthChecker.shutdownNow();
+    }
+
+    public static final class Endpoint {
+        private final String baseUrl;
+        private final AtomicInteger outstanding = new AtomicInteger();
+        private final Timer successTimer;
+        private final Timer failureTimer;
+
+        // Guarded by this
+        private double latencyEwmaNanos;
+        private long latencyUpdatedAt = System.nanoTime();
+        private int consecutiveFailures;
+        // System.nanoTime() of the ejection, 0 while healthy
+        private long ejectedAt;
+
+        private Endpoint(String baseUrl, MeterRegistry meterRegistry) {
+            this.baseUrl = baseUrl;
+            this.successTimer = Timer.builder("llm.endpoint.requests")
+                    .tag("endpoint", baseUrl)
+                    .tag("outcome", "success")
+                    .description("Calls to the Ollama endpoint")
+                    .register(meterRegistry);
+            this.failureTimer = Timer.builder("llm.endpoint.requests")
+                    .tag("endpoint", baseUrl)
+                    .tag("outcome", "failure")
+                    .description("Calls to the Ollama endpoint")
+                    .register(meterRegistry);
+        }
+
+        public String getBaseUrl() {
+            return baseUrl;
+        }
+
+        public int getOutstanding() {
+            return outstanding.get();
+        }
+
+        public double getLatencyEwmaNanos() {
+            return latencyEwmaNanos(System.nanoTime());
+        }
+
+        private synchronized double latencyEwmaNanos(long now) {
+            return latencyEwmaNanos * Math.pow(0.5, (double) (now - latencyUpdatedAt) / LATENCY_HALF_LIFE_NANOS);
+        }
+
+        public synchronized boolean isHealthy() {
+            return ejectedAt == 0;
+        }
+
+        private synchronized void recordSuccess(long latencyNanos) {
+            consecutiveFailures = 0;
+            long now = System.nanoTime();
+            double current = latencyEwmaNanos(now);
+            latencyEwmaNanos = latencyNanos > current
+                    ? latencyNanos
+                    : EWMA_DECAY * current + (1 - EWMA_DECAY) * latencyNanos;
+            latencyUpdatedAt = now;
+        }
+
+        private synchronized int recordFailure() {
+            return ++consecutiveFailures;
+        }
+
+        @Override
+        public String toString() {
+            return baseUrl;
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package com.example.ai.llm;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps the models of the profiles loaded on every Ollama endpoint and the shared system prompt evaluated, so that
+ * the first user after a quiet period does not pay the model load.
+ *
+ * The LangChain4j Ollama client does not send {@code keep_alive}: each of its calls leaves the model loaded for the
+ * server default ({@code OLLAMA_KEEP_ALIVE}, 5 minutes). A one-token generation of the {@link PromptAssembler#PERSONA}
+ * system prompt is sent with {@code keep_alive} at startup, then every {@code interval} while no call is running.
+ * The interval must stay below the server default, since a regular call resets the model timer to that default.
+ * Only {@code num_predict} is set: options such as {@code num_ctx} differing from the regular calls would make
+ * Ollama reload the model.
+ *
+ * Ollama's own timings are published as {@code llm.warmup{phase=load|prompt_eval}}.
+ */
+public class OllamaWarmup implements AutoCloseable {
+
+    private static final Logger log = LoggerFactory.getLogger(OllamaWarmup.class);
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final HttpClient httpClient = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(2)).build();
+    private final List<URI> chatUris = new ArrayList<>();
+    private final List<String> bodies = new ArrayList<>();
+    private final LlmScheduler scheduler;
+    private final LlmCircuitBreaker circuitBreaker;
+    private final Timer loadTimer;
+    private final Timer promptEvalTimer;
+    private final ScheduledExecutorService executor;
+
+    private final AtomicLong warmups = new AtomicLong();
+
+    /**
+     * @param keepAlive how long Ollama keeps the model loaded after a warm-up, negative to keep it loaded
+     * @param interval  delay between two warm-ups
+     */
+    public OllamaWarmup(Collection<String> baseUrls, Collection<String> modelNames, Duration keepAlive, Duration interval,
+                        LlmScheduler scheduler, LlmCircuitBreaker circuitBreaker, MeterRegistry meterRegistry) {
+        for (String baseUrl : baseUrls) {
+            chatUris.add(URI.create(baseUrl.replaceAll("/+$", "") + "/api/chat"));
+        }
+        this.scheduler = scheduler;
+        this.circuitBreaker = circuitBreaker;
+        try {
+            for (String modelName : modelNames) {
+                bodies.add(objectMapper.writeValueAsString(Map.of(
+                        "model", modelName,
+                        "messages", List.of(Map.of("role", "system", "content", PromptAssembler.PERSONA)),
+                        "stream", false,
+                        "keep_alive", keepAlive.isNegative() ? -1 : keepAlive.toSeconds(),
+                        "options", Map.of("num_predict", 1))));
+            }
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+        this.loadTimer = Timer.builder("llm.warmup")
+                .tag("phase", "load")
+                .description("Model load time reported by Ollama for warm-up calls")
+                .register(meterRegistry);
+        this.promptEvalTimer = Timer.builder("llm.warmup")
+                .tag("phase", "prompt_eval")
+                .description("Prompt evaluation time reported by Ollama for warm-up calls")
+                .register(meterRegistry);
+
+        executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "llm-warmup");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.scheduleWithFixedDelay(this::warmUp, 0, interval.toMillis(), TimeUnit.MILLISECONDS);
+        log.info("Ollama warm-up of {} on {} every {} with keep_alive {}", modelNames, baseUrls, interval, keepAlive);
+    }
+
+    /**
+     * Sends the warm-up calls, unless the model is busy (hence loaded) or considered down
+     */
+    void warmUp() {
+        for (URI chatUri : chatUris) {
+            for (String body : bodies) {
+                if (scheduler.getRunningCount() > 0 || circuitBreaker.getState() != LlmCircuitBreaker.State.CLOSED) {
+                    return;
+                }
+                warmUp(chatUri, body);
+            }
+        }
+    }
+
+    private void warmUp(URI chatUri, String body) {
+        try {
+            HttpRequest request = HttpRequest.newBuilder(chatUri)
+                    .timeout(Duration.ofMinutes(2))
+                    .header("Content-Type", "application/json")
+                    .POST(HttpRequest.BodyPublishers.ofString(body))
+                    .build();
+            HttpResponse<String> response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
+            if (response.statusCode() != 200) {
+                log.warn("Ollama warm-up on {} answered {}: {}", chatUri.getAuthority(), response.statusCode(),
+                        response.body());
+                return;
+            }
+            JsonNode timings = objectMapper.readTree(response.body());
+            long loadNanos = timings.path("load_duration").asLong();
+            long promptEvalNanos = timings.path("prompt_eval_duration").asLong();
+            loadTimer.record(loadNanos, TimeUnit.NANOSECONDS);
+            promptEvalTimer.record(promptEvalNanos, TimeUnit.NANOSECONDS);
+            if (warmups.getAndIncrement() < (long) bodies.size() * chatUris.size()) {
+                log.info("Ollama warm-up of {} on {}: model loaded in {}ms, {} prompt tokens evaluated in {}ms",
+                        timings.path("model").asText(), chatUri.getAuthority(), TimeUnit.NANOSECONDS.toMillis(loadNanos),
+                        timings.path("prompt_eval_count").asInt(), TimeUnit.NANOSECONDS.toMillis(promptEvalNanos));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            log.debug("Ollama warm-up failed: {}", e.getMessage());
+        }
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+}
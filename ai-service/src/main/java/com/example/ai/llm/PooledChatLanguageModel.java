@@ -0,0 +1,63 @@
+package com.example.ai.llm;
+
+import dev.langchain4j.agent.tool.ToolSpecification;
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.model.chat.ChatLanguageModel;
+import dev.langchain4j.model.output.Response;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Sends each call to an endpoint of the {@link OllamaEndpointPool}, through the model built for that endpoint.
+ * A call that could not connect is sent again to another endpoint; other failures are thrown as they are,
+ * since the endpoint may already have started generating. Only connection and server errors count against the
+ * endpoint's health.
+ */
+public class PooledChatLanguageModel implements ChatLanguageModel {
+
+    private final OllamaEndpointPool pool;
+    private final Map<OllamaEndpointPool.Endpoint, ChatLanguageModel> models;
+
+    public PooledChatLanguageModel(OllamaEndpointPool pool, Map<OllamaEndpointPool.Endpoint, ChatLanguageModel> models) {
+        this.pool = pool;
+        this.models = models;
+    }
+
+    @Override
+    public Response<AiMessage> generate(List<ChatMessage> messages) {
+        return call(model -> model.generate(messages));
+    }
+
+    @Override
+    public Response<AiMessage> generate(List<ChatMessage> messages, List<ToolSpecification> toolSpecifications) {
+        return call(model -> model.generate(messages, toolSpecifications));
+    }
+
+    @Override
+    public Response<AiMessage> generate(List<ChatMessage> messages, ToolSpecification toolSpecification) {
+        return call(model -> model.generate(messages, toolSpecification));
+    }
+
+    private Response<AiMessage> call(Function<ChatLanguageModel, Response<AiMessage>> generation) {
+        List<OllamaEndpointPool.Endpoint> tried = new ArrayList<>();
+        while (true) {
+            OllamaEndpointPool.Endpoint endpoint = pool.acquire(tried);
+            long start = System.nanoTime();
+            try {
+                Response<AiMessage> response = generation.apply(models.get(endpoint));
+                pool.release(endpoint, System.nanoTime() - start, null);
+                return response;
+            } catch (RuntimeException e) {
+                pool.release(endpoint, System.nanoTime() - start, e);
+                tried.add(endpoint);
+                if (!OllamaEndpointPool.isConnectionFailure(e) || tried.size() == pool.getEndpoints().size()) {
+                    throw e;
+                }
+            }
+        }
+    }
+}
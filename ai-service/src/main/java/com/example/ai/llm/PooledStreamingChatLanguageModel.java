@@ -0,0 +1,90 @@
+package com.example.ai.llm;
+
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.model.StreamingResponseHandler;
+import dev.langchain4j.model.chat.StreamingChatLanguageModel;
+import dev.langchain4j.model.output.Response;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Streaming counterpart of {@link PooledChatLanguageModel}. The endpoint is held until generation completes;
+ * its latency sample is the time to first token. Streamed calls are not retried, tokens may already be out.
+ */
+public class PooledStreamingChatLanguageModel implements StreamingChatLanguageModel {
+
+    private final OllamaEndpointPool pool;
+    private final Map<OllamaEndpointPool.Endpoint, StreamingChatLanguageModel> models;
+
+    public PooledStreamingChatLanguageModel(OllamaEndpointPool pool,
+                                            Map<OllamaEndpointPool.Endpoint, StreamingChatLanguageModel> models) {
+        this.pool = pool;
+        this.models = models;
+    }
+
+    @Override
+    public void generate(List<ChatMessage> messages, StreamingResponseHandler<AiMessage> handler) {
+        OllamaEndpointPool.Endpoint endpoint = pool.acquire(List.of());
+        Releasing releasing = new Releasing(endpoint, handler);
+        try {
+            models.get(endpoint).generate(messages, releasing);
+        } catch (RuntimeException e) {
+            releasing.release(e);
+            throw e;
+        }
+    }
+
+    /**
+     * Gives the endpoint back exactly once, when generation ends
+     */
+    private final class Releasing implements StreamingResponseHandler<AiMessage> {
+        private final OllamaEndpointPool.Endpoint endpoint;
+        private final StreamingResponseHandler<AiMessage> handler;
+        private final long start = System.nanoTime();
+        private final AtomicBoolean released = new AtomicBoolean();
+        private volatile long firstTokenNanos = -1;
+
+        private Releasing(OllamaEndpointPool.Endpoint endpoint, StreamingResponseHandler<AiMessage> handler) {
+            this.endpoint = endpoint;
+            this.handler = handler;
+        }
+
+        @Override
+        public void onNext(String token) {
+            if (firstTokenNanos < 0) {
+                firstTokenNanos = System.nanoTime() - start;
+            }
+            handler.onNext(token);
+        }
+
+        @Override
+        public void onComplete(Response<AiMessage> response) {
+            release(null);
+            handler.onComplete(response);
+        }
+
+        @Override
+        public void onError(Throwable error) {
+            if (error instanceof CancellationException) {
+                // A stream cancelled by its client says nothing about the endpoint
+                if (released.compareAndSet(false, true)) {
+                    pool.abandon(endpoint);
+                }
+            } else {
+                release(error);
+            }
+            handler.onError(error);
+        }
+
+        private void release(Throwable error) {
+            if (released.compareAndSet(false, true)) {
+                long latency = error == null && firstTokenNanos >= 0 ? firstTokenNanos : System.nanoTime() - start;
+                pool.release(endpoint, latency, error);
+            }
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package com.example.ai.llm;
+
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.data.message.SystemMessage;
+import dev.langchain4j.data.message.UserMessage;
+
+import java.util.List;
+
+/**
+ * Builds a prompt as a static system message followed by a user message holding everything that varies per call.
+ *
+ * Ollama keeps the evaluated tokens of the previous prompt and only evaluates what follows the longest common
+ * prefix. The system message is therefore {@link #PERSONA}, identical for every service, then the fixed
+ * instructions of the call site (a constant); user data, retrieved knowledge and the question come last.
+ * Interleaving them with the instructions would make every prompt diverge after a few tokens.
+ */
+public final class PromptAssembler {
+
+    /**
+     * Opening shared by every system prompt, byte for byte
+     */
+    public static final String PERSONA = "You are Phi3, the nutrition assistant of the Makla platform. "
+            + "You help users track their meals and water intake and give them health advice.";
+
+    private final String system;
+    private final StringBuilder user = new StringBuilder();
+
+    private PromptAssembler(String system) {
+        this.system = system;
+    }
+
+    /**
+     * @param instructions fixed instructions of the call site; must not contain per-call data
+     */
+    public static PromptAssembler system(String instructions) {
+        return new PromptAssembler(PERSONA + "\n\n" + instructions);
+    }
+
+    /**
+     * Appends a titled block of variable data, skipped when the content is empty
+     */
+    public PromptAssembler section(String title, String content) {
+        if (content != null && !content.isBlank()) {
+            user.append(title).append(":\n").append(content.strip()).append("\n\n");
+        }
+        return this;
+    }
+
+    /**
+     * Appends a titled block, with a default when the content is empty
+     */
+    public PromptAssembler section(String title, String content, String whenEmpty) {
+        return section(title, content == null || content.isBlank() ? whenEmpty : content);
+    }
+
+    /**
+     * Appends one line of the user message (the question, a closing cue)
+     */
+    public PromptAssembler line(String text) {
+        user.append(text).append('\n');
+        return this;
+    }
+
+    public String getSystem() {
+        return system;
+    }
+
+    public List<ChatMessage> messages() {
+        return List.of(SystemMessage.from(system), UserMessage.from(user.toString().strip()));
+    }
+}
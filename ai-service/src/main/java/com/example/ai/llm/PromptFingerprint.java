@@ -0,0 +1,37 @@
+package com.example.ai.llm;
+
+import dev.langchain4j.data.message.ChatMessage;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.List;
+
+/**
+ * Identity of a model call: SHA-256 of the model parameters, the task (hence the model profile), the output format
+ * and every message of the prompt.
+ * Two calls with the same fingerprint would produce the same request to the model.
+ */
+final class PromptFingerprint {
+
+    private PromptFingerprint() {
+    }
+
+    static String of(String modelParameters, List<ChatMessage> messages) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(modelParameters.getBytes(StandardCharsets.UTF_8));
+            LlmCallContext context = LlmCallContext.current();
+            digest.update((byte) context.getTask().ordinal());
+            digest.update((byte) (context.isJsonOutput() ? 1 : 0));
+            for (ChatMessage message : messages) {
+                digest.update((byte) 0);
+                digest.update(message.toString().getBytes(StandardCharsets.UTF_8));
+            }
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
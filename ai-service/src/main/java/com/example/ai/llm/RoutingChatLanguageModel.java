@@ -0,0 +1,46 @@
+package com.example.ai.llm;
+
+import dev.langchain4j.agent.tool.ToolSpecification;
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.model.chat.ChatLanguageModel;
+import dev.langchain4j.model.output.Response;
+
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Sends each call to the model of its task's profile ({@link LlmCallContext#getTask()}), e.g. a small model at low
+ * temperature with a short output cap for extraction and a larger one for reports. Tasks without a model of their
+ * own go to the {@link LlmTask#CHAT} model.
+ */
+public class RoutingChatLanguageModel implements ChatLanguageModel {
+
+    private final Map<LlmTask, ChatLanguageModel> models;
+    private final ChatLanguageModel defaultModel;
+
+    public RoutingChatLanguageModel(Map<LlmTask, ChatLanguageModel> models) {
+        this.models = new EnumMap<>(models);
+        this.defaultModel = models.get(LlmTask.CHAT);
+    }
+
+    @Override
+    public Response<AiMessage> generate(List<ChatMessage> messages) {
+        return model().generate(messages);
+    }
+
+    @Override
+    public Response<AiMessage> generate(List<ChatMessage> messages, List<ToolSpecification> toolSpecifications) {
+        return model().generate(messages, toolSpecifications);
+    }
+
+    @Override
+    public Response<AiMessage> generate(List<ChatMessage> messages, ToolSpecification toolSpecification) {
+        return model().generate(messages, toolSpecification);
+    }
+
+    private ChatLanguageModel model() {
+        return models.getOrDefault(LlmCallContext.current().getTask(), defaultModel);
+    }
+}
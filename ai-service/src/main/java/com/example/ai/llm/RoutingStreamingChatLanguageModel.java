@@ -0,0 +1,30 @@
+package com.example.ai.llm;
+
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.model.StreamingResponseHandler;
+import dev.langchain4j.model.chat.StreamingChatLanguageModel;
+
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Streaming counterpart of {@link RoutingChatLanguageModel}: the profile is picked when generation starts,
+ * on the caller's thread
+ */
+public class RoutingStreamingChatLanguageModel implements StreamingChatLanguageModel {
+
+    private final Map<LlmTask, StreamingChatLanguageModel> models;
+    private final StreamingChatLanguageModel defaultModel;
+
+    public RoutingStreamingChatLanguageModel(Map<LlmTask, StreamingChatLanguageModel> models) {
+        this.models = new EnumMap<>(models);
+        this.defaultModel = models.get(LlmTask.CHAT);
+    }
+
+    @Override
+    public void generate(List<ChatMessage> messages, StreamingResponseHandler<AiMessage> handler) {
+        models.getOrDefault(LlmCallContext.current().getTask(), defaultModel).generate(messages, handler);
+    }
+}
@@ -0,0 +1,54 @@
+package com.example.ai.llm;
+
+import dev.langchain4j.agent.tool.ToolSpecification;
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.model.chat.ChatLanguageModel;
+import dev.langchain4j.model.output.Response;
+
+import java.util.List;
+
+/**
+ * ChatLanguageModel decorator that takes a {@link LlmScheduler} slot for the duration of every call.
+ * Calls that cannot be admitted in time fail fast with {@link LlmOverloadedException}.
+ */
+public class SchedulingChatLanguageModel implements ChatLanguageModel {
+
+    private final ChatLanguageModel delegate;
+    private final LlmScheduler scheduler;
+
+    public SchedulingChatLanguageModel(ChatLanguageModel delegate, LlmScheduler scheduler) {
+        this.delegate = delegate;
+        this.scheduler = scheduler;
+    }
+
+    @Override
+    public Response<AiMessage> generate(List<ChatMessage> messages) {
+        LlmScheduler.Permit permit = scheduler.acquire();
+        try {
+            return delegate.generate(messages);
+        } finally {
+            permit.close();
+        }
+    }
+
+    @Override
+    public Response<AiMessage> generate(List<ChatMessage> messages, List<ToolSpecification> toolSpecifications) {
+        LlmScheduler.Permit permit = scheduler.acquire();
+        try {
+            return delegate.generate(messages, toolSpecifications);
+        } finally {
+            permit.close();
+        }
+    }
+
+    @Override
+    public Response<AiMessage> generate(List<ChatMessage> messages, ToolSpecification toolSpecification) {
+        LlmScheduler.Permit permit = scheduler.acquire();
+        try {
+            return delegate.generate(messages, toolSpecification);
+        } finally {
+            permit.close();
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package com.example.ai.llm;
+
+import dev.langchain4j.agent.tool.ToolSpecification;
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.model.chat.ChatLanguageModel;
+import dev.langchain4j.model.output.Response;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * ChatLanguageModel decorator that coalesces identical concurrent calls.
+ *
+ * The first caller for a prompt fingerprint (the leader) runs the call on its own thread; callers arriving
+ * with the same fingerprint while it is in flight wait for the leader's future instead of sending the
+ * prompt to the model again. Failures are shared the same way. Nothing is kept once the call completes,
+ * storing answers is the job of {@link CachingChatLanguageModel}.
+ */
+public class SingleFlightChatLanguageModel implements ChatLanguageModel {
+
+    private final ChatLanguageModel delegate;
+    private final String modelParameters;
+    private final ConcurrentHashMap<String, CompletableFuture<Response<AiMessage>>> inFlight = new ConcurrentHashMap<>();
+    private final AtomicLong leaders = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+
+    /**
+     * @param modelParameters model name and generation settings, part of every fingerprint
+     */
+    public SingleFlightChatLanguageModel(ChatLanguageModel delegate, String modelParameters) {
+        this.delegate = delegate;
+        this.modelParameters = modelParameters;
+    }
+
+    @Override
+    public Response<AiMessage> generate(List<ChatMessage> messages) {
+        String key = PromptFingerprint.of(modelParameters, messages);
+        CompletableFuture<Response<AiMessage>> call = new CompletableFuture<>();
+        CompletableFuture<Response<AiMessage>> existing = inFlight.putIfAbsent(key, call);
+        if (existing != null) {
+            coalesced.incrementAndGet();
+            return await(existing);
+        }
+
+        leaders.incrementAndGet();
+        try {
+            Response<AiMessage> response = delegate.generate(messages);
+            call.complete(response);
+            return response;
+        } catch (RuntimeException | Error e) {
+            call.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, call);
+        }
+    }
+
+    @Override
+    public Response<AiMessage> generate(List<ChatMessage> messages, List<ToolSpecification> toolSpecifications) {
+        return delegate.generate(messages, toolSpecifications);
+    }
+
+    @Override
+    public Response<AiMessage> generate(List<ChatMessage> messages, ToolSpecification toolSpecification) {
+        return delegate.generate(messages, toolSpecification);
+    }
+
+    /**
+     * Calls actually sent to the model
+     */
+    public long getLeaderCount() {
+        return leaders.get();
+    }
+
+    /**
+     * Calls answered by another caller's in-flight request
+     */
+    public long getCoalescedCount() {
+        return coalesced.get();
+    }
+
+    public int getInFlightCount() {
+        return inFlight.size();
+    }
+
+    public Map<String, Object> getStatistics() {
+        Map<String, Object> map = new HashMap<>();
+        map.put("leaders", leaders.get());
+        map.put("coalesced", coalesced.get());
+        map.put("inFlight", inFlight.size());
+        return map;
+    }
+
+    private static Response<AiMessage> await(CompletableFuture<Response<AiMessage>> call) {
+        try {
+            return call.join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            if (cause instanceof Error error) {
+                throw error;
+            }
+            throw e;
+        }
+    }
+}
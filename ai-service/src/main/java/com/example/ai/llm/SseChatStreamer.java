@@ -0,0 +1,360 @@
+package com.example.ai.llm;
+
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.data.message.UserMessage;
+import dev.langchain4j.model.StreamingResponseHandler;
+import dev.langchain4j.model.chat.StreamingChatLanguageModel;
+import dev.langchain4j.model.output.Response;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Streams a model answer to the client as Server-Sent Events.
+ *
+ * Events: {@code token} ({"text": ...}) for each chunk as it is generated, then a single {@code done}
+ * event carrying the structured result computed from the full answer, or {@code error} if generation fails.
+ * The servlet thread is released as soon as the emitter is returned: the wait for a {@link LlmScheduler} slot runs
+ * on an admission thread and tokens are pushed from the model's callback thread.
+ * Generation holds its slot until the model completes, like the blocking calls, and goes straight to the
+ * {@code error} event (local fallback) while the {@link LlmCircuitBreaker} is open.
+ * When the client goes away or the emitter times out, the slot is released and the Ollama response is aborted
+ * at the next token, so an abandoned stream does not keep the model busy.
+ * The time to first token of each generation is published as {@code llm.stream.first.token}.
+ */
+@Component
+public class SseChatStreamer {
+
+    private static final Logger log = LoggerFactory.getLogger(SseChatStreamer.class);
+
+    /**
+     * Decides which part of the generated text reaches the client, e.g. only the RESPONSE section
+     */
+    public interface TokenFilter {
+
+        TokenFilter ALL = token -> token;
+
+        /**
+         * @return text to emit now for this token (may be empty)
+         */
+        String accept(String token);
+
+        /**
+         * Text held back so far, emitted once generation is complete
+         */
+        default String flush() {
+            return "";
+        }
+    }
+
+    private final StreamingChatLanguageModel streamingModel;
+    private final LlmScheduler scheduler;
+    private final LlmCircuitBreaker circuitBreaker;
+    private final Duration timeout;
+    private final Timer firstTokenTimer;
+    private final ExecutorService admission = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "llm-stream-admission");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public SseChatStreamer(
+            StreamingChatLanguageModel streamingModel,
+            LlmScheduler scheduler,
+            LlmCircuitBreaker circuitBreaker,
+            MeterRegistry meterRegistry,
+            @Value("${ai.llm.streaming.timeout:PT2M}") Duration timeout
+    ) {
+        this.streamingModel = streamingModel;
+        this.scheduler = scheduler;
+        this.circuitBreaker = circuitBreaker;
+        this.timeout = timeout;
+        this.firstTokenTimer = Timer.builder("llm.stream.first.token")
+                .description("Time from sending a streamed prompt to its first generated token (model load and prompt evaluation)")
+                .publishPercentiles(0.5, 0.95)
+                .register(meterRegistry);
+    }
+
+    /**
+     * Starts generation and returns the emitter immediately
+     *
+     * @param completion builds the final {@code done} payload from the full generated text
+     * @param failure    builds the {@code error} payload (e.g. a fallback answer)
+     */
+    public SseEmitter stream(String prompt, TokenFilter filter,
+                             Function<String, Map<String, Object>> completion,
+                             Function<Throwable, Map<String, Object>> failure) {
+        return stream(List.of(UserMessage.from(prompt)), filter, completion, failure);
+    }
+
+    /**
+     * Same as {@link #stream(String, TokenFilter, Function, Function)} for a prompt made of several messages,
+     * e.g. a {@link PromptAssembler} system prompt and user message
+     */
+    public SseEmitter stream(List<ChatMessage> messages, TokenFilter filter,
+                             Function<String, Map<String, Object>> completion,
+                             Function<Throwable, Map<String, Object>> failure) {
+        SseEmitter emitter = new SseEmitter(timeout.toMillis());
+        Stream stream = new Stream(emitter);
+        emitter.onCompletion(stream::cancel);
+        emitter.onTimeout(stream::cancel);
+        emitter.onError(e -> stream.cancel());
+
+        if (!circuitBreaker.tryAcquire()) {
+            stream.finish("error", failure.apply(new LlmUnavailableException("LLM circuit is open")));
+            return emitter;
+        }
+
+        LlmCallContext context = LlmCallContext.current();
+        try {
+            admission.execute(() -> {
+                LlmCallContext.Scope scope = context.activate();
+                try {
+                    generate(messages, filter, completion, failure, stream);
+                } finally {
+                    scope.close();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            circuitBreaker.onIgnored();
+            stream.finish("error", failure.apply(e));
+        }
+        return emitter;
+    }
+
+    @PreDestroy
+    public void close() {
+        admission.shutdownNow();
+    }
+
+    private void generate(List<ChatMessage> messages, TokenFilter filter,
+                          Function<String, Map<String, Object>> completion,
+                          Function<Throwable, Map<String, Object>> failure,
+                          Stream stream) {
+        LlmScheduler.Permit permit = null;
+        try {
+            permit = scheduler.acquire();
+            if (!stream.admit(permit)) {
+                // Client gone while waiting for a slot: nothing to generate
+                circuitBreaker.onIgnored();
+                return;
+            }
+            LlmTask task = LlmCallContext.current().getTask();
+            long start = System.nanoTime();
+            streamingModel.generate(messages, new StreamingResponseHandler<AiMessage>() {
+                private boolean firstToken = true;
+
+                @Override
+                public void onNext(String token) {
+                    if (stream.closed) {
+                        // Thrown into the Ollama client, which closes the response and reports it to onError
+                        throw new CancellationException("SSE client disconnected");
+                    }
+                    if (firstToken) {
+                        // Endpoint health is judged on the time to first token, not on the answer length
+                        firstToken = false;
+                        long elapsed = System.nanoTime() - start;
+                        firstTokenTimer.record(elapsed, TimeUnit.NANOSECONDS);
+                        circuitBreaker.onSuccess(task, elapsed);
+                    }
+                    stream.token(filter.accept(token));
+                }
+
+                @Override
+                public void onComplete(Response<AiMessage> response) {
+                    stream.release();
+                    if (firstToken) {
+                        circuitBreaker.onSuccess(task, System.nanoTime() - start);
+                    }
+                    stream.token(filter.flush());
+                    String text = response.content() != null ? response.content().text() : "";
+                    stream.finish("done", completion.apply(text == null ? "" : text));
+                }
+
+                @Override
+                public void onError(Throwable error) {
+                    stream.release();
+                    if (error instanceof CancellationException) {
+                        if (firstToken) {
+                            circuitBreaker.onIgnored();
+                        }
+                        log.debug("Streaming generation cancelled: {}", error.getMessage());
+                        return;
+                    }
+                    if (firstToken) {
+                        circuitBreaker.onFailure();
+                    }
+                    log.error("Streaming generation failed: {}", error.getMessage());
+                    stream.finish("error", failure.apply(error));
+                }
+            });
+        } catch (LlmOverloadedException e) {
+            // Shed by the scheduler, or by the endpoint pool once the slot was taken
+            if (permit != null) {
+                permit.close();
+            }
+            circuitBreaker.onIgnored();
+            log.warn("Streaming generation shed: {}", e.getMessage());
+            stream.finish("error", failure.apply(e));
+        } catch (Exception e) {
+            if (permit != null) {
+                permit.close();
+            }
+            circuitBreaker.onFailure();
+            log.error("Could not start streaming generation: {}", e.getMessage());
+            stream.finish("error", failure.apply(e));
+        }
+    }
+
+    /**
+     * Replays an already known answer (cache hit, fallback) with the same event sequence
+     */
+    public SseEmitter replay(String text, Map<String, Object> result) {
+        SseEmitter emitter = new SseEmitter(timeout.toMillis());
+        Stream stream = new Stream(emitter);
+        stream.token(text);
+        stream.finish("done", result);
+        return emitter;
+    }
+
+    /**
+     * Keeps only the text between two markers of a structured answer ("RESPONSE:" ... "DATA:").
+     * A few characters are held back so that a marker split across tokens is never emitted.
+     * If the model ignores the format, the whole answer is emitted at the end.
+     */
+    public static TokenFilter section(String startMarker, String endMarker) {
+        return new TokenFilter() {
+            private final StringBuilder text = new StringBuilder();
+            private final String start = startMarker.toUpperCase(Locale.ROOT);
+            private final String end = endMarker.toUpperCase(Locale.ROOT);
+            private int cursor = -1;
+            private boolean started;
+            private boolean ended;
+
+            @Override
+            public String accept(String token) {
+                text.append(token);
+                if (ended) {
+                    return "";
+                }
+                String upper = text.toString().toUpperCase(Locale.ROOT);
+                if (cursor < 0) {
+                    int index = upper.indexOf(start);
+                    if (index < 0) {
+                        return "";
+                    }
+                    cursor = index + start.length();
+                }
+                int endIndex = upper.indexOf(end, cursor);
+                int limit = endIndex >= 0 ? endIndex : text.length() - end.length();
+                ended = endIndex >= 0;
+                return take(limit);
+            }
+
+            @Override
+            public String flush() {
+                if (cursor < 0) {
+                    cursor = 0;
+                }
+                return ended ? "" : take(text.length());
+            }
+
+            private String take(int limit) {
+                if (limit <= cursor) {
+                    return "";
+                }
+                String out = text.substring(cursor, limit);
+                cursor = limit;
+                if (!started) {
+                    out = out.stripLeading();
+                    started = !out.isEmpty();
+                }
+                return out;
+            }
+        };
+    }
+
+    private static final class Stream {
+        private final SseEmitter emitter;
+        private volatile boolean closed;
+        private LlmScheduler.Permit permit;
+
+        private Stream(SseEmitter emitter) {
+            this.emitter = emitter;
+        }
+
+        /**
+         * Attaches the scheduler slot of the generation; released at once if the client is already gone
+         *
+         * @return false if the stream was cancelled while waiting for the slot
+         */
+        private synchronized boolean admit(LlmScheduler.Permit slot) {
+            if (closed) {
+                slot.close();
+                return false;
+            }
+            permit = slot;
+            return true;
+        }
+
+        private synchronized void release() {
+            if (permit != null) {
+                permit.close();
+            }
+        }
+
+        /**
+         * Emitter completed, timed out or failed: nothing more is sent and the slot is freed for another call
+         */
+        private synchronized void cancel() {
+            closed = true;
+            release();
+        }
+
+        private synchronized void token(String text) {
+            if (closed || text == null || text.isEmpty()) {
+                return;
+            }
+            send("token", Map.of("text", text));
+        }
+
+        private synchronized void finish(String event, Map<String, Object> payload) {
+            if (closed) {
+                return;
+            }
+            send(event, payload != null ? payload : new HashMap<>());
+            closed = true;
+            emitter.complete();
+        }
+
+        private void send(String event, Object payload) {
+            try {
+                emitter.send(SseEmitter.event().name(event).data(payload, MediaType.APPLICATION_JSON));
+            } catch (IOException | IllegalStateException e) {
+                // Client gone: the slot is freed, generation is aborted at the next token
+                log.debug("SSE client disconnected: {}", e.getMessage());
+                cancel();
+            }
+        }
+    }
+}
@@ -0,0 +1,202 @@
+package com.example.ai.service;
+
+import com.example.ai.config.AsyncConfig;
+import com.example.ai.llm.LlmCallContext;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.Supplier;
+
+/**
+ * Background AI enrichment of results that are first answered with local heuristics (quick-analyze).
+ *
+ * The caller gets a job id immediately; the enrichment runs on the agent executor and its fields are fetched
+ * by polling or pushed once over SSE. Jobs are shared per snapshot (user, day, input data): the same dashboard
+ * state opened again reuses the running or finished enrichment instead of asking the model again.
+ * Failed or shed enrichments are not kept for their snapshot, so the next request retries.
+ */
+@Service
+public class AnalysisEnrichmentService {
+
+    private static final Logger log = LoggerFactory.getLogger(AnalysisEnrichmentService.class);
+
+    public enum Status { PENDING, COMPLETED, FAILED }
+
+    private final Executor agentExecutor;
+    private final Duration streamTimeout;
+    private final Cache<String, EnrichmentJob> jobs;
+    private final Cache<String, EnrichmentJob> jobsBySnapshot;
+
+    public AnalysisEnrichmentService(
+            @Qualifier(AsyncConfig.AGENT_EXECUTOR) Executor agentExecutor,
+            @Value("${ai.agent.enrichment.ttl:PT12H}") Duration ttl,
+            @Value("${ai.agent.enrichment.max-size:10000}") long maxSize,
+            @Value("${ai.llm.streaming.timeout:PT2M}") Duration streamTimeout
+    ) {
+        this.agentExecutor = agentExecutor;
+        this.streamTimeout = streamTimeout;
+        this.jobs = Caffeine.newBuilder().maximumSize(maxSize).expireAfterWrite(ttl).build();
+        this.jobsBySnapshot = Caffeine.newBuilder().maximumSize(maxSize).expireAfterWrite(ttl).build();
+    }
+
+    /**
+     * Returns the job of this snapshot, starting the enrichment if there is none yet
+     *
+     * @param kind       kind of analysis, part of the snapshot key
+     * @param snapshot   input of the analysis (user data JSON, flags)
+     * @param enrichment produces the AI fields; an empty map means nothing could be added
+     */
+    public EnrichmentJob submit(String kind, String snapshot, Supplier<Map<String, Object>> enrichment) {
+        String key = snapshotKey(kind, snapshot);
+        EnrichmentJob[] created = new EnrichmentJob[1];
+        EnrichmentJob job = jobsBySnapshot.get(key, k -> {
+            created[0] = new EnrichmentJob(UUID.randomUUID().toString());
+            return created[0];
+        });
+        if (created[0] == null) {
+            return job;
+        }
+
+        jobs.put(job.id, job);
+        try {
+            agentExecutor.execute(() -> run(job, key, enrichment));
+        } catch (RuntimeException e) {
+            fail(job, key, e);
+        }
+        return job;
+    }
+
+    public EnrichmentJob getJob(String jobId) {
+        return jobs.getIfPresent(jobId);
+    }
+
+    /**
+     * Sends a single {@code done} event with the job once it is finished ({@code error} if the job is unknown)
+     */
+    public SseEmitter stream(String jobId) {
+        SseEmitter emitter = new SseEmitter(streamTimeout.toMillis());
+        EnrichmentJob job = getJob(jobId);
+        if (job == null) {
+            send(emitter, "error", Map.of("jobId", jobId, "error", "Unknown or expired enrichment job"));
+            return emitter;
+        }
+        job.done.whenComplete((result, error) -> send(emitter, "done", job.toMap()));
+        return emitter;
+    }
+
+    public Map<String, Object> getStatistics() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("jobs", jobs.estimatedSize());
+        stats.put("snapshots", jobsBySnapshot.estimatedSize());
+        return stats;
+    }
+
+    private void run(EnrichmentJob job, String key, Supplier<Map<String, Object>> enrichment) {
+        try {
+            Map<String, Object> fields = enrichment.get();
+            job.fields = fields != null ? fields : new HashMap<>();
+            job.status = Status.COMPLETED;
+            job.finishedAt = Instant.now();
+            if (job.fields.isEmpty() || Boolean.TRUE.equals(job.fields.get("llmShed"))) {
+                // Nothing learned from the model: let the next request of this snapshot try again
+                jobsBySnapshot.asMap().remove(key, job);
+            }
+            job.done.complete(job.fields);
+        } catch (Exception e) {
+            fail(job, key, e);
+        }
+    }
+
+    private void fail(EnrichmentJob job, String key, Exception e) {
+        log.warn("Enrichment job {} failed: {}", job.id, e.getMessage());
+        job.status = Status.FAILED;
+        job.error = e.getMessage();
+        job.finishedAt = Instant.now();
+        jobsBySnapshot.asMap().remove(key, job);
+        job.done.complete(Map.of());
+    }
+
+    private static void send(SseEmitter emitter, String event, Map<String, Object> payload) {
+        try {
+            emitter.send(SseEmitter.event().name(event).data(payload, MediaType.APPLICATION_JSON));
+            emitter.complete();
+        } catch (IOException | IllegalStateException e) {
+            log.debug("SSE client disconnected: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * User of the current request, day and input: a new day or new data is a new snapshot
+     */
+    private static String snapshotKey(String kind, String snapshot) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update((kind + "|" + LlmCallContext.current().getUser() + "|" + LocalDate.now() + "|")
+                    .getBytes(StandardCharsets.UTF_8));
+            digest.update(snapshot.getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public static class EnrichmentJob {
+        private final String id;
+        private final Instant createdAt = Instant.now();
+        private final CompletableFuture<Map<String, Object>> done = new CompletableFuture<>();
+        private volatile Status status = Status.PENDING;
+        private volatile Map<String, Object> fields = Map.of();
+        private volatile Instant finishedAt;
+        private volatile String error;
+
+        EnrichmentJob(String id) {
+            this.id = id;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public Status getStatus() {
+            return status;
+        }
+
+        /**
+         * AI fields to merge over the heuristic result, empty until the job is completed
+         */
+        public Map<String, Object> getFields() {
+            return fields;
+        }
+
+        public Map<String, Object> toMap() {
+            Map<String, Object> map = new HashMap<>();
+            map.put("jobId", id);
+            map.put("status", status.name());
+            map.put("fields", fields);
+            map.put("createdAt", createdAt.toString());
+            map.put("finishedAt", finishedAt != null ? finishedAt.toString() : null);
+            map.put("error", error);
+            return map;
+        }
+    }
+}
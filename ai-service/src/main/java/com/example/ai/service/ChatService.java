@@ -1,5 +1,8 @@
 package com.example.ai.service;
 
+import com.example.ai.llm.LlmCallContext;
+import com.example.ai.llm.PromptAssembler;
+import dev.langchain4j.data.message.ChatMessage;
 import dev.langchain4j.model.chat.ChatLanguageModel;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -7,11 +10,15 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Service;
 
+import java.util.List;
+
 @Service
 public class ChatService {
 
 
     private static final Logger log = LoggerFactory.getLogger(ChatService.class);
+    private static final String CHAT_INSTRUCTIONS = "Respond in a friendly, concise manner. "
+            + "When the user's current data is given, use it to provide personalized insights and recommendations.";
     private final ChatLanguageModel chatLanguageModel;
 
 
@@ -25,22 +32,15 @@ public class ChatService {
     }
 
     public String chat(String message, String context) {
-        StringBuilder promptBuilder = new StringBuilder();
-        promptBuilder.append("You are Phi3, a helpful nutrition assistant for the Makla platform. ");
-        promptBuilder.append("You help users track their meals, water intake, and provide health advice. ");
-        promptBuilder.append("Respond in a friendly, concise manner. ");
-
-        if (context != null && !context.isEmpty()) {
-            promptBuilder.append("\n\nUser's current data:\n").append(context);
-            promptBuilder.append("\n\nUse this data to provide personalized insights and recommendations.");
-        }
-        
-        promptBuilder.append("\n\nUser: ").append(message);
-        promptBuilder.append("\nPhi3: ");
+        List<ChatMessage> prompt = PromptAssembler.system(CHAT_INSTRUCTIONS)
+                .section("User's current data", context)
+                .line("User: " + message)
+                .messages();
 
         try {
             log.info("Sending message to Phi3 model: {}", message);
-            String response = chatLanguageModel.generate(promptBuilder.toString());
+            // Free conversation: a repeated message should get a fresh answer, not a cached one
+            String response = LlmCallContext.withoutCache(() -> chatLanguageModel.generate(prompt).content().text());
             log.info("Received response from Phi3 model");
 
             // Clean up response if it contains the prompt echo
@@ -1,14 +1,21 @@
 package com.example.ai.service;
 
+import com.example.ai.llm.FallbackChatModel;
+import com.example.ai.llm.LlmCallContext;
+import com.example.ai.llm.LlmOutputParser;
+import com.example.ai.llm.LlmOverloadedException;
+import com.example.ai.llm.LlmTask;
+import com.example.ai.llm.SseChatStreamer;
 import dev.langchain4j.model.chat.ChatLanguageModel;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.cache.annotation.Cacheable;
 import org.springframework.stereotype.Service;
-import org.springframework.scheduling.annotation.Async;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.core.type.TypeReference;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import com.example.ai.service.RagChatService;
 
 import java.time.LocalDateTime;
@@ -26,8 +33,14 @@ public class EnhancedNutritionAgentService {
     private static final Logger log = LoggerFactory.getLogger(EnhancedNutritionAgentService.class);
     private final ChatLanguageModel chatLanguageModel;
     private final RagChatService ragChatService;
+    private final MealNutritionEstimator mealEstimator;
+    private final NutritionKnowledgeService knowledgeService;
+    private final AnalysisEnrichmentService enrichmentService;
+    private final SseChatStreamer streamer;
+    private final boolean mealRefinementEnabled;
+    private final double mealRefinementMinConfidence;
+    private final int mealRefinementBatchSize;
     private final ObjectMapper objectMapper = new ObjectMapper();
-    private final Map<String, Object> responseCache = new HashMap<>();
     // For debugging: store last received userData (merged) so controller can expose it
     private volatile Map<String, Object> lastReceivedUserData = new HashMap<>();
 
@@ -35,10 +48,27 @@ public class EnhancedNutritionAgentService {
     public EnhancedNutritionAgentService(
             ChatLanguageModel chatLanguageModel
             , RagChatService ragChatService
+            , MealNutritionEstimator mealEstimator
+            , NutritionKnowledgeService knowledgeService
+            , AnalysisEnrichmentService enrichmentService
+            , SseChatStreamer streamer
+            , @Value("${ai.meal.llm-refinement.enabled:true}") boolean mealRefinementEnabled
+            , @Value("${ai.meal.llm-refinement.min-confidence:0.6}") double mealRefinementMinConfidence
+            , @Value("${ai.meal.llm-refinement.batch-size:8}") int mealRefinementBatchSize
     ) {
         this.chatLanguageModel = chatLanguageModel;
         this.ragChatService = ragChatService;
+        this.mealEstimator = mealEstimator;
+        this.knowledgeService = knowledgeService;
+        this.enrichmentService = enrichmentService;
+        this.streamer = streamer;
+        this.mealRefinementEnabled = mealRefinementEnabled;
+        this.mealRefinementMinConfidence = mealRefinementMinConfidence;
+        this.mealRefinementBatchSize = Math.max(1, mealRefinementBatchSize);
     }
+    // Knowledge segments given to one batch meal refinement prompt
+    private static final int MEAL_BATCH_MAX_KNOWLEDGE = 6;
+
     // Nutrition databases for intelligent recommendations
     private static final Map<String, Integer> WATER_NEEDS_BY_ACTIVITY = Map.of(
         "sedentary", 2000,
@@ -48,108 +78,116 @@ public class EnhancedNutritionAgentService {
         "very_active", 3800
     );
 
-    private static final Map<String, Map<String, Double>> FOOD_NUTRITION_DB = Map.of(
-        "grilled chicken breast", Map.of("calories", 165.0, "protein", 31.0, "carbs", 0.0, "fats", 3.6, "iron", 0.9),
-        "salmon fillet", Map.of("calories", 206.0, "protein", 22.0, "carbs", 0.0, "fats", 12.0, "iron", 0.8),
-        "quinoa cooked", Map.of("calories", 222.0, "protein", 8.0, "carbs", 39.0, "fats", 3.6, "iron", 2.8),
-        "spinach fresh", Map.of("calories", 23.0, "protein", 2.9, "carbs", 3.6, "fats", 0.4, "iron", 2.7),
-        "lentils cooked", Map.of("calories", 230.0, "protein", 18.0, "carbs", 40.0, "fats", 0.8, "iron", 6.6),
-        "greek yogurt", Map.of("calories", 100.0, "protein", 17.0, "carbs", 6.0, "fats", 0.4, "iron", 0.1),
-        "almonds", Map.of("calories", 579.0, "protein", 21.0, "carbs", 22.0, "fats", 50.0, "iron", 3.7),
-        "dark chocolate", Map.of("calories", 546.0, "protein", 7.8, "carbs", 45.0, "fats", 31.0, "iron", 11.9),
-        "beef lean", Map.of("calories", 250.0, "protein", 26.0, "carbs", 0.0, "fats", 15.0, "iron", 2.9),
-        "broccoli", Map.of("calories", 34.0, "protein", 2.8, "carbs", 7.0, "fats", 0.4, "iron", 0.7)
-    );
-
     /**
-     * Enhanced quick analysis with intelligent water and nutrition insights
+     * Enhanced quick analysis with intelligent water and nutrition insights.
+     * Returns the local heuristic result right away; the Phi3 analysis (suggestedMeals, aiSummary, refined scores)
+     * runs in the background and is fetched with {@code enrichmentJobId}.
      */
-    @Async
     public CompletableFuture<Map<String, Object>> quickAnalyze(String userData, boolean isDiabetic) {
-        return CompletableFuture.supplyAsync(() -> {
-            Map<String, Object> result = new HashMap<>();
+        Map<String, Object> result = new HashMap<>();
 
-            try {
-                // Parse user data
-                Map<String, Object> data = parseUserData(userData);
-                // Save parsed data for debugging/inspection
-                if (data != null) {
-                    lastReceivedUserData = new HashMap<>(data);
+        try {
+            // Parse user data
+            Map<String, Object> data = parseUserData(userData);
+            // Save parsed data for debugging/inspection
+            if (data != null) {
+                lastReceivedUserData = new HashMap<>(data);
+            }
+
+            // Calculate intelligent insights
+            int healthScore = calculateHealthScore(data, isDiabetic);
+            String topAlert = generateTopAlert(data, isDiabetic);
+            String quickTip = generateQuickTip(data, isDiabetic);
+
+            // Water intake recommendations
+            int recommendedWater = calculateWaterNeeds(data);
+            int currentWater = ((Number) data.getOrDefault("water", 0)).intValue();
+            int waterDeficit = Math.max(0, recommendedWater - currentWater);
+
+            result.put("healthScore", healthScore);
+            result.put("topAlert", topAlert);
+            result.put("quickTip", quickTip);
+            result.put("recommendedWater", recommendedWater);
+            result.put("waterDeficit", waterDeficit);
+            result.put("success", true);
+
+            if (isDiabetic) {
+                String carbsWarning = generateCarbsWarning(data);
+                if (carbsWarning != null) {
+                    result.put("carbsWarning", carbsWarning);
                 }
+            }
 
-                // Calculate intelligent insights
-                int healthScore = calculateHealthScore(data, isDiabetic);
-                String topAlert = generateTopAlert(data, isDiabetic);
-                String quickTip = generateQuickTip(data, isDiabetic);
-
-                // Water intake recommendations
-                int recommendedWater = calculateWaterNeeds(data);
-                int currentWater = ((Number) data.getOrDefault("water", 0)).intValue();
-                int waterDeficit = Math.max(0, recommendedWater - currentWater);
-
-                result.put("healthScore", healthScore);
-                result.put("topAlert", topAlert);
-                result.put("quickTip", quickTip);
-                result.put("recommendedWater", recommendedWater);
-                result.put("waterDeficit", waterDeficit);
-                result.put("success", true);
-
-                if (isDiabetic) {
-                    String carbsWarning = generateCarbsWarning(data);
-                    if (carbsWarning != null) {
-                        result.put("carbsWarning", carbsWarning);
-                    }
+            // Add contextual recommendations
+            result.put("recommendations", generateContextualRecommendations(data, isDiabetic));
+
+            // --- Agent mode: Phi3 analysis in the background, shared per user/day snapshot ---
+            try {
+                String dataJson = objectMapper.writeValueAsString(data);
+                AnalysisEnrichmentService.EnrichmentJob enrichment = enrichmentService.submit(
+                        "quick-analyze", isDiabetic + "|" + dataJson, () -> enrichQuickAnalysis(dataJson));
+                result.put("enrichmentJobId", enrichment.getId());
+                result.put("enrichmentStatus", enrichment.getStatus().name());
+                if (enrichment.getStatus() == AnalysisEnrichmentService.Status.COMPLETED) {
+                    // Same snapshot already analyzed: AI fields override local computed values
+                    result.putAll(enrichment.getFields());
                 }
+            } catch (Exception aiEx) {
+                log.warn("Could not start agent mode (Phi3) analysis", aiEx);
+            }
+
+        } catch (Exception e) {
+            log.error("Quick analysis failed", e);
+            result = getQuickFallback(isDiabetic);
+        }
 
-                // Add contextual recommendations
-                result.put("recommendations", generateContextualRecommendations(data, isDiabetic));
+        return CompletableFuture.completedFuture(result);
+    }
 
-                // --- Agent mode: ask Phi3 (via RagChatService) for a contextual analysis if available ---
+    /**
+     * Phi3 (via RagChatService) contextual analysis for quick-analyze: fields to merge over the heuristic result
+     */
+    private Map<String, Object> enrichQuickAnalysis(String dataJson) {
+        Map<String, Object> fields = new HashMap<>();
+        try {
+            // More explicit agent-mode prompt: request a full JSON analysis and realistic suggestedMeals
+            // The question drives knowledge retrieval; the instructions only shape the reply
+            String question = "Analyse nutritionnelle de ma journée et repas adaptés à mon profil";
+            String instructions = "You are an expert nutrition assistant. Given the user's profile and current day stats (user data above), return a single valid JSON object. Use French for any human-readable text. Include the following keys when applicable:\n"
+                    + "- healthScore: integer (0-100)\n"
+                    + "- topAlert: short string\n"
+                    + "- quickTip: short string\n"
+                    + "- recommendations: array of short strings\n"
+                    + "- recommendedWater: integer (ml)\n"
+                    + "- carbsWarning: optional string if carbs are high\n"
+                    + "- suggestedMeals: array of meal objects (each with name, calories (int), protein (g), carbs (g), fats (g), fiber (g), prepTime (string), diabeticFriendly (bool), reason (string))\n"
+                    + "- success: boolean\n"
+                    + "Ensure numeric nutrition values are realistic and tailored to the user's age, weight, activityLevel and health conditions (e.g., lower carbs and diabeticFriendly=true for diabetics). If the user has not logged meals today, provide 2-3 suggestedMeals appropriate to their profile instead of empty placeholders. Return only JSON (no explanatory text).";
+            String aiResponse = LlmCallContext.task(LlmTask.REPORT,
+                    () -> LlmCallContext.jsonOutput(() -> ragChatService.generateWithRag(question, instructions, dataJson)));
+
+            // Try to parse AI response as JSON (the local fallback model adds nothing to the heuristics)
+            if (aiResponse != null && !aiResponse.isBlank() && !FallbackChatModel.isFallback(aiResponse)) {
                 try {
-                    String dataJson = objectMapper.writeValueAsString(data);
-                    // More explicit agent-mode prompt: request a full JSON analysis and realistic suggestedMeals
-                    String prompt = "You are an expert nutrition assistant. Given the user's profile and current day stats (JSON below), return a single valid JSON object. Use French for any human-readable text. Include the following keys when applicable:\n"
-                            + "- healthScore: integer (0-100)\n"
-                            + "- topAlert: short string\n"
-                            + "- quickTip: short string\n"
-                            + "- recommendations: array of short strings\n"
-                            + "- recommendedWater: integer (ml)\n"
-                            + "- carbsWarning: optional string if carbs are high\n"
-                            + "- suggestedMeals: array of meal objects (each with name, calories (int), protein (g), carbs (g), fats (g), fiber (g), prepTime (string), diabeticFriendly (bool), reason (string))\n"
-                            + "- success: boolean\n"
-                            + "Ensure numeric nutrition values are realistic and tailored to the user's age, weight, activityLevel and health conditions (e.g., lower carbs and diabeticFriendly=true for diabetics). If the user has not logged meals today, provide 2-3 suggestedMeals appropriate to their profile instead of empty placeholders. Return only JSON (no explanatory text).\n\nData: " + dataJson;
-                    String aiResponse = ragChatService.chatWithRag(prompt, dataJson);
-
-                    // Try to parse AI response as JSON
-                    if (aiResponse != null && !aiResponse.isBlank()) {
-                        try {
-                            Map<String, Object> aiMap = parseAiResponseToMap(aiResponse);
-                            if (aiMap != null && !aiMap.isEmpty()) {
-                                sanitizeObjectRecursively(aiMap);
-                                // Merge AI fields into result (AI overrides local computed values when provided)
-                                for (Map.Entry<String, Object> e : aiMap.entrySet()) {
-                                    result.put(e.getKey(), e.getValue());
-                                }
-                            } else {
-                                // Keep raw summary when parsing failed
-                                result.put("aiSummary", aiResponse);
-                            }
-                        } catch (Exception pe) {
-                            log.debug("Parsing AI response failed", pe);
-                            result.put("aiSummary", aiResponse);
-                        }
+                    Map<String, Object> aiMap = parseAiResponseToMap(aiResponse);
+                    if (aiMap != null && !aiMap.isEmpty()) {
+                        fields.putAll(aiMap);
+                    } else {
+                        // Keep raw summary when parsing failed
+                        fields.put("aiSummary", aiResponse);
                     }
-                } catch (Exception aiEx) {
-                    log.warn("Agent mode (Phi3) analysis failed or returned unparseable content", aiEx);
+                } catch (Exception pe) {
+                    log.debug("Parsing AI response failed", pe);
+                    fields.put("aiSummary", aiResponse);
                 }
-
-            } catch (Exception e) {
-                log.error("Quick analysis failed", e);
-                result = getQuickFallback(isDiabetic);
             }
-
-            return result;
-        });
+        } catch (LlmOverloadedException shed) {
+            // Model saturated: the local insights already returned stay as they are
+            log.info("Agent mode (Phi3) analysis shed: {}", shed.getMessage());
+            fields.put("llmShed", true);
+        }
+        // Any other error fails the job, so it is neither reported as completed nor kept for its snapshot
+        return fields;
     }
 
     /**
@@ -159,55 +197,38 @@ public class EnhancedNutritionAgentService {
          Map<String, Object> result = new HashMap<>();
 
          try {
-            // Parse meal description using local heuristics first
-            Map<String, Object> nutritionData = analyzeMealDescription(mealDescription);
-
-            // Agent mode: ask Phi3 (RAG) to refine nutrition estimates using mealDescription + userProfile
-            try {
-                String profileJson = objectMapper.writeValueAsString(userProfile == null ? Collections.emptyMap() : userProfile);
-                String prompt = String.format("Analyze this meal and return JSON with calories, protein, carbs, fats, fiber, diabeticWarning if applicable. Meal: %s\nUserProfile: %s", mealDescription, profileJson);
-                String aiResponse = ragChatService.chatWithRag(prompt, profileJson);
-                if (aiResponse != null && !aiResponse.isBlank()) {
-                    try {
-                        Map<String, Object> aiMap = objectMapper.readValue(aiResponse, new TypeReference<Map<String,Object>>(){});
+            // Parse meal description against the local food table first
+            MealNutritionEstimator.MealEstimate estimate = mealEstimator.estimate(mealDescription);
+            Map<String, Object> nutritionData = estimate.toNutritionMap();
+            boolean refined = false;
+            boolean refinementShed = false;
+
+            // Agent mode: ask Phi3 (RAG) to refine nutrition estimates only when the local match is uncertain
+            if (mealRefinementEnabled && estimate.confidence() < mealRefinementMinConfidence) {
+                try {
+                    String profileJson = objectMapper.writeValueAsString(userProfile == null ? Collections.emptyMap() : userProfile);
+                    String instructions = "Analyze the meal of the user's message and return JSON with calories, protein, carbs, fats, fiber, diabeticWarning if applicable.";
+                    String aiResponse = LlmCallContext.task(LlmTask.EXTRACTION,
+                            () -> LlmCallContext.jsonOutput(() -> ragChatService.chatWithRag(mealDescription, instructions, profileJson)));
+                    Map<String, Object> aiMap = LlmOutputParser.parseObject(aiResponse);
+                    if (!aiMap.isEmpty()) {
                         // Merge AI-provided nutrition fields if present (override heuristics)
-                        for (Map.Entry<String,Object> e : aiMap.entrySet()) {
-                            nutritionData.put(e.getKey(), e.getValue());
-                        }
-                    } catch (Exception pe) {
+                        nutritionData.putAll(aiMap);
+                        refined = true;
+                    } else {
                         // If AI didn't return JSON, ignore and continue with heuristic
                         log.debug("AI meal analysis returned non-JSON response, ignoring: {}", aiResponse);
                     }
+                } catch (LlmOverloadedException shed) {
+                    // Model saturated: keep the local food table estimate
+                    log.info("Agent-mode meal refinement shed: {}", shed.getMessage());
+                    refinementShed = true;
+                } catch (Exception ex) {
+                    log.warn("Agent-mode meal refinement failed", ex);
                 }
-            } catch (Exception ex) {
-                log.warn("Agent-mode meal refinement failed", ex);
             }
 
-             // Calculate health metrics
-             double healthScore = calculateMealHealthScore(nutritionData, isDiabetic);
-
-             // Generate recommendations
-             List<String> recommendations = generateMealRecommendations(nutritionData, isDiabetic);
-
-             result.put("name", mealDescription);
-             result.put("calories", nutritionData.getOrDefault("calories", 0));
-             result.put("protein", nutritionData.getOrDefault("protein", 0));
-             result.put("carbs", nutritionData.getOrDefault("carbs", 0));
-             result.put("fats", nutritionData.getOrDefault("fats", 0));
-             result.put("fiber", nutritionData.getOrDefault("fiber", 0));
-             result.put("netCarbs", calculateNetCarbs(nutritionData));
-             result.put("healthScore", Math.round(healthScore));
-             result.put("isDiabeticFriendly", isDiabeticFriendly(nutritionData));
-             result.put("glycemicLoad", getGlycemicLoad(nutritionData));
-             result.put("glucoseImpact", getGlucoseImpact(nutritionData));
-             result.put("confidence", 85); // AI confidence score
-             result.put("recommendations", recommendations);
-
-             if (isDiabetic && !isDiabeticFriendly(nutritionData)) {
-                 result.put("diabeticWarning", "This meal may cause blood sugar spikes. Consider smaller portions or pairing with protein/fiber.");
-             }
-
-             result.put("success", true);
+             result = buildMealResult(mealDescription, nutritionData, refined, refinementShed, isDiabetic);
 
          } catch (Exception e) {
              log.error("Meal analysis failed for: " + mealDescription, e);
@@ -217,6 +238,174 @@ public class EnhancedNutritionAgentService {
          return result;
      }
 
+    /**
+     * Batch variant of {@link #intelligentMealLog}: every description is estimated locally, then the uncertain ones
+     * are refined together, {@code ai.meal.llm-refinement.batch-size} meals per model call so that the JSON answer
+     * fits the extraction profile's num-predict (one knowledge lookup with one embedding pass, one prompt asking for
+     * a JSON array numbered like the prompt). Items the model leaves out or answers badly keep their local estimate.
+     */
+    public Map<String, Object> intelligentMealLogBatch(List<String> mealDescriptions, boolean isDiabetic, Map<String, Object> userProfile) {
+        List<Map<String, Object>> nutritionData = new ArrayList<>();
+        List<Integer> uncertain = new ArrayList<>();
+        for (int i = 0; i < mealDescriptions.size(); i++) {
+            MealNutritionEstimator.MealEstimate estimate = mealEstimator.estimate(mealDescriptions.get(i));
+            nutritionData.add(estimate.toNutritionMap());
+            if (mealRefinementEnabled && estimate.confidence() < mealRefinementMinConfidence) {
+                uncertain.add(i);
+            }
+        }
+
+        Set<Integer> refined = new HashSet<>();
+        boolean refinementShed = false;
+        for (int from = 0; from < uncertain.size(); from += mealRefinementBatchSize) {
+            List<Integer> chunk = uncertain.subList(from, Math.min(from + mealRefinementBatchSize, uncertain.size()));
+            try {
+                Map<Integer, Map<String, Object>> aiItems = refineMealsWithLlm(mealDescriptions, chunk, userProfile);
+                for (Map.Entry<Integer, Map<String, Object>> item : aiItems.entrySet()) {
+                    nutritionData.get(item.getKey()).putAll(item.getValue());
+                    refined.add(item.getKey());
+                }
+            } catch (LlmOverloadedException shed) {
+                // Model saturated: the remaining meals keep their local estimate
+                log.info("Agent-mode batch meal refinement shed: {}", shed.getMessage());
+                refinementShed = true;
+                break;
+            } catch (Exception ex) {
+                log.warn("Agent-mode batch meal refinement failed", ex);
+            }
+        }
+        if (refined.size() < uncertain.size()) {
+            log.debug("Batch meal refinement answered {} of {} items", refined.size(), uncertain.size());
+        }
+
+        List<Map<String, Object>> meals = new ArrayList<>();
+        Map<String, Double> totals = new LinkedHashMap<>();
+        for (int i = 0; i < mealDescriptions.size(); i++) {
+            String mealDescription = mealDescriptions.get(i);
+            Map<String, Object> meal;
+            try {
+                meal = buildMealResult(mealDescription, nutritionData.get(i), refined.contains(i),
+                        refinementShed && uncertain.contains(i) && !refined.contains(i), isDiabetic);
+            } catch (Exception e) {
+                log.error("Meal analysis failed for: " + mealDescription, e);
+                meal = getMealAnalysisFallback(mealDescription, isDiabetic);
+            }
+            for (String nutrient : List.of("calories", "protein", "carbs", "fats", "fiber")) {
+                totals.merge(nutrient, meal.get(nutrient) instanceof Number n ? n.doubleValue() : 0.0, Double::sum);
+            }
+            meals.add(meal);
+        }
+
+        Map<String, Object> result = new HashMap<>();
+        result.put("meals", meals);
+        result.put("totals", totals);
+        result.put("refinedCount", refined.size());
+        result.put("uncertainCount", uncertain.size());
+        if (refinementShed) {
+            result.put("llmShed", true);
+        }
+        result.put("success", true);
+        return result;
+    }
+
+    /**
+     * Refines one chunk of uncertain meals with a single prompt; meals are numbered from 1 in the prompt
+     *
+     * @return AI fields by index in {@code mealDescriptions}
+     */
+    private Map<Integer, Map<String, Object>> refineMealsWithLlm(List<String> mealDescriptions, List<Integer> uncertain,
+                                                                 Map<String, Object> userProfile) throws Exception {
+        List<String> queries = new ArrayList<>();
+        for (int index : uncertain) {
+            queries.add(mealDescriptions.get(index));
+        }
+        Set<String> knowledge = new LinkedHashSet<>();
+        for (List<String> segments : knowledgeService.searchKnowledgeBatch(queries, 2)) {
+            knowledge.addAll(segments);
+        }
+
+        StringBuilder prompt = new StringBuilder();
+        prompt.append("Analyze each meal below. Return ONLY a JSON object {\"meals\": [...]} with one entry per meal: ")
+              .append("{\"index\": <meal number>, \"calories\": number, \"protein\": number, \"carbs\": number, ")
+              .append("\"fats\": number, \"fiber\": number, \"diabeticWarning\": string if applicable}.\n");
+        if (!knowledge.isEmpty()) {
+            prompt.append("\nNutrition knowledge:\n");
+            knowledge.stream().limit(MEAL_BATCH_MAX_KNOWLEDGE).forEach(k -> prompt.append("- ").append(k).append("\n"));
+        }
+        prompt.append("\nUserProfile: ")
+              .append(objectMapper.writeValueAsString(userProfile == null ? Collections.emptyMap() : userProfile))
+              .append("\n\nMeals:\n");
+        for (int number = 1; number <= uncertain.size(); number++) {
+            prompt.append(number).append(". ").append(mealDescriptions.get(uncertain.get(number - 1))).append("\n");
+        }
+
+        String aiResponse = LlmCallContext.task(LlmTask.EXTRACTION,
+                () -> LlmCallContext.jsonOutput(() -> chatLanguageModel.generate(prompt.toString())));
+        Map<Integer, Map<String, Object>> items = new HashMap<>();
+        if (aiResponse == null || aiResponse.isBlank() || FallbackChatModel.isFallback(aiResponse)) {
+            return items;
+        }
+        List<Object> entries = LlmOutputParser.parseArray(aiResponse);
+        if (entries.isEmpty()) {
+            log.debug("AI batch meal analysis returned no JSON array, ignoring: {}", aiResponse);
+            return items;
+        }
+        for (int position = 0; position < entries.size(); position++) {
+            if (!(entries.get(position) instanceof Map<?, ?> entry) || !(entry.get("calories") instanceof Number)) {
+                continue;
+            }
+            // Meal number as answered, else the position in the array
+            int number = entry.get("index") instanceof Number n ? n.intValue() : position + 1;
+            if (number < 1 || number > uncertain.size() || items.containsKey(uncertain.get(number - 1))) {
+                continue;
+            }
+            Integer index = uncertain.get(number - 1);
+            Map<String, Object> fields = new HashMap<>();
+            entry.forEach((key, value) -> fields.put(String.valueOf(key), value));
+            fields.remove("index");
+            items.put(index, fields);
+        }
+        return items;
+    }
+
+    private Map<String, Object> buildMealResult(String mealDescription, Map<String, Object> nutritionData, boolean refined,
+                                                boolean refinementShed, boolean isDiabetic) {
+        Map<String, Object> result = new HashMap<>();
+
+        // Calculate health metrics
+        double healthScore = calculateMealHealthScore(nutritionData, isDiabetic);
+
+        // Generate recommendations
+        List<String> recommendations = generateMealRecommendations(nutritionData, isDiabetic);
+
+        result.put("name", mealDescription);
+        result.put("calories", nutritionData.getOrDefault("calories", 0));
+        result.put("protein", nutritionData.getOrDefault("protein", 0));
+        result.put("carbs", nutritionData.getOrDefault("carbs", 0));
+        result.put("fats", nutritionData.getOrDefault("fats", 0));
+        result.put("fiber", nutritionData.getOrDefault("fiber", 0));
+        result.put("netCarbs", calculateNetCarbs(nutritionData));
+        result.put("healthScore", Math.round(healthScore));
+        result.put("isDiabeticFriendly", isDiabeticFriendly(nutritionData));
+        result.put("glycemicLoad", getGlycemicLoad(nutritionData));
+        result.put("glucoseImpact", getGlucoseImpact(nutritionData));
+        result.put("confidence", refined ? 85 : nutritionData.getOrDefault("confidence", 0)); // AI confidence score
+        result.put("refinedByLlm", refined);
+        if (refinementShed) {
+            result.put("llmShed", true);
+        }
+        result.put("glycemicIndex", nutritionData.getOrDefault("glycemicIndex", 0));
+        result.put("foods", nutritionData.getOrDefault("foods", Collections.emptyList()));
+        result.put("recommendations", recommendations);
+
+        if (isDiabetic && !isDiabeticFriendly(nutritionData)) {
+            result.put("diabeticWarning", "This meal may cause blood sugar spikes. Consider smaller portions or pairing with protein/fiber.");
+        }
+
+        result.put("success", true);
+        return result;
+    }
+
     /**
      * Real-time diabetic monitoring with alerts
      */
@@ -340,15 +529,8 @@ public class EnhancedNutritionAgentService {
 
         try {
             // Use AI to analyze food description
-            String prompt = String.format(
-                "Analyze this food description and provide nutrition information: '%s'\n" +
-                "Provide calories, protein, carbs, fats, and fiber per typical serving.\n" +
-                "Also indicate if it's diabetic-friendly and provide a health score (0-100).\n" +
-                "Format your response as structured data.",
-                description
-            );
-
-            String aiResponse = chatLanguageModel.generate(prompt);
+            String aiResponse = LlmCallContext.task(LlmTask.EXTRACTION,
+                    () -> LlmCallContext.jsonOutput(() -> chatLanguageModel.generate(buildFoodRecognitionPrompt(description))));
             Map<String, Object> nutritionData = parseNutritionResponse(aiResponse, description);
 
             result.putAll(nutritionData);
@@ -363,6 +545,34 @@ public class EnhancedNutritionAgentService {
         return result;
     }
 
+    /**
+     * Food recognition streamed as SSE; the final event carries the parsed nutrition data
+     */
+    public SseEmitter recognizeFoodStream(String description) {
+        return LlmCallContext.task(LlmTask.EXTRACTION, () -> streamer.stream(buildFoodRecognitionPrompt(description),
+                SseChatStreamer.TokenFilter.ALL,
+                aiResponse -> {
+                    Map<String, Object> result = new HashMap<>(parseNutritionResponse(aiResponse, description));
+                    result.put("success", true);
+                    result.put("confidence", 85);
+                    return result;
+                },
+                error -> {
+                    log.error("Streamed food recognition failed for: " + description, error);
+                    return getFoodRecognitionFallback(description);
+                }));
+    }
+
+    private String buildFoodRecognitionPrompt(String description) {
+        return String.format(
+            "Analyze this food description and provide nutrition information: '%s'\n" +
+            "Provide calories, protein, carbs, fats, and fiber per typical serving.\n" +
+            "Also indicate if it's diabetic-friendly and provide a health score (0-100).\n" +
+            "Format your response as structured data.",
+            description
+        );
+    }
+
     /**
      * Calculate water recommendations based on user data
      */
@@ -646,27 +856,7 @@ public class EnhancedNutritionAgentService {
     }
 
     private Map<String, Object> analyzeMealDescription(String mealDescription) {
-        // Very small heuristic parser: find words matching our small FOOD_NUTRITION_DB
-        Map<String, Object> out = new HashMap<>();
-        double calories = 0, protein = 0, carbs = 0, fats = 0, fiber = 0;
-        String lower = mealDescription == null ? "" : mealDescription.toLowerCase();
-        for (String food : FOOD_NUTRITION_DB.keySet()) {
-            if (lower.contains(food)) {
-                Map<String, Double> info = FOOD_NUTRITION_DB.get(food);
-                calories += info.getOrDefault("calories", 0.0);
-                protein += info.getOrDefault("protein", 0.0);
-                carbs += info.getOrDefault("carbs", 0.0);
-                fats += info.getOrDefault("fats", 0.0);
-                // fiber not in db, leave at 0
-            }
-        }
-        if (calories == 0) calories = 300; // fallback estimate
-        out.put("calories", (int)Math.round(calories));
-        out.put("protein", (int)Math.round(protein));
-        out.put("carbs", (int)Math.round(carbs));
-        out.put("fats", (int)Math.round(fats));
-        out.put("fiber", (int)Math.round(fiber));
-        return out;
+        return mealEstimator.estimate(mealDescription).toNutritionMap();
     }
 
     private double calculateMealHealthScore(Map<String, Object> nutritionData, boolean isDiabetic) {
@@ -706,8 +896,10 @@ public class EnhancedNutritionAgentService {
 
     private double getGlycemicLoad(Map<String, Object> nutritionData) {
         int carbs = ((Number) nutritionData.getOrDefault("carbs", 0)).intValue();
-        // naive GL estimate: carbs * 0.5
-        return Math.round(carbs * 0.5 * 10.0) / 10.0;
+        int glycemicIndex = ((Number) nutritionData.getOrDefault("glycemicIndex", 0)).intValue();
+        // GL = carbs * GI / 100 with the food table GI; naive carbs * 0.5 when unknown
+        double factor = glycemicIndex > 0 ? glycemicIndex / 100.0 : 0.5;
+        return Math.round(carbs * factor * 10.0) / 10.0;
     }
 
     private double getGlucoseImpact(Map<String, Object> nutritionData) {
@@ -799,15 +991,9 @@ public class EnhancedNutritionAgentService {
     }
 
     private Map<String, Object> parseNutritionResponse(String aiResponse, String description) {
-        // Very naive attempt: try to parse JSON returned by model, otherwise fallback to analyzeMealDescription
-        try {
-            if (aiResponse != null && aiResponse.trim().startsWith("{")) {
-                return objectMapper.readValue(aiResponse, new TypeReference<Map<String,Object>>(){});
-            }
-        } catch (Exception e) {
-            // ignore - fallback
-        }
-        return analyzeMealDescription(description);
+        // Parse the JSON returned by the model, otherwise fallback to analyzeMealDescription
+        Map<String, Object> parsed = LlmOutputParser.parseObject(aiResponse);
+        return parsed.isEmpty() ? analyzeMealDescription(description) : new HashMap<>(parsed);
     }
 
     private Map<String, Object> getFoodRecognitionFallback(String description) {
@@ -888,103 +1074,15 @@ public class EnhancedNutritionAgentService {
         return lastReceivedUserData == null ? Collections.emptyMap() : lastReceivedUserData;
     }
 
-    // Attempt to extract JSON from AI response and convert to Map
-    private Map<String, Object> parseAiResponseToMap(String aiResponse) {
-        if (aiResponse == null) return Collections.emptyMap();
-
-        // Remove common markdown code fences and language tags
-        String cleaned = aiResponse.replaceAll("(?i)```\\s*json", "");
-        cleaned = cleaned.replaceAll("```", "");
-
-        // Remove unicode replacement and control characters that often break parsing
-        cleaned = cleaned.replaceAll("\\uFFFD", "");
-        // Trim surrounding whitespace
-        cleaned = cleaned.trim();
-
-        // Find first JSON object/array start
-        int idxObj = cleaned.indexOf('{');
-        int idxArr = cleaned.indexOf('[');
-        int start = -1;
-        char startChar = 0;
-        if (idxObj >= 0 && (idxObj < idxArr || idxArr == -1)) { start = idxObj; startChar='}'; }
-        else if (idxArr >= 0) { start = idxArr; startChar=']'; }
-
-        String jsonCandidate = cleaned;
-        if (start >= 0) {
-            // find last matching bracket
-            int last = cleaned.lastIndexOf(startChar);
-            if (last > start) {
-                jsonCandidate = cleaned.substring(start, last + 1);
-            } else {
-                jsonCandidate = cleaned.substring(start);
-            }
-        }
-
-        // Normalize quotes (convert smart quotes to straight quotes) to help parsing
-        jsonCandidate = jsonCandidate.replace("“", "\"").replace("”", "\"").replace("‘", "'").replace("’", "'");
-
-        // Remove control characters except common whitespace (use Unicode escapes)
-        jsonCandidate = jsonCandidate.replaceAll("[\u0000-\u001F\u007F-\u009F]", "");
-
-        // Remove JavaScript-style single-line comments (// ...) and block comments (/* ... */)
-        try {
-            // remove block comments
-            jsonCandidate = jsonCandidate.replaceAll("(?s)/\\*.*?\\*/", "");
-            // remove line comments
-            jsonCandidate = jsonCandidate.replaceAll("(?m)//.*$", "");
-            // remove trailing commas before closing } or ] using lookahead
-            jsonCandidate = jsonCandidate.replaceAll(",\\s*(?=\\}|\\])", "");
-            // Trim again
-            jsonCandidate = jsonCandidate.trim();
-        } catch (Exception ex) {
-            // ignore cleaning errors and continue to try parsing
-        }
-
-        try {
-            if (jsonCandidate.startsWith("{")) {
-                return objectMapper.readValue(jsonCandidate, new TypeReference<Map<String, Object>>(){});
-            } else if (jsonCandidate.startsWith("[")) {
-                // If array returned, wrap into map under 'suggestedMeals'
-                List<Object> arr = objectMapper.readValue(jsonCandidate, new TypeReference<List<Object>>(){});
-                Map<String, Object> wrapper = new HashMap<>();
-                wrapper.put("suggestedMeals", arr);
-                return wrapper;
-            }
-        } catch (Exception e) {
-            log.debug("Failed to parse jsonCandidate from AI response: {}", e.getMessage());
-            // fallthrough
-        }
-
-        return Collections.emptyMap();
-    }
-
-    // Recursively sanitize strings inside maps/lists to remove control chars and replacement artifacts
+    // Extract JSON from AI response and convert to Map (a bare array is wrapped under 'suggestedMeals')
     @SuppressWarnings("unchecked")
-    private void sanitizeObjectRecursively(Object obj) {
-        if (obj instanceof Map) {
-            Map<String, Object> map = (Map<String, Object>) obj;
-            for (Map.Entry<String, Object> e : new HashMap<>(map).entrySet()) {
-                Object v = e.getValue();
-                if (v instanceof String) {
-                    String s = (String) v;
-                    s = s.replaceAll("[\\u0000-\\u001F\\u007F-\\u009F\\uFFFD]", "");
-                    map.put(e.getKey(), s);
-                } else if (v instanceof Map || v instanceof List) {
-                    sanitizeObjectRecursively(v);
-                }
-            }
-        } else if (obj instanceof List) {
-            List<Object> list = (List<Object>) obj;
-            for (int i = 0; i < list.size(); i++) {
-                Object v = list.get(i);
-                if (v instanceof String) {
-                    String s = (String) v;
-                    s = s.replaceAll("[\\u0000-\\u001F\\u007F-\\u009F\\uFFFD]", "");
-                    list.set(i, s);
-                } else if (v instanceof Map || v instanceof List) {
-                    sanitizeObjectRecursively(v);
-                }
-            }
+    private Map<String, Object> parseAiResponseToMap(String aiResponse) {
+        Object parsed = LlmOutputParser.parse(aiResponse).orElse(null);
+        if (parsed instanceof List) {
+            Map<String, Object> wrapper = new HashMap<>();
+            wrapper.put("suggestedMeals", parsed);
+            return wrapper;
         }
+        return parsed instanceof Map ? (Map<String, Object>) parsed : Collections.emptyMap();
     }
 }
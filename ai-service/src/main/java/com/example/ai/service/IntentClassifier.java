@@ -0,0 +1,218 @@
+package com.example.ai.service;
+
+import com.example.ai.config.AsyncConfig;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import jakarta.annotation.PostConstruct;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Classifieur d'intention local : plus proche centroïde sur les embeddings MiniLM des exemples étiquetés
+ * de {@link #RESOURCE}, sans appel au LLM.
+ *
+ * Chaque intention est représentée par la moyenne normalisée des vecteurs de ses exemples ; un message est
+ * classé par similarité cosinus avec chaque centroïde. La classification est jugée sûre quand la meilleure
+ * similarité atteint {@code min-similarity} et dépasse la suivante d'au moins {@code min-margin}.
+ * Les centroïdes sont calculés en arrière-plan au démarrage ; d'ici là, {@link #classify} ne répond pas.
+ */
+@Service
+public class IntentClassifier {
+
+    private static final Logger log = LoggerFactory.getLogger(IntentClassifier.class);
+
+    public static final String RESOURCE = "intents/intent-examples.txt";
+
+    /**
+     * Intention la plus proche, sa similarité et l'écart avec la deuxième
+     */
+    public record Classification(String intent, double similarity, double margin, boolean confident) {
+    }
+
+    private final NutritionKnowledgeService knowledgeService;
+    private final Executor agentExecutor;
+    private final boolean enabled;
+    private final double minSimilarity;
+    private final double minMargin;
+
+    // Intention -> centroïde de norme 1, null tant que les exemples ne sont pas encodés
+    private volatile Map<String, float[]> centroids;
+
+    private final AtomicLong answeredLocally = new AtomicLong();
+    private final AtomicLong sentToLlm = new AtomicLong();
+
+    public IntentClassifier(
+            NutritionKnowledgeService knowledgeService,
+            @Qualifier(AsyncConfig.AGENT_EXECUTOR) Executor agentExecutor,
+            MeterRegistry meterRegistry,
+            @Value("${ai.intent.classifier.enabled:true}") boolean enabled,
+            @Value("${ai.intent.classifier.min-similarity:0.45}") double minSimilarity,
+            @Value("${ai.intent.classifier.min-margin:0.03}") double minMargin
+    ) {
+        this.knowledgeService = knowledgeService;
+        this.agentExecutor = agentExecutor;
+        this.enabled = enabled;
+        this.minSimilarity = minSimilarity;
+        this.minMargin = minMargin;
+
+        FunctionCounter.builder("intent.classifier.decisions", answeredLocally, AtomicLong::get)
+                .tag("outcome", "local")
+                .description("Chat messages answered locally from the intent classifier")
+                .register(meterRegistry);
+        FunctionCounter.builder("intent.classifier.decisions", sentToLlm, AtomicLong::get)
+                .tag("outcome", "llm")
+                .description("Chat messages sent to the LLM")
+                .register(meterRegistry);
+        Gauge.builder("intent.classifier.bypass.ratio", this, IntentClassifier::getBypassRatio)
+                .description("Share of chat messages answered without the LLM")
+                .register(meterRegistry);
+    }
+
+    @PostConstruct
+    public void initialize() {
+        if (enabled) {
+            agentExecutor.execute(this::loadCentroids);
+        }
+    }
+
+    /**
+     * @return la classification du message, null si le classifieur est désactivé ou pas encore prêt
+     */
+    public Classification classify(String message) {
+        Map<String, float[]> current = centroids;
+        if (current == null || message == null || message.isBlank()) {
+            return null;
+        }
+        float[] vector = knowledgeService.embedQuestion(message);
+        String best = null;
+        double bestScore = -1;
+        double secondScore = -1;
+        for (Map.Entry<String, float[]> centroid : current.entrySet()) {
+            double score = dot(vector, centroid.getValue());
+            if (score > bestScore) {
+                secondScore = bestScore;
+                bestScore = score;
+                best = centroid.getKey();
+            } else if (score > secondScore) {
+                secondScore = score;
+            }
+        }
+        double margin = bestScore - secondScore;
+        return new Classification(best, bestScore, margin, bestScore >= minSimilarity && margin >= minMargin);
+    }
+
+    /**
+     * Compte un message répondu localement ou transmis au LLM (taux de contournement)
+     */
+    public void recordDecision(boolean local) {
+        (local ? answeredLocally : sentToLlm).incrementAndGet();
+    }
+
+    public double getBypassRatio() {
+        long local = answeredLocally.get();
+        long total = local + sentToLlm.get();
+        return total == 0 ? 0.0 : (double) local / total;
+    }
+
+    public boolean isReady() {
+        return centroids != null;
+    }
+
+    public Map<String, Object> getStatistics() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("ready", isReady());
+        stats.put("answeredLocally", answeredLocally.get());
+        stats.put("sentToLlm", sentToLlm.get());
+        stats.put("bypassRatio", getBypassRatio());
+        stats.put("minSimilarity", minSimilarity);
+        stats.put("minMargin", minMargin);
+        return stats;
+    }
+
+    private void loadCentroids() {
+        try {
+            long start = System.currentTimeMillis();
+            Map<String, List<String>> examples = loadExamples();
+            List<String> labels = new ArrayList<>();
+            List<String> texts = new ArrayList<>();
+            examples.forEach((label, messages) -> messages.forEach(message -> {
+                labels.add(label);
+                texts.add(message);
+            }));
+            List<float[]> vectors = knowledgeService.embedQuestions(texts);
+
+            Map<String, float[]> sums = new LinkedHashMap<>();
+            for (int i = 0; i < vectors.size(); i++) {
+                float[] vector = vectors.get(i);
+                float[] sum = sums.computeIfAbsent(labels.get(i), l -> new float[vector.length]);
+                for (int d = 0; d < vector.length; d++) {
+                    sum[d] += vector[d];
+                }
+            }
+            sums.values().forEach(IntentClassifier::normalize);
+            centroids = sums;
+            log.info("Intent classifier ready: {} intents from {} examples in {}ms",
+                    sums.size(), texts.size(), System.currentTimeMillis() - start);
+        } catch (Exception e) {
+            log.error("Intent classifier unavailable, every chat message goes to the LLM", e);
+        }
+    }
+
+    private static Map<String, List<String>> loadExamples() throws IOException {
+        Map<String, List<String>> examples = new LinkedHashMap<>();
+        try (InputStream inputStream = IntentClassifier.class.getClassLoader().getResourceAsStream(RESOURCE)) {
+            if (inputStream == null) {
+                throw new IOException("Resource not found: " + RESOURCE);
+            }
+            BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream, StandardCharsets.UTF_8));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                int tab = line.indexOf('\t');
+                if (line.isBlank() || line.startsWith("#") || tab < 0) {
+                    continue;
+                }
+                examples.computeIfAbsent(line.substring(0, tab).trim(), l -> new ArrayList<>())
+                        .add(line.substring(tab + 1).trim());
+            }
+        }
+        return examples;
+    }
+
+    private static double dot(float[] a, float[] b) {
+        double sum = 0;
+        for (int i = 0; i < a.length; i++) {
+            sum += a[i] * b[i];
+        }
+        return sum;
+    }
+
+    private static void normalize(float[] vector) {
+        double norm = 0;
+        for (float v : vector) {
+            norm += v * v;
+        }
+        if (norm > 0) {
+            float inverse = (float) (1.0 / Math.sqrt(norm));
+            for (int i = 0; i < vector.length; i++) {
+                vector[i] *= inverse;
+            }
+        }
+    }
+}
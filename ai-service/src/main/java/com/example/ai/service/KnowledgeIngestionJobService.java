@@ -0,0 +1,308 @@
+package com.example.ai.service;
+
+import com.example.ai.store.IngestionPipeline;
+import com.example.ai.store.KnowledgeSegmenter;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import dev.langchain4j.data.segment.TextSegment;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.util.unit.DataSize;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Ingestion en flux de gros documents dans la base de connaissances.
+ *
+ * Le corps de la requête est recopié tel quel dans un fichier temporaire (sans être chargé en mémoire),
+ * puis relu ligne à ligne en arrière-plan : découpage incrémental, encodage par micro-lots via
+ * {@link IngestionPipeline}, segments déjà indexés ignorés (empreinte du texte).
+ * La mémoire utilisée reste bornée quelle que soit la taille du corpus ; le disque l'est par {@code max-bytes}.
+ * Si un lot échoue, les empreintes réservées par le travail mais jamais insérées sont libérées : une nouvelle
+ * soumission du même document réindexe ces segments.
+ */
+@Service
+public class KnowledgeIngestionJobService {
+
+    private static final Logger log = LoggerFactory.getLogger(KnowledgeIngestionJobService.class);
+
+    private static final String DESCRIPTION = "Dynamically ingested";
+    // Un paragraphe sans ligne vide au-delà de cette taille est découpé sans attendre sa fin
+    private static final int MAX_PARAGRAPH_LENGTH = 8 * KnowledgeSegmenter.MAX_SEGMENT_LENGTH;
+
+    /**
+     * Format du flux : NDJSON (un objet {"content", "category"} par ligne) ou texte brut
+     */
+    public enum Format { NDJSON, TEXT }
+
+    public enum Status { QUEUED, RUNNING, COMPLETED, FAILED }
+
+    /**
+     * Corps de requête plus grand que {@code ai.knowledge.ingest.max-bytes}
+     */
+    public static class TooLargeException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        TooLargeException(long maxBytes) {
+            super("Ingestion body exceeds " + maxBytes + " bytes");
+        }
+    }
+
+    private final NutritionKnowledgeService knowledgeService;
+    private final long maxBytes;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    // Les travaux s'exécutent l'un après l'autre ; chacun dispose de son pipeline (encodeurs = cœurs)
+    private final ExecutorService jobExecutor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "knowledge-ingest-jobs");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final Cache<String, IngestJob> jobs = Caffeine.newBuilder()
+            .maximumSize(500)
+            .expireAfterWrite(Duration.ofHours(24))
+            .build();
+
+    public KnowledgeIngestionJobService(
+            NutritionKnowledgeService knowledgeService,
+            @Value("${ai.knowledge.ingest.max-bytes:512MB}") DataSize maxBytes
+    ) {
+        this.knowledgeService = knowledgeService;
+        this.maxBytes = maxBytes.toBytes();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        jobExecutor.shutdownNow();
+    }
+
+    /**
+     * Recopie le flux dans un fichier temporaire et planifie son ingestion
+     *
+     * @throws TooLargeException si le flux dépasse {@code max-bytes} (rien n'est ingéré)
+     */
+    public IngestJob submit(InputStream body, Format format, String category) throws IOException {
+        Path spool = Files.createTempFile("knowledge-ingest-", format == Format.NDJSON ? ".ndjson" : ".txt");
+        long bytes = 0;
+        try (OutputStream out = Files.newOutputStream(spool)) {
+            byte[] buffer = new byte[64 * 1024];
+            int read;
+            while ((read = body.read(buffer)) != -1) {
+                bytes += read;
+                if (bytes > maxBytes) {
+                    throw new TooLargeException(maxBytes);
+                }
+                out.write(buffer, 0, read);
+            }
+        } catch (IOException e) {
+            Files.deleteIfExists(spool);
+            throw e;
+        }
+
+        IngestJob job = new IngestJob(UUID.randomUUID().toString(), format, category, bytes);
+        jobs.put(job.id, job);
+        jobExecutor.execute(() -> run(job, spool));
+        log.info("Knowledge ingestion job {} queued ({} bytes, {})", job.id, bytes, format);
+        return job;
+    }
+
+    public IngestJob getJob(String jobId) {
+        return jobs.getIfPresent(jobId);
+    }
+
+    private void run(IngestJob job, Path spool) {
+        job.status = Status.RUNNING;
+        job.startedAt = Instant.now();
+        try {
+            IngestionPipeline pipeline = knowledgeService.newIngestionPipeline("knowledge-job-" + job.id.substring(0, 8));
+            job.pipeline = pipeline;
+            IngestionPipeline.Progress progress = pipeline
+                    .start(List.of(new IngestionPipeline.Source(job.category, sink -> produce(job, spool, sink))))
+                    .join();
+            job.status = progress.sourcesFailed() > 0 ? Status.FAILED : Status.COMPLETED;
+            if (job.status == Status.FAILED) {
+                knowledgeService.releaseUnstoredClaims(job.claims);
+            }
+            log.info("Knowledge ingestion job {} {}: {} segments indexed, {} duplicates skipped",
+                    job.id, job.status, progress.segmentsInserted(), job.duplicatesSkipped.get());
+        } catch (Exception e) {
+            log.error("Knowledge ingestion job {} failed", job.id, e);
+            job.status = Status.FAILED;
+            job.error = e.getMessage();
+            knowledgeService.releaseUnstoredClaims(job.claims);
+        } finally {
+            job.finishedAt = Instant.now();
+            job.claims.clear();
+            try {
+                Files.deleteIfExists(spool);
+            } catch (IOException e) {
+                log.warn("Could not delete ingestion spool file {}: {}", spool, e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Étape de lecture du pipeline : relit le fichier ligne à ligne et émet les segments
+     */
+    private void produce(IngestJob job, Path spool, IngestionPipeline.SegmentSink sink) throws Exception {
+        try (BufferedReader reader = Files.newBufferedReader(spool, StandardCharsets.UTF_8)) {
+            if (job.format == Format.NDJSON) {
+                produceNdjson(job, reader, sink);
+            } else {
+                produceText(job, reader, sink);
+            }
+        } catch (Exception e) {
+            job.error = e.getMessage();
+            throw e;
+        }
+    }
+
+    private void produceNdjson(IngestJob job, BufferedReader reader, IngestionPipeline.SegmentSink sink)
+            throws IOException, InterruptedException {
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (line.isBlank()) {
+                continue;
+            }
+            job.recordsRead.incrementAndGet();
+            String content;
+            String category;
+            try {
+                JsonNode record = objectMapper.readTree(line);
+                content = record.path("content").asText(record.path("text").asText(""));
+                category = record.path("category").asText(job.category);
+            } catch (IOException e) {
+                job.invalidRecords.incrementAndGet();
+                continue;
+            }
+            if (content.isBlank()) {
+                job.invalidRecords.incrementAndGet();
+                continue;
+            }
+            emit(job, KnowledgeSegmenter.split(content, category, DESCRIPTION), sink);
+        }
+    }
+
+    private void produceText(IngestJob job, BufferedReader reader, IngestionPipeline.SegmentSink sink)
+            throws IOException, InterruptedException {
+        StringBuilder paragraph = new StringBuilder();
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (line.isBlank()) {
+                flushParagraph(job, paragraph, sink);
+                continue;
+            }
+            paragraph.append(line).append('\n');
+            if (paragraph.length() >= MAX_PARAGRAPH_LENGTH) {
+                flushParagraph(job, paragraph, sink);
+            }
+        }
+        flushParagraph(job, paragraph, sink);
+    }
+
+    private void flushParagraph(IngestJob job, StringBuilder paragraph, IngestionPipeline.SegmentSink sink)
+            throws InterruptedException {
+        if (paragraph.length() == 0) {
+            return;
+        }
+        job.recordsRead.incrementAndGet();
+        emit(job, KnowledgeSegmenter.split(paragraph.toString(), job.category, DESCRIPTION), sink);
+        paragraph.setLength(0);
+    }
+
+    private void emit(IngestJob job, List<TextSegment> segments, IngestionPipeline.SegmentSink sink)
+            throws InterruptedException {
+        for (TextSegment segment : segments) {
+            if (knowledgeService.claimSegment(segment, job.claims)) {
+                job.segmentsAccepted.incrementAndGet();
+                sink.accept(segment);
+            } else {
+                job.duplicatesSkipped.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Travail d'ingestion et son avancement
+     */
+    public static class IngestJob {
+        private final String id;
+        private final Format format;
+        private final String category;
+        private final long bytesReceived;
+        private final Instant createdAt = Instant.now();
+        private final AtomicLong recordsRead = new AtomicLong();
+        private final AtomicLong invalidRecords = new AtomicLong();
+        private final AtomicLong segmentsAccepted = new AtomicLong();
+        private final AtomicLong duplicatesSkipped = new AtomicLong();
+        // Empreintes réservées par ce travail, libérées s'il échoue avant de les insérer
+        private final Set<String> claims = ConcurrentHashMap.newKeySet();
+        private volatile Status status = Status.QUEUED;
+        private volatile IngestionPipeline pipeline;
+        private volatile Instant startedAt;
+        private volatile Instant finishedAt;
+        private volatile String error;
+
+        IngestJob(String id, Format format, String category, long bytesReceived) {
+            this.id = id;
+            this.format = format;
+            this.category = category;
+            this.bytesReceived = bytesReceived;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public Status getStatus() {
+            return status;
+        }
+
+        public Map<String, Object> toMap() {
+            Map<String, Object> map = new HashMap<>();
+            map.put("jobId", id);
+            map.put("status", status.name());
+            map.put("format", format.name());
+            map.put("category", category);
+            map.put("bytesReceived", bytesReceived);
+            map.put("recordsRead", recordsRead.get());
+            map.put("invalidRecords", invalidRecords.get());
+            map.put("segmentsAccepted", segmentsAccepted.get());
+            map.put("duplicatesSkipped", duplicatesSkipped.get());
+            IngestionPipeline current = pipeline;
+            if (current != null) {
+                IngestionPipeline.Progress progress = current.progress();
+                map.put("segmentsEmbedded", progress.segmentsEmbedded());
+                map.put("segmentsIndexed", progress.segmentsInserted());
+            }
+            map.put("createdAt", createdAt.toString());
+            map.put("startedAt", startedAt != null ? startedAt.toString() : null);
+            map.put("finishedAt", finishedAt != null ? finishedAt.toString() : null);
+            map.put("error", error);
+            return map;
+        }
+    }
+}
@@ -0,0 +1,340 @@
+package com.example.ai.service;
+
+import com.example.ai.store.Bm25Index;
+import com.example.ai.store.FoodTable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Estimation locale des apports d'un repas décrit en texte libre ("200g de lentilles, 2 œufs").
+ *
+ * Le texte est découpé en éléments, chaque élément en quantité + aliment ; l'aliment est rapproché de la
+ * {@link FoodTable} par ses termes, puis macros et charge glycémique sont calculés sur le poids estimé.
+ * Aucun appel au modèle : la confiance renvoyée indique si un affinage par le LLM est utile.
+ */
+@Service
+public class MealNutritionEstimator {
+
+    private static final Logger log = LoggerFactory.getLogger(MealNutritionEstimator.class);
+
+    // Estimation utilisée quand rien n'est reconnu (valeur historique du parseur heuristique)
+    private static final int UNKNOWN_MEAL_CALORIES = 300;
+    // Confiance d'un aliment choisi parmi plusieurs aussi proches
+    private static final double TIE_PENALTY = 0.5;
+
+    private static final Pattern DIACRITICS = Pattern.compile("\\p{M}+");
+    private static final Pattern ITEM_SEPARATOR = Pattern.compile("[,;+\\n]|\\s(?:et|and|avec|with|puis|plus)\\s");
+    private static final Pattern QUANTITY = Pattern.compile(
+            "(?<![a-z0-9])(\\d+(?:[.,]\\d+)?|un|une|deux|trois|quatre|cinq|six|demi|one|two|three|four|five|half)"
+                    + "\\s*(kg|g|gr|grammes?|grams?|ml|cl|dl|l|litres?|liters?"
+                    + "|c\\.?\\s?a\\.?\\s?(?:soupe|s|cafe|c)\\.?|cuilleres?\\s+a\\s+(?:soupe|cafe)|tbsp|tsp"
+                    + "|tasses?|cups?|bols?|bowls?|verres?|glass(?:es)?|poignees?|handfuls?"
+                    + "|tranches?|slices?|portions?|servings?|parts?)?(?![a-z])");
+    private static final Pattern SOUP_SPOON = Pattern.compile("c\\.?\\s?a\\.?\\s?s\\.?");
+    private static final Pattern TEA_SPOON = Pattern.compile("c\\.?\\s?a\\.?\\s?c\\.?");
+
+    private static final Map<String, Double> NUMBER_WORDS = Map.ofEntries(
+            Map.entry("un", 1.0), Map.entry("une", 1.0), Map.entry("one", 1.0),
+            Map.entry("deux", 2.0), Map.entry("two", 2.0),
+            Map.entry("trois", 3.0), Map.entry("three", 3.0),
+            Map.entry("quatre", 4.0), Map.entry("four", 4.0),
+            Map.entry("cinq", 5.0), Map.entry("five", 5.0),
+            Map.entry("six", 6.0),
+            Map.entry("demi", 0.5), Map.entry("half", 0.5)
+    );
+
+    // Descriptions en anglais : termes ramenés au vocabulaire du fichier (après normalisation)
+    private static final Map<String, String> ENGLISH_TERMS = englishTerms(
+            "chicken", "poulet", "breast", "poitrine", "turkey", "dinde", "beef", "boeuf", "salmon", "saumon",
+            "tuna", "thon", "mackerel", "maquereau", "egg", "oeuf", "shrimp", "crevette", "lentils", "lentille",
+            "chickpeas", "pois", "beans", "haricot", "rice", "riz", "oats", "avoine", "oatmeal", "avoine",
+            "bread", "pain", "pasta", "pate", "barley", "orge", "spinach", "epinard", "broccoli", "brocoli",
+            "carrots", "carotte", "tomatoes", "tomate", "cucumber", "concombre", "peppers", "poivron",
+            "zucchini", "courgette", "eggplant", "aubergine", "cauliflower", "fleur", "asparagus", "asperge",
+            "mushrooms", "champignon", "onions", "oignon", "garlic", "ail", "potatoes", "terre",
+            "apples", "pomme", "bananas", "banane", "strawberries", "fraise",
+            "blueberries", "myrtille", "raspberries", "framboise", "grapes", "raisin", "pears", "poire",
+            "peaches", "peche", "mango", "mangue", "pineapple", "ananas", "watermelon", "pasteque",
+            "milk", "lait", "yogurt", "yaourt", "greek", "grec", "cheese", "fromage", "almonds", "amande",
+            "walnuts", "noix", "cashews", "cajou", "pistachios", "pistache", "peanuts", "arachide",
+            "seeds", "graine", "oil", "huile", "butter", "beurre", "avocado", "avocat",
+            "hummus", "houmous", "mustard", "moutarde", "soy", "soja", "brown", "brun", "white", "blanc",
+            "cooked", "cuit", "grilled", "grille", "wholegrain", "complet", "whole", "entier"
+    );
+
+    /**
+     * Élément reconnu : aliment de la table, poids retenu et score de correspondance (0..1)
+     */
+    public record Item(String text, String food, double grams, double calories, double protein,
+                       double carbs, double fats, double fiber, int glycemicIndex, double matchScore) {
+    }
+
+    /**
+     * Estimation d'un repas ; confidence (0..1) moyenne les correspondances, 0 pour un élément non reconnu
+     */
+    public record MealEstimate(double calories, double protein, double carbs, double fats, double fiber,
+                               int glycemicIndex, double glycemicLoad, double confidence,
+                               List<Item> items, List<String> unmatched) {
+
+        /**
+         * Valeurs arrondies au format attendu par les analyses de repas
+         */
+        public Map<String, Object> toNutritionMap() {
+            Map<String, Object> out = new HashMap<>();
+            out.put("calories", (int) Math.round(calories));
+            out.put("protein", (int) Math.round(protein));
+            out.put("carbs", (int) Math.round(carbs));
+            out.put("fats", (int) Math.round(fats));
+            out.put("fiber", (int) Math.round(fiber));
+            out.put("glycemicIndex", glycemicIndex);
+            out.put("glycemicLoad", Math.round(glycemicLoad * 10.0) / 10.0);
+            out.put("confidence", (int) Math.round(confidence * 100));
+            List<Map<String, Object>> foods = new ArrayList<>();
+            for (Item item : items) {
+                Map<String, Object> food = new HashMap<>();
+                food.put("text", item.text());
+                food.put("food", item.food());
+                food.put("grams", (int) Math.round(item.grams()));
+                food.put("calories", (int) Math.round(item.calories()));
+                foods.add(food);
+            }
+            out.put("foods", foods);
+            out.put("unmatched", unmatched);
+            return out;
+        }
+    }
+
+    private final FoodTable foods;
+
+    public MealNutritionEstimator() {
+        try {
+            this.foods = FoodTable.load();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not load " + FoodTable.RESOURCE, e);
+        }
+        log.info("Meal estimator ready: {} foods from {}", foods.size(), FoodTable.RESOURCE);
+    }
+
+    public MealEstimate estimate(String mealDescription) {
+        List<Item> items = new ArrayList<>();
+        List<String> unmatched = new ArrayList<>();
+        double calories = 0, protein = 0, carbs = 0, fats = 0, fiber = 0, glycemicLoad = 0, confidence = 0;
+        int parts = 0;
+
+        for (String part : ITEM_SEPARATOR.split(fold(mealDescription))) {
+            String text = part.trim();
+            if (text.isEmpty()) {
+                continue;
+            }
+            Item item = estimateItem(text);
+            if (item == null) {
+                if (!Bm25Index.tokenize(text).isEmpty()) {
+                    unmatched.add(text);
+                    parts++;
+                }
+                continue;
+            }
+            parts++;
+            items.add(item);
+            calories += item.calories();
+            protein += item.protein();
+            carbs += item.carbs();
+            fats += item.fats();
+            fiber += item.fiber();
+            glycemicLoad += item.glycemicIndex() * item.carbs() / 100.0;
+            confidence += item.matchScore();
+        }
+
+        if (items.isEmpty()) {
+            return new MealEstimate(UNKNOWN_MEAL_CALORIES, 0, 0, 0, 0, 0, 0, 0, items, unmatched);
+        }
+        // IG du repas : moyenne des IG pondérée par les glucides de chaque aliment
+        int glycemicIndex = carbs > 0 ? (int) Math.round(glycemicLoad * 100.0 / carbs) : 0;
+        return new MealEstimate(calories, protein, carbs, fats, fiber, glycemicIndex, glycemicLoad,
+                confidence / parts, items, unmatched);
+    }
+
+    private Item estimateItem(String text) {
+        String remainder = text;
+        double amount = Double.NaN;
+        String unit = null;
+        Matcher quantity = QUANTITY.matcher(text);
+        if (quantity.find()) {
+            String value = quantity.group(1);
+            amount = NUMBER_WORDS.containsKey(value)
+                    ? NUMBER_WORDS.get(value)
+                    : Double.parseDouble(value.replace(',', '.'));
+            unit = quantity.group(2);
+            remainder = text.substring(0, quantity.start()) + " " + text.substring(quantity.end());
+        }
+
+        List<String> terms = new ArrayList<>();
+        for (String term : Bm25Index.tokenize(remainder)) {
+            if (!Character.isDigit(term.charAt(0))) {
+                terms.add(ENGLISH_TERMS.getOrDefault(term, term));
+            }
+        }
+        if (terms.isEmpty()) {
+            return null;
+        }
+
+        Match match = bestMatch(terms);
+        if (match == null) {
+            return null;
+        }
+        int food = match.food();
+        int matched = matchedTerms(food, terms);
+        // Part de la description reconnue (essentiel) et part du nom de l'aliment retrouvée
+        double matchScore = 0.7 * matched / terms.size() + 0.3 * matched / foods.termCount(food);
+        if (match.tied()) {
+            // Autre aliment aussi proche : choix arbitraire, laissé sous le seuil d'affinage par le LLM
+            matchScore *= TIE_PENALTY;
+        }
+
+        double grams = grams(food, amount, unit);
+        return new Item(text, foods.name(food), grams,
+                grams * foods.caloriesPerGram(food), grams * foods.proteinPerGram(food),
+                grams * foods.carbsPerGram(food), grams * foods.fatsPerGram(food),
+                grams * foods.fiberPerGram(food), foods.glycemicIndex(food), matchScore);
+    }
+
+    /**
+     * Aliment retenu ; tied si un autre aliment a autant de termes retrouvés et autant de termes en trop
+     */
+    private record Match(int food, boolean tied) {
+    }
+
+    /**
+     * Aliment partageant le plus de termes avec l'élément ; à égalité, celui dont le nom a le moins de termes
+     * non retrouvés (« une pomme » : Pommes plutôt que Pommes de terre bouillies), puis le premier du fichier
+     */
+    private Match bestMatch(List<String> terms) {
+        int best = -1;
+        int bestMatched = 0;
+        int bestUnmatched = 0;
+        boolean tied = false;
+        for (int food : candidates(terms)) {
+            int matched = matchedTerms(food, terms);
+            int unmatched = foods.termCount(food) - matched;
+            if (matched > bestMatched || (matched == bestMatched && unmatched < bestUnmatched)) {
+                best = food;
+                bestMatched = matched;
+                bestUnmatched = unmatched;
+                tied = false;
+            } else if (matched == bestMatched && unmatched == bestUnmatched) {
+                tied = true;
+                best = Math.min(best, food);
+            }
+        }
+        return best < 0 ? null : new Match(best, tied);
+    }
+
+    private Set<Integer> candidates(List<String> terms) {
+        Set<Integer> candidates = new TreeSet<>();
+        for (String term : terms) {
+            for (int food : foods.foodsWithTerm(term)) {
+                candidates.add(food);
+            }
+        }
+        return candidates;
+    }
+
+    private int matchedTerms(int food, List<String> terms) {
+        int matched = 0;
+        for (int i = 0; i < terms.size(); i++) {
+            String term = terms.get(i);
+            if (terms.indexOf(term) == i && contains(foods.foodsWithTerm(term), food)) {
+                matched++;
+            }
+        }
+        return matched;
+    }
+
+    private static boolean contains(int[] sortedFoods, int food) {
+        for (int candidate : sortedFoods) {
+            if (candidate == food) {
+                return true;
+            }
+            if (candidate > food) {
+                return false;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Poids en grammes : unité de masse/volume explicite, mesure ménagère, nombre d'unités, sinon portion du fichier
+     */
+    private double grams(int food, double amount, String unit) {
+        if (Double.isNaN(amount)) {
+            return foods.portionGrams(food);
+        }
+        if (unit == null) {
+            return amount * foods.unitGrams(food);
+        }
+        if (unit.equals("kg") || unit.startsWith("litre") || unit.startsWith("liter") || unit.equals("l")) {
+            return amount * 1000;
+        }
+        if (unit.equals("g") || unit.startsWith("gr") || unit.equals("ml")) {
+            return amount;
+        }
+        if (unit.equals("cl")) {
+            return amount * 10;
+        }
+        if (unit.equals("dl")) {
+            return amount * 100;
+        }
+        if (unit.equals("tbsp") || unit.contains("soupe") || SOUP_SPOON.matcher(unit).matches()) {
+            return amount * 15;
+        }
+        if (unit.equals("tsp") || unit.contains("cafe") || TEA_SPOON.matcher(unit).matches()) {
+            return amount * 5;
+        }
+        if (unit.startsWith("tasse") || unit.startsWith("cup")) {
+            return amount * 240;
+        }
+        if (unit.startsWith("bol") || unit.startsWith("bowl")) {
+            return amount * 250;
+        }
+        if (unit.startsWith("verre") || unit.startsWith("glass")) {
+            return amount * 200;
+        }
+        if (unit.startsWith("poignee") || unit.startsWith("handful")) {
+            return amount * 30;
+        }
+        if (unit.startsWith("tranche") || unit.startsWith("slice")) {
+            return amount * foods.unitGrams(food);
+        }
+        return amount * foods.portionGrams(food);
+    }
+
+    private static String fold(String text) {
+        if (text == null) {
+            return "";
+        }
+        String folded = DIACRITICS.matcher(Normalizer.normalize(text, Normalizer.Form.NFD)).replaceAll("");
+        return folded.toLowerCase(Locale.ROOT).replace("œ", "oe").replace("æ", "ae");
+    }
+
+    private static Map<String, String> englishTerms(String... pairs) {
+        Map<String, String> terms = new HashMap<>();
+        for (int i = 0; i < pairs.length; i += 2) {
+            terms.put(Bm25Index.tokenize(pairs[i]).get(0), Bm25Index.tokenize(pairs[i + 1]).get(0));
+        }
+        return terms;
+    }
+}
@@ -1,5 +1,10 @@
 package com.example.ai.service;
 
+import com.example.ai.llm.LlmCallContext;
+import com.example.ai.llm.LlmOutputParser;
+import com.example.ai.llm.LlmTask;
+import com.example.ai.llm.PromptAssembler;
+import dev.langchain4j.data.message.ChatMessage;
 import dev.langchain4j.model.chat.ChatLanguageModel;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -21,6 +26,91 @@ public class NutritionAgentService {
 
 
     private static final Logger log = LoggerFactory.getLogger(NutritionAgentService.class);
+    // Fixed part of each agent prompt, identical for every call; user data goes in the user message
+    private static final String ANALYSIS_INSTRUCTIONS =
+            "Your role is to PROACTIVELY help users by analyzing their data and suggesting specific actions.\n\n"
+            + "Analyze the user data (and profile, if given) and provide a JSON response with:\n"
+            + "1. insights: Array of key observations about their nutrition\n"
+            + "2. alerts: Array of urgent health warnings (if any)\n"
+            + "3. recommendations: Array of specific actionable tips\n"
+            + "4. suggestedActions: Array of automatic actions the app should take\n"
+            + "5. dailyGoals: Object with recommended daily targets\n"
+            + "6. healthScore: Number 0-100 based on their habits\n"
+            + "7. motivationalMessage: Encouraging message for the user\n\n"
+            + "For suggestedActions, use these types:\n"
+            + "- {type: 'ADD_WATER_REMINDER', data: {intervalMinutes: 60}}\n"
+            + "- {type: 'SUGGEST_MEAL', data: {mealType: 'breakfast/lunch/dinner', suggestions: ['food1', 'food2']}}\n"
+            + "- {type: 'UPDATE_GOAL', data: {goalType: 'calories/water/protein', value: number}}\n"
+            + "- {type: 'SHOW_STATISTIC', data: {statType: 'weekly/monthly', metric: 'calories/water'}}\n"
+            + "- {type: 'HEALTH_CHECK', data: {checkType: 'hydration/nutrition/balance'}}\n\n"
+            + "Respond ONLY with valid JSON. Be specific with numbers based on the data.";
+    private static final String MEAL_SUGGESTION_INSTRUCTIONS =
+            "Suggest 5 specific meal options for the meal type, user profile and dietary restrictions given.\n\n"
+            + "Respond with JSON:\n"
+            + "{\n"
+            + "  \"meals\": [\n"
+            + "    {\"name\": \"Meal Name\", \"calories\": 400, \"protein\": 25, \"carbs\": 45, \"fats\": 15, \"description\": \"Brief description\", \"ingredients\": [\"item1\", \"item2\"]}\n"
+            + "  ],\n"
+            + "  \"reasoning\": \"Why these meals are recommended\"\n"
+            + "}";
+    private static final String STATISTICS_INSTRUCTIONS =
+            "Analyze the nutrition data given and calculate detailed statistics.\n\n"
+            + "Calculate and respond with JSON:\n"
+            + "{\n"
+            + "  \"summary\": {\n"
+            + "    \"totalCalories\": number,\n"
+            + "    \"totalProtein\": number,\n"
+            + "    \"totalCarbs\": number,\n"
+            + "    \"totalFats\": number,\n"
+            + "    \"totalWaterMl\": number,\n"
+            + "    \"mealsCount\": number\n"
+            + "  },\n"
+            + "  \"goals\": {\n"
+            + "    \"caloriesGoal\": 2000,\n"
+            + "    \"waterGoalMl\": 2500,\n"
+            + "    \"proteinGoal\": 50\n"
+            + "  },\n"
+            + "  \"progress\": {\n"
+            + "    \"caloriesPercent\": number,\n"
+            + "    \"waterPercent\": number,\n"
+            + "    \"proteinPercent\": number\n"
+            + "  },\n"
+            + "  \"trends\": [\"trend observation 1\", \"trend observation 2\"],\n"
+            + "  \"aiInsight\": \"Detailed analysis and recommendation\"\n"
+            + "}";
+    private static final String COMMAND_INSTRUCTIONS =
+            "You also control the nutrition app. Parse the user's command and determine what action to take.\n\n"
+            + "Available Actions:\n"
+            + "1. ADD_MEAL: Log a new meal {mealName, calories, protein, carbs, fats, mealType}\n"
+            + "2. ADD_WATER: Log water intake {amountMl}\n"
+            + "3. SET_GOAL: Update daily goal {goalType, value}\n"
+            + "4. SHOW_STATS: Display statistics {period: today/week/month}\n"
+            + "5. GET_SUGGESTIONS: Get meal suggestions {mealType, restrictions}\n"
+            + "6. NAVIGATE: Go to a page {page: dashboard/meals/water/foods/diagnostic}\n"
+            + "7. SCHEDULE_REMINDER: Set a reminder {type, time, message}\n"
+            + "8. GENERATE_REPORT: Create nutrition report {reportType}\n"
+            + "9. CHAT: Just respond conversationally\n\n"
+            + "Respond with JSON:\n"
+            + "{\n"
+            + "  \"action\": \"ACTION_TYPE\",\n"
+            + "  \"parameters\": {action-specific data},\n"
+            + "  \"response\": \"What to tell the user\",\n"
+            + "  \"followUp\": \"Optional follow-up question or suggestion\"\n"
+            + "}";
+    private static final String ALERT_INSTRUCTIONS =
+            "Analyze the user's nutrition data and identify any health concerns or positive patterns.\n\n"
+            + "Check for:\n"
+            + "- Dehydration risk (low water intake)\n"
+            + "- Calorie deficiency or excess\n"
+            + "- Meal skipping patterns\n"
+            + "- Nutritional imbalances\n"
+            + "- Positive habits to reinforce\n\n"
+            + "Respond with JSON:\n"
+            + "{\n"
+            + "  \"alerts\": [{\"type\": \"warning/info/success\", \"title\": \"Alert Title\", \"message\": \"Details\", \"priority\": \"high/medium/low\"}],\n"
+            + "  \"overallStatus\": \"good/needs-attention/critical\",\n"
+            + "  \"quickTip\": \"One actionable tip right now\"\n"
+            + "}";
     private final ChatLanguageModel chatLanguageModel;
 
 
@@ -36,41 +126,14 @@ public class NutritionAgentService {
         Map<String, Object> result = new HashMap<>();
         List<Map<String, Object>> actions = new ArrayList<>();
 
-        StringBuilder prompt = new StringBuilder();
-        prompt.append("You are an intelligent nutrition AI agent for the Makla app. ");
-        prompt.append("Your role is to PROACTIVELY help users by analyzing their data and suggesting specific actions.\n\n");
-
-        prompt.append("=== USER DATA ===\n");
-        prompt.append(userData != null ? userData : "No data available");
-        prompt.append("\n\n");
-
-        if (userProfile != null && !userProfile.isEmpty()) {
-            prompt.append("=== USER PROFILE ===\n");
-            prompt.append(userProfile);
-            prompt.append("\n\n");
-        }
-
-        prompt.append("=== YOUR TASK ===\n");
-        prompt.append("Analyze the data and provide a JSON response with:\n");
-        prompt.append("1. insights: Array of key observations about their nutrition\n");
-        prompt.append("2. alerts: Array of urgent health warnings (if any)\n");
-        prompt.append("3. recommendations: Array of specific actionable tips\n");
-        prompt.append("4. suggestedActions: Array of automatic actions the app should take\n");
-        prompt.append("5. dailyGoals: Object with recommended daily targets\n");
-        prompt.append("6. healthScore: Number 0-100 based on their habits\n");
-        prompt.append("7. motivationalMessage: Encouraging message for the user\n\n");
-
-        prompt.append("For suggestedActions, use these types:\n");
-        prompt.append("- {type: 'ADD_WATER_REMINDER', data: {intervalMinutes: 60}}\n");
-        prompt.append("- {type: 'SUGGEST_MEAL', data: {mealType: 'breakfast/lunch/dinner', suggestions: ['food1', 'food2']}}\n");
-        prompt.append("- {type: 'UPDATE_GOAL', data: {goalType: 'calories/water/protein', value: number}}\n");
-        prompt.append("- {type: 'SHOW_STATISTIC', data: {statType: 'weekly/monthly', metric: 'calories/water'}}\n");
-        prompt.append("- {type: 'HEALTH_CHECK', data: {checkType: 'hydration/nutrition/balance'}}\n\n");
-
-        prompt.append("Respond ONLY with valid JSON. Be specific with numbers based on the data.\n");
+        List<ChatMessage> prompt = PromptAssembler.system(ANALYSIS_INSTRUCTIONS)
+                .section("User Data", userData, "No data available")
+                .section("User Profile", userProfile)
+                .messages();
 
         try {
-            String aiResponse = chatLanguageModel.generate(prompt.toString());
+            String aiResponse = LlmCallContext.task(LlmTask.REPORT,
+                    () -> LlmCallContext.jsonOutput(() -> chatLanguageModel.generate(prompt).content().text()));
             result = parseAgentResponse(aiResponse);
             result.put("success", true);
             result.put("timestamp", LocalDateTime.now().toString());
@@ -97,22 +160,14 @@ public class NutritionAgentService {
     public Map<String, Object> suggestMeals(String userProfile, String mealType, String restrictions) {
         Map<String, Object> result = new HashMap<>();
 
-        StringBuilder prompt = new StringBuilder();
-        prompt.append("You are a nutrition expert. Suggest 5 specific meal options.\n\n");
-        prompt.append("Meal Type: ").append(mealType != null ? mealType : "any").append("\n");
-        prompt.append("User Profile: ").append(userProfile != null ? userProfile : "general adult").append("\n");
-        prompt.append("Dietary Restrictions: ").append(restrictions != null ? restrictions : "none").append("\n\n");
-
-        prompt.append("Respond with JSON:\n");
-        prompt.append("{\n");
-        prompt.append("  \"meals\": [\n");
-        prompt.append("    {\"name\": \"Meal Name\", \"calories\": 400, \"protein\": 25, \"carbs\": 45, \"fats\": 15, \"description\": \"Brief description\", \"ingredients\": [\"item1\", \"item2\"]}\n");
-        prompt.append("  ],\n");
-        prompt.append("  \"reasoning\": \"Why these meals are recommended\"\n");
-        prompt.append("}\n");
+        List<ChatMessage> prompt = PromptAssembler.system(MEAL_SUGGESTION_INSTRUCTIONS)
+                .line("Meal Type: " + (mealType != null ? mealType : "any"))
+                .line("User Profile: " + (userProfile != null ? userProfile : "general adult"))
+                .line("Dietary Restrictions: " + (restrictions != null ? restrictions : "none"))
+                .messages();
 
         try {
-            String aiResponse = chatLanguageModel.generate(prompt.toString());
+            String aiResponse = LlmCallContext.jsonOutput(() -> chatLanguageModel.generate(prompt).content().text());
             result = parseJsonResponse(aiResponse);
             result.put("success", true);
         } catch (Exception e) {
@@ -130,38 +185,15 @@ public class NutritionAgentService {
     public Map<String, Object> generateStatistics(String mealsData, String waterData, String period) {
         Map<String, Object> result = new HashMap<>();
 
-        StringBuilder prompt = new StringBuilder();
-        prompt.append("Analyze this nutrition data and calculate detailed statistics.\n\n");
-        prompt.append("Period: ").append(period != null ? period : "today").append("\n");
-        prompt.append("Meals Data: ").append(mealsData != null ? mealsData : "[]").append("\n");
-        prompt.append("Water Data: ").append(waterData != null ? waterData : "[]").append("\n\n");
-
-        prompt.append("Calculate and respond with JSON:\n");
-        prompt.append("{\n");
-        prompt.append("  \"summary\": {\n");
-        prompt.append("    \"totalCalories\": number,\n");
-        prompt.append("    \"totalProtein\": number,\n");
-        prompt.append("    \"totalCarbs\": number,\n");
-        prompt.append("    \"totalFats\": number,\n");
-        prompt.append("    \"totalWaterMl\": number,\n");
-        prompt.append("    \"mealsCount\": number\n");
-        prompt.append("  },\n");
-        prompt.append("  \"goals\": {\n");
-        prompt.append("    \"caloriesGoal\": 2000,\n");
-        prompt.append("    \"waterGoalMl\": 2500,\n");
-        prompt.append("    \"proteinGoal\": 50\n");
-        prompt.append("  },\n");
-        prompt.append("  \"progress\": {\n");
-        prompt.append("    \"caloriesPercent\": number,\n");
-        prompt.append("    \"waterPercent\": number,\n");
-        prompt.append("    \"proteinPercent\": number\n");
-        prompt.append("  },\n");
-        prompt.append("  \"trends\": [\"trend observation 1\", \"trend observation 2\"],\n");
-        prompt.append("  \"aiInsight\": \"Detailed analysis and recommendation\"\n");
-        prompt.append("}\n");
+        List<ChatMessage> prompt = PromptAssembler.system(STATISTICS_INSTRUCTIONS)
+                .line("Period: " + (period != null ? period : "today"))
+                .line("Meals Data: " + (mealsData != null ? mealsData : "[]"))
+                .line("Water Data: " + (waterData != null ? waterData : "[]"))
+                .messages();
 
         try {
-            String aiResponse = chatLanguageModel.generate(prompt.toString());
+            String aiResponse = LlmCallContext.task(LlmTask.REPORT,
+                    () -> LlmCallContext.jsonOutput(() -> chatLanguageModel.generate(prompt).content().text()));
             result = parseJsonResponse(aiResponse);
             result.put("success", true);
         } catch (Exception e) {
@@ -183,32 +215,14 @@ public class NutritionAgentService {
     public Map<String, Object> processCommand(String command, String context) {
         Map<String, Object> result = new HashMap<>();
 
-        StringBuilder prompt = new StringBuilder();
-        prompt.append("You are an AI assistant that controls a nutrition app. Parse the user's command and determine what action to take.\n\n");
-        prompt.append("User Command: ").append(command).append("\n");
-        prompt.append("Current Context: ").append(context != null ? context : "Dashboard view").append("\n\n");
-
-        prompt.append("Available Actions:\n");
-        prompt.append("1. ADD_MEAL: Log a new meal {mealName, calories, protein, carbs, fats, mealType}\n");
-        prompt.append("2. ADD_WATER: Log water intake {amountMl}\n");
-        prompt.append("3. SET_GOAL: Update daily goal {goalType, value}\n");
-        prompt.append("4. SHOW_STATS: Display statistics {period: today/week/month}\n");
-        prompt.append("5. GET_SUGGESTIONS: Get meal suggestions {mealType, restrictions}\n");
-        prompt.append("6. NAVIGATE: Go to a page {page: dashboard/meals/water/foods/diagnostic}\n");
-        prompt.append("7. SCHEDULE_REMINDER: Set a reminder {type, time, message}\n");
-        prompt.append("8. GENERATE_REPORT: Create nutrition report {reportType}\n");
-        prompt.append("9. CHAT: Just respond conversationally\n\n");
-
-        prompt.append("Respond with JSON:\n");
-        prompt.append("{\n");
-        prompt.append("  \"action\": \"ACTION_TYPE\",\n");
-        prompt.append("  \"parameters\": {action-specific data},\n");
-        prompt.append("  \"response\": \"What to tell the user\",\n");
-        prompt.append("  \"followUp\": \"Optional follow-up question or suggestion\"\n");
-        prompt.append("}\n");
+        List<ChatMessage> prompt = PromptAssembler.system(COMMAND_INSTRUCTIONS)
+                .line("User Command: " + command)
+                .line("Current Context: " + (context != null ? context : "Dashboard view"))
+                .messages();
 
         try {
-            String aiResponse = chatLanguageModel.generate(prompt.toString());
+            String aiResponse = LlmCallContext.task(LlmTask.EXTRACTION,
+                    () -> LlmCallContext.jsonOutput(() -> chatLanguageModel.generate(prompt).content().text()));
             result = parseJsonResponse(aiResponse);
             result.put("success", true);
 
@@ -232,25 +246,12 @@ public class NutritionAgentService {
         Map<String, Object> result = new HashMap<>();
         List<Map<String, String>> alerts = new ArrayList<>();
 
-        StringBuilder prompt = new StringBuilder();
-        prompt.append("Analyze this user's nutrition data and identify any health concerns or positive patterns.\n\n");
-        prompt.append("User Data: ").append(userData).append("\n\n");
-        prompt.append("Check for:\n");
-        prompt.append("- Dehydration risk (low water intake)\n");
-        prompt.append("- Calorie deficiency or excess\n");
-        prompt.append("- Meal skipping patterns\n");
-        prompt.append("- Nutritional imbalances\n");
-        prompt.append("- Positive habits to reinforce\n\n");
-
-        prompt.append("Respond with JSON:\n");
-        prompt.append("{\n");
-        prompt.append("  \"alerts\": [{\"type\": \"warning/info/success\", \"title\": \"Alert Title\", \"message\": \"Details\", \"priority\": \"high/medium/low\"}],\n");
-        prompt.append("  \"overallStatus\": \"good/needs-attention/critical\",\n");
-        prompt.append("  \"quickTip\": \"One actionable tip right now\"\n");
-        prompt.append("}\n");
+        List<ChatMessage> prompt = PromptAssembler.system(ALERT_INSTRUCTIONS)
+                .section("User Data", userData)
+                .messages();
 
         try {
-            String aiResponse = chatLanguageModel.generate(prompt.toString());
+            String aiResponse = LlmCallContext.jsonOutput(() -> chatLanguageModel.generate(prompt).content().text());
             result = parseJsonResponse(aiResponse);
             result.put("success", true);
         } catch (Exception e) {
@@ -271,81 +272,18 @@ public class NutritionAgentService {
     private Map<String, Object> parseJsonResponse(String response) {
         Map<String, Object> result = new HashMap<>();
 
-        try {
-            // Find JSON content in response
-            int jsonStart = response.indexOf("{");
-            int jsonEnd = response.lastIndexOf("}");
-
-            if (jsonStart >= 0 && jsonEnd > jsonStart) {
-                String jsonStr = response.substring(jsonStart, jsonEnd + 1);
-                // Basic JSON parsing - in production use Jackson or Gson
-                result.put("rawResponse", jsonStr);
-
-                // Extract common fields
-                extractFieldToMap(result, jsonStr, "action");
-                extractFieldToMap(result, jsonStr, "response");
-                extractFieldToMap(result, jsonStr, "healthScore");
-                extractFieldToMap(result, jsonStr, "motivationalMessage");
-                extractFieldToMap(result, jsonStr, "overallStatus");
-                extractFieldToMap(result, jsonStr, "quickTip");
-                extractFieldToMap(result, jsonStr, "aiInsight");
-                extractFieldToMap(result, jsonStr, "reasoning");
-                extractFieldToMap(result, jsonStr, "followUp");
-            } else {
-                result.put("response", response);
-            }
-        } catch (Exception e) {
+        // Find JSON content in response (fences, comments and truncated replies tolerated)
+        Map<String, Object> parsed = LlmOutputParser.parseObject(response);
+        if (!parsed.isEmpty()) {
+            result.put("rawResponse", response);
+            result.putAll(parsed);
+        } else {
             result.put("response", response);
         }
 
         return result;
     }
 
-    private void extractFieldToMap(Map<String, Object> map, String json, String field) {
-        String value = extractField(json, field);
-        if (value != null && !value.isEmpty()) {
-            // Try to parse as number
-            try {
-                map.put(field, Integer.parseInt(value));
-            } catch (NumberFormatException e) {
-                map.put(field, value);
-            }
-        }
-    }
-
-    private String extractField(String json, String fieldName) {
-        try {
-            String searchKey = "\"" + fieldName + "\"";
-            int startIndex = json.indexOf(searchKey);
-            if (startIndex == -1) return null;
-
-            int colonIndex = json.indexOf(":", startIndex);
-            int valueStart = colonIndex + 1;
-
-            while (valueStart < json.length() && (json.charAt(valueStart) == ' ' || json.charAt(valueStart) == '\"')) {
-                valueStart++;
-            }
-
-            int valueEnd = valueStart;
-            boolean inQuotes = json.charAt(colonIndex + 1) == '\"' || (valueStart > 0 && json.charAt(valueStart - 1) == '\"');
-
-            if (inQuotes) {
-                valueEnd = json.indexOf("\"", valueStart);
-            } else {
-                while (valueEnd < json.length() && json.charAt(valueEnd) != ',' && json.charAt(valueEnd) != '}' && json.charAt(valueEnd) != '\n') {
-                    valueEnd++;
-                }
-            }
-
-            if (valueEnd > valueStart) {
-                return json.substring(valueStart, valueEnd).trim();
-            }
-        } catch (Exception e) {
-            // Silent fail
-        }
-        return null;
-    }
-
     private List<Map<String, Object>> getDefaultMealSuggestions(String mealType) {
         List<Map<String, Object>> meals = new ArrayList<>();
 
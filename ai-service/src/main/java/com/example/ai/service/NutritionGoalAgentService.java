@@ -1,12 +1,18 @@
 package com.example.ai.service;
 
+import com.example.ai.store.AgentHistoryStore;
 import dev.langchain4j.model.chat.ChatLanguageModel;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
+import org.springframework.util.unit.DataSize;
 
+import jakarta.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.*;
@@ -24,19 +30,49 @@ public class NutritionGoalAgentService {
     private final GoalCalculationService goalCalculationService;
     private final ChatLanguageModel chatLanguageModel;
 
-    // Historique des dÃ©cisions de l'agent (pour audit)
-    private final Map<String, List<Map<String, Object>>> agentHistory = new HashMap<>();
+    // Historique des décisions de l'agent (pour audit), borné par utilisateur et persisté sur disque
+    private final AgentHistoryStore agentHistory;
 
 
     public NutritionGoalAgentService(
             RagChatService ragChatService,
             GoalCalculationService goalCalculationService,
-            ChatLanguageModel chatLanguageModel
+            ChatLanguageModel chatLanguageModel,
+            @Value("${ai.agent.history.directory:data/agent-history}") String historyDirectory,
+            @Value("${ai.agent.history.depth:50}") int historyDepth,
+            @Value("${ai.agent.history.max-resident-users:10000}") int historyMaxResidentUsers,
+            @Value("${ai.agent.history.max-indexed-users:50000}") int historyMaxIndexedUsers,
+            @Value("${ai.agent.history.segment-size:8MB}") DataSize historySegmentSize,
+            @Value("${ai.agent.history.max-segments:4}") int historyMaxSegments
     ) {
         this.ragChatService = ragChatService;
         this.goalCalculationService = goalCalculationService;
         this.chatLanguageModel = chatLanguageModel;
+        this.agentHistory = openHistory(Path.of(historyDirectory), historyDepth, historyMaxResidentUsers,
+                historyMaxIndexedUsers, historySegmentSize.toBytes(), historyMaxSegments);
+    }
+
+    private static AgentHistoryStore openHistory(Path directory, int depth, int maxResidentUsers, int maxIndexedUsers,
+                                                 long segmentBytes, int maxSegments) {
+        try {
+            return AgentHistoryStore.open(directory, depth, maxResidentUsers, maxIndexedUsers, segmentBytes,
+                    maxSegments);
+        } catch (IOException e) {
+            log.error("Cannot open agent history at {}, using a temporary one: {}", directory, e.getMessage());
+            try {
+                return AgentHistoryStore.open(Files.createTempDirectory("agent-history"), depth, maxResidentUsers,
+                        maxIndexedUsers, segmentBytes, maxSegments);
+            } catch (IOException tempError) {
+                throw new UncheckedIOException("Cannot create agent history", tempError);
+            }
+        }
+    }
+
+    @PreDestroy
+    public void close() {
+        agentHistory.close();
     }
+
     /**
      * Analyse le profil utilisateur et suggÃ¨re de nouveaux objectifs
      */
@@ -273,11 +309,12 @@ public class NutritionGoalAgentService {
      * Enregistre les dÃ©cisions de l'agent pour audit
      */
     private void recordDecision(String userId, String action, Map<String, Object> details) {
-        agentHistory.computeIfAbsent(userId, k -> new ArrayList<>()).add(Map.of(
-            "action", action,
-            "timestamp", LocalDateTime.now(),
-            "details", details
-        ));
+        try {
+            agentHistory.append(userId, action, details);
+        } catch (UncheckedIOException e) {
+            log.error("Cannot record agent decision {} for user {}", action, userId, e);
+            return;
+        }
 
         log.info("Agent decision recorded: {} for user {}", action, userId);
     }
@@ -286,7 +323,7 @@ public class NutritionGoalAgentService {
      * Obtient l'historique des dÃ©cisions pour un utilisateur
      */
     public List<Map<String, Object>> getAgentHistory(String userId) {
-        return agentHistory.getOrDefault(userId, new ArrayList<>());
+        return agentHistory.tail(userId);
     }
 
     // MÃ©thodes utilitaires
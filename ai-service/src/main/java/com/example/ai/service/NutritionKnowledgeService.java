@@ -1,5 +1,8 @@
 package com.example.ai.service;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
 import dev.langchain4j.data.document.Document;
 import dev.langchain4j.data.document.Metadata;
 import dev.langchain4j.data.embedding.Embedding;
@@ -7,20 +10,44 @@ import dev.langchain4j.data.segment.TextSegment;
 import dev.langchain4j.model.embedding.EmbeddingModel;
 import dev.langchain4j.model.embedding.onnx.allminilml6v2.AllMiniLmL6V2EmbeddingModel;
 import dev.langchain4j.store.embedding.EmbeddingMatch;
-import dev.langchain4j.store.embedding.EmbeddingStore;
-import dev.langchain4j.store.embedding.inmemory.InMemoryEmbeddingStore;
+import dev.langchain4j.store.embedding.filter.Filter;
+import com.example.ai.store.Bm25Index;
+import com.example.ai.store.HnswIndex;
+import com.example.ai.store.IngestionPipeline;
+import com.example.ai.store.KnowledgeIndexFile;
+import com.example.ai.store.KnowledgeSegmenter;
+import com.example.ai.store.MappedEmbeddingStore;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
 
+import static dev.langchain4j.store.embedding.filter.MetadataFilterBuilder.metadataKey;
+
 /**
  * Service de gestion de la base de connaissances nutritionnelle avec RAG
  * Charge et indexe les documents pour la recherche sÃ©mantique
@@ -30,24 +57,201 @@ public class NutritionKnowledgeService {
 
 
     private static final Logger log = LoggerFactory.getLogger(NutritionKnowledgeService.class);
+    private static final String FALLBACK_CATEGORY = "fallback";
+    // Constante de la fusion par rang réciproque (valeur usuelle de la littérature)
+    private static final int RRF_K = 60;
+    private static final int HYBRID_MIN_CANDIDATES = 20;
+
+    // Liste des catégories à charger (supporte plusieurs noms de fichiers)
+    private static final List<String> KNOWLEDGE_CATEGORIES = List.of(
+        "nutrition-basics",
+        "diabetic-guidelines",
+        "food-database",
+        "meal-recipes",
+        "diabete",
+        "nutrition-generale",
+        "recettes-saines",
+        "conditions-medicales"
+    );
+
     private final EmbeddingModel embeddingModel;
-    private final EmbeddingStore<TextSegment> embeddingStore;
+    private final MappedEmbeddingStore embeddingStore;
+    // Index lexical BM25 tenu à jour avec le store (mêmes identifiants), reconstruit au démarrage
+    private final Bm25Index lexicalIndex = new Bm25Index();
+    private final SearchMode defaultSearchMode;
+    private final IngestionPipeline ingestionPipeline;
+    private final int ingestWorkers;
+    private final int ingestBatchSize;
+    private final int ingestQueueCapacity;
+    // Empreintes du texte des segments indexés : évite de ré-encoder un segment déjà présent
+    private final Set<String> segmentHashes = ConcurrentHashMap.newKeySet();
+
+    // Cache requête normalisée -> vecteur : les questions fréquentes n'appellent plus le modèle ONNX
+    private final Cache<String, float[]> queryEmbeddingCache;
+
+    /**
+     * Niveau de connaissances disponible : démarrage, connaissances de base seulement, ou base complète
+     */
+    public enum LoadState { STARTING, FALLBACK, FULL }
 
-    public NutritionKnowledgeService() {
+    /**
+     * Mode de recherche : vectoriel (cosinus), lexical (BM25) ou hybride (fusion des deux classements)
+     */
+    public enum SearchMode { VECTOR, LEXICAL, HYBRID }
+
+    private volatile LoadState loadState = LoadState.STARTING;
+    private volatile Instant lastIngestTime;
+    private final AtomicLong embeddedSegments = new AtomicLong();
+    private final AtomicLong embeddingNanos = new AtomicLong();
+
+    public NutritionKnowledgeService(
+            @Value("${ai.knowledge.store.directory:data/knowledge-index}") String storeDirectory,
+            @Value("${ai.knowledge.hnsw.m:16}") int hnswM,
+            @Value("${ai.knowledge.hnsw.ef-construction:100}") int hnswEfConstruction,
+            @Value("${ai.knowledge.hnsw.ef-search:64}") int hnswEfSearch,
+            @Value("${ai.knowledge.hnsw.exact-search-threshold:2000}") int exactSearchThreshold,
+            @Value("${ai.knowledge.vectors.quantization:none}") String quantization,
+            @Value("${ai.knowledge.vectors.rescore-multiplier:4}") int rescoreMultiplier,
+            @Value("${ai.knowledge.query-cache.max-size:2000}") long queryCacheMaxSize,
+            @Value("${ai.knowledge.query-cache.ttl:PT1H}") Duration queryCacheTtl,
+            @Value("${ai.knowledge.search.mode:hybrid}") String searchMode,
+            @Value("${ai.knowledge.ingest.workers:0}") int ingestWorkers,
+            @Value("${ai.knowledge.ingest.batch-size:16}") int ingestBatchSize,
+            @Value("${ai.knowledge.ingest.queue-capacity:8}") int ingestQueueCapacity
+    ) {
         // Initialisation du modèle d'embeddings (local, pas besoin de serveur)
         this.embeddingModel = new AllMiniLmL6V2EmbeddingModel();
 
-        // Store en mémoire (peut être remplacé par une base vectorielle persistante)
-        this.embeddingStore = new InMemoryEmbeddingStore<>();
+        // Store persistant mappé en mémoire : les segments déjà indexés survivent au redémarrage
+        HnswIndex.Config hnswConfig = new HnswIndex.Config(hnswM, hnswEfConstruction, hnswEfSearch, exactSearchThreshold);
+        MappedEmbeddingStore.Quantization vectorQuantization = new MappedEmbeddingStore.Quantization(
+                "int8".equalsIgnoreCase(quantization.trim()), rescoreMultiplier);
+        this.embeddingStore = openStore(Path.of(storeDirectory), embeddingModel.dimension(), hnswConfig, vectorQuantization);
+
+        this.queryEmbeddingCache = Caffeine.newBuilder()
+                .maximumSize(queryCacheMaxSize)
+                .expireAfterWrite(queryCacheTtl)
+                .recordStats()
+                .build();
+
+        this.defaultSearchMode = SearchMode.valueOf(searchMode.trim().toUpperCase(Locale.ROOT));
+
+        // Découpage -> encodage (pool dimensionné sur les cœurs) -> insertion, avec files bornées
+        this.ingestWorkers = ingestWorkers;
+        this.ingestBatchSize = ingestBatchSize;
+        this.ingestQueueCapacity = ingestQueueCapacity;
+        this.ingestionPipeline = newIngestionPipeline("knowledge-ingest");
+    }
+
+    /**
+     * Nouveau pipeline d'ingestion vers ce store (même configuration que le chargement initial)
+     */
+    public IngestionPipeline newIngestionPipeline(String name) {
+        return new IngestionPipeline(name, ingestWorkers, ingestBatchSize, ingestQueueCapacity,
+                this::embedSegmentsInCurrentThread, this::addToStore);
     }
 
     /**
-     * Initialisation au démarrage : charge immédiatement le fallback puis charge les fichiers en arrière-plan
-     * Démarrage rapide : 2-3 secondes au lieu de bloquer
+     * Réserve un segment pour l'indexation : false si un segment de même texte est déjà indexé
+     * (ou déjà en cours d'ingestion). L'empreinte réservée est ajoutée à {@code claims}, les réservations
+     * de l'ingestion appelante.
+     */
+    public boolean claimSegment(TextSegment segment, Set<String> claims) {
+        String hash = KnowledgeSegmenter.contentHash(segment.text());
+        if (!segmentHashes.add(hash)) {
+            return false;
+        }
+        claims.add(hash);
+        return true;
+    }
+
+    /**
+     * Libère, parmi les réservations d'une ingestion terminée, celles dont le segment n'a jamais été inséré
+     * (lot en échec). Les réservations des autres ingestions en cours ne sont pas touchées.
+     */
+    public void releaseUnstoredClaims(Set<String> claims) {
+        if (claims.isEmpty()) {
+            return;
+        }
+        Set<String> unstored = new HashSet<>(claims);
+        embeddingStore.forEachSegment((id, segment) -> {
+            if (segment != null) {
+                unstored.remove(KnowledgeSegmenter.contentHash(segment.text()));
+            }
+        });
+        segmentHashes.removeAll(unstored);
+        log.info("Released {} knowledge segment claims that were never stored", unstored.size());
+    }
+
+    private void rebuildSegmentHashes() {
+        segmentHashes.clear();
+        embeddingStore.forEachSegment((id, segment) -> {
+            if (segment != null) {
+                segmentHashes.add(KnowledgeSegmenter.contentHash(segment.text()));
+            }
+        });
+    }
+
+    private static MappedEmbeddingStore openStore(Path directory, int dimension, HnswIndex.Config hnswConfig,
+                                                  MappedEmbeddingStore.Quantization quantization) {
+        try {
+            return MappedEmbeddingStore.open(directory, dimension, hnswConfig, quantization);
+        } catch (IOException e) {
+            log.error("Cannot open knowledge store at {}, using a temporary one: {}", directory, e.getMessage());
+            try {
+                return MappedEmbeddingStore.open(Files.createTempDirectory("knowledge-index"), dimension, hnswConfig, quantization);
+            } catch (IOException tempError) {
+                throw new UncheckedIOException("Cannot create knowledge store", tempError);
+            }
+        }
+    }
+
+    @PreDestroy
+    public void close() {
+        embeddingStore.close();
+    }
+
+    /**
+     * Initialisation au démarrage : réutilise le store persistant et l'index pré-calculé au build
+     * (quelques millisecondes) ; seules les catégories modifiées depuis le build sont ré-encodées,
+     * en arrière-plan, avec les connaissances de base disponibles en attendant.
      */
     @PostConstruct
     public void initialize() {
-        log.info("Loading basic nutrition knowledge (fast startup)...");
+        log.info("Loading nutrition knowledge (fast startup)...");
+        long start = System.currentTimeMillis();
+
+        embeddingStore.forEachSegment(lexicalIndex::add);
+        rebuildSegmentHashes();
+
+        Map<String, KnowledgeIndexFile.Category> precomputed = loadPrecomputedIndex();
+
+        List<KnowledgeFile> toEmbed = new ArrayList<>();
+        int readyCount = 0;
+        for (String category : KNOWLEDGE_CATEGORIES) {
+            try {
+                KnowledgeFile file = readKnowledgeFile(category);
+                if (file == null) {
+                    continue;
+                }
+                if (indexWithoutEmbedding(file, precomputed.get(category))) {
+                    readyCount++;
+                } else {
+                    toEmbed.add(file);
+                }
+            } catch (Exception e) {
+                log.warn("Could not load category {}: {}", category, e.getMessage());
+            }
+        }
+
+        log.info("{} knowledge categories ready in {} ms ({} segments)",
+                readyCount, System.currentTimeMillis() - start, embeddingStore.size());
+
+        if (toEmbed.isEmpty() && readyCount > 0) {
+            loadState = LoadState.FULL;
+            logReady(readyCount);
+            return;
+        }
 
         // Charger immédiatement les connaissances de base pour un démarrage rapide
         try {
@@ -56,56 +260,37 @@ public class NutritionKnowledgeService {
         } catch (Exception e) {
             log.error("Failed to load basic knowledge", e);
         }
+        loadState = LoadState.FALLBACK;
 
-        // Charger les fichiers complets en arrière-plan (non-bloquant)
-        Thread loadingThread = new Thread(() -> {
-            try {
-                log.info("Loading full nutrition knowledge base in background...");
-                Thread.sleep(2000); // Attendre 2 secondes pour laisser l'app démarrer complètement
-                loadNutritionKnowledge();
-                log.info("========================================");
-                log.info("✅ FULL KNOWLEDGE BASE LOADED!");
+        if (toEmbed.isEmpty()) {
+            logReady(readyCount);
+            return;
+        }
+
+        // Encoder les fichiers modifiés depuis le build en arrière-plan (non-bloquant)
+        final int alreadyReady = readyCount;
+        log.info("Embedding {} changed knowledge categories in background...", toEmbed.size());
+        List<IngestionPipeline.Source> sources = toEmbed.stream()
+                .map(file -> IngestionPipeline.Source.of(file.category(), () -> segmentKnowledgeFile(file))
+                        .whenCompleted(() -> markComplete(file)))
+                .collect(Collectors.toList());
+        ingestionPipeline.start(sources).thenAccept(progress -> {
+            if (progress.sourcesFailed() > 0) {
+                // Les catégories en échec seront réindexées au prochain démarrage (pas de marqueur)
+                log.warn("{} knowledge categories could not be ingested, knowledge base stays partial",
+                        progress.sourcesFailed());
+            } else {
+                loadState = LoadState.FULL;
                 log.info("========================================");
-                log.info("AI Service is now fully operational");
-                log.info("Total segments indexed: {}", getIndexedSegmentsCount());
+                log.info("✅ FULL KNOWLEDGE BASE LOADED! ({} segments in {} ms)", progress.segmentsInserted(),
+                        progress.finishedAt().toEpochMilli() - progress.startedAt().toEpochMilli());
                 log.info("========================================");
-            } catch (Exception e) {
-                log.warn("Could not load full knowledge base, using basic knowledge: {}", e.getMessage());
             }
+            logReady(alreadyReady + progress.sourcesCompleted());
         });
-        loadingThread.setDaemon(true); // Thread daemon pour ne pas bloquer l'arrêt de l'app
-        loadingThread.start();
     }
 
-    /**
-     * Charge les documents nutritionnels depuis les ressources
-     */
-    private void loadNutritionKnowledge() {
-        log.info("Attempting to load knowledge files from resources...");
-
-        // Liste des catégories à charger (supporte plusieurs noms de fichiers)
-        String[] categories = {
-            "nutrition-basics",
-            "diabetic-guidelines",
-            "food-database",
-            "meal-recipes",
-            "diabete",
-            "nutrition-generale",
-            "recettes-saines",
-            "conditions-medicales"
-        };
-
-        int loadedCount = 0;
-        for (String category : categories) {
-            try {
-                if (loadKnowledgeCategory(category, "Nutrition: " + category)) {
-                    loadedCount++;
-                }
-            } catch (Exception e) {
-                log.debug("Could not load category {}: {}", category, e.getMessage());
-            }
-        }
-
+    private void logReady(int loadedCount) {
         log.info("Loaded {} knowledge categories from files", loadedCount);
 
         if (loadedCount == 0) {
@@ -114,6 +299,7 @@ public class NutritionKnowledgeService {
             log.info("========================================");
             log.info("AI SERVICE READY AND OPERATIONAL!");
             log.info("========================================");
+            log.info("Total segments indexed: {}", embeddingStore.size());
             log.info("Endpoints available:");
             log.info("  - Chat RAG:     POST http://localhost:8087/api/chat/rag");
             log.info("  - Agent Goals:  POST http://localhost:8087/api/agent/calculate-goals");
@@ -123,118 +309,148 @@ public class NutritionKnowledgeService {
     }
 
     /**
-     * Charge une catégorie spécifique de connaissances
-     * @return true si le chargement a réussi, false sinon
+     * Fichier de connaissances lu depuis les ressources, avec son empreinte
      */
-    private boolean loadKnowledgeCategory(String category, String description) {
-        try {
-            String resourcePath = "knowledge/" + category + ".txt";
-            InputStream inputStream = getClass().getClassLoader().getResourceAsStream(resourcePath);
-
-            if (inputStream != null) {
-                String content;
-                try (inputStream) {
-                    content = new String(inputStream.readAllBytes());
-                }
-
-                if (content.trim().isEmpty()) {
-                    log.debug("Empty file: {}", resourcePath);
-                    return false;
-                }
-
-                // Découper le contenu en segments (simple split par paragraphes)
-                List<TextSegment> segments = splitIntoSegments(content, category, description);
-
-                if (segments.isEmpty()) {
-                    log.debug("No segments created from: {}", resourcePath);
-                    return false;
-                }
-
-                log.info("Processing {} segments from {} (generating embeddings)...", segments.size(), category);
+    private record KnowledgeFile(String category, String description, String content, String contentHash) {
+    }
 
-                // Générer les embeddings par lots pour éviter le blocage
-                int batchSize = 20;
-                int totalProcessed = 0;
+    /**
+     * Charge l'index pré-calculé au build (knowledge/knowledge-index.bin), vide s'il est absent
+     */
+    private Map<String, KnowledgeIndexFile.Category> loadPrecomputedIndex() {
+        try (InputStream inputStream = getClass().getClassLoader().getResourceAsStream(KnowledgeIndexFile.RESOURCE)) {
+            if (inputStream == null) {
+                log.info("No precomputed knowledge index in classpath, embeddings will be computed at startup");
+                return Map.of();
+            }
+            Map<String, KnowledgeIndexFile.Category> index = KnowledgeIndexFile.read(inputStream, embeddingModel.dimension());
+            log.info("Precomputed knowledge index found ({} categories)", index.size());
+            return index;
+        } catch (Exception e) {
+            log.warn("Could not read precomputed knowledge index: {}", e.getMessage());
+            return Map.of();
+        }
+    }
 
-                for (int start = 0; start < segments.size(); start += batchSize) {
-                    int end = Math.min(start + batchSize, segments.size());
-                    List<TextSegment> batch = segments.subList(start, end);
+    private KnowledgeFile readKnowledgeFile(String category) throws IOException {
+        String resourcePath = "knowledge/" + category + ".txt";
+        InputStream inputStream = getClass().getClassLoader().getResourceAsStream(resourcePath);
+        if (inputStream == null) {
+            log.debug("Resource not found: {}", resourcePath);
+            return null;
+        }
 
-                    // Générer les embeddings pour ce lot
-                    List<Embedding> embeddings = embeddingModel.embedAll(batch).content();
+        String content;
+        try (inputStream) {
+            content = new String(inputStream.readAllBytes(), StandardCharsets.UTF_8);
+        }
+        if (content.trim().isEmpty()) {
+            log.debug("Empty file: {}", resourcePath);
+            return null;
+        }
+        return new KnowledgeFile(category, KnowledgeSegmenter.fileDescription(category), content,
+                KnowledgeSegmenter.contentHash(content));
+    }
 
-                    // Stocker dans le vector store
-                    for (int i = 0; i < batch.size(); i++) {
-                        embeddingStore.add(embeddings.get(i), batch.get(i));
-                    }
+    /**
+     * Indexe une catégorie sans passer par le modèle : déjà présente dans le store persistant,
+     * ou disponible dans l'index pré-calculé avec la même empreinte
+     * @return false si la catégorie doit être (ré-)encodée
+     */
+    private boolean indexWithoutEmbedding(KnowledgeFile file, KnowledgeIndexFile.Category precomputed) {
+        Filter sameCategory = metadataKey("category").isEqualTo(file.category())
+                .and(metadataKey("description").isEqualTo(file.description()));
+
+        // Déjà entièrement présent dans le store persistant : pas besoin de ré-encoder. Le marqueur n'est
+        // écrit qu'après le dernier lot ; le nombre de segments vérifie que rien n'a été retiré depuis.
+        MappedEmbeddingStore.Completion completion = embeddingStore.completion(file.category());
+        if (completion != null && completion.contentHash().equals(file.contentHash())
+                && embeddingStore.count(sameFile(file)) == completion.segmentCount()) {
+            log.info("✓ {} already indexed in persistent store", file.category());
+            return true;
+        }
 
-                    totalProcessed += batch.size();
-                    if (segments.size() > batchSize) {
-                        log.info("  Progress: {}/{} segments embedded", totalProcessed, segments.size());
-                    }
-                }
+        // Fichier modifié ou ingestion interrompue : retirer l'ancienne version avant de réindexer
+        if (embeddingStore.contains(sameCategory)) {
+            log.info("Knowledge file {} changed or incomplete, re-indexing", file.category());
+            embeddingStore.removeAll(sameCategory);
+            lexicalIndex.removeAll(sameCategory);
+            rebuildSegmentHashes();
+        }
 
-                log.info("✓ Loaded {} segments from: {}", segments.size(), category);
-                return true;
-            } else {
-                log.debug("Resource not found: {}", resourcePath);
-                return false;
-            }
-        } catch (Exception e) {
-            log.debug("Error loading category {}: {}", category, e.getMessage());
+        if (precomputed == null || !precomputed.contentHash().equals(file.contentHash())) {
             return false;
         }
+
+        List<TextSegment> segments = withContentHash(precomputed.segments(), file.contentHash());
+        addToStore(precomputed.embeddings(), segments);
+        markComplete(file);
+        log.info("✓ Loaded {} precomputed segments from: {}", segments.size(), file.category());
+        return true;
+    }
+
+    private static Filter sameFile(KnowledgeFile file) {
+        return metadataKey("category").isEqualTo(file.category())
+                .and(metadataKey("description").isEqualTo(file.description()))
+                .and(metadataKey("contentHash").isEqualTo(file.contentHash()));
     }
 
     /**
-     * Découpe un texte en segments pour l'indexation
-     * Simple split par paragraphes et limitation à 1000 caractères max
+     * Marqueur d'ingestion complète, écrit une fois le dernier lot du fichier inséré
      */
-    private List<TextSegment> splitIntoSegments(String content, String category, String description) {
-        List<TextSegment> segments = new ArrayList<>();
+    private void markComplete(KnowledgeFile file) {
+        embeddingStore.markComplete(file.category(), file.contentHash(), embeddingStore.count(sameFile(file)));
+    }
 
-        // Split par double saut de ligne (paragraphes)
-        String[] paragraphs = content.split("\\n\\s*\\n");
+    /**
+     * Étape de découpage du pipeline pour un fichier de connaissances
+     */
+    private List<TextSegment> segmentKnowledgeFile(KnowledgeFile file) {
+        List<TextSegment> segments = withContentHash(
+                KnowledgeSegmenter.split(file.content(), file.category(), file.description()), file.contentHash());
+        log.info("Processing {} segments from {} (generating embeddings)...", segments.size(), file.category());
+        return segments;
+    }
 
-        for (String paragraph : paragraphs) {
-            paragraph = paragraph.trim();
-            if (paragraph.isEmpty()) {
-                continue;
-            }
+    /**
+     * Encode des segments en mesurant le débit du modèle (exposé dans les statistiques)
+     */
+    private List<Embedding> embedSegments(List<TextSegment> segments) {
+        long start = System.nanoTime();
+        List<Embedding> embeddings = embeddingModel.embedAll(segments).content();
+        embeddingNanos.addAndGet(System.nanoTime() - start);
+        embeddedSegments.addAndGet(segments.size());
+        return embeddings;
+    }
 
-            // Si le paragraphe est trop long, le découper en morceaux
-            if (paragraph.length() > 1000) {
-                // Découper par phrases (approximatif)
-                String[] sentences = paragraph.split("\\. ");
-                StringBuilder chunk = new StringBuilder();
-
-                for (String sentence : sentences) {
-                    if (chunk.length() + sentence.length() > 1000) {
-                        if (chunk.length() > 0) {
-                            Metadata metadata = new Metadata();
-                            metadata.put("category", category);
-                            metadata.put("description", description);
-                            segments.add(TextSegment.from(chunk.toString().trim(), metadata));
-                            chunk = new StringBuilder();
-                        }
-                    }
-                    chunk.append(sentence).append(". ");
-                }
+    /**
+     * Variante pour les encodeurs du pipeline : chaque segment est encodé dans le thread appelant
+     * (embedAll répartirait sur l'exécuteur interne du modèle, en plus du pool du pipeline)
+     */
+    private List<Embedding> embedSegmentsInCurrentThread(List<TextSegment> segments) {
+        long start = System.nanoTime();
+        List<Embedding> embeddings = new ArrayList<>(segments.size());
+        for (TextSegment segment : segments) {
+            embeddings.add(embeddingModel.embed(segment).content());
+        }
+        embeddingNanos.addAndGet(System.nanoTime() - start);
+        embeddedSegments.addAndGet(segments.size());
+        return embeddings;
+    }
 
-                if (chunk.length() > 0) {
-                    Metadata metadata = new Metadata();
-                    metadata.put("category", category);
-                    metadata.put("description", description);
-                    segments.add(TextSegment.from(chunk.toString().trim(), metadata));
-                }
-            } else {
-                Metadata metadata = new Metadata();
-                metadata.put("category", category);
-                metadata.put("description", description);
-                segments.add(TextSegment.from(paragraph, metadata));
-            }
+    private void addToStore(List<Embedding> embeddings, List<TextSegment> segments) {
+        List<String> ids = embeddingStore.addAll(embeddings, segments);
+        lexicalIndex.addAll(ids, segments);
+        for (TextSegment segment : segments) {
+            segmentHashes.add(KnowledgeSegmenter.contentHash(segment.text()));
         }
+        lastIngestTime = Instant.now();
+    }
 
+    private static List<TextSegment> withContentHash(List<TextSegment> segments, String contentHash) {
+        for (TextSegment segment : segments) {
+            segment.metadata().put("contentHash", contentHash);
+        }
         return segments;
     }
 
@@ -242,6 +458,10 @@ public class NutritionKnowledgeService {
      * Charge des connaissances de base en cas d'Ã©chec du chargement principal
      */
     private void loadFallbackKnowledge() {
+        if (embeddingStore.contains(metadataKey("category").isEqualTo(FALLBACK_CATEGORY))) {
+            log.info("Fallback knowledge already present in persistent store");
+            return;
+        }
         log.info("Loading fallback nutrition knowledge...");
 
         List<String> fallbackKnowledge = List.of(
@@ -275,11 +495,11 @@ public class NutritionKnowledgeService {
             "20-35% de lipides sains, et 10-35% de protÃ©ines. Ã‰vitez les sucres simples et les aliments transformÃ©s."
         );
 
+        List<TextSegment> segments = new ArrayList<>();
         for (String knowledge : fallbackKnowledge) {
-            TextSegment segment = TextSegment.from(knowledge);
-            Embedding embedding = embeddingModel.embed(segment).content();
-            embeddingStore.add(embedding, segment);
+            segments.add(TextSegment.from(knowledge, Metadata.from("category", FALLBACK_CATEGORY)));
         }
+        addToStore(embedSegments(segments), segments);
 
         log.info("Loaded {} fallback knowledge segments", fallbackKnowledge.size());
     }
@@ -291,16 +511,23 @@ public class NutritionKnowledgeService {
      * @return Liste des segments pertinents
      */
     public List<String> searchKnowledge(String query, int maxResults) {
-        try {
-            // GÃ©nÃ©rer l'embedding de la requÃªte
-            Embedding queryEmbedding = embeddingModel.embed(query).content();
+        return searchKnowledge(query, maxResults, defaultSearchMode);
+    }
 
-            // Rechercher les segments les plus pertinents
-            List<EmbeddingMatch<TextSegment>> matches = embeddingStore.findRelevant(queryEmbedding, maxResults);
+    /**
+     * Recherche dans la base de connaissances avec le mode donné
+     */
+    public List<String> searchKnowledge(String query, int maxResults, SearchMode mode) {
+        try {
+            List<TextSegment> segments = switch (mode) {
+                case LEXICAL -> lexicalSearch(query, maxResults);
+                case VECTOR -> vectorSearch(query, maxResults);
+                case HYBRID -> hybridSearch(query, maxResults);
+            };
 
             // Extraire le texte des segments
-            return matches.stream()
-                .map(match -> match.embedded().text())
+            return segments.stream()
+                .map(TextSegment::text)
                 .collect(Collectors.toList());
 
         } catch (Exception e) {
@@ -309,12 +536,79 @@ public class NutritionKnowledgeService {
         }
     }
 
+    /**
+     * Recherche de plusieurs requêtes d'un coup : les requêtes absentes du cache sont encodées
+     * en un seul appel au modèle d'embeddings, puis chaque requête est cherchée avec le mode par défaut
+     * @return Segments pertinents de chaque requête, dans l'ordre des requêtes
+     */
+    public List<List<String>> searchKnowledgeBatch(List<String> queries, int maxResults) {
+        if (defaultSearchMode != SearchMode.LEXICAL) {
+            try {
+                embedQueries(queries);
+            } catch (Exception e) {
+                // Chaque recherche encodera sa requête elle-même
+                log.warn("Batch query embedding failed: {}", e.getMessage());
+            }
+        }
+        List<List<String>> results = new ArrayList<>(queries.size());
+        for (String query : queries) {
+            results.add(searchKnowledge(query, maxResults, defaultSearchMode));
+        }
+        return results;
+    }
+
+    private List<TextSegment> vectorSearch(String query, int maxResults) {
+        // Embedding de la requête (depuis le cache si la question a déjà été posée)
+        Embedding queryEmbedding = embedQuery(query);
+        return embeddingStore.findRelevant(queryEmbedding, maxResults).stream()
+            .map(EmbeddingMatch::embedded)
+            .collect(Collectors.toList());
+    }
+
+    /**
+     * Recherche lexicale seule : termes exacts (noms d'aliments), sans passer par le modèle
+     */
+    private List<TextSegment> lexicalSearch(String query, int maxResults) {
+        return lexicalIndex.search(query, maxResults).stream()
+            .map(Bm25Index.Hit::segment)
+            .collect(Collectors.toList());
+    }
+
+    /**
+     * Fusion par rang réciproque (RRF) des classements BM25 et cosinus : un segment bien classé
+     * par l'un ou l'autre remonte, sans avoir à rendre les deux échelles de scores comparables
+     */
+    private List<TextSegment> hybridSearch(String query, int maxResults) {
+        int candidates = Math.max(maxResults * 4, HYBRID_MIN_CANDIDATES);
+        List<Bm25Index.Hit> lexicalHits = lexicalIndex.search(query, candidates);
+        List<EmbeddingMatch<TextSegment>> vectorHits = embeddingStore.findRelevant(embedQuery(query), candidates);
+
+        Map<String, Double> fusedScores = new HashMap<>();
+        Map<String, TextSegment> segmentsById = new LinkedHashMap<>();
+        for (int rank = 0; rank < lexicalHits.size(); rank++) {
+            Bm25Index.Hit hit = lexicalHits.get(rank);
+            fusedScores.merge(hit.id(), 1.0 / (RRF_K + rank + 1), Double::sum);
+            segmentsById.putIfAbsent(hit.id(), hit.segment());
+        }
+        for (int rank = 0; rank < vectorHits.size(); rank++) {
+            EmbeddingMatch<TextSegment> match = vectorHits.get(rank);
+            fusedScores.merge(match.embeddingId(), 1.0 / (RRF_K + rank + 1), Double::sum);
+            segmentsById.putIfAbsent(match.embeddingId(), match.embedded());
+        }
+
+        return fusedScores.entrySet().stream()
+            .sorted(Map.Entry.<String, Double>comparingByValue().reversed())
+            .limit(maxResults)
+            .map(entry -> segmentsById.get(entry.getKey()))
+            .collect(Collectors.toList());
+    }
+
     /**
      * Recherche avec score de pertinence minimum
      */
     public List<String> searchKnowledgeWithThreshold(String query, int maxResults, double minScore) {
         try {
-            Embedding queryEmbedding = embeddingModel.embed(query).content();
+            Embedding queryEmbedding = embedQuery(query);
             List<EmbeddingMatch<TextSegment>> matches = embeddingStore.findRelevant(queryEmbedding, maxResults, minScore);
 
             return matches.stream()
@@ -334,12 +628,8 @@ public class NutritionKnowledgeService {
     public void ingestDocument(String content, String category) {
         try {
             // Utiliser notre méthode de split manuelle
-            List<TextSegment> segments = splitIntoSegments(content, category, "Dynamically ingested");
-            List<Embedding> embeddings = embeddingModel.embedAll(segments).content();
-
-            for (int i = 0; i < segments.size(); i++) {
-                embeddingStore.add(embeddings.get(i), segments.get(i));
-            }
+            List<TextSegment> segments = KnowledgeSegmenter.split(content, category, "Dynamically ingested");
+            addToStore(embedSegments(segments), segments);
 
             log.info("Ingested {} new segments for category: {}", segments.size(), category);
         } catch (Exception e) {
@@ -348,19 +638,84 @@ public class NutritionKnowledgeService {
     }
 
     /**
-     * Retourne le nombre de segments indexés dans le store
+     * Embedding d'une requête, mis en cache sur le texte normalisé (casse et espaces) :
+     * le modèle all-MiniLM-L6-v2 ignore la casse, donc deux variantes donnent le même vecteur
      */
-    private int getIndexedSegmentsCount() {
-        try {
-            // Faire une recherche fictive pour obtenir tous les segments
-            Embedding dummyEmbedding = embeddingModel.embed("test").content();
-            List<EmbeddingMatch<TextSegment>> allMatches = embeddingStore.findRelevant(dummyEmbedding, 1000);
-            return allMatches.size();
-        } catch (Exception e) {
-            return 0;
+    private Embedding embedQuery(String query) {
+        String key = normalizeQuery(query);
+        float[] vector = queryEmbeddingCache.get(key, k -> embeddingModel.embed(k).content().vector());
+        return new Embedding(vector);
+    }
+
+    /**
+     * Remplit le cache des requêtes avec un seul embedAll pour toutes les requêtes manquantes
+     */
+    private void embedQueries(List<String> queries) {
+        Set<String> missing = new LinkedHashSet<>();
+        for (String query : queries) {
+            String key = normalizeQuery(query);
+            if (!key.isEmpty() && queryEmbeddingCache.getIfPresent(key) == null) {
+                missing.add(key);
+            }
+        }
+        if (missing.isEmpty()) {
+            return;
+        }
+        List<TextSegment> segments = missing.stream().map(TextSegment::from).collect(Collectors.toList());
+        List<Embedding> embeddings = embeddingModel.embedAll(segments).content();
+        for (int i = 0; i < segments.size(); i++) {
+            queryEmbeddingCache.put(segments.get(i).text(), embeddings.get(i).vector());
         }
     }
 
+    /**
+     * Vecteur de norme 1 d'une question (même cache que la recherche), pour comparer des questions entre elles
+     */
+    public float[] embedQuestion(String question) {
+        float[] vector = embedQuery(question).vector().clone();
+        double norm = 0;
+        for (float v : vector) {
+            norm += v * v;
+        }
+        if (norm > 0) {
+            float inverse = (float) (1.0 / Math.sqrt(norm));
+            for (int i = 0; i < vector.length; i++) {
+                vector[i] *= inverse;
+            }
+        }
+        return vector;
+    }
+
+    /**
+     * Vecteurs de norme 1 de plusieurs questions, les absentes du cache encodées en un seul embedAll
+     */
+    public List<float[]> embedQuestions(List<String> questions) {
+        embedQueries(questions);
+        List<float[]> vectors = new ArrayList<>(questions.size());
+        for (String question : questions) {
+            vectors.add(embedQuestion(question));
+        }
+        return vectors;
+    }
+
+    private static String normalizeQuery(String query) {
+        return query.trim().replaceAll("\\s+", " ").toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Niveau de connaissances actuellement chargé
+     */
+    public LoadState getLoadState() {
+        return loadState;
+    }
+
+    /**
+     * Avancement du pipeline d'ingestion des fichiers de connaissances
+     */
+    public IngestionPipeline.Progress getIngestionProgress() {
+        return ingestionPipeline.progress();
+    }
+
     /**
      * Retourne des statistiques sur la base de connaissances
      */
@@ -368,8 +723,47 @@ public class NutritionKnowledgeService {
         Map<String, Object> stats = new HashMap<>();
         stats.put("status", "active");
         stats.put("embeddingModel", "all-MiniLM-L6-v2");
-        stats.put("storeType", "in-memory");
-        stats.put("indexedSegments", getIndexedSegmentsCount());
+        stats.put("storeType", "memory-mapped");
+        stats.put("storeDirectory", embeddingStore.getDirectory().toAbsolutePath().toString());
+        // Uniquement des compteurs tenus à jour : aucune inférence ni parcours du store ici
+        stats.put("indexedSegments", embeddingStore.size());
+        stats.put("categories", new TreeMap<>(embeddingStore.categoryCounts()));
+        stats.put("loadState", loadState.name());
+        stats.put("searchMode", defaultSearchMode.name());
+        stats.put("lastIngestTime", lastIngestTime != null ? lastIngestTime.toString() : null);
+
+        Map<String, Object> storage = new HashMap<>();
+        storage.put("dimension", embeddingStore.getDimension());
+        storage.put("vectorBytes", embeddingStore.vectorBytes());
+        storage.put("mappedBytes", embeddingStore.mappedBytes());
+        storage.put("segmentsFileBytes", embeddingStore.segmentsFileBytes());
+        storage.put("quantization", embeddingStore.quantizationName());
+        storage.put("quantizedBytes", embeddingStore.quantizedBytes());
+        storage.put("vectorScorer", embeddingStore.scorerName());
+        stats.put("storage", storage);
+
+        Map<String, Object> lexical = new HashMap<>();
+        lexical.put("documents", lexicalIndex.size());
+        lexical.put("terms", lexicalIndex.termCount());
+        stats.put("lexicalIndex", lexical);
+
+        long segmentsEmbedded = embeddedSegments.get();
+        long nanos = embeddingNanos.get();
+        Map<String, Object> embedding = new HashMap<>();
+        embedding.put("segmentsEmbedded", segmentsEmbedded);
+        embedding.put("totalTimeMs", nanos / 1_000_000);
+        embedding.put("segmentsPerSecond", nanos > 0 ? segmentsEmbedded * 1_000_000_000.0 / nanos : 0.0);
+        stats.put("embedding", embedding);
+        stats.put("ingestion", getIngestionProgress());
+
+        CacheStats cacheStats = queryEmbeddingCache.stats();
+        Map<String, Object> queryCache = new HashMap<>();
+        queryCache.put("size", queryEmbeddingCache.estimatedSize());
+        queryCache.put("hits", cacheStats.hitCount());
+        queryCache.put("misses", cacheStats.missCount());
+        queryCache.put("hitRate", cacheStats.hitRate());
+        queryCache.put("evictions", cacheStats.evictionCount());
+        stats.put("queryCache", queryCache);
         return stats;
     }
 }
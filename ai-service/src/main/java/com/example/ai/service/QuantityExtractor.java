@@ -0,0 +1,123 @@
+package com.example.ai.service;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Quantités d'un message libre : volumes ramenés en ml ("500 ml", "1,5 l", "2 verres", "une bouteille")
+ * et poids ramenés en grammes ("200g", "0.3 kg"). Nombres en chiffres ou en toutes lettres (fr / en).
+ * Un contenant suivi de sa contenance ("une bouteille d'eau de 1,5 l", "deux verres de 33 cl") compte pour
+ * nombre x contenance, pas pour la somme des deux.
+ */
+public final class QuantityExtractor {
+
+    // Contenances usuelles retenues par l'application (1 verre = 250 ml, 1 bouteille = 500 ml)
+    public static final int GLASS_ML = 250;
+    public static final int BOTTLE_ML = 500;
+
+    public enum Unit { MILLILITRE, GRAM }
+
+    /**
+     * Quantité normalisée ; glasses indique si elle a été exprimée en verres / tasses
+     */
+    public record Quantity(double amount, Unit unit, boolean glasses) {
+    }
+
+    private static final Pattern DIACRITICS = Pattern.compile("\\p{M}+");
+    private static final Pattern QUANTITY = Pattern.compile(
+            "(?<![a-z0-9])(\\d+(?:[.,]\\d+)?|un|une|deux|trois|quatre|cinq|six|demi|a|an|one|two|three|four|five|half)"
+                    + "\\s*(?:(?:grand|petit|big|large|small)e?s?\\s+)?"
+                    + "(kg|g|gr|grammes?|grams?|ml|cl|dl|l|litres?|liters?|verres?|glass(?:es)?|tasses?|cups?"
+                    + "|bouteilles?|bottles?|gourdes?)(?![a-z])");
+    private static final Pattern CONTAINER = Pattern.compile(
+            "verres?|glass(?:es)?|tasses?|cups?|bouteilles?|bottles?|gourdes?");
+    // Entre un contenant et sa contenance : "bouteille d'eau de 1,5 l", "verre de 33 cl", "bottle of 500 ml"
+    private static final Pattern CAPACITY_LINK = Pattern.compile(
+            "\\s*(?:(?:d['’]|de l['’]|of\\s+)?(?:eau|water)\\s+)?(?:de\\s|d['’]|of\\s)\\s*");
+
+    private static final Map<String, Double> NUMBER_WORDS = Map.ofEntries(
+            Map.entry("un", 1.0), Map.entry("une", 1.0), Map.entry("a", 1.0), Map.entry("an", 1.0), Map.entry("one", 1.0),
+            Map.entry("deux", 2.0), Map.entry("two", 2.0),
+            Map.entry("trois", 3.0), Map.entry("three", 3.0),
+            Map.entry("quatre", 4.0), Map.entry("four", 4.0),
+            Map.entry("cinq", 5.0), Map.entry("five", 5.0),
+            Map.entry("six", 6.0),
+            Map.entry("demi", 0.5), Map.entry("half", 0.5)
+    );
+
+    private QuantityExtractor() {
+    }
+
+    public static List<Quantity> extract(String message) {
+        List<Quantity> quantities = new ArrayList<>();
+        if (message == null || message.isBlank()) {
+            return quantities;
+        }
+        String folded = fold(message);
+        Matcher matcher = QUANTITY.matcher(folded);
+        // Dernier contenant encore sans contenance explicite : position dans quantities, nombre, fin du texte
+        int container = -1;
+        double containerCount = 0;
+        int containerEnd = 0;
+        while (matcher.find()) {
+            String number = matcher.group(1);
+            Double words = NUMBER_WORDS.get(number);
+            double value = words != null ? words : Double.parseDouble(number.replace(',', '.'));
+            String unit = matcher.group(2);
+            if (words != null && unit.length() <= 2) {
+                // "a l'eau", "un g" : une abréviation d'unité ne suit qu'un nombre en chiffres
+                continue;
+            }
+            Quantity quantity = switch (unit) {
+                case "kg" -> new Quantity(value * 1000, Unit.GRAM, false);
+                case "g", "gr", "gramme", "grammes", "gram", "grams" -> new Quantity(value, Unit.GRAM, false);
+                case "ml" -> new Quantity(value, Unit.MILLILITRE, false);
+                case "cl" -> new Quantity(value * 10, Unit.MILLILITRE, false);
+                case "dl" -> new Quantity(value * 100, Unit.MILLILITRE, false);
+                case "l", "litre", "litres", "liter", "liters" -> new Quantity(value * 1000, Unit.MILLILITRE, false);
+                case "bouteille", "bouteilles", "bottle", "bottles", "gourde", "gourdes" ->
+                        new Quantity(value * BOTTLE_ML, Unit.MILLILITRE, false);
+                default -> new Quantity(value * GLASS_ML, Unit.MILLILITRE, true);
+            };
+            if (CONTAINER.matcher(unit).matches()) {
+                container = quantities.size();
+                containerCount = value;
+                containerEnd = matcher.end();
+                quantities.add(quantity);
+            } else if (container >= 0 && quantity.unit() == Unit.MILLILITRE
+                    && CAPACITY_LINK.matcher(folded.substring(containerEnd, matcher.start())).matches()) {
+                // Contenance explicite du contenant précédent : remplace sa contenance usuelle
+                Quantity held = quantities.get(container);
+                quantities.set(container, new Quantity(containerCount * quantity.amount(), Unit.MILLILITRE, held.glasses()));
+                container = -1;
+            } else {
+                container = -1;
+                quantities.add(quantity);
+            }
+        }
+        return quantities;
+    }
+
+    /**
+     * Volume total du message en ml, 0 si aucun volume n'est donné
+     */
+    public static int totalMillilitres(List<Quantity> quantities) {
+        double total = 0;
+        for (Quantity quantity : quantities) {
+            if (quantity.unit() == Unit.MILLILITRE) {
+                total += quantity.amount();
+            }
+        }
+        return (int) Math.round(total);
+    }
+
+    private static String fold(String text) {
+        return DIACRITICS.matcher(Normalizer.normalize(text, Normalizer.Form.NFD)).replaceAll("")
+                .toLowerCase(Locale.ROOT);
+    }
+}
@@ -1,10 +1,21 @@
 package com.example.ai.service;
 
+import com.example.ai.llm.LlmCallContext;
+import com.example.ai.llm.LlmOutputParser;
+import com.example.ai.llm.LlmOverloadedException;
+import com.example.ai.llm.PromptAssembler;
+import com.example.ai.llm.SseChatStreamer;
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.data.message.UserMessage;
 import dev.langchain4j.model.chat.ChatLanguageModel;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -17,72 +28,164 @@ public class RagChatService {
 
 
     private static final Logger log = LoggerFactory.getLogger(RagChatService.class);
+    // Consignes fixes des prompts, identiques d'un appel à l'autre
+    private static final String RAG_INSTRUCTIONS = "Réponds en français, de manière amicale et concise. "
+            + "Appuie-toi sur les informations nutritionnelles fournies et, quand elles sont données, "
+            + "sur les données actuelles de l'utilisateur pour personnaliser tes conseils.";
+    private static final String SIMPLE_INSTRUCTIONS = "Réponds en français, de manière amicale et concise.";
     private final ChatLanguageModel chatLanguageModel;
     private final NutritionKnowledgeService knowledgeService;
+    private final SemanticResponseCache responseCache;
+    private final SseChatStreamer streamer;
 
 
     public RagChatService(
             ChatLanguageModel chatLanguageModel,
-            NutritionKnowledgeService knowledgeService
+            NutritionKnowledgeService knowledgeService,
+            SemanticResponseCache responseCache,
+            SseChatStreamer streamer
     ) {
         this.chatLanguageModel = chatLanguageModel;
         this.knowledgeService = knowledgeService;
+        this.responseCache = responseCache;
+        this.streamer = streamer;
     }
     /**
      * Chat avec RAG : recherche dans la base de connaissances et gÃ©nÃ¨re une rÃ©ponse contextuelle
+     *
+     * @throws LlmOverloadedException si l'appel au modèle est délesté par l'ordonnanceur
      */
     public String chatWithRag(String message, String userContext) {
+        return chatWithRag(message, null, userContext);
+    }
+
+    /**
+     * Comme {@link #chatWithRag(String, String)}, pour une question accompagnée de consignes propres à l'appel
+     * (format de réponse attendu) : seule la question sert à la recherche de connaissances et au cache sémantique
+     */
+    public String chatWithRag(String message, String instructions, String userContext) {
         try {
-            log.info("Processing RAG chat request: {}", message);
-
-            // 1. Rechercher les connaissances pertinentes
-            List<String> relevantKnowledge = knowledgeService.searchKnowledge(message, 3);
-
-            // 2. Construire le prompt enrichi
-            StringBuilder promptBuilder = new StringBuilder();
-            promptBuilder.append("Tu es Phi3, un assistant nutritionnel intelligent pour la plateforme Makla.\n");
-            promptBuilder.append("Tu aides les utilisateurs Ã  suivre leurs repas, leur hydratation et fournis des conseils santÃ© personnalisÃ©s.\n\n");
-
-            // Ajouter les connaissances rÃ©cupÃ©rÃ©es
-            if (!relevantKnowledge.isEmpty()) {
-                promptBuilder.append("Utilise ces informations nutritionnelles pour rÃ©pondre :\n");
-                for (int i = 0; i < relevantKnowledge.size(); i++) {
-                    promptBuilder.append(String.format("%d. %s\n", i + 1, relevantKnowledge.get(i)));
-                }
-                promptBuilder.append("\n");
-            }
+            return generateWithRag(message, instructions, userContext);
+        } catch (LlmOverloadedException e) {
+            // Modèle saturé : l'appelant choisit sa réponse locale
+            throw e;
+        } catch (Exception e) {
+            log.error("Error in RAG chat: {}", e.getMessage(), e);
+            return fallbackResponse(message);
+        }
+    }
 
-            // Ajouter le contexte utilisateur
-            if (userContext != null && !userContext.isEmpty()) {
-                promptBuilder.append("DonnÃ©es actuelles de l'utilisateur :\n").append(userContext).append("\n\n");
-                promptBuilder.append("Utilise ces donnÃ©es pour fournir des conseils personnalisÃ©s.\n\n");
-            }
+    /**
+     * Comme {@link #chatWithRag}, mais les erreurs sont propagées au lieu d'être remplacées par la réponse de secours :
+     * pour les appelants qui doivent distinguer une vraie réponse d'un échec (tâches d'enrichissement mises en cache)
+     */
+    public String generateWithRag(String message, String userContext) {
+        return generateWithRag(message, null, userContext);
+    }
 
-            // Question de l'utilisateur
-            promptBuilder.append("Utilisateur : ").append(message).append("\n");
-            promptBuilder.append("Phi3 (rÃ©ponds de maniÃ¨re amicale et concise) : ");
-
-            // 3. GÃ©nÃ©rer la rÃ©ponse avec le modÃ¨le
-            String response = chatLanguageModel.generate(promptBuilder.toString());
-
-            // Nettoyer la rÃ©ponse
-            response = cleanResponse(response);
-
-            // If the response looks like JSON, validate it. If invalid (placeholders/zeros), retry with stricter guidance.
-            try {
-                String validated = validateAndMaybeRetry(response, promptBuilder.toString(), userContext);
-                log.info("RAG chat response generated successfully (validated)");
-                return validated;
-            } catch (Exception ve) {
-                log.warn("Validation/retry failed, returning original response", ve);
-                log.info("RAG chat response generated successfully");
-                return response;
-            }
+    /**
+     * Comme {@link #generateWithRag(String, String)}, avec des consignes propres à l'appel ajoutées au prompt
+     */
+    public String generateWithRag(String message, String instructions, String userContext) {
+        log.info("Processing RAG chat request: {}", message);
+
+        // 0. Question proche déjà traitée dans la même portée : réponse immédiate
+        float[] questionVector = responseCache.embed(message);
+        SemanticResponseCache.Hit cached = responseCache.lookup("rag", userContext, message, questionVector);
+        if (cached != null) {
+            log.info("RAG chat answered from semantic cache (similarity {})", String.format("%.3f", cached.similarity()));
+            return cached.response();
+        }
+
+        // 1-2. Rechercher les connaissances pertinentes et construire le prompt enrichi
+        List<ChatMessage> prompt = buildRagPrompt(message, instructions, userContext);
+
+        // 3. GÃ©nÃ©rer la rÃ©ponse avec le modÃ¨le
+        // Réponses déjà mises en cache par SemanticResponseCache (avec cloisonnement par utilisateur)
+        String response = LlmCallContext.withoutCache(() -> chatLanguageModel.generate(prompt).content().text());
+
+        // Nettoyer la rÃ©ponse
+        response = cleanResponse(response);
+
+        // If the response looks like JSON, validate it. If invalid (placeholders/zeros), retry with stricter guidance.
+        try {
+            String validated = validateAndMaybeRetry(response, prompt, userContext);
+            log.info("RAG chat response generated successfully (validated)");
+            responseCache.put("rag", userContext, message, questionVector, validated);
+            return validated;
+        } catch (Exception ve) {
+            // Réponse non validée : renvoyée telle quelle, mais pas mise en cache
+            log.warn("Validation/retry failed, returning original response", ve);
+            log.info("RAG chat response generated successfully");
+            return response;
+        }
+    }
+
+    /**
+     * Chat avec RAG en flux (SSE) : les jetons sont envoyés au fil de la génération,
+     * puis un dernier événement porte la réponse complète, l'intention et les actions suggérées
+     */
+    public SseEmitter chatWithRagStream(String message, String userContext) {
+        float[] questionVector = responseCache.embed(message);
+        SemanticResponseCache.Hit cached = responseCache.lookup("rag", userContext, message, questionVector);
+        if (cached != null) {
+            return streamer.replay(cached.response(), ragResult(message, cached.response()));
+        }
 
+        List<ChatMessage> prompt;
+        try {
+            prompt = buildRagPrompt(message, null, userContext);
         } catch (Exception e) {
-            log.error("Error in RAG chat: {}", e.getMessage(), e);
-            return fallbackResponse(message);
+            log.error("Error preparing streamed RAG chat: {}", e.getMessage(), e);
+            String fallback = fallbackResponse(message);
+            return streamer.replay(fallback, ragResult(message, fallback));
         }
+
+        return streamer.stream(prompt, SseChatStreamer.TokenFilter.ALL,
+                text -> {
+                    String response = cleanResponse(text);
+                    responseCache.put("rag", userContext, message, questionVector, response);
+                    return ragResult(message, response);
+                },
+                error -> {
+                    Map<String, Object> result = ragResult(message, fallbackResponse(message));
+                    result.put("error", error.getMessage());
+                    return result;
+                });
+    }
+
+    /**
+     * Prompt enrichi : connaissances pertinentes, contexte utilisateur et question
+     */
+    private List<ChatMessage> buildRagPrompt(String message, String instructions, String userContext) {
+        // 1. Rechercher les connaissances pertinentes
+        List<String> relevantKnowledge = knowledgeService.searchKnowledge(message, 3);
+        StringBuilder knowledge = new StringBuilder();
+        for (int i = 0; i < relevantKnowledge.size(); i++) {
+            knowledge.append(i + 1).append(". ").append(relevantKnowledge.get(i)).append("\n");
+        }
+
+        // 2. Consignes fixes en tête, connaissances, contexte et question en fin de prompt
+        return PromptAssembler.system(RAG_INSTRUCTIONS)
+                .section("Informations nutritionnelles", knowledge.toString())
+                .section("Données actuelles de l'utilisateur", userContext)
+                .section("Consignes", instructions)
+                .line("Utilisateur : " + message)
+                .messages();
+    }
+
+    /**
+     * Champs structurés de la réponse RAG (événement final du flux)
+     */
+    private Map<String, Object> ragResult(String message, String response) {
+        String intent = detectIntent(message);
+        Map<String, Object> result = new HashMap<>();
+        result.put("response", response);
+        result.put("intent", intent);
+        result.put("requiresUserChoice", isChoiceRequired(intent));
+        result.put("suggestedActions", getSuggestedActions(intent));
+        result.put("knowledgeLevel", knowledgeService.getLoadState().name());
+        return result;
     }
 
     /**
@@ -103,6 +206,15 @@ public class RagChatService {
                 "suggestedActions", getSuggestedActions(intent)
             );
 
+        } catch (LlmOverloadedException e) {
+            log.warn("RAG chat shed, answering with the local fallback: {}", e.getMessage());
+            String intent = detectIntent(message);
+            return Map.of(
+                "response", fallbackResponse(message),
+                "intent", intent,
+                "requiresUserChoice", isChoiceRequired(intent),
+                "suggestedActions", getSuggestedActions(intent)
+            );
         } catch (Exception e) {
             log.error("Error in intent detection", e);
             return Map.of(
@@ -214,19 +326,21 @@ public class RagChatService {
      */
     public String simpleChat(String message, String context) {
         try {
-            StringBuilder promptBuilder = new StringBuilder();
-            promptBuilder.append("Tu es Phi3, un assistant nutritionnel pour Makla. ");
-            promptBuilder.append("RÃ©ponds de maniÃ¨re amicale et concise.\n\n");
-
-            if (context != null && !context.isEmpty()) {
-                promptBuilder.append("Contexte : ").append(context).append("\n\n");
+            float[] questionVector = responseCache.embed(message);
+            SemanticResponseCache.Hit cached = responseCache.lookup("simple", context, message, questionVector);
+            if (cached != null) {
+                return cached.response();
             }
 
-            promptBuilder.append("Utilisateur : ").append(message).append("\n");
-            promptBuilder.append("Phi3 : ");
+            List<ChatMessage> prompt = PromptAssembler.system(SIMPLE_INSTRUCTIONS)
+                    .section("Contexte", context)
+                    .line("Utilisateur : " + message)
+                    .messages();
 
-            String response = chatLanguageModel.generate(promptBuilder.toString());
-            return cleanResponse(response);
+            String response = cleanResponse(
+                    LlmCallContext.withoutCache(() -> chatLanguageModel.generate(prompt).content().text()));
+            responseCache.put("simple", context, message, questionVector, response);
+            return response;
 
         } catch (Exception e) {
             log.error("Error in simple chat", e);
@@ -236,63 +350,29 @@ public class RagChatService {
 
     /**
      * Validate AI JSON and retry once with more restrictive prompt if needed.
+     * Free-text answers are returned as they are; JSON is read with the tolerant parser, so fences, comments or a
+     * truncated reply no longer cost a second call. The retry is kept for analyses with placeholder values and for
+     * JSON-mode calls whose reply holds no JSON at all.
      */
-    private String validateAndMaybeRetry(String initialResponse, String originalPrompt, String userContext) throws Exception {
-        // If initialResponse doesn't start with '{' attempt to find JSON inside; otherwise use as-is
-        String candidate = initialResponse.trim();
-        if (!candidate.startsWith("{")) {
-            int idx = candidate.indexOf('{');
-            if (idx >= 0) candidate = candidate.substring(idx);
-        }
-
-        // Quick check: try parse and inspect some numeric fields
-        boolean ok = false;
-        try {
-            com.fasterxml.jackson.databind.ObjectMapper mapper = new com.fasterxml.jackson.databind.ObjectMapper();
-            Map<String,Object> map = mapper.readValue(candidate, new com.fasterxml.jackson.core.type.TypeReference<Map<String,Object>>(){});
-            // If suggestedMeals exist and have numeric calories/protein > 0 -> ok
-            if (map.containsKey("suggestedMeals")) {
-                Object arr = map.get("suggestedMeals");
-                if (arr instanceof java.util.List) {
-                    java.util.List<?> list = (java.util.List<?>) arr;
-                    if (!list.isEmpty()) {
-                        Object first = list.get(0);
-                        if (first instanceof Map) {
-                            Map<?,?> meal = (Map<?,?>) first;
-                            Number cals = meal.get("calories") instanceof Number ? (Number) meal.get("calories") : null;
-                            Number prot = meal.get("protein") instanceof Number ? (Number) meal.get("protein") : null;
-                            if (cals != null && cals.intValue() > 50) ok = true;
-                            if (prot != null && prot.intValue() > 0) ok = true;
-                        }
-                    }
-                }
-            }
-            // Also consider healthScore > 0
-            if (!ok && map.containsKey("healthScore")) {
-                Object hs = map.get("healthScore");
-                if (hs instanceof Number && ((Number)hs).intValue() > 0) ok = true;
+    private String validateAndMaybeRetry(String initialResponse, List<ChatMessage> originalPrompt, String userContext) throws Exception {
+        Map<String, Object> map = LlmOutputParser.parseObject(initialResponse);
+        if (map.isEmpty()) {
+            if (!LlmCallContext.current().isJsonOutput()) {
+                return initialResponse; // plain chat answer
             }
-        } catch (Exception e) {
-            // parsing failed - not ok
-            ok = false;
+        } else if (hasRealisticValues(map)) {
+            return initialResponse; // already valid
         }
 
-        if (ok) return initialResponse; // already valid
-
-        // Retry with stricter prompt: force only JSON, realistic numeric values, French
-        String retryPrompt = "IMPORTANT: The previous response contained placeholders or zeros. RETURN ONLY A SINGLE VALID JSON OBJECT (no explanation). Use French for textual fields. Ensure suggestedMeals array contains 2-3 realistic meals with numeric calories (>50) and protein >0, and fill top-level fields like healthScore, recommendedWater. Here is the original instruction and user context:\n" + originalPrompt + "\nUserContext:\n" + (userContext==null?"{}":userContext) + "\nNow produce the corrected JSON.";
+        // Retry with stricter prompt: force only JSON, realistic numeric values, French.
+        // Asked as a follow-up turn, so the original prompt is a prefix the model has already evaluated
+        List<ChatMessage> retryPrompt = new ArrayList<>(originalPrompt);
+        retryPrompt.add(AiMessage.from(initialResponse));
+        retryPrompt.add(UserMessage.from("IMPORTANT: The previous response contained placeholders or zeros. RETURN ONLY A SINGLE VALID JSON OBJECT (no explanation). Use French for textual fields. Ensure suggestedMeals array contains 2-3 realistic meals with numeric calories (>50) and protein >0, and fill top-level fields like healthScore, recommendedWater. UserContext:\n" + (userContext==null?"{}":userContext) + "\nNow produce the corrected JSON."));
 
         try {
-            String retryResp = chatLanguageModel.generate(retryPrompt);
-            retryResp = cleanResponse(retryResp);
-            // If still invalid, throw
-            String attempt = retryResp.trim();
-            if (!attempt.startsWith("{")) {
-                int idx = attempt.indexOf('{');
-                if (idx >= 0) attempt = attempt.substring(idx);
-            }
-            com.fasterxml.jackson.databind.ObjectMapper mapper2 = new com.fasterxml.jackson.databind.ObjectMapper();
-            Map<String,Object> map2 = mapper2.readValue(attempt, new com.fasterxml.jackson.core.type.TypeReference<Map<String,Object>>(){});
+            String retryResp = cleanResponse(LlmCallContext.jsonOutput(() -> chatLanguageModel.generate(retryPrompt).content().text()));
+            Map<String,Object> map2 = LlmOutputParser.parseObject(retryResp);
             // basic sanity: suggestedMeals or healthScore
             if (map2.containsKey("suggestedMeals") || map2.containsKey("healthScore")) {
                 return retryResp;
@@ -303,4 +383,20 @@ public class RagChatService {
 
         throw new Exception("AI response validation failed after retry");
     }
+
+    /**
+     * Analyses (suggestedMeals / healthScore) need real numbers; other JSON answers are accepted as they are
+     */
+    private static boolean hasRealisticValues(Map<String, Object> map) {
+        if (!map.containsKey("suggestedMeals") && !map.containsKey("healthScore")) {
+            return true;
+        }
+        // If suggestedMeals exist and have numeric calories/protein > 0 -> ok
+        if (map.get("suggestedMeals") instanceof List<?> list && !list.isEmpty() && list.get(0) instanceof Map<?, ?> meal) {
+            if (meal.get("calories") instanceof Number cals && cals.intValue() > 50) return true;
+            if (meal.get("protein") instanceof Number prot && prot.intValue() > 0) return true;
+        }
+        // Also consider healthScore > 0
+        return map.get("healthScore") instanceof Number hs && hs.intValue() > 0;
+    }
 }
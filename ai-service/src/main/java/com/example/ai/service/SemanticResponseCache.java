@@ -0,0 +1,194 @@
+package com.example.ai.service;
+
+import com.example.ai.llm.FallbackChatModel;
+import com.example.ai.llm.LlmCallContext;
+import com.example.ai.llm.LlmTask;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.StringJoiner;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Cache sémantique des réponses du chat : une question proche (similarité cosinus des embeddings au-dessus
+ * du seuil) d'une question déjà traitée reçoit la même réponse, sans appel au modèle.
+ *
+ * Les entrées sont cloisonnées par portée : mode de chat + empreinte du contexte utilisateur + nombres de
+ * la question. Une réponse personnalisée n'est donc servie qu'à une requête portant exactement le même
+ * contexte, et « 100g de riz » ne reçoit pas la réponse de « 200g de riz », que MiniLM juge quasi identiques.
+ *
+ * MiniLM donne plus de 0,93 à des questions différentes (« pomme » / « poire », « bon » / « mauvais ») : le seuil
+ * par défaut est de 0,97. Seule la question de l'utilisateur est comparée, jamais un prompt assemblé, et les appels
+ * JSON ou d'extraction ne passent pas par le cache (leur réponse porte sur des données précises).
+ */
+@Service
+public class SemanticResponseCache {
+
+    private static final Logger log = LoggerFactory.getLogger(SemanticResponseCache.class);
+
+    private static final String GENERIC_SCOPE = "generic";
+    private static final Pattern NUMBER = Pattern.compile("\\d+(?:[.,]\\d+)?");
+
+    private record Entry(String scope, String question, float[] vector, String response) {
+    }
+
+    /**
+     * Réponse trouvée en cache et similarité avec la question d'origine
+     */
+    public record Hit(String response, String cachedQuestion, double similarity) {
+    }
+
+    private final NutritionKnowledgeService knowledgeService;
+    private final boolean enabled;
+    private final double similarityThreshold;
+    private final Cache<Long, Entry> entries;
+    private final AtomicLong nextId = new AtomicLong();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    public SemanticResponseCache(
+            NutritionKnowledgeService knowledgeService,
+            @Value("${ai.response-cache.enabled:true}") boolean enabled,
+            @Value("${ai.response-cache.similarity-threshold:0.97}") double similarityThreshold,
+            @Value("${ai.response-cache.max-size:1000}") long maxSize,
+            @Value("${ai.response-cache.ttl:PT6H}") Duration ttl
+    ) {
+        this.knowledgeService = knowledgeService;
+        this.enabled = enabled;
+        this.similarityThreshold = similarityThreshold;
+        // Taille bornée (éviction des entrées les moins utilisées) et durée de vie par entrée
+        this.entries = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(ttl)
+                .build();
+    }
+
+    /**
+     * Vecteur de la question à réutiliser pour {@link #lookup} puis {@link #put}, null si le cache est désactivé
+     * ou si l'appel en cours demande du JSON ou une extraction
+     */
+    public float[] embed(String question) {
+        if (!enabled || question == null || question.isBlank()) {
+            return null;
+        }
+        LlmCallContext context = LlmCallContext.current();
+        if (context.isJsonOutput() || context.getTask() == LlmTask.EXTRACTION) {
+            return null;
+        }
+        try {
+            return knowledgeService.embedQuestion(question);
+        } catch (Exception e) {
+            log.warn("Could not embed question for the response cache: {}", e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Réponse la plus proche dans la portée, si sa similarité atteint le seuil
+     */
+    public Hit lookup(String mode, String userContext, String question, float[] vector) {
+        if (vector == null) {
+            return null;
+        }
+        String scope = scope(mode, userContext, question);
+        long bestId = -1;
+        Entry best = null;
+        double bestSimilarity = similarityThreshold;
+        for (Map.Entry<Long, Entry> candidate : entries.asMap().entrySet()) {
+            Entry entry = candidate.getValue();
+            if (!entry.scope().equals(scope)) {
+                continue;
+            }
+            double similarity = dot(vector, entry.vector());
+            if (similarity >= bestSimilarity) {
+                bestSimilarity = similarity;
+                bestId = candidate.getKey();
+                best = entry;
+            }
+        }
+        if (best == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        // Lecture via le cache pour compter l'accès dans la politique d'éviction
+        entries.getIfPresent(bestId);
+        hits.incrementAndGet();
+        return new Hit(best.response(), best.question(), bestSimilarity);
+    }
+
+    public void put(String mode, String userContext, String question, float[] vector, String response) {
+        // Réponse de secours (circuit ouvert) : ne doit pas survivre au retour du modèle
+        if (vector == null || response == null || response.isBlank() || FallbackChatModel.isFallback(response)) {
+            return;
+        }
+        entries.put(nextId.incrementAndGet(), new Entry(scope(mode, userContext, question), question, vector, response));
+    }
+
+    public void clear() {
+        entries.invalidateAll();
+    }
+
+    public Map<String, Object> getStatistics() {
+        long hitCount = hits.get();
+        long missCount = misses.get();
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("size", entries.estimatedSize());
+        stats.put("similarityThreshold", similarityThreshold);
+        stats.put("hits", hitCount);
+        stats.put("misses", missCount);
+        stats.put("hitRate", hitCount + missCount > 0 ? (double) hitCount / (hitCount + missCount) : 0.0);
+        return stats;
+    }
+
+    private static String scope(String mode, String userContext, String question) {
+        String numbers = numbers(question);
+        if (userContext == null || userContext.isBlank()) {
+            return mode + ":" + GENERIC_SCOPE + ":" + numbers;
+        }
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(userContext.getBytes(StandardCharsets.UTF_8));
+            return mode + ":" + HexFormat.of().formatHex(digest) + ":" + numbers;
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Nombres de la question dans l'ordre (virgule décimale ramenée au point)
+     */
+    private static String numbers(String question) {
+        StringJoiner numbers = new StringJoiner(",");
+        if (question != null) {
+            Matcher matcher = NUMBER.matcher(question);
+            while (matcher.find()) {
+                numbers.add(matcher.group().replace(',', '.'));
+            }
+        }
+        return numbers.toString();
+    }
+
+    private static double dot(float[] a, float[] b) {
+        if (a.length != b.length) {
+            return 0;
+        }
+        double sum = 0;
+        for (int i = 0; i < a.length; i++) {
+            sum += a[i] * b[i];
+        }
+        return sum;
+    }
+}
@@ -1,9 +1,17 @@
 package com.example.ai.service;
 
+import com.example.ai.llm.LlmCallContext;
+import com.example.ai.llm.LlmOutputParser;
+import com.example.ai.llm.LlmTask;
+import com.example.ai.llm.PromptAssembler;
+import com.example.ai.llm.SseChatStreamer;
+import dev.langchain4j.data.message.ChatMessage;
 import dev.langchain4j.model.chat.ChatLanguageModel;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.core.type.TypeReference;
 
@@ -11,6 +19,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.regex.Matcher;
+import java.util.stream.Collectors;
 import java.util.regex.Pattern;
 
 @Service
@@ -18,150 +27,310 @@ public class SmartChatService {
 
 
     private static final Logger log = LoggerFactory.getLogger(SmartChatService.class);
+    private static final Pattern WATER_PATTERN = Pattern.compile("(\\d+)\\s*(?:glass|glasses|cup|cups)", Pattern.CASE_INSENSITIVE);
+    private static final Pattern FRENCH_WORDS = Pattern.compile(
+            "(?<![\\p{L}])(j'|j’|je|bu|mang[ée]|eau|verres?|bouteilles?|une?|des?|du|avec|et|au|pris)(?![\\p{L}])",
+            Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE);
+    // Negations, goals, plans, reminders and conditions: the message mentions a quantity without reporting an intake
+    private static final Pattern NOT_AN_INTAKE = Pattern.compile(
+            "(?<![\\p{L}])(?:n['’]|(?:ne|pas|jamais|rien|aucune?|dois|doit|devrais|devrait|faut|faudrait|veux|voudrais"
+            + "|aimerais|vais|objectifs?|rappelle|rappeler|rappel|si|not|never|(?:did|do|does|have|has|had|was|won|should)n['’]t"
+            + "|should|must|need|want|goal|remind|will|going|plan|if)(?![\\p{L}]))",
+            Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE);
+    private static final Pattern WATER_WORDS = Pattern.compile(
+            "(?<![\\p{L}])(?:eau|eaux|water)(?![\\p{L}])",
+            Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE);
+    private static final Pattern OTHER_DRINKS = Pattern.compile(
+            "(?<![\\p{L}])(?:vins?|bières?|coca|sodas?|jus|cafés?|thés?|tisanes?|lait|alcool|whisky|vodka|rhum|limonade"
+            + "|sirops?|smoothies?|cocktails?|champagne|cidre|wine|beers?|coke|juice|coffee|tea|milk|alcohol|lemonade)(?![\\p{L}])",
+            Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE);
+
+    // Fixed part of the smart chat prompt, identical for every call
+    private static final String SMART_INSTRUCTIONS =
+            "Your goal is to help users track their nutrition accurately. Analyze the user message and determine the intent:\n"
+            + "1. LOG_MEAL: User ate something. Extract: food name, calories, protein(g), carbs(g), fats(g), fiber(g). ESTIMATE these if not provided.\n"
+            + "2. LOG_WATER: User drank something. Extract: volume in ml. (e.g. 1 glass = 250ml, 1 bottle = 500ml).\n"
+            + "3. GET_REPORT: User wants a diagnostic or summary.\n"
+            + "4. GET_ADVICE: User asks for tips or what to eat.\n\n"
+            + "When a User Profile is given, you MUST analyze and use it in your response. For GET_ADVICE intent, provide recommendations that specifically address the user's age, weight, height, BMI, gender, activity level, goals (lose weight, maintain, gain weight), health conditions (e.g., diabetes, high blood pressure), dietary preferences, and daily nutrition goals (calories, protein, carbs, fats, water). Do not give generic advice. Tailor your response to these details. Calculate BMI if possible and mention it.\n\n"
+            + "Respond EXCLUSIVELY in this format:\n"
+            + "INTENT: [INTENT_NAME]\n"
+            + "RESPONSE: [A brief, encouraging response in French if the user speaks French, else English. For GET_ADVICE, make it personalized based on user data]\n"
+            + "DATA: food=[name], calories=[num], protein=[num], carbs=[num], fat=[num], fiber=[num]\n"
+            + "DATA: water=[ml]\n\n"
+            + "If intent is LOG_MEAL, your DATA line must include estimates for all macros.";
+    private static final String DIAGNOSTIC_INSTRUCTIONS =
+            "Generate a comprehensive health report based on the user data.\n\n"
+            + "Provide:\n"
+            + "1. Overall Health Summary\n"
+            + "2. Nutritional Analysis\n"
+            + "3. Specific Recommendations\n"
+            + "4. Areas for Improvement\n"
+            + "5. Action Items\n\n"
+            + "Make it actionable and encouraging.";
     private final ChatLanguageModel chatLanguageModel;
+    private final SseChatStreamer streamer;
+    private final IntentClassifier intentClassifier;
+    private final MealNutritionEstimator mealEstimator;
+    private final double mealMinConfidence;
     private final ObjectMapper objectMapper = new ObjectMapper();
 
 
     public SmartChatService(
-            ChatLanguageModel chatLanguageModel
+            ChatLanguageModel chatLanguageModel,
+            SseChatStreamer streamer,
+            IntentClassifier intentClassifier,
+            MealNutritionEstimator mealEstimator,
+            @Value("${ai.intent.classifier.meal-min-confidence:0.6}") double mealMinConfidence
     ) {
         this.chatLanguageModel = chatLanguageModel;
+        this.streamer = streamer;
+        this.intentClassifier = intentClassifier;
+        this.mealEstimator = mealEstimator;
+        this.mealMinConfidence = mealMinConfidence;
     }
     /**
      * Smart chat with intent detection and action suggestions
      */
     public Map<String, Object> smartChat(String message, String userContext) {
+        Map<String, Object> local = answerLocally(message);
+        if (local != null) {
+            return local;
+        }
+
         Map<String, Object> response = new HashMap<>();
 
-        // Build AI prompt with intent detection instructions
-        StringBuilder prompt = new StringBuilder();
-        prompt.append("You are Phi3, a professional nutrition and dietetics assistant. ");
-        prompt.append("Your goal is to help users track their nutrition accurately. Analyze the user message and determine the intent:\n");
-        prompt.append("1. LOG_MEAL: User ate something. Extract: food name, calories, protein(g), carbs(g), fats(g), fiber(g). ESTIMATE these if not provided.\n");
-        prompt.append("2. LOG_WATER: User drank something. Extract: volume in ml. (e.g. 1 glass = 250ml, 1 bottle = 500ml).\n");
-        prompt.append("3. GET_REPORT: User wants a diagnostic or summary.\n");
-        prompt.append("4. GET_ADVICE: User asks for tips or what to eat.\n\n");
+        List<ChatMessage> prompt = buildSmartPrompt(message, userContext);
+
+        try {
+            log.info("Sending smart chat message to Phi3: {}", message);
+            String aiResponse = chatLanguageModel.generate(prompt).content().text();
+            log.info("Received smart chat response from Phi3");
+
+            response.putAll(parseSmartResponse(message, aiResponse));
+
+        } catch (Exception e) {
+            log.error("Error in smart chat with Phi3: {}", e.getMessage());
+            response.put("intent", "ERROR");
+            response.put("response", "I'm having trouble connecting to my AI brain right now. Please ensure Ollama is running with phi3 model.");
+        }
+
+        return response;
+    }
+
+    /**
+     * Smart chat streamed as SSE: only the RESPONSE section is sent token by token,
+     * intent and actionData come in the final event once the answer is complete
+     */
+    public SseEmitter smartChatStream(String message, String userContext) {
+        Map<String, Object> local = answerLocally(message);
+        if (local != null) {
+            return streamer.replay((String) local.get("response"), local);
+        }
+        return streamer.stream(buildSmartPrompt(message, userContext),
+                SseChatStreamer.section("RESPONSE:", "DATA:"),
+                aiResponse -> parseSmartResponse(message, aiResponse),
+                error -> {
+                    log.error("Error in streamed smart chat with Phi3: {}", error.getMessage());
+                    Map<String, Object> result = new HashMap<>();
+                    result.put("intent", "ERROR");
+                    result.put("response", "I'm having trouble connecting to my AI brain right now. Please ensure Ollama is running with phi3 model.");
+                    return result;
+                });
+    }
+
+    /**
+     * Simple logging commands ("j'ai bu un verre d'eau") answered without Phi3: the local classifier must be sure of a
+     * LOG_WATER / LOG_MEAL intent and the slots must be filled (a volume, or a meal the food table recognises).
+     * The embedding score alone does not tell a report from a goal or a negation ("je dois boire 2 litres d'eau"),
+     * so messages with such phrasing are never logged locally, and water needs an eau/water word and no other drink.
+     * Questions and anything ambiguous go to the LLM.
+     *
+     * @return the smart chat result, or null when the message needs the LLM
+     */
+    private Map<String, Object> answerLocally(String message) {
+        Map<String, Object> result = null;
+        try {
+            IntentClassifier.Classification classification = intentClassifier.classify(message);
+            if (classification != null && classification.confident() && !message.trim().endsWith("?")
+                    && !NOT_AN_INTAKE.matcher(message).find()) {
+                boolean french = FRENCH_WORDS.matcher(message).find();
+                if ("LOG_WATER".equals(classification.intent())
+                        && WATER_WORDS.matcher(message).find() && !OTHER_DRINKS.matcher(message).find()) {
+                    int millilitres = QuantityExtractor.totalMillilitres(QuantityExtractor.extract(message));
+                    if (millilitres > 0) {
+                        Map<String, Object> actionData = new HashMap<>();
+                        actionData.put("waterAmount", millilitres);
+                        result = localResult("LOG_WATER", french
+                                ? String.format("C'est noté : %d ml d'eau ajoutés. Continuez à bien vous hydrater !", millilitres)
+                                : String.format("Logged %d ml of water. Keep it up!", millilitres),
+                                actionData, classification);
+                    }
+                } else if ("LOG_MEAL".equals(classification.intent())) {
+                    MealNutritionEstimator.MealEstimate estimate = mealEstimator.estimate(message);
+                    if (estimate.confidence() >= mealMinConfidence && !estimate.items().isEmpty()) {
+                        String mealName = estimate.items().stream()
+                                .map(MealNutritionEstimator.Item::food)
+                                .collect(Collectors.joining(", "));
+                        Map<String, Object> actionData = new HashMap<>();
+                        actionData.put("mealName", mealName);
+                        actionData.put("calories", (int) Math.round(estimate.calories()));
+                        actionData.put("protein", (int) Math.round(estimate.protein()));
+                        actionData.put("carbs", (int) Math.round(estimate.carbs()));
+                        actionData.put("fats", (int) Math.round(estimate.fats()));
+                        actionData.put("fiber", (int) Math.round(estimate.fiber()));
+                        result = localResult("LOG_MEAL", french
+                                ? String.format("C'est noté : %s (environ %d kcal, %d g de protéines).", mealName,
+                                        actionData.get("calories"), actionData.get("protein"))
+                                : String.format("Logged %s (about %d kcal, %d g protein).", mealName,
+                                        actionData.get("calories"), actionData.get("protein")),
+                                actionData, classification);
+                    }
+                }
+            }
+        } catch (Exception e) {
+            log.warn("Local intent classification failed: {}", e.getMessage());
+        }
+        intentClassifier.recordDecision(result != null);
+        return result;
+    }
+
+    private static Map<String, Object> localResult(String intent, String response, Map<String, Object> actionData,
+                                                   IntentClassifier.Classification classification) {
+        Map<String, Object> result = new HashMap<>();
+        result.put("intent", intent);
+        result.put("response", response);
+        result.put("actionData", actionData);
+        result.put("source", "local");
+        result.put("confidence", Math.round(classification.similarity() * 100) / 100.0);
+        return result;
+    }
 
+    private List<ChatMessage> buildSmartPrompt(String message, String userContext) {
+        String profileText = null;
         if (userContext != null && !userContext.isEmpty()) {
             try {
                 Map<String, Object> profile = objectMapper.readValue(userContext, new TypeReference<Map<String, Object>>() {});
-                StringBuilder profileText = new StringBuilder("User Profile:\n");
-                if (profile.containsKey("age")) profileText.append("- Age: ").append(profile.get("age")).append("\n");
-                if (profile.containsKey("weight")) profileText.append("- Weight: ").append(profile.get("weight")).append(" kg\n");
-                if (profile.containsKey("height")) profileText.append("- Height: ").append(profile.get("height")).append(" cm\n");
-                if (profile.containsKey("gender")) profileText.append("- Gender: ").append(profile.get("gender")).append("\n");
-                if (profile.containsKey("activityLevel")) profileText.append("- Activity Level: ").append(profile.get("activityLevel")).append("\n");
+                StringBuilder profileBuilder = new StringBuilder();
+                if (profile.containsKey("age")) profileBuilder.append("- Age: ").append(profile.get("age")).append("\n");
+                if (profile.containsKey("weight")) profileBuilder.append("- Weight: ").append(profile.get("weight")).append(" kg\n");
+                if (profile.containsKey("height")) profileBuilder.append("- Height: ").append(profile.get("height")).append(" cm\n");
+                if (profile.containsKey("gender")) profileBuilder.append("- Gender: ").append(profile.get("gender")).append("\n");
+                if (profile.containsKey("activityLevel")) profileBuilder.append("- Activity Level: ").append(profile.get("activityLevel")).append("\n");
                 if (profile.containsKey("healthConditions")) {
                     List<String> conditions = (List<String>) profile.get("healthConditions");
                     if (conditions != null && !conditions.isEmpty()) {
-                        profileText.append("- Health Conditions: ").append(String.join(", ", conditions)).append("\n");
+                        profileBuilder.append("- Health Conditions: ").append(String.join(", ", conditions)).append("\n");
                     }
                 }
                 if (profile.containsKey("dietaryPreferences")) {
                     List<String> diets = (List<String>) profile.get("dietaryPreferences");
                     if (diets != null && !diets.isEmpty()) {
-                        profileText.append("- Dietary Preferences: ").append(String.join(", ", diets)).append("\n");
+                        profileBuilder.append("- Dietary Preferences: ").append(String.join(", ", diets)).append("\n");
                     }
                 }
                 if (profile.containsKey("goals")) {
                     List<String> goals = (List<String>) profile.get("goals");
                     if (goals != null && !goals.isEmpty()) {
-                        profileText.append("- Goals: ").append(String.join(", ", goals)).append("\n");
+                        profileBuilder.append("- Goals: ").append(String.join(", ", goals)).append("\n");
                     }
                 }
-                if (profile.containsKey("dailyCalorieGoal")) profileText.append("- Daily Calorie Goal: ").append(profile.get("dailyCalorieGoal")).append(" kcal\n");
-                if (profile.containsKey("dailyWaterGoal")) profileText.append("- Daily Water Goal: ").append(profile.get("dailyWaterGoal")).append(" ml\n");
-                if (profile.containsKey("dailyCarbLimit")) profileText.append("- Daily Carb Limit: ").append(profile.get("dailyCarbLimit")).append(" g\n");
-                prompt.append(profileText.toString()).append("\n");
+                if (profile.containsKey("dailyCalorieGoal")) profileBuilder.append("- Daily Calorie Goal: ").append(profile.get("dailyCalorieGoal")).append(" kcal\n");
+                if (profile.containsKey("dailyWaterGoal")) profileBuilder.append("- Daily Water Goal: ").append(profile.get("dailyWaterGoal")).append(" ml\n");
+                if (profile.containsKey("dailyCarbLimit")) profileBuilder.append("- Daily Carb Limit: ").append(profile.get("dailyCarbLimit")).append(" g\n");
+                profileText = profileBuilder.toString();
             } catch (Exception e) {
-                prompt.append("User's Personal Data:\n").append(userContext).append("\n\n");
+                profileText = userContext;
             }
-            prompt.append("CRITICAL INSTRUCTION: You MUST analyze and use the User's Profile in your response. For GET_ADVICE intent, provide recommendations that specifically address the user's age, weight, height, BMI, gender, activity level, goals (lose weight, maintain, gain weight), health conditions (e.g., diabetes, high blood pressure), dietary preferences, and daily nutrition goals (calories, protein, carbs, fats, water). Do not give generic advice. Tailor your response to these details. Calculate BMI if possible and mention it.\n\n");
         }
 
-        prompt.append("User Message: \"").append(message).append("\"\n\n");
-        prompt.append("Respond EXCLUSIVELY in this format:\n");
-        prompt.append("INTENT: [INTENT_NAME]\n");
-        prompt.append("RESPONSE: [A brief, encouraging response in French if the user speaks French, else English. For GET_ADVICE, make it personalized based on user data]\n");
-        prompt.append("DATA: food=[name], calories=[num], protein=[num], carbs=[num], fat=[num], fiber=[num]\n");
-        prompt.append("DATA: water=[ml]\n\n");
-        prompt.append("If intent is LOG_MEAL, your DATA line must include estimates for all macros.");
-
-        try {
-            log.info("Sending smart chat message to Phi3: {}", message);
-            String aiResponse = chatLanguageModel.generate(prompt.toString());
-            log.info("Received smart chat response from Phi3");
+        // Instructions first, then the profile and the message: only the end of the prompt changes between calls
+        return PromptAssembler.system(SMART_INSTRUCTIONS)
+                .section("User Profile", profileText)
+                .line("User Message: \"" + message + "\"")
+                .messages();
+    }
 
-            // Parse the structured response
-            String intent = extractValue(aiResponse, "INTENT");
-            String responseText = extractValue(aiResponse, "RESPONSE");
-            String dataText = extractValue(aiResponse, "DATA");
+    /**
+     * Intent, response text and action data from the INTENT/RESPONSE/DATA answer format
+     */
+    private Map<String, Object> parseSmartResponse(String message, String aiResponse) {
+        Map<String, Object> result = new HashMap<>();
+        // Parse the structured response
+        String intent = LlmOutputParser.extractLabel(aiResponse, "INTENT");
+        String responseText = LlmOutputParser.extractLabel(aiResponse, "RESPONSE");
+        String dataText = LlmOutputParser.extractLabel(aiResponse, "DATA");
 
-            response.put("intent", intent != null ? intent : detectSimpleIntent(message));
-            response.put("response", responseText != null ? responseText : aiResponse);
+        result.put("intent", intent != null ? intent : detectSimpleIntent(message));
+        result.put("response", responseText != null ? responseText : aiResponse);
 
-            // Parse action data if present
-            if (dataText != null && !dataText.trim().isEmpty()) {
-                Map<String, Object> actionData = parseActionData(dataText);
-                if (!actionData.isEmpty()) {
-                    response.put("actionData", actionData);
-                }
-            } else {
-                // Fallback parsing for meals and water
-                Map<String, Object> actionData = extractActionDataFromMessage(message);
-                if (!actionData.isEmpty()) {
-                    response.put("actionData", actionData);
-                }
+        // Parse action data if present
+        if (dataText != null && !dataText.trim().isEmpty()) {
+            Map<String, Object> actionData = parseActionData(dataText);
+            if (!actionData.isEmpty()) {
+                result.put("actionData", actionData);
+            }
+        } else {
+            // Fallback parsing for meals and water
+            Map<String, Object> actionData = extractActionDataFromMessage(message);
+            if (!actionData.isEmpty()) {
+                result.put("actionData", actionData);
             }
-
-        } catch (Exception e) {
-            log.error("Error in smart chat with Phi3: {}", e.getMessage());
-            response.put("intent", "ERROR");
-            response.put("response", "I'm having trouble connecting to my AI brain right now. Please ensure Ollama is running with phi3 model.");
         }
-
-        return response;
+        return result;
     }
 
     /**
      * Generate nutrition diagnostic report
      */
     public String generateDiagnostic(String userData) {
-        StringBuilder prompt = new StringBuilder();
-        prompt.append("You are Phi3, a nutrition expert. Generate a comprehensive health report based on this user data:\n\n");
-        prompt.append(userData).append("\n\n");
-        prompt.append("Provide:\n");
-        prompt.append("1. Overall Health Summary\n");
-        prompt.append("2. Nutritional Analysis\n");
-        prompt.append("3. Specific Recommendations\n");
-        prompt.append("4. Areas for Improvement\n");
-        prompt.append("5. Action Items\n\n");
-        prompt.append("Make it actionable and encouraging.");
+        List<ChatMessage> prompt = buildDiagnosticPrompt(userData);
 
         try {
             log.info("Generating diagnostic report with Phi3");
-            return chatLanguageModel.generate(prompt.toString());
+            return LlmCallContext.task(LlmTask.REPORT, () -> chatLanguageModel.generate(prompt).content().text());
         } catch (Exception e) {
             log.error("Error generating diagnostic with Phi3: {}", e.getMessage());
             return "Diagnostic report is temporarily unavailable. Please ensure Ollama is running with phi3 model.";
         }
     }
 
-    // Helper methods for parsing AI responses
-    private String extractValue(String response, String key) {
+    /**
+     * Diagnostic report streamed as SSE, the final event carries the full report
+     */
+    public SseEmitter generateDiagnosticStream(String userData) {
+        log.info("Streaming diagnostic report with Phi3");
+        return LlmCallContext.task(LlmTask.REPORT, () -> streamer.stream(buildDiagnosticPrompt(userData),
+                SseChatStreamer.TokenFilter.ALL,
+                report -> {
+                    Map<String, Object> result = new HashMap<>();
+                    result.put("report", report);
+                    return result;
+                },
+                error -> {
+                    log.error("Error streaming diagnostic with Phi3: {}", error.getMessage());
+                    Map<String, Object> result = new HashMap<>();
+                    result.put("report", "Diagnostic report is temporarily unavailable. Please ensure Ollama is running with phi3 model.");
+                    return result;
+                }));
+    }
+
+    private List<ChatMessage> buildDiagnosticPrompt(String userData) {
+        return PromptAssembler.system(DIAGNOSTIC_INSTRUCTIONS)
+                .section("User Data", userData)
+                .messages();
+    }
+
+    private String detectSimpleIntent(String message) {
+        // Local classifier first, keywords when it is unsure or not ready yet
         try {
-            Pattern pattern = Pattern.compile(key + ":\\s*(.+?)(?:\n|$)", Pattern.CASE_INSENSITIVE);
-            Matcher matcher = pattern.matcher(response);
-            if (matcher.find()) {
-                return matcher.group(1).trim();
+            IntentClassifier.Classification classification = intentClassifier.classify(message);
+            if (classification != null && classification.confident()) {
+                return classification.intent();
             }
         } catch (Exception e) {
-            log.warn("Error extracting value for key {}: {}", key, e.getMessage());
+            log.debug("Local intent classification failed: {}", e.getMessage());
         }
-        return null;
-    }
-
-    private String detectSimpleIntent(String message) {
         String lowerMessage = message.toLowerCase();
         // English & French detection
         if (lowerMessage.matches(".*(ate|eat|meal|food|breakfast|lunch|dinner|mangé|repas|déjeuner|diner|souper).*")) {
@@ -244,8 +413,7 @@ public class SmartChatService {
         String lowerMessage = message.toLowerCase();
 
         // Extract water glasses
-        Pattern waterPattern = Pattern.compile("(\\d+)\\s*(?:glass|glasses|cup|cups)", Pattern.CASE_INSENSITIVE);
-        Matcher waterMatcher = waterPattern.matcher(message);
+        Matcher waterMatcher = WATER_PATTERN.matcher(message);
         if (waterMatcher.find()) {
             data.put("glasses", Integer.parseInt(waterMatcher.group(1)));
         }
@@ -0,0 +1,691 @@
+package com.example.ai.store;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * Historique persistant des décisions de l'agent, par utilisateur.
+ *
+ * Chaque décision est ajoutée en fin de journal (JSON Lines, un numéro de séquence par ligne) dans le
+ * segment actif {@code history-NNNNNN.log} ; au-delà de {@code segmentBytes}, un nouveau segment est ouvert.
+ * Quand plus de {@code maxSegments} segments sont scellés, ils sont compactés en arrière-plan en un seul,
+ * qui ne garde que les {@code depth} dernières décisions de chaque utilisateur : le disque reste borné.
+ *
+ * En mémoire, tout est borné quel que soit le nombre d'utilisateurs, avec l'éviction de Caffeine (W-TinyLFU :
+ * fréquence et récence d'accès) :
+ * <ul>
+ *   <li>un index des positions (segment, octet) des {@code depth} dernières lignes d'au plus
+ *   {@code maxIndexedUsers} utilisateurs, 8 octets par position, tableau agrandi à la demande ;</li>
+ *   <li>un tampon circulaire de ces lignes pour au plus {@code maxResidentUsers} utilisateurs.</li>
+ * </ul>
+ * La lecture d'un utilisateur résident est une copie de son tampon. Celle d'un utilisateur indexé relit ses seules
+ * lignes aux positions connues ; celle d'un utilisateur absent de l'index parcourt les segments. Dans les deux cas,
+ * la lecture des fichiers se fait hors du verrou des ajouts. Une entrée de l'index est toujours complète : elle
+ * n'est créée que par le chargement ou par un parcours, les ajouts ne font que compléter les entrées existantes.
+ */
+public class AgentHistoryStore implements AutoCloseable {
+
+    private static final Logger log = LoggerFactory.getLogger(AgentHistoryStore.class);
+
+    private static final Pattern SEGMENT_NAME = Pattern.compile("history-(\\d+)\\.log");
+    private static final String COMPACTION_FILE = "compaction.tmp";
+    private static final int OFFSET_BITS = 40;
+    private static final long OFFSET_MASK = (1L << OFFSET_BITS) - 1;
+    private static final int READ_CHUNK = 4096;
+    private static final int UNLOCKED_READ_ATTEMPTS = 3;
+
+    private final Path directory;
+    private final int depth;
+    private final int maxIndexedUsers;
+    private final long segmentBytes;
+    private final int maxSegments;
+    private final ObjectMapper objectMapper = new ObjectMapper()
+            .findAndRegisterModules()
+            .disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
+    private final Cache<String, Ring> residents;
+    private final ExecutorService compactor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "agent-history-compaction");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final AtomicBoolean compacting = new AtomicBoolean();
+    private final AtomicLong coldReads = new AtomicLong();
+    private final AtomicLong compactions = new AtomicLong();
+
+    // Gardés par this (les entrées de l'index ne sont modifiées que sous le verrou)
+    private final Cache<String, Positions> index;
+    private final List<Path> sealedSegments = new ArrayList<>();
+    private Path activeSegment;
+    private BufferedWriter writer;
+    private long activeBytes;
+    private long sequence;
+    private long compactionGeneration;
+
+    private AgentHistoryStore(Path directory, int depth, int maxResidentUsers, int maxIndexedUsers, long segmentBytes,
+                              int maxSegments) {
+        this.directory = directory;
+        this.depth = Math.max(1, depth);
+        this.maxIndexedUsers = Math.max(1, maxIndexedUsers);
+        this.segmentBytes = segmentBytes;
+        this.maxSegments = Math.max(1, maxSegments);
+        this.residents = Caffeine.newBuilder()
+                .maximumSize(maxResidentUsers)
+                .build();
+        this.index = Caffeine.newBuilder()
+                .maximumSize(this.maxIndexedUsers)
+                .build();
+    }
+
+    /**
+     * Ouvre (ou crée) le journal et indexe les utilisateurs les plus récents ; les tampons se remplissent à la lecture
+     */
+    public static AgentHistoryStore open(Path directory, int depth, int maxResidentUsers, int maxIndexedUsers,
+                                         long segmentBytes, int maxSegments) throws IOException {
+        AgentHistoryStore store = new AgentHistoryStore(directory, depth, maxResidentUsers, maxIndexedUsers,
+                segmentBytes, maxSegments);
+        store.load();
+        return store;
+    }
+
+    private synchronized void load() throws IOException {
+        Files.createDirectories(directory);
+        Files.deleteIfExists(directory.resolve(COMPACTION_FILE));
+
+        List<Path> segments = listSegments();
+        int[] count = {0};
+        // Rejeu dans une table temporaire : seules des entrées complètes entrent dans l'index borné, celles des
+        // utilisateurs écrits le plus récemment ; les autres seront retrouvés par un parcours des segments
+        Map<String, Positions> replayed = new HashMap<>();
+        sequence = readSegments(segments, (userId, line, position) -> {
+            replayed.computeIfAbsent(userId, id -> new Positions(depth)).add(position);
+            count[0]++;
+        });
+        replayed.entrySet().stream()
+                .sorted(Comparator.comparingLong(entry -> -entry.getValue().last()))
+                .limit(maxIndexedUsers)
+                .forEach(entry -> index.put(entry.getKey(), entry.getValue()));
+        if (segments.isEmpty()) {
+            activeSegment = segmentPath(1);
+        } else {
+            activeSegment = segments.get(segments.size() - 1);
+            sealedSegments.addAll(segments.subList(0, segments.size() - 1));
+        }
+        openWriter();
+        log.info("Agent history opened at {} ({} decisions, {} users, {} segments)",
+                directory.toAbsolutePath(), count[0], replayed.size(), segments.size());
+        compactIfNeeded();
+    }
+
+    /**
+     * Ajoute une décision en fin de journal et dans le tampon de l'utilisateur
+     */
+    public synchronized void append(String userId, String action, Map<String, Object> details) {
+        ObjectNode record = objectMapper.createObjectNode();
+        record.put("seq", ++sequence);
+        record.put("userId", userId);
+        record.put("action", action);
+        record.put("timestamp", LocalDateTime.now().toString());
+        record.set("details", objectMapper.valueToTree(details));
+        String line = record.toString();
+        long position = pack(segmentNumber(activeSegment), activeBytes);
+        try {
+            writer.write(line);
+            writer.write('\n');
+            writer.flush();
+            activeBytes += line.getBytes(StandardCharsets.UTF_8).length + 1;
+            if (activeBytes >= segmentBytes) {
+                rotate();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot write agent history", e);
+        }
+        Positions indexed = index.getIfPresent(userId);
+        if (indexed != null) {
+            indexed.add(position);
+        }
+        Ring ring = residents.getIfPresent(userId);
+        if (ring != null) {
+            ring.add(line);
+        }
+    }
+
+    /**
+     * Dernières décisions de l'utilisateur (au plus {@code depth}), de la plus ancienne à la plus récente
+     */
+    public List<Map<String, Object>> tail(String userId) {
+        Ring ring = residents.getIfPresent(userId);
+        if (ring == null) {
+            ring = loadUser(userId);
+        }
+        List<Map<String, Object>> decisions = new ArrayList<>();
+        for (String line : ring.snapshot()) {
+            try {
+                JsonNode record = objectMapper.readTree(line);
+                Map<String, Object> decision = new LinkedHashMap<>();
+                decision.put("action", record.path("action").asText());
+                decision.put("timestamp", record.path("timestamp").asText());
+                decision.put("details", objectMapper.convertValue(record.path("details"), Map.class));
+                decisions.add(decision);
+            } catch (IOException e) {
+                log.warn("Ignoring unreadable agent decision of {}: {}", userId, e.getMessage());
+            }
+        }
+        return decisions;
+    }
+
+    /**
+     * Utilisateur évincé ou inconnu : lu aux positions indexées, ou par un parcours des segments s'il n'est pas
+     * indexé, hors du verrou. Une lecture invalidée par une compaction ou un ajout concurrent est recommencée ;
+     * après quelques échecs, les segments sont relus sous le verrou.
+     */
+    private Ring loadUser(String userId) {
+        coldReads.incrementAndGet();
+        for (int attempt = 1; attempt <= UNLOCKED_READ_ATTEMPTS; attempt++) {
+            Positions indexed;
+            synchronized (this) {
+                Ring ring = residents.getIfPresent(userId);
+                if (ring != null) {
+                    return ring;
+                }
+                indexed = index.getIfPresent(userId);
+            }
+            Ring ring = indexed != null ? readIndexed(userId, indexed) : scanUnlocked(userId);
+            if (ring != null) {
+                return ring;
+            }
+        }
+        synchronized (this) {
+            Ring ring = residents.getIfPresent(userId);
+            if (ring != null) {
+                return ring;
+            }
+            UserLines found = new UserLines(userId);
+            try {
+                readSegments(currentSegments(), found);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Cannot read agent history", e);
+            }
+            return found.commit();
+        }
+    }
+
+    /**
+     * Lecture aux positions indexées ; null si l'entrée a changé ou a été évincée entre-temps
+     */
+    private Ring readIndexed(String userId, Positions indexed) {
+        long[] positions;
+        long generation;
+        long appended;
+        synchronized (this) {
+            positions = indexed.snapshot();
+            generation = compactionGeneration;
+            appended = indexed.appended;
+        }
+        List<String> lines = readLines(userId, positions);
+        synchronized (this) {
+            if (lines == null || generation != compactionGeneration || index.getIfPresent(userId) != indexed
+                    || indexed.appended != appended) {
+                return null;
+            }
+            Ring ring = residents.getIfPresent(userId);
+            if (ring == null) {
+                ring = new Ring(depth);
+                lines.forEach(ring::add);
+                residents.put(userId, ring);
+            }
+            return ring;
+        }
+    }
+
+    /**
+     * Parcours des segments jusqu'à la fin connue du segment actif, hors du verrou, puis sous le verrou des seules
+     * lignes ajoutées depuis ; null si une compaction a remplacé des segments entre-temps
+     */
+    private Ring scanUnlocked(String userId) {
+        List<Path> segments;
+        long end;
+        long generation;
+        synchronized (this) {
+            segments = currentSegments();
+            end = activeBytes;
+            generation = compactionGeneration;
+        }
+        UserLines found = new UserLines(userId);
+        try {
+            readSegments(segments, 0, end, found);
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot read agent history", e);
+        }
+        synchronized (this) {
+            if (generation != compactionGeneration) {
+                return null;
+            }
+            Ring ring = residents.getIfPresent(userId);
+            if (ring != null) {
+                return ring;
+            }
+            List<Path> current = currentSegments();
+            try {
+                readSegments(current.subList(current.indexOf(segments.get(segments.size() - 1)), current.size()),
+                        end, Long.MAX_VALUE, found);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Cannot read agent history", e);
+            }
+            return found.commit();
+        }
+    }
+
+    private List<Path> currentSegments() {
+        List<Path> segments = new ArrayList<>(sealedSegments);
+        segments.add(activeSegment);
+        return segments;
+    }
+
+    /**
+     * Lit les lignes aux positions données ; {@code null} si l'une n'est plus celle de l'utilisateur (segment
+     * remplacé ou supprimé par une compaction entre-temps)
+     */
+    private List<String> readLines(String userId, long[] positions) {
+        List<String> lines = new ArrayList<>(positions.length);
+        FileChannel channel = null;
+        long openSegment = -1;
+        try {
+            for (long position : positions) {
+                long segment = position >>> OFFSET_BITS;
+                if (segment != openSegment) {
+                    if (channel != null) {
+                        channel.close();
+                    }
+                    channel = FileChannel.open(segmentPath(segment), StandardOpenOption.READ);
+                    openSegment = segment;
+                }
+                String line = readLine(channel, position & OFFSET_MASK);
+                if (line == null || !userId.equals(objectMapper.readTree(line).path("userId").asText())) {
+                    return null;
+                }
+                lines.add(line);
+            }
+            return lines;
+        } catch (NoSuchFileException | JsonProcessingException e) {
+            return null;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot read agent history", e);
+        } finally {
+            if (channel != null) {
+                try {
+                    channel.close();
+                } catch (IOException e) {
+                    log.debug("Error closing agent history segment: {}", e.getMessage());
+                }
+            }
+        }
+    }
+
+    private static String readLine(FileChannel channel, long offset) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ByteBuffer buffer = ByteBuffer.allocate(READ_CHUNK);
+        long position = offset;
+        while (true) {
+            buffer.clear();
+            int read = channel.read(buffer, position);
+            if (read <= 0) {
+                return null;
+            }
+            for (int i = 0; i < read; i++) {
+                if (buffer.get(i) == '\n') {
+                    bytes.write(buffer.array(), 0, i);
+                    return bytes.toString(StandardCharsets.UTF_8);
+                }
+            }
+            bytes.write(buffer.array(), 0, read);
+            position += read;
+        }
+    }
+
+    public synchronized Map<String, Object> getStatistics() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("directory", directory.toAbsolutePath().toString());
+        stats.put("depth", depth);
+        stats.put("indexedUsers", index.estimatedSize());
+        stats.put("maxIndexedUsers", maxIndexedUsers);
+        stats.put("residentUsers", residents.estimatedSize());
+        stats.put("segments", sealedSegments.size() + 1);
+        stats.put("activeSegmentBytes", activeBytes);
+        stats.put("lastSequence", sequence);
+        stats.put("coldReads", coldReads.get());
+        stats.put("compactions", compactions.get());
+        return stats;
+    }
+
+    private void rotate() throws IOException {
+        writer.close();
+        sealedSegments.add(activeSegment);
+        activeSegment = segmentPath(segmentNumber(activeSegment) + 1);
+        openWriter();
+        compactIfNeeded();
+    }
+
+    private void openWriter() throws IOException {
+        writer = Files.newBufferedWriter(activeSegment, StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        activeBytes = Files.size(activeSegment);
+    }
+
+    private void compactIfNeeded() {
+        if (sealedSegments.size() > maxSegments && compacting.compareAndSet(false, true)) {
+            List<Path> segments = List.copyOf(sealedSegments);
+            compactor.execute(() -> {
+                try {
+                    compact(segments);
+                } catch (Exception e) {
+                    log.error("Agent history compaction failed", e);
+                } finally {
+                    compacting.set(false);
+                }
+                // Segments scellés pendant la compaction
+                synchronized (this) {
+                    compactIfNeeded();
+                }
+            });
+        }
+    }
+
+    /**
+     * Réécrit les segments scellés (immuables) en ne gardant que les {@code depth} dernières décisions de chaque
+     * utilisateur. Le résultat remplace le plus récent d'entre eux, puis les autres sont supprimés : après un arrêt
+     * entre les deux, les doublons sont écartés au chargement grâce aux numéros de séquence. Les positions indexées
+     * dans les segments compactés sont remplacées par celles des lignes réécrites.
+     */
+    void compact(List<Path> segments) throws IOException {
+        long start = System.currentTimeMillis();
+        Map<String, Integer> counts = new HashMap<>();
+        readSegments(segments, (userId, line, position) -> counts.merge(userId, 1, Integer::sum));
+        Map<String, Integer> seen = new HashMap<>();
+        // Nouvelles positions des lignes gardées, par utilisateur, de la plus ancienne à la plus récente
+        Map<String, long[]> moved = new HashMap<>();
+        Path target = segments.get(segments.size() - 1);
+        long targetNumber = segmentNumber(target);
+        Path compacted = directory.resolve(COMPACTION_FILE);
+        int[] kept = {0};
+        long[] offset = {0};
+        try (BufferedWriter out = Files.newBufferedWriter(compacted, StandardCharsets.UTF_8)) {
+            readSegments(segments, (userId, line, position) -> {
+                int count = counts.get(userId);
+                int keep = Math.min(count, depth);
+                int rank = seen.merge(userId, 1, Integer::sum) - (count - keep);
+                if (rank > 0) {
+                    try {
+                        out.write(line);
+                        out.write('\n');
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                    moved.computeIfAbsent(userId, id -> new long[keep])[rank - 1] = pack(targetNumber, offset[0]);
+                    offset[0] += line.getBytes(StandardCharsets.UTF_8).length + 1;
+                    kept[0]++;
+                }
+            });
+        }
+        Set<Long> compactedNumbers = new HashSet<>();
+        segments.forEach(segment -> compactedNumbers.add(segmentNumber(segment)));
+        synchronized (this) {
+            Files.move(compacted, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            for (Path segment : segments.subList(0, segments.size() - 1)) {
+                Files.deleteIfExists(segment);
+            }
+            sealedSegments.removeAll(segments);
+            sealedSegments.add(0, target);
+            index.asMap().forEach((userId, positions) -> positions.relocate(compactedNumbers, moved.get(userId)));
+            compactionGeneration++;
+        }
+        compactions.incrementAndGet();
+        log.info("Agent history compacted: {} segments into {} decisions for {} users in {}ms",
+                segments.size(), kept[0], counts.size(), System.currentTimeMillis() - start);
+    }
+
+    /**
+     * Parcourt les segments dans l'ordre ; une décision dont la séquence ne dépasse pas celle de la précédente
+     * est un doublon laissé par une compaction interrompue, elle est ignorée
+     *
+     * @return la dernière séquence lue
+     */
+    private long readSegments(List<Path> segments, RecordConsumer consumer) throws IOException {
+        return readSegments(segments, 0, Long.MAX_VALUE, consumer);
+    }
+
+    /**
+     * Comme {@link #readSegments(List, RecordConsumer)}, du décalage {@code start} du premier segment au décalage
+     * {@code end} du dernier (limites de lignes)
+     */
+    private long readSegments(List<Path> segments, long start, long end, RecordConsumer consumer) throws IOException {
+        long lastSequence = 0;
+        for (int i = 0; i < segments.size(); i++) {
+            Path segment = segments.get(i);
+            long number = segmentNumber(segment);
+            long offset = i == 0 ? start : 0;
+            long limit = i == segments.size() - 1 ? end : Long.MAX_VALUE;
+            try (InputStream in = Files.newInputStream(segment);
+                 BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+                in.skipNBytes(offset);
+                String line;
+                while (offset < limit && (line = reader.readLine()) != null) {
+                    long position = pack(number, offset);
+                    offset += line.getBytes(StandardCharsets.UTF_8).length + 1;
+                    if (line.isBlank()) {
+                        continue;
+                    }
+                    JsonNode record;
+                    try {
+                        record = objectMapper.readTree(line);
+                    } catch (IOException e) {
+                        // Dernière ligne tronquée par un arrêt brutal
+                        log.warn("Ignoring unreadable agent history line in {}: {}", segment, e.getMessage());
+                        continue;
+                    }
+                    long seq = record.path("seq").asLong();
+                    if (seq <= lastSequence) {
+                        continue;
+                    }
+                    lastSequence = seq;
+                    consumer.accept(record.path("userId").asText(), line, position);
+                }
+            }
+        }
+        return lastSequence;
+    }
+
+    private List<Path> listSegments() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(path -> SEGMENT_NAME.matcher(path.getFileName().toString()).matches())
+                    .sorted((a, b) -> Long.compare(segmentNumber(a), segmentNumber(b)))
+                    .toList();
+        }
+    }
+
+    private Path segmentPath(long number) {
+        return directory.resolve(String.format("history-%06d.log", number));
+    }
+
+    private static long segmentNumber(Path segment) {
+        Matcher matcher = SEGMENT_NAME.matcher(segment.getFileName().toString());
+        return matcher.matches() ? Long.parseLong(matcher.group(1)) : 0;
+    }
+
+    private static long pack(long segmentNumber, long offset) {
+        return segmentNumber << OFFSET_BITS | offset;
+    }
+
+    @Override
+    public synchronized void close() {
+        compactor.shutdown();
+        try {
+            writer.close();
+        } catch (IOException e) {
+            log.warn("Error closing agent history: {}", e.getMessage());
+        }
+    }
+
+    @FunctionalInterface
+    private interface RecordConsumer {
+        void accept(String userId, String line, long position);
+    }
+
+    /**
+     * Dernières lignes d'un utilisateur trouvées par un parcours des segments
+     */
+    private final class UserLines implements RecordConsumer {
+        private final String userId;
+        private final Ring lines = new Ring(depth);
+        private final Positions positions = new Positions(depth);
+
+        UserLines(String userId) {
+            this.userId = userId;
+        }
+
+        @Override
+        public void accept(String id, String line, long position) {
+            if (id.equals(userId)) {
+                lines.add(line);
+                positions.add(position);
+            }
+        }
+
+        /**
+         * Sous le verrou, une fois toutes les lignes lues : l'utilisateur entre dans l'index et devient résident
+         */
+        Ring commit() {
+            index.put(userId, positions);
+            residents.put(userId, lines);
+            return lines;
+        }
+    }
+
+    /**
+     * Positions (segment, octet) des dernières lignes d'un utilisateur, gardées par le verrou du journal.
+     * Le tableau grandit avec l'historique de l'utilisateur, jusqu'à {@code depth}.
+     */
+    private static final class Positions {
+        private static final int INITIAL_CAPACITY = 4;
+
+        private final int depth;
+        private long[] positions;
+        private int next;
+        private int size;
+        private long appended;
+
+        Positions(int depth) {
+            this.depth = depth;
+            this.positions = new long[Math.min(depth, INITIAL_CAPACITY)];
+        }
+
+        void add(long position) {
+            if (size == positions.length && size < depth) {
+                positions = Arrays.copyOf(snapshot(), Math.min(depth, size * 2));
+                next = size;
+            }
+            positions[next] = position;
+            next = (next + 1) % positions.length;
+            size = Math.min(size + 1, positions.length);
+            appended++;
+        }
+
+        long last() {
+            return positions[(next - 1 + positions.length) % positions.length];
+        }
+
+        long[] snapshot() {
+            long[] snapshot = new long[size];
+            for (int i = 0; i < size; i++) {
+                snapshot[i] = positions[slot(i)];
+            }
+            return snapshot;
+        }
+
+        /**
+         * Les positions dans les segments compactés sont les plus anciennes ; elles correspondent aux dernières
+         * lignes réécrites pour l'utilisateur
+         */
+        void relocate(Set<Long> compactedNumbers, long[] moved) {
+            int relocated = 0;
+            while (relocated < size && compactedNumbers.contains(positions[slot(relocated)] >>> OFFSET_BITS)) {
+                relocated++;
+            }
+            for (int i = 0; i < relocated; i++) {
+                positions[slot(i)] = moved[moved.length - relocated + i];
+            }
+        }
+
+        private int slot(int i) {
+            return (next - size + i + positions.length) % positions.length;
+        }
+    }
+
+    /**
+     * Dernières lignes d'un utilisateur, écrasées de la plus ancienne à la plus récente
+     */
+    private static final class Ring {
+        private final String[] lines;
+        private int next;
+        private int size;
+
+        Ring(int depth) {
+            this.lines = new String[depth];
+        }
+
+        synchronized void add(String line) {
+            lines[next] = line;
+            next = (next + 1) % lines.length;
+            size = Math.min(size + 1, lines.length);
+        }
+
+        synchronized List<String> snapshot() {
+            List<String> snapshot = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                snapshot.add(lines[(next - size + i + lines.length) % lines.length]);
+            }
+            return snapshot;
+        }
+    }
+}
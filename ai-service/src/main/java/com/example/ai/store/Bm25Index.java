@@ -0,0 +1,258 @@
+package com.example.ai.store;
+
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.store.embedding.filter.Filter;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.regex.Pattern;
+
+/**
+ * Index inversé en mémoire, classement BM25, à côté du store vectoriel.
+ *
+ * Les termes sont normalisés (accents retirés, minuscules, mots vides FR/EN supprimés, pluriels
+ * simples ramenés au singulier) : « Lentilles rouges cuites » et « lentille rouge cuite » tombent
+ * sur les mêmes entrées. Les documents sont identifiés par l'identifiant du store vectoriel,
+ * ce qui permet de fusionner les deux classements.
+ */
+public class Bm25Index {
+
+    private static final double K1 = 1.2;
+    private static final double B = 0.75;
+    // Part de documents supprimés au-delà de laquelle l'index est renuméroté pour libérer leurs entrées
+    private static final double MAX_DELETED_RATIO = 0.25;
+
+    private static final Pattern DIACRITICS = Pattern.compile("\\p{M}+");
+    private static final Pattern NON_ALPHANUMERIC = Pattern.compile("[^a-z0-9]+");
+
+    private static final Set<String> STOPWORDS = Set.of(
+            // Français (sans accents, après normalisation)
+            "le", "la", "les", "un", "une", "des", "du", "de", "au", "aux", "et", "ou", "en", "dans",
+            "par", "pour", "sur", "avec", "sans", "ce", "ces", "cet", "cette", "son", "sa", "ses",
+            "mon", "ma", "mes", "ton", "ta", "tes", "leur", "leurs", "qui", "que", "quoi", "dont",
+            "est", "sont", "etre", "avoir", "ai", "as", "il", "elle", "ils", "elles", "je", "tu",
+            "nous", "vous", "on", "ne", "pas", "plus", "moins", "tres", "quel", "quelle", "quels",
+            "quelles", "comment", "combien", "se", "si", "me", "te", "lui", "ca", "cela",
+            // English
+            "the", "a", "an", "and", "or", "of", "to", "in", "for", "with", "without", "is",
+            "are", "be", "was", "were", "it", "its", "this", "that", "these", "those", "what",
+            "which", "how", "much", "many", "do", "does", "i", "you", "we", "my", "your"
+    );
+
+    /**
+     * Résultat de recherche lexicale
+     */
+    public record Hit(String id, TextSegment segment, double score) {
+    }
+
+    private record Document(String id, TextSegment segment, int length) {
+    }
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    // Numéro interne -> document (null une fois supprimé) ; terme -> (numéro interne -> fréquence)
+    private final List<Document> documents = new ArrayList<>();
+    private final Map<String, Integer> numbers = new HashMap<>();
+    private final Map<String, Map<Integer, Integer>> postings = new HashMap<>();
+    private long totalLength;
+    private int documentCount;
+
+    /**
+     * Indexe un segment sous l'identifiant du store vectoriel
+     */
+    public void add(String id, TextSegment segment) {
+        if (segment == null) {
+            return;
+        }
+        List<String> terms = tokenize(segment.text());
+        lock.writeLock().lock();
+        try {
+            if (numbers.containsKey(id)) {
+                return;
+            }
+            int number = documents.size();
+            documents.add(new Document(id, segment, terms.size()));
+            numbers.put(id, number);
+            for (String term : terms) {
+                postings.computeIfAbsent(term, t -> new HashMap<>()).merge(number, 1, Integer::sum);
+            }
+            totalLength += terms.size();
+            documentCount++;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void addAll(List<String> ids, List<TextSegment> segments) {
+        for (int i = 0; i < ids.size(); i++) {
+            add(ids.get(i), segments.get(i));
+        }
+    }
+
+    /**
+     * Retire les documents dont les métadonnées satisfont le filtre (même sémantique que le store)
+     */
+    public void removeAll(Filter filter) {
+        lock.writeLock().lock();
+        try {
+            for (int number = 0; number < documents.size(); number++) {
+                Document document = documents.get(number);
+                if (document != null && filter.test(document.segment().metadata())) {
+                    remove(number, document);
+                }
+            }
+            if (documents.size() - documentCount > MAX_DELETED_RATIO * documents.size()) {
+                reclaim();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void remove(int number, Document document) {
+        for (String term : tokenize(document.segment().text())) {
+            Map<Integer, Integer> posting = postings.get(term);
+            if (posting != null) {
+                posting.remove(number);
+                if (posting.isEmpty()) {
+                    postings.remove(term);
+                }
+            }
+        }
+        documents.set(number, null);
+        numbers.remove(document.id());
+        totalLength -= document.length();
+        documentCount--;
+    }
+
+    /**
+     * Renumérote les documents restants (appelé sous le verrou d'écriture) : les emplacements des documents
+     * supprimés ne sont jamais réutilisés sinon
+     */
+    private void reclaim() {
+        List<Document> remaining = new ArrayList<>(documentCount);
+        for (Document document : documents) {
+            if (document != null) {
+                remaining.add(document);
+            }
+        }
+        documents.clear();
+        numbers.clear();
+        postings.clear();
+        totalLength = 0;
+        documentCount = 0;
+        for (Document document : remaining) {
+            int number = documents.size();
+            documents.add(document);
+            numbers.put(document.id(), number);
+            for (String term : tokenize(document.segment().text())) {
+                postings.computeIfAbsent(term, t -> new HashMap<>()).merge(number, 1, Integer::sum);
+            }
+            totalLength += document.length();
+            documentCount++;
+        }
+    }
+
+    /**
+     * Recherche BM25 ; résultats triés par score décroissant
+     */
+    public List<Hit> search(String query, int maxResults) {
+        List<String> terms = tokenize(query);
+        if (terms.isEmpty() || maxResults <= 0) {
+            return List.of();
+        }
+        lock.readLock().lock();
+        try {
+            if (documentCount == 0) {
+                return List.of();
+            }
+            double averageLength = (double) totalLength / documentCount;
+            Map<Integer, Double> scores = new HashMap<>();
+            for (String term : terms.stream().distinct().toList()) {
+                Map<Integer, Integer> posting = postings.get(term);
+                if (posting == null) {
+                    continue;
+                }
+                double idf = Math.log(1 + (documentCount - posting.size() + 0.5) / (posting.size() + 0.5));
+                for (Map.Entry<Integer, Integer> entry : posting.entrySet()) {
+                    int frequency = entry.getValue();
+                    int length = documents.get(entry.getKey()).length();
+                    double norm = frequency + K1 * (1 - B + B * length / averageLength);
+                    scores.merge(entry.getKey(), idf * frequency * (K1 + 1) / norm, Double::sum);
+                }
+            }
+
+            PriorityQueue<Map.Entry<Integer, Double>> top = new PriorityQueue<>(Map.Entry.comparingByValue());
+            for (Map.Entry<Integer, Double> entry : scores.entrySet()) {
+                top.add(entry);
+                if (top.size() > maxResults) {
+                    top.poll();
+                }
+            }
+            List<Hit> hits = new ArrayList<>(top.size());
+            while (!top.isEmpty()) {
+                Map.Entry<Integer, Double> entry = top.poll();
+                Document document = documents.get(entry.getKey());
+                hits.add(0, new Hit(document.id(), document.segment(), entry.getValue()));
+            }
+            return hits;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return documentCount;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int termCount() {
+        lock.readLock().lock();
+        try {
+            return postings.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Découpage en termes : accents retirés, minuscules, mots vides et termes d'une lettre ignorés
+     */
+    public static List<String> tokenize(String text) {
+        if (text == null || text.isBlank()) {
+            return List.of();
+        }
+        String folded = DIACRITICS.matcher(Normalizer.normalize(text, Normalizer.Form.NFD)).replaceAll("");
+        folded = folded.toLowerCase(Locale.ROOT).replace("œ", "oe").replace("æ", "ae");
+        List<String> terms = new ArrayList<>();
+        for (String token : NON_ALPHANUMERIC.split(folded)) {
+            if (token.length() < 2 || STOPWORDS.contains(token)) {
+                continue;
+            }
+            terms.add(stem(token));
+        }
+        return terms;
+    }
+
+    /**
+     * Racinisation minimale : pluriels réguliers en -s / -x (lentilles -> lentille, choux -> chou)
+     */
+    private static String stem(String token) {
+        if (token.length() > 3 && !Character.isDigit(token.charAt(0))
+                && (token.endsWith("s") || token.endsWith("x")) && !token.endsWith("ss")) {
+            return token.substring(0, token.length() - 1);
+        }
+        return token;
+    }
+}
@@ -0,0 +1,235 @@
+package com.example.ai.store;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Table des aliments de knowledge/food-database.txt, stockée en colonnes de types primitifs
+ * (valeurs nutritionnelles par gramme, index glycémique) avec un index inversé terme -> aliments.
+ *
+ * Format d'une ligne : Aliment | Portion | Calories | Protéines | Glucides | Lipides | Fibres | Index Glycémique
+ */
+public final class FoodTable {
+
+    public static final String RESOURCE = "knowledge/food-database.txt";
+
+    private static final Pattern AMOUNT = Pattern.compile("(\\d+(?:[.,]\\d+)?)\\s*(g|ml)", Pattern.CASE_INSENSITIVE);
+    private static final Pattern COUNT_IN_PARENTHESES = Pattern.compile("\\((\\d+)\\s+[^)]*\\)");
+    private static final Pattern PARENTHESES_WITH_DIGIT = Pattern.compile("\\([^)]*\\d[^)]*\\)");
+    private static final Pattern GLYCEMIC_VALUE = Pattern.compile("\\((\\d+)\\)");
+
+    private static final int[] NO_FOODS = new int[0];
+
+    private final String[] names;
+    private final float[] portionGrams;
+    private final float[] unitGrams;
+    private final float[] caloriesPerGram;
+    private final float[] proteinPerGram;
+    private final float[] carbsPerGram;
+    private final float[] fatsPerGram;
+    private final float[] fiberPerGram;
+    private final short[] glycemicIndex;
+    private final byte[] termCounts;
+    private final Map<String, int[]> foodsByTerm;
+
+    private FoodTable(List<String[]> rows) {
+        int size = rows.size();
+        names = new String[size];
+        portionGrams = new float[size];
+        unitGrams = new float[size];
+        caloriesPerGram = new float[size];
+        proteinPerGram = new float[size];
+        carbsPerGram = new float[size];
+        fatsPerGram = new float[size];
+        fiberPerGram = new float[size];
+        glycemicIndex = new short[size];
+        termCounts = new byte[size];
+
+        Map<String, List<Integer>> postings = new HashMap<>();
+        for (int i = 0; i < size; i++) {
+            String[] row = rows.get(i);
+            names[i] = row[0];
+            float grams = amount(row[1]);
+            portionGrams[i] = grams;
+            unitGrams[i] = unitGrams(row[0], row[1], grams);
+            caloriesPerGram[i] = number(row[2]) / grams;
+            proteinPerGram[i] = number(row[3]) / grams;
+            carbsPerGram[i] = number(row[4]) / grams;
+            fatsPerGram[i] = number(row[5]) / grams;
+            fiberPerGram[i] = number(row[6]) / grams;
+            glycemicIndex[i] = glycemicIndex(row[7]);
+
+            // Les parenthèses chiffrées ("2 gros", "5% gras") décrivent la portion, pas l'aliment
+            Set<String> terms = new LinkedHashSet<>(Bm25Index.tokenize(
+                    PARENTHESES_WITH_DIGIT.matcher(row[0]).replaceAll(" ")));
+            termCounts[i] = (byte) terms.size();
+            for (String term : terms) {
+                postings.computeIfAbsent(term, t -> new ArrayList<>()).add(i);
+            }
+        }
+
+        foodsByTerm = new HashMap<>(postings.size() * 2);
+        postings.forEach((term, foods) ->
+                foodsByTerm.put(term, foods.stream().mapToInt(Integer::intValue).toArray()));
+    }
+
+    /**
+     * Charge la table depuis le classpath
+     */
+    public static FoodTable load() throws IOException {
+        try (InputStream inputStream = FoodTable.class.getClassLoader().getResourceAsStream(RESOURCE)) {
+            if (inputStream == null) {
+                throw new IOException("Resource not found: " + RESOURCE);
+            }
+            return parse(inputStream);
+        }
+    }
+
+    public static FoodTable parse(InputStream inputStream) throws IOException {
+        List<String[]> rows = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream, StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith("Format:") || line.startsWith("#")) {
+                    continue;
+                }
+                String[] columns = line.split("\\|");
+                if (columns.length != 8) {
+                    continue;
+                }
+                for (int j = 0; j < columns.length; j++) {
+                    columns[j] = columns[j].trim();
+                }
+                if (!AMOUNT.matcher(columns[1]).find()) {
+                    continue;
+                }
+                rows.add(columns);
+            }
+        }
+        return new FoodTable(rows);
+    }
+
+    public int size() {
+        return names.length;
+    }
+
+    public String name(int food) {
+        return names[food];
+    }
+
+    /**
+     * Portion de référence du fichier, en grammes (ml assimilés à des grammes)
+     */
+    public float portionGrams(int food) {
+        return portionGrams[food];
+    }
+
+    /**
+     * Poids d'une unité ("2 œufs", "1 tranche") : la portion divisée par le nombre indiqué entre parenthèses
+     */
+    public float unitGrams(int food) {
+        return unitGrams[food];
+    }
+
+    public float caloriesPerGram(int food) {
+        return caloriesPerGram[food];
+    }
+
+    public float proteinPerGram(int food) {
+        return proteinPerGram[food];
+    }
+
+    public float carbsPerGram(int food) {
+        return carbsPerGram[food];
+    }
+
+    public float fatsPerGram(int food) {
+        return fatsPerGram[food];
+    }
+
+    public float fiberPerGram(int food) {
+        return fiberPerGram[food];
+    }
+
+    /**
+     * Index glycémique : valeur mesurée si présente, sinon valeur type de la catégorie (0 = non applicable)
+     */
+    public int glycemicIndex(int food) {
+        return glycemicIndex[food];
+    }
+
+    /**
+     * Nombre de termes distincts du nom de l'aliment
+     */
+    public int termCount(int food) {
+        return termCounts[food];
+    }
+
+    /**
+     * Aliments dont le nom contient le terme (termes issus de {@link Bm25Index#tokenize})
+     */
+    public int[] foodsWithTerm(String term) {
+        return foodsByTerm.getOrDefault(term, NO_FOODS);
+    }
+
+    private static float amount(String portion) {
+        Matcher matcher = AMOUNT.matcher(portion);
+        matcher.find();
+        return Float.parseFloat(matcher.group(1).replace(',', '.'));
+    }
+
+    private static float unitGrams(String name, String portion, float grams) {
+        for (String text : new String[] {portion, name}) {
+            Matcher matcher = COUNT_IN_PARENTHESES.matcher(text);
+            if (matcher.find()) {
+                int count = Integer.parseInt(matcher.group(1));
+                if (count > 0) {
+                    return grams / count;
+                }
+            }
+        }
+        return grams;
+    }
+
+    private static float number(String value) {
+        try {
+            return Float.parseFloat(value.replace(',', '.'));
+        } catch (NumberFormatException e) {
+            return 0f;
+        }
+    }
+
+    private static short glycemicIndex(String value) {
+        Matcher matcher = GLYCEMIC_VALUE.matcher(value);
+        if (matcher.find()) {
+            return Short.parseShort(matcher.group(1));
+        }
+        String level = value.toLowerCase(Locale.ROOT);
+        // Valeurs types des classes du fichier : Bas (<55), Moyen (56-69), Élevé (≥70)
+        if (level.startsWith("très bas")) {
+            return 15;
+        }
+        if (level.startsWith("bas")) {
+            return 35;
+        }
+        if (level.startsWith("moyen")) {
+            return 62;
+        }
+        if (level.startsWith("élevé") || level.startsWith("eleve")) {
+            return 75;
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,303 @@
+package com.example.ai.store;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.SplittableRandom;
+
+/**
+ * Index de plus proches voisins approché HNSW (Hierarchical Navigable Small World, Malkov &amp; Yashunin).
+ *
+ * Le graphe ne stocke que des identifiants de nœuds (les positions du store) : les vecteurs restent
+ * dans le store et sont lus via {@link Vectors}. Les insertions sont incrémentales ; la recherche
+ * peut être concurrente tant que les insertions sont sérialisées par l'appelant.
+ */
+public class HnswIndex {
+
+    /**
+     * Accès aux vecteurs normalisés du store
+     */
+    public interface Vectors {
+        /** Similarité (produit scalaire) entre un vecteur normalisé et le nœud donné */
+        double similarity(float[] query, int node);
+
+        /** Copie du vecteur d'un nœud */
+        float[] vector(int node);
+    }
+
+    /**
+     * Paramètres : M (voisins par nœud), efConstruction, efSearch, et taille de corpus en dessous
+     * de laquelle le store garde la recherche exacte (le graphe n'apporte rien sur quelques centaines de vecteurs)
+     */
+    public record Config(int m, int efConstruction, int efSearch, int exactSearchThreshold) {
+        public static Config defaults() {
+            return new Config(16, 100, 64, 2000);
+        }
+    }
+
+    /**
+     * Résultat de recherche : nœud et similarité
+     */
+    public record Neighbor(int node, double similarity) {
+    }
+
+    private final Vectors vectors;
+    private final int m;
+    private final int maxM0;
+    private final int efConstruction;
+    private final int efSearch;
+    private final double levelMultiplier;
+    private final SplittableRandom random = new SplittableRandom(42);
+
+    // links.get(node)[level] = voisins du nœud à ce niveau ; counts idem pour le nombre de voisins valides
+    private final List<int[][]> links = new ArrayList<>();
+    private final List<int[]> counts = new ArrayList<>();
+    private int entryPoint = -1;
+    private int maxLevel = -1;
+
+    public HnswIndex(Vectors vectors, Config config) {
+        this.vectors = vectors;
+        this.m = Math.max(2, config.m());
+        this.maxM0 = 2 * this.m;
+        this.efConstruction = Math.max(this.m, config.efConstruction());
+        this.efSearch = Math.max(1, config.efSearch());
+        this.levelMultiplier = 1.0 / Math.log(this.m);
+    }
+
+    public int size() {
+        return links.size();
+    }
+
+    /**
+     * Insère le nœud suivant (doit être égal à {@link #size()})
+     */
+    public void add(int node) {
+        if (node != links.size()) {
+            throw new IllegalArgumentException("HNSW nodes must be inserted in order, expected " + links.size());
+        }
+        int level = (int) (-Math.log(1.0 - random.nextDouble()) * levelMultiplier);
+        int[][] nodeLinks = new int[level + 1][];
+        for (int l = 0; l <= level; l++) {
+            nodeLinks[l] = new int[(l == 0 ? maxM0 : m) + 1];
+        }
+        links.add(nodeLinks);
+        counts.add(new int[level + 1]);
+
+        if (entryPoint < 0) {
+            entryPoint = node;
+            maxLevel = level;
+            return;
+        }
+
+        float[] query = vectors.vector(node);
+        Neighbor entry = new Neighbor(entryPoint, vectors.similarity(query, entryPoint));
+        for (int l = maxLevel; l > level; l--) {
+            entry = greedy(query, entry, l);
+        }
+
+        List<Neighbor> entries = List.of(entry);
+        for (int l = Math.min(level, maxLevel); l >= 0; l--) {
+            List<Neighbor> candidates = searchLayer(query, entries, efConstruction, l);
+            List<Neighbor> selected = selectNeighbors(candidates, l == 0 ? maxM0 : m);
+            for (Neighbor neighbor : selected) {
+                connect(node, neighbor.node(), l);
+                connect(neighbor.node(), node, l);
+            }
+            entries = candidates;
+        }
+
+        if (level > maxLevel) {
+            maxLevel = level;
+            entryPoint = node;
+        }
+    }
+
+    /**
+     * Renumérote le graphe après compactage du store : newPositions[ancien] = nouveau nœud, ou -1 si supprimé.
+     * Les nœuds supprimés disparaissent des listes de voisins ; le graphe reste navigable tant que
+     * la proportion supprimée est modérée (sinon l'appelant doit le reconstruire).
+     */
+    public void compact(int[] newPositions) {
+        List<int[][]> keptLinks = new ArrayList<>();
+        List<int[]> keptCounts = new ArrayList<>();
+        int newEntryPoint = -1;
+        int newMaxLevel = -1;
+        for (int node = 0; node < links.size(); node++) {
+            if (newPositions[node] < 0) {
+                continue;
+            }
+            int[][] nodeLinks = links.get(node);
+            int[] nodeCounts = counts.get(node);
+            for (int l = 0; l < nodeLinks.length; l++) {
+                int kept = 0;
+                for (int i = 0; i < nodeCounts[l]; i++) {
+                    int target = newPositions[nodeLinks[l][i]];
+                    if (target >= 0) {
+                        nodeLinks[l][kept++] = target;
+                    }
+                }
+                nodeCounts[l] = kept;
+            }
+            keptLinks.add(nodeLinks);
+            keptCounts.add(nodeCounts);
+            if (nodeLinks.length - 1 > newMaxLevel) {
+                newMaxLevel = nodeLinks.length - 1;
+                newEntryPoint = newPositions[node];
+            }
+        }
+        links.clear();
+        links.addAll(keptLinks);
+        counts.clear();
+        counts.addAll(keptCounts);
+        if (entryPoint >= 0 && newPositions[entryPoint] >= 0) {
+            newEntryPoint = newPositions[entryPoint];
+            newMaxLevel = maxLevel;
+        }
+        entryPoint = newEntryPoint;
+        maxLevel = newMaxLevel;
+    }
+
+    /**
+     * Recherche des k voisins les plus similaires (vecteur de requête normalisé)
+     */
+    public List<Neighbor> search(float[] query, int k) {
+        if (entryPoint < 0 || k <= 0) {
+            return List.of();
+        }
+        Neighbor entry = new Neighbor(entryPoint, vectors.similarity(query, entryPoint));
+        for (int l = maxLevel; l > 0; l--) {
+            entry = greedy(query, entry, l);
+        }
+        List<Neighbor> found = searchLayer(query, List.of(entry), Math.max(efSearch, k), 0);
+        return found.size() > k ? found.subList(0, k) : found;
+    }
+
+    private Neighbor greedy(float[] query, Neighbor start, int level) {
+        Neighbor best = start;
+        boolean improved = true;
+        while (improved) {
+            improved = false;
+            int[] neighbors = links.get(best.node())[level];
+            int count = counts.get(best.node())[level];
+            for (int i = 0; i < count; i++) {
+                double similarity = vectors.similarity(query, neighbors[i]);
+                if (similarity > best.similarity()) {
+                    best = new Neighbor(neighbors[i], similarity);
+                    improved = true;
+                }
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Recherche en faisceau sur un niveau ; résultats triés par similarité décroissante
+     */
+    private List<Neighbor> searchLayer(float[] query, List<Neighbor> entries, int ef, int level) {
+        boolean[] visited = new boolean[links.size()];
+        PriorityQueue<Neighbor> candidates = new PriorityQueue<>((a, b) -> Double.compare(b.similarity(), a.similarity()));
+        PriorityQueue<Neighbor> results = new PriorityQueue<>((a, b) -> Double.compare(a.similarity(), b.similarity()));
+
+        for (Neighbor entry : entries) {
+            if (!visited[entry.node()]) {
+                visited[entry.node()] = true;
+                candidates.add(entry);
+                results.add(entry);
+            }
+        }
+        while (results.size() > ef) {
+            results.poll();
+        }
+
+        while (!candidates.isEmpty()) {
+            Neighbor current = candidates.poll();
+            if (results.size() >= ef && current.similarity() < results.peek().similarity()) {
+                break;
+            }
+            int[][] nodeLinks = links.get(current.node());
+            if (level >= nodeLinks.length) {
+                continue;
+            }
+            int[] neighbors = nodeLinks[level];
+            int count = counts.get(current.node())[level];
+            for (int i = 0; i < count; i++) {
+                int neighbor = neighbors[i];
+                if (visited[neighbor]) {
+                    continue;
+                }
+                visited[neighbor] = true;
+                double similarity = vectors.similarity(query, neighbor);
+                if (results.size() < ef || similarity > results.peek().similarity()) {
+                    Neighbor candidate = new Neighbor(neighbor, similarity);
+                    candidates.add(candidate);
+                    results.add(candidate);
+                    if (results.size() > ef) {
+                        results.poll();
+                    }
+                }
+            }
+        }
+
+        Neighbor[] sorted = results.toArray(new Neighbor[0]);
+        Arrays.sort(sorted, (a, b) -> Double.compare(b.similarity(), a.similarity()));
+        return Arrays.asList(sorted);
+    }
+
+    /**
+     * Heuristique de sélection : un candidat n'est gardé que s'il est plus proche de la cible
+     * que de tous les voisins déjà retenus (meilleure couverture du graphe que les M plus proches)
+     */
+    private List<Neighbor> selectNeighbors(List<Neighbor> candidates, int maxNeighbors) {
+        List<Neighbor> selected = new ArrayList<>(maxNeighbors);
+        for (Neighbor candidate : candidates) {
+            if (selected.size() >= maxNeighbors) {
+                break;
+            }
+            float[] candidateVector = vectors.vector(candidate.node());
+            boolean keep = true;
+            for (int i = 0; i < selected.size(); i++) {
+                if (vectors.similarity(candidateVector, selected.get(i).node()) > candidate.similarity()) {
+                    keep = false;
+                    break;
+                }
+            }
+            if (keep) {
+                selected.add(candidate);
+            }
+        }
+        // Compléter avec les plus proches si l'heuristique a été trop sélective
+        for (Neighbor candidate : candidates) {
+            if (selected.size() >= maxNeighbors) {
+                break;
+            }
+            if (!selected.contains(candidate)) {
+                selected.add(candidate);
+            }
+        }
+        return selected;
+    }
+
+    private void connect(int from, int to, int level) {
+        int[] neighbors = links.get(from)[level];
+        int[] nodeCounts = counts.get(from);
+        int limit = level == 0 ? maxM0 : m;
+        neighbors[nodeCounts[level]++] = to;
+        if (nodeCounts[level] <= limit) {
+            return;
+        }
+
+        // Trop de voisins : ne garder que les meilleurs du point de vue du nœud source
+        float[] source = vectors.vector(from);
+        List<Neighbor> candidates = new ArrayList<>(nodeCounts[level]);
+        for (int i = 0; i < nodeCounts[level]; i++) {
+            candidates.add(new Neighbor(neighbors[i], vectors.similarity(source, neighbors[i])));
+        }
+        candidates.sort((a, b) -> Double.compare(b.similarity(), a.similarity()));
+        List<Neighbor> kept = selectNeighbors(candidates, limit);
+        for (int i = 0; i < kept.size(); i++) {
+            neighbors[i] = kept.get(i).node();
+        }
+        nodeCounts[level] = kept.size();
+    }
+}
@@ -0,0 +1,379 @@
+package com.example.ai.store;
+
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+/**
+ * Pipeline d'ingestion en trois étages reliés par des files bornées :
+ * lecture/découpage (un thread) -> encodage (pool dimensionné sur les cœurs) -> insertion (un thread, seul écrivain).
+ *
+ * Les files bornées assurent la contre-pression : le découpage attend quand les encodeurs sont saturés,
+ * et les encodeurs attendent quand l'insertion prend du retard. Une erreur sur un lot est journalisée
+ * et marque sa source en échec sans arrêter le reste du pipeline.
+ */
+public class IngestionPipeline {
+
+    private static final Logger log = LoggerFactory.getLogger(IngestionPipeline.class);
+
+    /**
+     * Réception des segments produits par une source ; bloque quand le pipeline est saturé
+     */
+    @FunctionalInterface
+    public interface SegmentSink {
+        void accept(TextSegment segment) throws InterruptedException;
+    }
+
+    /**
+     * Étape de lecture/découpage : émet les segments au fil de l'eau, sans tout garder en mémoire
+     */
+    @FunctionalInterface
+    public interface SegmentProducer {
+        void produce(SegmentSink sink) throws Exception;
+    }
+
+    /**
+     * Source à ingérer : un nom (catégorie), l'étape de lecture/découpage, et une action appelée quand tous ses
+     * lots sont insérés sans erreur, depuis le thread qui termine la source (celui d'insertion, ou celui de lecture
+     * si ses lots étaient déjà insérés à la fin du découpage)
+     */
+    public record Source(String name, SegmentProducer producer, Runnable onCompleted) {
+
+        public Source(String name, SegmentProducer producer) {
+            this(name, producer, () -> {
+            });
+        }
+
+        /**
+         * Source dont le découpage produit directement la liste complète des segments
+         */
+        public static Source of(String name, Callable<List<TextSegment>> segmenter) {
+            return new Source(name, sink -> {
+                for (TextSegment segment : segmenter.call()) {
+                    sink.accept(segment);
+                }
+            });
+        }
+
+        /**
+         * Même source, avec l'action à exécuter une fois tous ses lots insérés
+         */
+        public Source whenCompleted(Runnable action) {
+            return new Source(name, producer, action);
+        }
+    }
+
+    public enum State { IDLE, RUNNING, COMPLETED, COMPLETED_WITH_ERRORS }
+
+    /**
+     * Instantané de l'avancement
+     */
+    public record Progress(State state, int sourcesTotal, int sourcesCompleted, int sourcesFailed,
+                           long segmentsQueued, long segmentsEmbedded, long segmentsInserted,
+                           Instant startedAt, Instant finishedAt) {
+    }
+
+    private static final Batch END = new Batch(null, List.of(), null);
+
+    private final String name;
+    private final int workers;
+    private final int batchSize;
+    private final int queueCapacity;
+    private final Function<List<TextSegment>, List<Embedding>> embedder;
+    private final BiConsumer<List<Embedding>, List<TextSegment>> sink;
+
+    private volatile State state = State.IDLE;
+    private volatile Instant startedAt;
+    private volatile Instant finishedAt;
+    private volatile int sourcesTotal;
+    private final AtomicInteger sourcesCompleted = new AtomicInteger();
+    private final AtomicInteger sourcesFailed = new AtomicInteger();
+    private final AtomicLong segmentsQueued = new AtomicLong();
+    private final AtomicLong segmentsEmbedded = new AtomicLong();
+    private final AtomicLong segmentsInserted = new AtomicLong();
+
+    /**
+     * @param workers   nombre d'encodeurs (0 = nombre de cœurs)
+     * @param batchSize segments par lot d'encodage
+     * @param queueCapacity capacité (en lots) de chaque file entre étages
+     * @param embedder  encodage d'un lot, exécuté dans le thread de l'encodeur
+     * @param sink      insertion d'un lot encodé, toujours appelée depuis le même thread
+     */
+    public IngestionPipeline(String name, int workers, int batchSize, int queueCapacity,
+                             Function<List<TextSegment>, List<Embedding>> embedder,
+                             BiConsumer<List<Embedding>, List<TextSegment>> sink) {
+        this.name = name;
+        this.workers = workers > 0 ? workers : Runtime.getRuntime().availableProcessors();
+        this.batchSize = Math.max(1, batchSize);
+        this.queueCapacity = Math.max(1, queueCapacity);
+        this.embedder = embedder;
+        this.sink = sink;
+    }
+
+    /**
+     * Lance l'ingestion en arrière-plan ; le futur est complété quand tout est inséré, ou en erreur si l'étage
+     * d'insertion s'arrête sur une {@link Error}
+     */
+    public synchronized CompletableFuture<Progress> start(List<Source> sources) {
+        if (state == State.RUNNING) {
+            throw new IllegalStateException("Ingestion pipeline " + name + " is already running");
+        }
+        sourcesTotal = sources.size();
+        sourcesCompleted.set(0);
+        sourcesFailed.set(0);
+        segmentsQueued.set(0);
+        segmentsEmbedded.set(0);
+        segmentsInserted.set(0);
+        startedAt = Instant.now();
+        finishedAt = null;
+        state = State.RUNNING;
+
+        BlockingQueue<Batch> toEmbed = new ArrayBlockingQueue<>(queueCapacity);
+        BlockingQueue<Batch> toInsert = new ArrayBlockingQueue<>(queueCapacity);
+        CompletableFuture<Progress> done = new CompletableFuture<>();
+
+        AtomicInteger threadNumber = new AtomicInteger();
+        ExecutorService embedPool = Executors.newFixedThreadPool(workers, runnable ->
+                daemon(runnable, name + "-embed-" + threadNumber.incrementAndGet()));
+        AtomicInteger runningWorkers = new AtomicInteger(workers);
+        for (int i = 0; i < workers; i++) {
+            embedPool.execute(() -> embedStage(toEmbed, toInsert, runningWorkers));
+        }
+        daemon(() -> readStage(sources, toEmbed), name + "-reader").start();
+        daemon(() -> {
+            Throwable failure = null;
+            try {
+                insertStage(toInsert);
+            } catch (Throwable e) {
+                failure = e;
+                throw e;
+            } finally {
+                // Après une erreur, les encodeurs bloqués sur la file d'insertion sont interrompus
+                if (failure == null) {
+                    embedPool.shutdown();
+                } else {
+                    embedPool.shutdownNow();
+                }
+                synchronized (this) {
+                    // Sources restées inachevées (étage arrêté sur une Error) : comptées en échec, une seule fois
+                    finishedAt = Instant.now();
+                    sourcesFailed.addAndGet(sourcesTotal - sourcesCompleted.get() - sourcesFailed.get());
+                    state = failure == null && sourcesFailed.get() == 0 ? State.COMPLETED : State.COMPLETED_WITH_ERRORS;
+                }
+                if (failure == null) {
+                    done.complete(progress());
+                } else {
+                    done.completeExceptionally(failure);
+                }
+            }
+        }, name + "-insert").start();
+        return done;
+    }
+
+    private void readStage(List<Source> sources, BlockingQueue<Batch> toEmbed) {
+        try {
+            for (Source source : sources) {
+                Tracker tracker = new Tracker(source);
+                try {
+                    // Regroupement en lots au fil de la production : put() bloque si les encodeurs sont saturés
+                    Batcher batcher = new Batcher(tracker, toEmbed);
+                    source.producer().produce(batcher);
+                    batcher.flush();
+                } catch (InterruptedException e) {
+                    throw e;
+                } catch (Exception e) {
+                    log.warn("Ingestion of {} failed while reading: {}", source.name(), e.getMessage(), e);
+                    tracker.failed = true;
+                }
+                // Le découpage compte comme une étape en attente : la source est terminée quand tout est inséré
+                tracker.release();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            for (int i = 0; i < workers; i++) {
+                putUninterruptibly(toEmbed, END);
+            }
+        }
+    }
+
+    private void embedStage(BlockingQueue<Batch> toEmbed, BlockingQueue<Batch> toInsert, AtomicInteger runningWorkers) {
+        try {
+            while (true) {
+                Batch batch = toEmbed.take();
+                if (batch == END) {
+                    break;
+                }
+                boolean handedOver = false;
+                try {
+                    List<Embedding> embeddings = embedder.apply(batch.segments());
+                    segmentsEmbedded.addAndGet(batch.segments().size());
+                    toInsert.put(new Batch(batch.tracker(), batch.segments(), embeddings));
+                    handedOver = true;
+                } catch (InterruptedException e) {
+                    throw e;
+                } catch (Exception e) {
+                    log.warn("Embedding a batch of {} failed: {}", batch.tracker().source, e.getMessage(), e);
+                } finally {
+                    // Lot perdu, y compris sur une Error : la source est terminée en échec
+                    if (!handedOver) {
+                        batch.tracker().failed = true;
+                        batch.tracker().release();
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            if (runningWorkers.decrementAndGet() == 0) {
+                putUninterruptibly(toInsert, END);
+            }
+        }
+    }
+
+    private void insertStage(BlockingQueue<Batch> toInsert) {
+        try {
+            while (true) {
+                Batch batch = toInsert.take();
+                if (batch == END) {
+                    return;
+                }
+                boolean inserted = false;
+                try {
+                    sink.accept(batch.embeddings(), batch.segments());
+                    segmentsInserted.addAndGet(batch.segments().size());
+                    inserted = true;
+                } catch (Exception e) {
+                    log.warn("Inserting a batch of {} failed: {}", batch.tracker().source, e.getMessage(), e);
+                } finally {
+                    if (!inserted) {
+                        batch.tracker().failed = true;
+                    }
+                    batch.tracker().release();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public Progress progress() {
+        return new Progress(state, sourcesTotal, sourcesCompleted.get(), sourcesFailed.get(),
+                segmentsQueued.get(), segmentsEmbedded.get(), segmentsInserted.get(), startedAt, finishedAt);
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    private static Thread daemon(Runnable runnable, String threadName) {
+        Thread thread = new Thread(runnable, threadName);
+        thread.setDaemon(true);
+        return thread;
+    }
+
+    private static void putUninterruptibly(BlockingQueue<Batch> queue, Batch batch) {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                queue.put(batch);
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private record Batch(Tracker tracker, List<TextSegment> segments, List<Embedding> embeddings) {
+    }
+
+    /**
+     * Accumule les segments d'une source et envoie chaque lot complet à l'étage d'encodage
+     */
+    private final class Batcher implements SegmentSink {
+        private final Tracker tracker;
+        private final BlockingQueue<Batch> toEmbed;
+        private List<TextSegment> current = new ArrayList<>(batchSize);
+
+        private Batcher(Tracker tracker, BlockingQueue<Batch> toEmbed) {
+            this.tracker = tracker;
+            this.toEmbed = toEmbed;
+        }
+
+        @Override
+        public void accept(TextSegment segment) throws InterruptedException {
+            current.add(segment);
+            if (current.size() >= batchSize) {
+                flush();
+            }
+        }
+
+        private void flush() throws InterruptedException {
+            if (current.isEmpty()) {
+                return;
+            }
+            tracker.pending.incrementAndGet();
+            segmentsQueued.addAndGet(current.size());
+            toEmbed.put(new Batch(tracker, current, null));
+            current = new ArrayList<>(batchSize);
+        }
+    }
+
+    /**
+     * Suivi d'une source : lots encore en vol (+1 pour le découpage tant qu'il n'est pas fini)
+     */
+    private final class Tracker {
+        private final String source;
+        private final Runnable onCompleted;
+        private final AtomicInteger pending = new AtomicInteger(1);
+        private volatile boolean failed;
+
+        private Tracker(Source source) {
+            this.source = source.name();
+            this.onCompleted = source.onCompleted();
+        }
+
+        private void release() {
+            if (pending.decrementAndGet() != 0 || finishedAt != null) {
+                return;
+            }
+            if (!failed) {
+                try {
+                    onCompleted.run();
+                } catch (Exception e) {
+                    log.warn("Completing the ingestion of {} failed: {}", source, e.getMessage(), e);
+                    failed = true;
+                }
+            }
+            synchronized (IngestionPipeline.this) {
+                if (finishedAt != null) {
+                    return;
+                }
+                if (failed) {
+                    sourcesFailed.incrementAndGet();
+                } else {
+                    sourcesCompleted.incrementAndGet();
+                    log.info("✓ Ingested {}", source);
+                }
+            }
+        }
+    }
+}
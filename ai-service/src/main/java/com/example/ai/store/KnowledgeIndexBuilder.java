@@ -0,0 +1,83 @@
+package com.example.ai.store;
+
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.model.embedding.EmbeddingModel;
+import dev.langchain4j.model.embedding.onnx.allminilml6v2.AllMiniLmL6V2EmbeddingModel;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Étape de build (exec-maven-plugin, phase prepare-package) : découpe et encode les fichiers
+ * knowledge/*.txt, puis écrit {@link KnowledgeIndexFile#RESOURCE} dans les classes compilées
+ * pour qu'il soit embarqué dans le jar.
+ *
+ * Usage : KnowledgeIndexBuilder &lt;répertoire des classes compilées&gt;
+ */
+public final class KnowledgeIndexBuilder {
+
+    private static final Logger log = LoggerFactory.getLogger(KnowledgeIndexBuilder.class);
+
+    private static final int BATCH_SIZE = 32;
+
+    private KnowledgeIndexBuilder() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        Path outputDirectory = Path.of(args.length > 0 ? args[0] : "target/classes");
+        Path knowledgeDirectory = outputDirectory.resolve("knowledge");
+        if (!Files.isDirectory(knowledgeDirectory)) {
+            log.info("No knowledge directory in {}, skipping", outputDirectory);
+            return;
+        }
+
+        List<Path> files;
+        try (Stream<Path> listing = Files.list(knowledgeDirectory)) {
+            files = listing.filter(path -> path.getFileName().toString().endsWith(".txt")).sorted().toList();
+        }
+
+        long start = System.nanoTime();
+        EmbeddingModel embeddingModel = new AllMiniLmL6V2EmbeddingModel();
+        List<KnowledgeIndexFile.Category> categories = new ArrayList<>();
+        int totalSegments = 0;
+
+        for (Path file : files) {
+            String fileName = file.getFileName().toString();
+            String category = fileName.substring(0, fileName.length() - ".txt".length());
+            String description = KnowledgeSegmenter.fileDescription(category);
+            String content = Files.readString(file, StandardCharsets.UTF_8);
+            if (content.trim().isEmpty()) {
+                continue;
+            }
+
+            List<TextSegment> segments = KnowledgeSegmenter.split(content, category, description);
+            List<Embedding> embeddings = new ArrayList<>(segments.size());
+            for (int from = 0; from < segments.size(); from += BATCH_SIZE) {
+                List<TextSegment> batch = segments.subList(from, Math.min(from + BATCH_SIZE, segments.size()));
+                embeddings.addAll(embeddingModel.embedAll(batch).content());
+            }
+
+            categories.add(new KnowledgeIndexFile.Category(category, description,
+                    KnowledgeSegmenter.contentHash(content), segments, embeddings));
+            totalSegments += segments.size();
+            log.info("{}: {} segments", category, segments.size());
+        }
+
+        Path indexFile = outputDirectory.resolve(KnowledgeIndexFile.RESOURCE);
+        try (OutputStream out = Files.newOutputStream(indexFile)) {
+            KnowledgeIndexFile.write(out, embeddingModel.dimension(), categories);
+        }
+
+        log.info("Wrote {} segments from {} files to {} in {} ms",
+                totalSegments, categories.size(), indexFile, (System.nanoTime() - start) / 1_000_000);
+    }
+}
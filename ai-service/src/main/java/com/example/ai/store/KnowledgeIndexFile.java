@@ -0,0 +1,116 @@
+package com.example.ai.store;
+
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Index binaire pré-calculé au build (voir {@link KnowledgeIndexBuilder}) et embarqué dans le jar.
+ *
+ * Format : magic | version | dimension | nombre de catégories, puis pour chaque catégorie :
+ * nom | description | empreinte du fichier source | nombre de segments | (texte, vecteur float32)*.
+ * L'empreinte permet au service de ne réutiliser une catégorie que si le fichier n'a pas changé.
+ */
+public final class KnowledgeIndexFile {
+
+    public static final String RESOURCE = "knowledge/knowledge-index.bin";
+
+    private static final int MAGIC = 0x4D4B4958; // "MKIX"
+    private static final int VERSION = 1;
+
+    private KnowledgeIndexFile() {
+    }
+
+    /**
+     * Catégorie pré-calculée : segments et embeddings alignés par position
+     */
+    public record Category(String name, String description, String contentHash,
+                           List<TextSegment> segments, List<Embedding> embeddings) {
+    }
+
+    public static void write(OutputStream output, int dimension, List<Category> categories) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(output));
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(dimension);
+        out.writeInt(categories.size());
+        for (Category category : categories) {
+            writeString(out, category.name());
+            writeString(out, category.description());
+            writeString(out, category.contentHash());
+            out.writeInt(category.segments().size());
+            for (int i = 0; i < category.segments().size(); i++) {
+                writeString(out, category.segments().get(i).text());
+                float[] vector = category.embeddings().get(i).vector();
+                if (vector.length != dimension) {
+                    throw new IOException("Unexpected embedding dimension " + vector.length);
+                }
+                for (float v : vector) {
+                    out.writeFloat(v);
+                }
+            }
+        }
+        out.flush();
+    }
+
+    /**
+     * Lit l'index ; les segments sont reconstruits avec les mêmes métadonnées que {@link KnowledgeSegmenter}
+     */
+    public static Map<String, Category> read(InputStream input, int expectedDimension) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(input));
+        if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+            throw new IOException("Unsupported knowledge index format");
+        }
+        int dimension = in.readInt();
+        if (dimension != expectedDimension) {
+            throw new IOException("Knowledge index dimension " + dimension + " does not match model dimension " + expectedDimension);
+        }
+
+        Map<String, Category> categories = new LinkedHashMap<>();
+        int categoryCount = in.readInt();
+        for (int c = 0; c < categoryCount; c++) {
+            String name = readString(in);
+            String description = readString(in);
+            String contentHash = readString(in);
+            int segmentCount = in.readInt();
+
+            List<TextSegment> segments = new ArrayList<>(segmentCount);
+            List<Embedding> embeddings = new ArrayList<>(segmentCount);
+            for (int i = 0; i < segmentCount; i++) {
+                TextSegment segment = KnowledgeSegmenter.segment(readString(in), name, description);
+                float[] vector = new float[dimension];
+                for (int j = 0; j < dimension; j++) {
+                    vector[j] = in.readFloat();
+                }
+                segments.add(segment);
+                embeddings.add(new Embedding(vector));
+            }
+            categories.put(name, new Category(name, description, contentHash, segments, embeddings));
+        }
+        return categories;
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
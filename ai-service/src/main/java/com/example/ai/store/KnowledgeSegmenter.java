@@ -0,0 +1,94 @@
+package com.example.ai.store;
+
+import dev.langchain4j.data.document.Metadata;
+import dev.langchain4j.data.segment.TextSegment;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+
+/**
+ * Découpage des documents de connaissances en segments indexables.
+ * Partagé par le service (ingestion à chaud) et par le build (index pré-calculé) :
+ * les deux doivent produire exactement les mêmes segments.
+ */
+public final class KnowledgeSegmenter {
+
+    public static final int MAX_SEGMENT_LENGTH = 1000;
+
+    private KnowledgeSegmenter() {
+    }
+
+    /**
+     * Description attachée aux segments issus des fichiers knowledge/*.txt
+     */
+    public static String fileDescription(String category) {
+        return "Nutrition: " + category;
+    }
+
+    /**
+     * Découpe un texte en segments pour l'indexation
+     * Simple split par paragraphes et limitation à 1000 caractères max
+     */
+    public static List<TextSegment> split(String content, String category, String description) {
+        List<TextSegment> segments = new ArrayList<>();
+
+        // Split par double saut de ligne (paragraphes)
+        String[] paragraphs = content.split("\\n\\s*\\n");
+
+        for (String paragraph : paragraphs) {
+            paragraph = paragraph.trim();
+            if (paragraph.isEmpty()) {
+                continue;
+            }
+
+            // Si le paragraphe est trop long, le découper en morceaux
+            if (paragraph.length() > MAX_SEGMENT_LENGTH) {
+                // Découper par phrases (approximatif)
+                String[] sentences = paragraph.split("\\. ");
+                StringBuilder chunk = new StringBuilder();
+
+                for (String sentence : sentences) {
+                    if (chunk.length() + sentence.length() > MAX_SEGMENT_LENGTH && chunk.length() > 0) {
+                        segments.add(segment(chunk.toString().trim(), category, description));
+                        chunk = new StringBuilder();
+                    }
+                    chunk.append(sentence).append(". ");
+                }
+
+                if (chunk.length() > 0) {
+                    segments.add(segment(chunk.toString().trim(), category, description));
+                }
+            } else {
+                segments.add(segment(paragraph, category, description));
+            }
+        }
+
+        return segments;
+    }
+
+    /**
+     * Crée un segment avec les métadonnées standard (catégorie, description)
+     */
+    public static TextSegment segment(String text, String category, String description) {
+        Metadata metadata = new Metadata();
+        metadata.put("category", category);
+        metadata.put("description", description);
+        return TextSegment.from(text, metadata);
+    }
+
+    /**
+     * Empreinte SHA-256 (hexadécimale) d'un contenu texte, pour détecter les fichiers modifiés
+     */
+    public static String contentHash(String content) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(digest.digest(content.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+}
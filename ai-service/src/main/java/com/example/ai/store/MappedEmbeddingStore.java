@@ -0,0 +1,847 @@
+package com.example.ai.store;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import dev.langchain4j.data.document.Metadata;
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.store.embedding.EmbeddingMatch;
+import dev.langchain4j.store.embedding.EmbeddingSearchRequest;
+import dev.langchain4j.store.embedding.EmbeddingSearchResult;
+import dev.langchain4j.store.embedding.EmbeddingStore;
+import dev.langchain4j.store.embedding.RelevanceScore;
+import dev.langchain4j.store.embedding.filter.Filter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BiConsumer;
+import java.util.function.IntPredicate;
+
+/**
+ * Store vectoriel persistant pour la base de connaissances.
+ *
+ * Les vecteurs (float32, taille fixe) sont écrits dans un fichier mappé en mémoire ({@value #VECTORS_FILE}),
+ * donc hors du tas Java ; le texte et les métadonnées des segments sont dans un fichier annexe
+ * JSON Lines ({@value #SEGMENTS_FILE}). Au redémarrage, le store est rouvert tel quel : aucun
+ * segment déjà indexé n'a besoin d'être ré-encodé par le modèle d'embeddings.
+ *
+ * Les vecteurs sont normalisés à l'insertion : le score cosinus se réduit à un produit scalaire.
+ * Au-delà d'un seuil de taille, les recherches sans filtre passent par un graphe {@link HnswIndex}
+ * construit au chargement puis tenu à jour à chaque ajout ; en dessous, ou avec un filtre de
+ * métadonnées, la recherche reste exacte.
+ *
+ * Optionnellement, une copie int8 des vecteurs ({@link QuantizedVectors}) est tenue sur le tas, en plus
+ * du fichier mappé : la recherche exhaustive parcourt alors les codes int8 (4 fois moins d'octets lus),
+ * puis re-classe les meilleurs candidats en pleine précision à partir du fichier mappé.
+ */
+public class MappedEmbeddingStore implements EmbeddingStore<TextSegment>, AutoCloseable {
+
+    private static final Logger log = LoggerFactory.getLogger(MappedEmbeddingStore.class);
+
+    static final String VECTORS_FILE = "vectors.f32";
+    static final String SEGMENTS_FILE = "segments.jsonl";
+    static final String COMPLETIONS_FILE = "completions.json";
+
+    /** Métadonnée utilisée pour les compteurs par catégorie */
+    public static final String CATEGORY_KEY = "category";
+    private static final String NO_CATEGORY = "uncategorized";
+
+    // En-tête : magic (int) | version (int) | dimension (int) | réservé (int) | nombre de vecteurs (long)
+    private static final int MAGIC = 0x4D4B5631; // "MKV1"
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 32;
+    private static final int COUNT_OFFSET = 16;
+    private static final long MIN_MAPPING_BYTES = 1L << 20;
+
+    // Tampon de lecture par thread pour les produits scalaires (recherches concurrentes sous verrou de lecture)
+    private static final ThreadLocal<float[]> SCRATCH = ThreadLocal.withInitial(() -> new float[0]);
+
+    private final Path directory;
+    private final int dimension;
+    private final HnswIndex.Config hnswConfig;
+    private final Quantization quantization;
+    private final VectorScorer scorer = VectorScorer.create();
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    // Tas : uniquement les identifiants et le texte, les vecteurs restent dans le fichier mappé
+    private final List<String> ids = new ArrayList<>();
+    private final List<TextSegment> segments = new ArrayList<>();
+    private final Map<String, Integer> positions = new HashMap<>();
+    // Compteurs tenus à jour à chaque ajout/suppression : les statistiques ne parcourent jamais le store
+    private final Map<String, Integer> categoryCounts = new HashMap<>();
+    // Sources entièrement ingérées (voir markComplete), gardées par le verrou
+    private final Map<String, Completion> completions = new HashMap<>();
+
+    private FileChannel vectorChannel;
+    private MappedByteBuffer mapped;
+    private FloatBuffer vectors;
+    private BufferedWriter segmentWriter;
+    // Graphe ANN, null tant que le corpus reste sous le seuil de recherche exacte
+    private HnswIndex graph;
+    // Copie int8 des vecteurs, null si la quantification est désactivée
+    private QuantizedVectors quantized;
+
+    /**
+     * Quantification int8 optionnelle ; rescoreMultiplier = nombre de candidats re-classés en
+     * pleine précision, en multiple du nombre de résultats demandés
+     */
+    public record Quantization(boolean int8, int rescoreMultiplier) {
+        public static Quantization none() {
+            return new Quantization(false, 1);
+        }
+    }
+
+    private MappedEmbeddingStore(Path directory, int dimension, HnswIndex.Config hnswConfig, Quantization quantization) {
+        this.directory = directory;
+        this.dimension = dimension;
+        this.hnswConfig = hnswConfig;
+        this.quantization = quantization;
+    }
+
+    /**
+     * Marqueur d'ingestion complète d'une source : empreinte du contenu et nombre de segments insérés
+     */
+    public record Completion(String contentHash, int segmentCount) {
+    }
+
+    /**
+     * Ouvre (ou crée) le store dans le répertoire donné
+     */
+    public static MappedEmbeddingStore open(Path directory, int dimension) throws IOException {
+        return open(directory, dimension, HnswIndex.Config.defaults());
+    }
+
+    /**
+     * Ouvre (ou crée) le store avec les paramètres HNSW donnés
+     */
+    public static MappedEmbeddingStore open(Path directory, int dimension, HnswIndex.Config hnswConfig) throws IOException {
+        return open(directory, dimension, hnswConfig, Quantization.none());
+    }
+
+    /**
+     * Ouvre (ou crée) le store avec les paramètres HNSW et de quantification donnés
+     */
+    public static MappedEmbeddingStore open(Path directory, int dimension, HnswIndex.Config hnswConfig,
+                                            Quantization quantization) throws IOException {
+        MappedEmbeddingStore store = new MappedEmbeddingStore(directory, dimension, hnswConfig, quantization);
+        store.load();
+        return store;
+    }
+
+    private void load() throws IOException {
+        Files.createDirectories(directory);
+
+        readSegments();
+        readCompletions();
+
+        Path vectorsPath = directory.resolve(VECTORS_FILE);
+        vectorChannel = FileChannel.open(vectorsPath,
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+        long storedCount = 0;
+        boolean fresh = vectorChannel.size() < HEADER_BYTES;
+        map(Math.max(vectorChannel.size(), MIN_MAPPING_BYTES));
+
+        if (fresh) {
+            mapped.putInt(0, MAGIC);
+            mapped.putInt(4, VERSION);
+            mapped.putInt(8, dimension);
+            mapped.putLong(COUNT_OFFSET, 0L);
+        } else {
+            if (mapped.getInt(0) != MAGIC) {
+                throw new IOException("Not a knowledge vector file: " + vectorsPath);
+            }
+            if (mapped.getInt(8) != dimension) {
+                throw new IOException("Vector dimension mismatch in " + vectorsPath
+                        + ": expected " + dimension + ", found " + mapped.getInt(8));
+            }
+            storedCount = mapped.getLong(COUNT_OFFSET);
+        }
+
+        // Le compteur d'en-tête n'est mis à jour qu'après l'écriture du fichier annexe :
+        // en cas d'arrêt brutal, on garde la partie commune aux deux fichiers
+        int count = (int) Math.min(storedCount, segments.size());
+        if (count != segments.size() || count != storedCount) {
+            log.warn("Knowledge store was not closed cleanly, keeping {} consistent segments", count);
+            truncate(count);
+            rewriteSegmentsFile();
+            mapped.putLong(COUNT_OFFSET, count);
+        }
+
+        segmentWriter = Files.newBufferedWriter(directory.resolve(SEGMENTS_FILE), StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+
+        log.info("Knowledge store opened at {} ({} segments)", directory.toAbsolutePath(), count);
+
+        if (quantization.int8()) {
+            quantized = new QuantizedVectors(dimension);
+            for (int position = 0; position < count; position++) {
+                quantized.add(vector(position));
+            }
+        }
+        updateGraph();
+    }
+
+    private void readSegments() throws IOException {
+        Path segmentsPath = directory.resolve(SEGMENTS_FILE);
+        if (!Files.exists(segmentsPath)) {
+            return;
+        }
+        try (BufferedReader reader = Files.newBufferedReader(segmentsPath, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isBlank()) {
+                    continue;
+                }
+                StoredSegment stored;
+                try {
+                    stored = objectMapper.readValue(line, StoredSegment.class);
+                } catch (IOException e) {
+                    // Dernière ligne tronquée par un arrêt brutal
+                    log.warn("Ignoring unreadable segment line in {}: {}", segmentsPath, e.getMessage());
+                    break;
+                }
+                register(stored.id, stored.toSegment());
+            }
+        }
+    }
+
+    private void readCompletions() throws IOException {
+        Path completionsPath = directory.resolve(COMPLETIONS_FILE);
+        if (!Files.exists(completionsPath)) {
+            return;
+        }
+        try {
+            completions.putAll(objectMapper.readValue(completionsPath.toFile(),
+                    objectMapper.getTypeFactory().constructMapType(HashMap.class, String.class, Completion.class)));
+        } catch (IOException e) {
+            // Marqueurs illisibles : les sources seront simplement réindexées
+            log.warn("Ignoring unreadable completion markers in {}: {}", completionsPath, e.getMessage());
+        }
+    }
+
+    private void map(long capacity) throws IOException {
+        mapped = vectorChannel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+        mapped.order(ByteOrder.LITTLE_ENDIAN);
+        vectors = mapped.slice(HEADER_BYTES, (int) (capacity - HEADER_BYTES))
+                .order(ByteOrder.LITTLE_ENDIAN)
+                .asFloatBuffer();
+    }
+
+    private void ensureCapacity(int vectorCount) throws IOException {
+        long required = HEADER_BYTES + (long) vectorCount * dimension * Float.BYTES;
+        if (required <= mapped.capacity()) {
+            return;
+        }
+        long capacity = Math.max(required, (long) mapped.capacity() * 2);
+        if (capacity > Integer.MAX_VALUE) {
+            throw new IOException("Knowledge vector file exceeds 2 GB mapping limit");
+        }
+        map(capacity);
+    }
+
+    private void register(String id, TextSegment segment) {
+        positions.put(id, ids.size());
+        ids.add(id);
+        segments.add(segment);
+        categoryCounts.merge(categoryOf(segment), 1, Integer::sum);
+    }
+
+    /**
+     * Insère dans le graphe HNSW les positions qui n'y sont pas encore ; le graphe n'est créé
+     * qu'une fois le seuil de recherche exacte atteint. Appelé sous verrou d'écriture (ou au chargement).
+     */
+    private void updateGraph() {
+        if (graph == null) {
+            if (ids.size() < hnswConfig.exactSearchThreshold()) {
+                return;
+            }
+            graph = new HnswIndex(new HnswIndex.Vectors() {
+                @Override
+                public double similarity(float[] query, int node) {
+                    return dot(query, node);
+                }
+
+                @Override
+                public float[] vector(int node) {
+                    return MappedEmbeddingStore.this.vector(node);
+                }
+            }, hnswConfig);
+        }
+        int pending = ids.size() - graph.size();
+        if (pending <= 0) {
+            return;
+        }
+        long start = System.currentTimeMillis();
+        for (int position = graph.size(); position < ids.size(); position++) {
+            graph.add(position);
+        }
+        if (pending > 1000) {
+            log.info("HNSW graph updated with {} vectors in {} ms", pending, System.currentTimeMillis() - start);
+        }
+    }
+
+    private void truncate(int count) {
+        while (ids.size() > count) {
+            positions.remove(ids.remove(ids.size() - 1));
+            TextSegment segment = segments.remove(segments.size() - 1);
+            categoryCounts.computeIfPresent(categoryOf(segment), (category, n) -> n > 1 ? n - 1 : null);
+        }
+    }
+
+    private static String categoryOf(TextSegment segment) {
+        String category = segment == null ? null : segment.metadata().getString(CATEGORY_KEY);
+        return category == null ? NO_CATEGORY : category;
+    }
+
+    // ---------------------------------------------------------------- écriture
+
+    @Override
+    public String add(Embedding embedding) {
+        return add(embedding, null);
+    }
+
+    @Override
+    public void add(String id, Embedding embedding) {
+        addAll(List.of(id), List.of(embedding), Collections.singletonList(null));
+    }
+
+    @Override
+    public String add(Embedding embedding, TextSegment segment) {
+        return addAll(List.of(embedding), Collections.singletonList(segment)).get(0);
+    }
+
+    @Override
+    public List<String> addAll(List<Embedding> embeddings) {
+        return addAll(embeddings, Collections.nCopies(embeddings.size(), null));
+    }
+
+    @Override
+    public List<String> addAll(List<Embedding> embeddings, List<TextSegment> embedded) {
+        List<String> newIds = new ArrayList<>(embeddings.size());
+        for (int i = 0; i < embeddings.size(); i++) {
+            newIds.add(UUID.randomUUID().toString());
+        }
+        addAll(newIds, embeddings, embedded);
+        return newIds;
+    }
+
+    private void addAll(List<String> newIds, List<Embedding> embeddings, List<TextSegment> embedded) {
+        if (embeddings.size() != embedded.size()) {
+            throw new IllegalArgumentException("The list of embeddings and embedded must have the same size");
+        }
+        // Tout le lot est vérifié avant la moindre écriture : un rejet ne laisse ni vecteur ni segment orphelin
+        for (Embedding embedding : embeddings) {
+            if (embedding.vector().length != dimension) {
+                throw new IllegalArgumentException("Expected embedding of dimension " + dimension
+                        + " but got " + embedding.vector().length);
+            }
+        }
+        lock.writeLock().lock();
+        try {
+            int start = ids.size();
+            ensureCapacity(start + embeddings.size());
+
+            for (int i = 0; i < embeddings.size(); i++) {
+                writeVector(start + i, embeddings.get(i).vector());
+                TextSegment segment = embedded.get(i);
+                segmentWriter.write(objectMapper.writeValueAsString(StoredSegment.from(newIds.get(i), segment)));
+                segmentWriter.newLine();
+                register(newIds.get(i), segment);
+            }
+            segmentWriter.flush();
+            mapped.putLong(COUNT_OFFSET, ids.size());
+            updateGraph();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to append to knowledge store", e);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void writeVector(int position, float[] vector) {
+        float[] normalizedVector = normalized(vector);
+        vectors.put(position * dimension, normalizedVector);
+        if (quantized != null) {
+            quantized.add(normalizedVector);
+        }
+    }
+
+    // ---------------------------------------------------------------- suppression
+
+    @Override
+    public void remove(String id) {
+        removeAll(List.of(id));
+    }
+
+    @Override
+    public void removeAll(Collection<String> idsToRemove) {
+        Set<String> removed = new HashSet<>(idsToRemove);
+        // Prédicat évalué sous le verrou d'écriture du compactage : les positions ne peuvent pas changer entre-temps
+        compact(position -> !removed.contains(ids.get(position)));
+    }
+
+    @Override
+    public void removeAll(Filter filter) {
+        compact(position -> {
+            TextSegment segment = segments.get(position);
+            return segment == null || !filter.test(segment.metadata());
+        });
+    }
+
+    @Override
+    public void removeAll() {
+        compact(position -> false);
+    }
+
+    /**
+     * Compactage en place : les vecteurs conservés sont recopiés vers le début du fichier mappé
+     * (pas de remplacement de fichier, qui échoue sous Windows tant que le mapping est actif).
+     */
+    private void compact(IntPredicate keep) {
+        lock.writeLock().lock();
+        try {
+            List<String> keptIds = new ArrayList<>();
+            List<TextSegment> keptSegments = new ArrayList<>();
+            int[] newPositions = new int[ids.size()];
+            float[] buffer = new float[dimension];
+            int write = 0;
+            for (int read = 0; read < ids.size(); read++) {
+                if (!keep.test(read)) {
+                    newPositions[read] = -1;
+                    continue;
+                }
+                newPositions[read] = write;
+                if (write != read) {
+                    vectors.get(read * dimension, buffer);
+                    vectors.put(write * dimension, buffer);
+                }
+                keptIds.add(ids.get(read));
+                keptSegments.add(segments.get(read));
+                write++;
+            }
+            if (write == ids.size()) {
+                return;
+            }
+
+            if (quantized != null) {
+                quantized.compact(newPositions);
+            }
+
+            int removed = ids.size() - write;
+            ids.clear();
+            segments.clear();
+            positions.clear();
+            categoryCounts.clear();
+            for (int i = 0; i < keptIds.size(); i++) {
+                register(keptIds.get(i), keptSegments.get(i));
+            }
+
+            segmentWriter.close();
+            rewriteSegmentsFile();
+            segmentWriter = Files.newBufferedWriter(directory.resolve(SEGMENTS_FILE), StandardCharsets.UTF_8,
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            mapped.putLong(COUNT_OFFSET, ids.size());
+
+            // Les positions ont changé : le graphe est renuméroté, ou reconstruit si une grande
+            // partie du corpus a disparu (les listes de voisins seraient trop appauvries)
+            if (graph != null) {
+                if (removed * 4 > removed + ids.size()) {
+                    graph = null;
+                } else {
+                    graph.compact(newPositions);
+                }
+            }
+            updateGraph();
+
+            log.info("Removed {} segments from knowledge store ({} remaining)", removed, ids.size());
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to compact knowledge store", e);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void rewriteSegmentsFile() throws IOException {
+        try (BufferedWriter writer = Files.newBufferedWriter(directory.resolve(SEGMENTS_FILE), StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            for (int i = 0; i < ids.size(); i++) {
+                writer.write(objectMapper.writeValueAsString(StoredSegment.from(ids.get(i), segments.get(i))));
+                writer.newLine();
+            }
+        }
+    }
+
+    // ---------------------------------------------------------------- recherche
+
+    @Override
+    public EmbeddingSearchResult<TextSegment> search(EmbeddingSearchRequest request) {
+        float[] query = normalized(request.queryEmbedding().vector());
+        Filter filter = request.filter();
+
+        lock.readLock().lock();
+        try {
+            List<ScoredPosition> hits = graph != null && filter == null
+                    ? approximateSearch(query, request.maxResults(), request.minScore())
+                    : exactSearch(query, filter, request.maxResults(), request.minScore());
+
+            List<EmbeddingMatch<TextSegment>> matches = new ArrayList<>(hits.size());
+            for (ScoredPosition hit : hits) {
+                matches.add(new EmbeddingMatch<>(hit.score, ids.get(hit.position),
+                        new Embedding(vector(hit.position)), segments.get(hit.position)));
+            }
+            return new EmbeddingSearchResult<>(matches);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Parcours complet ; résultats triés par score décroissant
+     */
+    private List<ScoredPosition> exactSearch(float[] query, Filter filter, int maxResults, double minScore) {
+        if (quantized != null) {
+            return quantizedSearch(query, filter, maxResults, minScore);
+        }
+        PriorityQueue<ScoredPosition> top = new PriorityQueue<>();
+        int count = ids.size();
+
+        for (int position = 0; position < count; position++) {
+            if (filter != null) {
+                TextSegment segment = segments.get(position);
+                if (segment == null || !filter.test(segment.metadata())) {
+                    continue;
+                }
+            }
+            double score = RelevanceScore.fromCosineSimilarity(dot(query, position));
+            if (score < minScore) {
+                continue;
+            }
+            if (top.size() < maxResults) {
+                top.add(new ScoredPosition(position, score));
+            } else if (score > top.peek().score) {
+                top.poll();
+                top.add(new ScoredPosition(position, score));
+            }
+        }
+
+        List<ScoredPosition> hits = new ArrayList<>(top);
+        hits.sort(Collections.reverseOrder());
+        return hits;
+    }
+
+    /**
+     * Parcours des codes int8 pour sélectionner maxResults * rescoreMultiplier candidats,
+     * puis re-classement de ces candidats avec les vecteurs float32 du fichier mappé
+     */
+    private List<ScoredPosition> quantizedSearch(float[] query, Filter filter, int maxResults, double minScore) {
+        byte[] queryCodes = new byte[dimension];
+        float queryScale = QuantizedVectors.quantize(query, queryCodes, 0);
+        int candidates = maxResults * Math.max(1, quantization.rescoreMultiplier());
+
+        PriorityQueue<ScoredPosition> approximate = new PriorityQueue<>();
+        int count = ids.size();
+        for (int position = 0; position < count; position++) {
+            if (filter != null) {
+                TextSegment segment = segments.get(position);
+                if (segment == null || !filter.test(segment.metadata())) {
+                    continue;
+                }
+            }
+            float similarity = quantized.dot(scorer, queryCodes, queryScale, position);
+            if (approximate.size() < candidates) {
+                approximate.add(new ScoredPosition(position, similarity));
+            } else if (similarity > approximate.peek().score) {
+                approximate.poll();
+                approximate.add(new ScoredPosition(position, similarity));
+            }
+        }
+
+        List<ScoredPosition> hits = new ArrayList<>(approximate.size());
+        for (ScoredPosition candidate : approximate) {
+            double score = RelevanceScore.fromCosineSimilarity(dot(query, candidate.position));
+            if (score >= minScore) {
+                hits.add(new ScoredPosition(candidate.position, score));
+            }
+        }
+        hits.sort(Collections.reverseOrder());
+        return hits.size() > maxResults ? new ArrayList<>(hits.subList(0, maxResults)) : hits;
+    }
+
+    private List<ScoredPosition> approximateSearch(float[] query, int maxResults, double minScore) {
+        List<ScoredPosition> hits = new ArrayList<>(maxResults);
+        for (HnswIndex.Neighbor neighbor : graph.search(query, maxResults)) {
+            double score = RelevanceScore.fromCosineSimilarity(neighbor.similarity());
+            if (score >= minScore) {
+                hits.add(new ScoredPosition(neighbor.node(), score));
+            }
+        }
+        return hits;
+    }
+
+    private double dot(float[] query, int position) {
+        // Copie en bloc dans un tampon du tas, puis produit scalaire (SIMD si disponible)
+        float[] candidate = SCRATCH.get();
+        if (candidate.length != dimension) {
+            candidate = new float[dimension];
+            SCRATCH.set(candidate);
+        }
+        vectors.get(position * dimension, candidate, 0, dimension);
+        return scorer.dot(query, candidate, dimension);
+    }
+
+    private float[] vector(int position) {
+        float[] vector = new float[dimension];
+        vectors.get(position * dimension, vector);
+        return vector;
+    }
+
+    private static float[] normalized(float[] vector) {
+        double sum = 0;
+        for (float v : vector) {
+            sum += v * v;
+        }
+        float scale = sum > 0 ? (float) (1.0 / Math.sqrt(sum)) : 0f;
+        float[] result = new float[vector.length];
+        for (int j = 0; j < vector.length; j++) {
+            result[j] = vector[j] * scale;
+        }
+        return result;
+    }
+
+    // ---------------------------------------------------------------- introspection
+
+    /**
+     * Nombre de segments indexés
+     */
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return ids.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Indique si au moins un segment satisfait le filtre (ne lit que les métadonnées)
+     */
+    public boolean contains(Filter filter) {
+        lock.readLock().lock();
+        try {
+            for (TextSegment segment : segments) {
+                if (segment != null && filter.test(segment.metadata())) {
+                    return true;
+                }
+            }
+            return false;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Nombre de segments qui satisfont le filtre (ne lit que les métadonnées)
+     */
+    public int count(Filter filter) {
+        lock.readLock().lock();
+        try {
+            int count = 0;
+            for (TextSegment segment : segments) {
+                if (segment != null && filter.test(segment.metadata())) {
+                    count++;
+                }
+            }
+            return count;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Enregistre qu'une source a été entièrement insérée, après l'insertion de son dernier lot.
+     * Le fichier des marqueurs est remplacé d'un bloc : un arrêt brutal laisse l'ancienne version.
+     */
+    public void markComplete(String source, String contentHash, int segmentCount) {
+        lock.writeLock().lock();
+        try {
+            completions.put(source, new Completion(contentHash, segmentCount));
+            Path temp = directory.resolve(COMPLETIONS_FILE + ".tmp");
+            objectMapper.writeValue(temp.toFile(), completions);
+            Files.move(temp, directory.resolve(COMPLETIONS_FILE),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to write completion markers", e);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Dernier marqueur d'ingestion complète de la source, null si elle n'a jamais été terminée
+     */
+    public Completion completion(String source) {
+        lock.readLock().lock();
+        try {
+            return completions.get(source);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Parcourt les segments stockés (identifiant, segment), par exemple pour reconstruire un index annexe
+     */
+    public void forEachSegment(BiConsumer<String, TextSegment> action) {
+        lock.readLock().lock();
+        try {
+            for (int i = 0; i < ids.size(); i++) {
+                action.accept(ids.get(i), segments.get(i));
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Nombre de segments par catégorie (métadonnée {@value #CATEGORY_KEY})
+     */
+    public Map<String, Integer> categoryCounts() {
+        lock.readLock().lock();
+        try {
+            return new HashMap<>(categoryCounts);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Octets occupés par les vecteurs dans le fichier mappé (en-tête compris)
+     */
+    public long vectorBytes() {
+        return HEADER_BYTES + (long) size() * dimension * Float.BYTES;
+    }
+
+    /**
+     * Taille actuelle du mapping (capacité pré-allouée du fichier de vecteurs)
+     */
+    public long mappedBytes() {
+        lock.readLock().lock();
+        try {
+            return mapped.capacity();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Taille du fichier annexe des segments
+     */
+    public long segmentsFileBytes() {
+        try {
+            return Files.size(directory.resolve(SEGMENTS_FILE));
+        } catch (IOException e) {
+            return 0L;
+        }
+    }
+
+    /**
+     * Mémoire occupée par la copie int8 (0 si la quantification est désactivée)
+     */
+    public long quantizedBytes() {
+        lock.readLock().lock();
+        try {
+            return quantized != null ? quantized.bytes() : 0L;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public String quantizationName() {
+        return quantization.int8() ? "int8" : "none";
+    }
+
+    public String scorerName() {
+        return scorer.name();
+    }
+
+    public int getDimension() {
+        return dimension;
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    @Override
+    public void close() {
+        lock.writeLock().lock();
+        try {
+            mapped.force();
+            segmentWriter.close();
+            vectorChannel.close();
+        } catch (IOException e) {
+            log.warn("Error closing knowledge store: {}", e.getMessage());
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private record ScoredPosition(int position, double score) implements Comparable<ScoredPosition> {
+        @Override
+        public int compareTo(ScoredPosition other) {
+            return Double.compare(score, other.score);
+        }
+    }
+
+    /**
+     * Ligne du fichier annexe : identifiant, texte et métadonnées d'un segment
+     */
+    static class StoredSegment {
+        public String id;
+        public String text;
+        public Map<String, Object> metadata;
+
+        static StoredSegment from(String id, TextSegment segment) {
+            StoredSegment stored = new StoredSegment();
+            stored.id = id;
+            if (segment != null) {
+                stored.text = segment.text();
+                stored.metadata = new LinkedHashMap<>(segment.metadata().toMap());
+            }
+            return stored;
+        }
+
+        TextSegment toSegment() {
+            if (text == null) {
+                return null;
+            }
+            return TextSegment.from(text, metadata == null ? new Metadata() : new Metadata(metadata));
+        }
+    }
+}
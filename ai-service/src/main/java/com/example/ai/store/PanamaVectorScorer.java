@@ -0,0 +1,70 @@
+package com.example.ai.store;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.ShortVector;
+import jdk.incubator.vector.Vector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Produits scalaires SIMD via l'API Vector du JDK (chargée uniquement par {@link VectorScorer#create()}).
+ *
+ * int8 : 8 octets sont élargis en shorts, multipliés, puis élargis en ints 256 bits pour l'accumulation
+ * (pas de débordement : 127 * 127 tient dans un short).
+ */
+final class PanamaVectorScorer implements VectorScorer {
+
+    private static final VectorSpecies<Float> FLOAT_SPECIES = FloatVector.SPECIES_PREFERRED;
+    private static final VectorSpecies<Byte> BYTE_SPECIES = ByteVector.SPECIES_64;
+    private static final VectorSpecies<Short> SHORT_SPECIES = ShortVector.SPECIES_128;
+    private static final VectorSpecies<Integer> INT_SPECIES = IntVector.SPECIES_256;
+
+    PanamaVectorScorer() {
+        if (FLOAT_SPECIES.vectorBitSize() < 128) {
+            throw new IllegalStateException("No usable SIMD width on this CPU");
+        }
+    }
+
+    @Override
+    public float dot(float[] a, float[] b, int length) {
+        FloatVector accumulator = FloatVector.zero(FLOAT_SPECIES);
+        int j = 0;
+        int bound = FLOAT_SPECIES.loopBound(length);
+        for (; j < bound; j += FLOAT_SPECIES.length()) {
+            FloatVector va = FloatVector.fromArray(FLOAT_SPECIES, a, j);
+            FloatVector vb = FloatVector.fromArray(FLOAT_SPECIES, b, j);
+            accumulator = va.fma(vb, accumulator);
+        }
+        float sum = accumulator.reduceLanes(VectorOperators.ADD);
+        for (; j < length; j++) {
+            sum += a[j] * b[j];
+        }
+        return sum;
+    }
+
+    @Override
+    public int dotInt8(byte[] a, int aOffset, byte[] b, int bOffset, int length) {
+        IntVector accumulator = IntVector.zero(INT_SPECIES);
+        int j = 0;
+        int bound = BYTE_SPECIES.loopBound(length);
+        for (; j < bound; j += BYTE_SPECIES.length()) {
+            ByteVector va = ByteVector.fromArray(BYTE_SPECIES, a, aOffset + j);
+            ByteVector vb = ByteVector.fromArray(BYTE_SPECIES, b, bOffset + j);
+            Vector<Short> product = va.convertShape(VectorOperators.B2S, SHORT_SPECIES, 0)
+                    .mul(vb.convertShape(VectorOperators.B2S, SHORT_SPECIES, 0));
+            accumulator = accumulator.add(product.convertShape(VectorOperators.S2I, INT_SPECIES, 0));
+        }
+        int sum = accumulator.reduceLanes(VectorOperators.ADD);
+        for (; j < length; j++) {
+            sum += a[aOffset + j] * b[bOffset + j];
+        }
+        return sum;
+    }
+
+    @Override
+    public String name() {
+        return "simd-" + FLOAT_SPECIES.vectorBitSize() + "bit";
+    }
+}
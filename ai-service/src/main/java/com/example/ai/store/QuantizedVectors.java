@@ -0,0 +1,85 @@
+package com.example.ai.store;
+
+import java.util.Arrays;
+
+/**
+ * Copie quantifiée int8 des vecteurs du store (un octet par composante + un facteur d'échelle par vecteur) :
+ * une recherche exhaustive parcourt 4 fois moins d'octets qu'en float32. Cette copie est tenue sur le tas
+ * en plus du fichier float32 mappé (nécessaire au re-classement) : elle accélère le parcours, elle ne réduit
+ * pas la mémoire occupée.
+ *
+ * Quantification symétrique par vecteur : code = round(v / échelle), échelle = max|v| / 127.
+ * Les scores obtenus sont approchés ; le store re-classe les meilleurs candidats en pleine précision.
+ */
+final class QuantizedVectors {
+
+    private final int dimension;
+    private byte[] codes = new byte[0];
+    private float[] scales = new float[0];
+    private int size;
+
+    QuantizedVectors(int dimension) {
+        this.dimension = dimension;
+    }
+
+    /**
+     * Quantifie un vecteur dans {@code out} à partir de {@code offset}
+     * @return le facteur d'échelle
+     */
+    static float quantize(float[] vector, byte[] out, int offset) {
+        float maxAbs = 0f;
+        for (float v : vector) {
+            maxAbs = Math.max(maxAbs, Math.abs(v));
+        }
+        float scale = maxAbs > 0 ? maxAbs / 127f : 1f;
+        float inverse = 1f / scale;
+        for (int j = 0; j < vector.length; j++) {
+            out[offset + j] = (byte) Math.round(vector[j] * inverse);
+        }
+        return scale;
+    }
+
+    void add(float[] vector) {
+        if ((size + 1) * dimension > codes.length) {
+            int capacity = Math.max(16, size + (size >> 1));
+            codes = Arrays.copyOf(codes, capacity * dimension);
+            scales = Arrays.copyOf(scales, capacity);
+        }
+        scales[size] = quantize(vector, codes, size * dimension);
+        size++;
+    }
+
+    /**
+     * Produit scalaire approché entre une requête quantifiée et le vecteur à la position donnée
+     */
+    float dot(VectorScorer scorer, byte[] queryCodes, float queryScale, int position) {
+        return queryScale * scales[position] * scorer.dotInt8(queryCodes, 0, codes, position * dimension, dimension);
+    }
+
+    /**
+     * Renumérotation après compactage : newPositions[ancien] = nouvelle position, ou -1 si supprimé
+     */
+    void compact(int[] newPositions) {
+        int kept = 0;
+        for (int old = 0; old < size; old++) {
+            int target = newPositions[old];
+            if (target < 0) {
+                continue;
+            }
+            if (target != old) {
+                System.arraycopy(codes, old * dimension, codes, target * dimension, dimension);
+                scales[target] = scales[old];
+            }
+            kept++;
+        }
+        size = kept;
+    }
+
+    int size() {
+        return size;
+    }
+
+    long bytes() {
+        return (long) codes.length + (long) scales.length * Float.BYTES;
+    }
+}
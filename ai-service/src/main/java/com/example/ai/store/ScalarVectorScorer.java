@@ -0,0 +1,38 @@
+package com.example.ai.store;
+
+/**
+ * Produits scalaires sans API Vector : boucles déroulées (float) et accumulation entière (int8),
+ * que le compilateur JIT sait vectoriser dans le cas entier.
+ */
+final class ScalarVectorScorer implements VectorScorer {
+
+    @Override
+    public float dot(float[] a, float[] b, int length) {
+        float s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+        int j = 0;
+        for (; j + 3 < length; j += 4) {
+            s0 += a[j] * b[j];
+            s1 += a[j + 1] * b[j + 1];
+            s2 += a[j + 2] * b[j + 2];
+            s3 += a[j + 3] * b[j + 3];
+        }
+        for (; j < length; j++) {
+            s0 += a[j] * b[j];
+        }
+        return (s0 + s1) + (s2 + s3);
+    }
+
+    @Override
+    public int dotInt8(byte[] a, int aOffset, byte[] b, int bOffset, int length) {
+        int sum = 0;
+        for (int j = 0; j < length; j++) {
+            sum += a[aOffset + j] * b[bOffset + j];
+        }
+        return sum;
+    }
+
+    @Override
+    public String name() {
+        return "scalar";
+    }
+}
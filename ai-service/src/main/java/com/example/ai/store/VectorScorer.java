@@ -0,0 +1,37 @@
+package com.example.ai.store;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Produits scalaires utilisés par le store : float32 (vecteurs pleine précision) et int8 (vecteurs quantifiés).
+ *
+ * L'implémentation SIMD repose sur l'API Vector du JDK (module incubateur jdk.incubator.vector) ;
+ * elle n'est chargée que si la JVM a été lancée avec {@code --add-modules jdk.incubator.vector},
+ * sinon on retombe sur des boucles scalaires.
+ */
+interface VectorScorer {
+
+    float dot(float[] a, float[] b, int length);
+
+    int dotInt8(byte[] a, int aOffset, byte[] b, int bOffset, int length);
+
+    String name();
+
+    static VectorScorer create() {
+        Logger log = LoggerFactory.getLogger(VectorScorer.class);
+        if (ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()) {
+            try {
+                VectorScorer scorer = (VectorScorer) Class.forName("com.example.ai.store.PanamaVectorScorer")
+                        .getDeclaredConstructor().newInstance();
+                log.info("Vector similarity scoring: {}", scorer.name());
+                return scorer;
+            } catch (ReflectiveOperationException | LinkageError | RuntimeException e) {
+                log.warn("Vector API unavailable, using scalar scoring: {}", e.toString());
+            }
+        } else {
+            log.info("Vector similarity scoring: scalar (start the JVM with --add-modules jdk.incubator.vector for SIMD)");
+        }
+        return new ScalarVectorScorer();
+    }
+}
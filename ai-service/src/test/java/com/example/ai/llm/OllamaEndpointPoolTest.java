@@ -0,0 +1,235 @@
+package com.example.ai.llm;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import dev.langchain4j.model.chat.ChatLanguageModel;
+import dev.langchain4j.model.ollama.OllamaChatModel;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * {@link OllamaEndpointPool} and {@link PooledChatLanguageModel} against stub Ollama servers answering /api/chat
+ * and /api/tags on localhost
+ */
+class OllamaEndpointPoolTest {
+
+    private final List<StubOllama> stubs = new ArrayList<>();
+    private final List<OllamaEndpointPool> pools = new ArrayList<>();
+
+    @AfterEach
+    void tearDown() {
+        pools.forEach(OllamaEndpointPool::close);
+        stubs.forEach(stub -> stub.server.stop(0));
+    }
+
+    @Test
+    void refusedEndpointIsRetriedOnAnother() throws Exception {
+        String refused = "http://localhost:" + unusedPort();
+        StubOllama stub = stub("from-stub", 0);
+        OllamaEndpointPool pool = pool(List.of(refused, stub.url), 2, 3, Duration.ofMinutes(1), Duration.ofHours(1));
+
+        // Both endpoints idle with no latency yet: the refused one, listed first, gets the call
+        String answer = model(pool).generate("hello");
+
+        assertThat(answer).isEqualTo("from-stub");
+        assertThat(stub.chats.get()).isEqualTo(1);
+        assertThat(failures(pool, refused)).isEqualTo(1);
+    }
+
+    @Test
+    void loadFavoursTheFasterEndpoint() throws Exception {
+        StubOllama slow = stub("slow", 200);
+        StubOllama fast = stub("fast", 0);
+        OllamaEndpointPool pool = pool(List.of(slow.url, fast.url), 2, 3, Duration.ofMinutes(1), Duration.ofHours(1));
+        ChatLanguageModel model = model(pool);
+
+        for (int i = 0; i < 20; i++) {
+            model.generate("hello");
+        }
+
+        assertThat(fast.chats.get()).isGreaterThanOrEqualTo(18);
+        assertThat(slow.chats.get()).isLessThanOrEqualTo(2);
+    }
+
+    @Test
+    void serverErrorsEjectAndHealthCheckReadmits() throws Exception {
+        StubOllama flaky = stub("flaky", 0);
+        StubOllama healthy = stub("healthy", 0);
+        flaky.chatStatus = 500;
+        Duration ejection = Duration.ofMillis(300);
+        OllamaEndpointPool pool = pool(List.of(flaky.url, healthy.url), 2, 2, ejection, Duration.ofMillis(50));
+        ChatLanguageModel model = model(pool);
+        OllamaEndpointPool.Endpoint flakyEndpoint = endpoint(pool, flaky.url);
+
+        for (int i = 0; i < 2; i++) {
+            assertThatThrownBy(() -> model.generate("hello")).hasMessageContaining("status code: 500");
+        }
+        long ejectedAt = System.nanoTime();
+        assertThat(flakyEndpoint.isHealthy()).isFalse();
+        assertThat(model.generate("hello")).isEqualTo("healthy");
+
+        flaky.chatStatus = 200;
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!flakyEndpoint.isHealthy() && System.nanoTime() < deadline) {
+            Thread.sleep(20);
+        }
+        assertThat(flakyEndpoint.isHealthy()).isTrue();
+        assertThat(System.nanoTime() - ejectedAt).isGreaterThanOrEqualTo(ejection.toNanos());
+    }
+
+    @Test
+    void clientErrorsDoNotEject() throws Exception {
+        StubOllama stub = stub("rejected", 0);
+        stub.chatStatus = 400;
+        OllamaEndpointPool pool = pool(List.of(stub.url), 2, 2, Duration.ofMinutes(1), Duration.ofHours(1));
+        ChatLanguageModel model = model(pool);
+
+        for (int i = 0; i < 3; i++) {
+            assertThatThrownBy(() -> model.generate("hello")).hasMessageContaining("status code: 400");
+        }
+
+        assertThat(endpoint(pool, stub.url).isHealthy()).isTrue();
+    }
+
+    @Test
+    void acquireWaitsWhileEveryEndpointIsFull() throws Exception {
+        StubOllama stub = stub("unused", 0);
+        OllamaEndpointPool pool = pool(List.of(stub.url), 1, 3, Duration.ofMinutes(1), Duration.ofHours(1));
+        OllamaEndpointPool.Endpoint held = pool.acquire(List.of());
+
+        assertThatThrownBy(() -> pool.acquire(List.of())).isInstanceOf(LlmOverloadedException.class);
+
+        CountDownLatch waiting = new CountDownLatch(1);
+        Thread releaser = new Thread(() -> {
+            try {
+                waiting.await();
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            pool.release(held, TimeUnit.MILLISECONDS.toNanos(10), null);
+        });
+        releaser.start();
+        waiting.countDown();
+        assertThat(pool.acquire(List.of())).isSameAs(held);
+        releaser.join();
+    }
+
+    @Test
+    void latencyAverageDecaysWithoutSamples() throws Exception {
+        StubOllama stub = stub("unused", 0);
+        OllamaEndpointPool pool = pool(List.of(stub.url), 1, 3, Duration.ofMinutes(1), Duration.ofHours(1));
+        OllamaEndpointPool.Endpoint endpoint = pool.acquire(List.of());
+        long latency = TimeUnit.SECONDS.toNanos(1);
+        pool.release(endpoint, latency, null);
+
+        Thread.sleep(100);
+
+        assertThat(endpoint.getLatencyEwmaNanos()).isLessThan(latency).isGreaterThan(latency * 0.9);
+    }
+
+    private OllamaEndpointPool pool(List<String> urls, int maxConcurrent, int maxFailures, Duration ejection,
+                                    Duration healthInterval) {
+        OllamaEndpointPool pool = new OllamaEndpointPool(urls, maxConcurrent, Duration.ofMillis(200), maxFailures,
+                ejection, healthInterval, new SimpleMeterRegistry());
+        pools.add(pool);
+        return pool;
+    }
+
+    private static ChatLanguageModel model(OllamaEndpointPool pool) {
+        Map<OllamaEndpointPool.Endpoint, ChatLanguageModel> models = new HashMap<>();
+        for (OllamaEndpointPool.Endpoint endpoint : pool.getEndpoints()) {
+            models.put(endpoint, OllamaChatModel.builder()
+                    .baseUrl(endpoint.getBaseUrl())
+                    .modelName("phi3")
+                    .timeout(Duration.ofSeconds(5))
+                    .maxRetries(1)
+                    .build());
+        }
+        return new PooledChatLanguageModel(pool, models);
+    }
+
+    private static OllamaEndpointPool.Endpoint endpoint(OllamaEndpointPool pool, String url) {
+        return pool.getEndpoints().stream().filter(e -> e.getBaseUrl().equals(url)).findFirst().orElseThrow();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static long failures(OllamaEndpointPool pool, String url) {
+        Map<String, Object> stats = (Map<String, Object>) pool.getStatistics().get(url);
+        return ((Number) stats.get("failures")).longValue();
+    }
+
+    private static int unusedPort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    private StubOllama stub(String answer, long delayMillis) throws IOException {
+        StubOllama stub = new StubOllama(answer, delayMillis);
+        stubs.add(stub);
+        return stub;
+    }
+
+    /**
+     * Minimal Ollama: /api/chat answers {@code answer} after {@code delayMillis} (or {@code chatStatus}),
+     * /api/tags always answers 200
+     */
+    private static final class StubOllama {
+        private final HttpServer server;
+        private final String url;
+        private final AtomicInteger chats = new AtomicInteger();
+        private volatile int chatStatus = 200;
+
+        private StubOllama(String answer, long delayMillis) throws IOException {
+            server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+            server.createContext("/api/chat", exchange -> {
+                exchange.getRequestBody().readAllBytes();
+                try {
+                    Thread.sleep(delayMillis);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                int status = chatStatus;
+                String body = status == 200
+                        ? "{\"model\":\"phi3\",\"message\":{\"role\":\"assistant\",\"content\":\"" + answer + "\"},"
+                        + "\"done\":true,\"prompt_eval_count\":1,\"eval_count\":1}"
+                        : "{\"error\":\"stub failure\"}";
+                if (status == 200) {
+                    chats.incrementAndGet();
+                }
+                respond(exchange, status, body);
+            });
+            server.createContext("/api/tags", exchange -> respond(exchange, 200, "{\"models\":[]}"));
+            server.start();
+            url = "http://localhost:" + server.getAddress().getPort();
+        }
+
+        private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+            byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().add("Content-Type", "application/json");
+            exchange.sendResponseHeaders(status, bytes.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(bytes);
+            }
+        }
+    }
+}
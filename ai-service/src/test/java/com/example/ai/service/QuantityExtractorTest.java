@@ -0,0 +1,44 @@
+package com.example.ai.service;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class QuantityExtractorTest {
+
+    @Test
+    void bottleWithItsCapacityCountsOnce() {
+        assertThat(millilitres("j'ai bu une bouteille d'eau de 1,5 l")).isEqualTo(1500);
+        assertThat(millilitres("une grande bouteille d'eau d'un litre")).isEqualTo(1000);
+        assertThat(millilitres("I drank a bottle of water of 750 ml")).isEqualTo(750);
+    }
+
+    @Test
+    void glassWithItsCapacityCountsOnce() {
+        assertThat(millilitres("un verre d'eau de 33 cl")).isEqualTo(330);
+        assertThat(millilitres("j'ai bu un verre d’eau de 20 cl")).isEqualTo(200);
+    }
+
+    @Test
+    void capacityIsMultipliedByTheContainerCount() {
+        assertThat(millilitres("deux bouteilles de 50 cl")).isEqualTo(1000);
+        assertThat(millilitres("3 verres d'eau de 200 ml")).isEqualTo(600);
+    }
+
+    @Test
+    void containersWithoutCapacityUseTheUsualOne() {
+        assertThat(millilitres("j'ai bu 2 verres d'eau")).isEqualTo(2 * QuantityExtractor.GLASS_ML);
+        assertThat(millilitres("une bouteille d'eau")).isEqualTo(QuantityExtractor.BOTTLE_ML);
+    }
+
+    @Test
+    void separateVolumesStillAddUp() {
+        assertThat(millilitres("500 ml le matin et 2 verres d'eau")).isEqualTo(1000);
+        assertThat(millilitres("un verre d'eau puis 500 ml")).isEqualTo(750);
+        assertThat(millilitres("1,5 l d'eau")).isEqualTo(1500);
+    }
+
+    private static int millilitres(String message) {
+        return QuantityExtractor.totalMillilitres(QuantityExtractor.extract(message));
+    }
+}
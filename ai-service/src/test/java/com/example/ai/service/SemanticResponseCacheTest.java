@@ -0,0 +1,85 @@
+package com.example.ai.service;
+
+import com.example.ai.llm.LlmCallContext;
+import com.example.ai.llm.LlmTask;
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.model.embedding.EmbeddingModel;
+import dev.langchain4j.model.embedding.onnx.allminilml6v2.AllMiniLmL6V2EmbeddingModel;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * {@link SemanticResponseCache} with the real MiniLM embeddings and the default threshold
+ */
+class SemanticResponseCacheTest {
+
+    private static final EmbeddingModel MINI_LM = new AllMiniLmL6V2EmbeddingModel();
+    private static final String CONTEXT = "{\"age\":40,\"diabetic\":false}";
+
+    private SemanticResponseCache cache;
+
+    @BeforeEach
+    void setUp() {
+        NutritionKnowledgeService knowledgeService = mock(NutritionKnowledgeService.class);
+        when(knowledgeService.embedQuestion(anyString()))
+                .thenAnswer(invocation -> embed(invocation.getArgument(0)));
+        cache = new SemanticResponseCache(knowledgeService, true, 0.97, 100, Duration.ofHours(1));
+    }
+
+    @Test
+    void rephrasedQuestionHits() {
+        store("Combien de calories dans une pomme ?", "Environ 52 kcal pour 100 g.");
+
+        assertThat(lookup("combien de calories dans une pomme")).isEqualTo("Environ 52 kcal pour 100 g.");
+    }
+
+    @Test
+    void differentFruitDoesNotHit() {
+        store("Combien de calories dans une pomme ?", "Environ 52 kcal pour 100 g.");
+
+        assertThat(lookup("Combien de calories dans une poire ?")).isNull();
+    }
+
+    @Test
+    void oppositeQuestionDoesNotHit() {
+        store("Is sugar good for me?", "In moderation, yes.");
+
+        assertThat(lookup("Is sugar bad for me?")).isNull();
+    }
+
+    @Test
+    void differentCookingDoesNotHit() {
+        store("poulet frit", "{\"calories\":320}");
+
+        assertThat(lookup("poulet grillé")).isNull();
+    }
+
+    @Test
+    void jsonAndExtractionCallsBypassTheCache() {
+        assertThat(LlmCallContext.jsonOutput(() -> cache.embed("Combien de calories dans une pomme ?"))).isNull();
+        assertThat(LlmCallContext.task(LlmTask.EXTRACTION, () -> cache.embed("poulet frit"))).isNull();
+        assertThat(cache.embed("poulet frit")).isNotNull();
+    }
+
+    private static float[] embed(String question) {
+        Embedding embedding = MINI_LM.embed(question).content();
+        embedding.normalize();
+        return embedding.vector();
+    }
+
+    private void store(String question, String response) {
+        cache.put("rag", CONTEXT, question, cache.embed(question), response);
+    }
+
+    private String lookup(String question) {
+        SemanticResponseCache.Hit hit = cache.lookup("rag", CONTEXT, question, cache.embed(question));
+        return hit == null ? null : hit.response();
+    }
+}
@@ -10,6 +10,17 @@ export interface QuickAnalysis {
   quickTip: string;
   carbsWarning?: string;
   success: boolean;
+  // Phi3 analysis runs in the background: poll getQuickAnalysisEnrichment(enrichmentJobId)
+  enrichmentJobId?: string;
+  enrichmentStatus?: 'PENDING' | 'COMPLETED' | 'FAILED';
+}
+
+export interface QuickAnalysisEnrichment {
+  jobId: string;
+  status: 'PENDING' | 'COMPLETED' | 'FAILED';
+  // AI fields to merge over the quick analysis (suggestedMeals, aiSummary, ...)
+  fields: { [key: string]: any };
+  success: boolean;
 }
 
 export interface SmartMealLog {
@@ -102,6 +113,13 @@ export class EnhancedAiService {
     );
   }
 
+  /**
+   * AI enrichment of a quick analysis, available once status is COMPLETED
+   */
+  getQuickAnalysisEnrichment(jobId: string): Observable<QuickAnalysisEnrichment> {
+    return this.http.get<QuickAnalysisEnrichment>(`${this.baseUrl}/quick-analyze/enrichment/${jobId}`);
+  }
+
   /**
    * Smart meal logging with AI estimation
    */